@@ -56,7 +56,7 @@ public class OkHttpPresenter extends Presenter<OKHttpActivity> {
 
         OKUtil.with(getContext())
                 .get("http://mobile.weather.com.cn/data/sk/101010100.html?_=1381891661455")
-                .execute(new OKUtil.JsonBack() {
+                .execute(new OKUtil.JsonBack(true) {
                     @Override
                     public void onSuccess(Object o, String json) {
                         ToastUtil.showShort(getContext(), json);
@@ -76,7 +76,7 @@ public class OkHttpPresenter extends Presenter<OKHttpActivity> {
                 .build())
                 .get("http://mobile.weather.com.cn/data/sk/101010100.html?_=1381891661455")
                 .put("yuanye", "123123")
-                .execute(new OKUtil.JsonBack() {
+                .execute(new OKUtil.JsonBack(true) {
                     @Override
                     public void onSuccess(Object o, String json) {
                         ToastUtil.showShort(getContext(), json);
@@ -94,16 +94,24 @@ public class OkHttpPresenter extends Presenter<OKHttpActivity> {
      * 显示缓存大小
      */
     public void showCacheSize() {
-        long size = OKUtil.getCacheSize();
-        ToastUtil.showShort(getContext(), size + "B");
+        OKUtil.getCacheSizeAsync(new OKUtil.CacheBack() {
+            @Override
+            public void onComplete(long size) {
+                ToastUtil.showShort(getContext(), size + "B");
+            }
+        });
     }
 
     /**
      * 删除缓存
      */
     public void delCache() {
-        OKUtil.delCache();
-        ToastUtil.showShort(getContext(), "删除成功");
+        OKUtil.delCacheAsync(new OKUtil.CacheBack() {
+            @Override
+            public void onComplete(long size) {
+                ToastUtil.showShort(getContext(), "删除成功");
+            }
+        });
     }
 
     /**
@@ -0,0 +1,24 @@
+package yuan.core.cache;
+
+import java.io.IOException;
+
+/**
+ * 描述：缓存数据与字节之间的转换，用于写入磁盘缓存
+ * <p>
+ * 常用实现见{@link CacheCodecs}
+ *
+ * @author yuanye
+ * @date 2019/8/22 9:40
+ */
+public interface CacheCodec<T> {
+
+    /**
+     * 数据转换为字节
+     */
+    byte[] encode(T value) throws IOException;
+
+    /**
+     * 字节转换为数据
+     */
+    T decode(byte[] data) throws IOException;
+}
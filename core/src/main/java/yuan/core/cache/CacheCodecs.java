@@ -0,0 +1,87 @@
+package yuan.core.cache;
+
+import android.os.Parcel;
+import android.os.Parcelable;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+
+/**
+ * 描述：常用的{@link CacheCodec}
+ * <p>
+ * 1、STRING：UTF-8编码的字符串
+ * 2、BYTES：原样保存
+ * 3、parcelable：通过Parcel序列化，Parcel的格式与系统版本相关，
+ * 系统或数据结构变化后需要修改DiskLruCache的appVersion使旧缓存失效
+ * <p>
+ * Gson实现见depends模块的GsonCodec
+ *
+ * @author yuanye
+ * @date 2019/8/22 9:52
+ */
+public final class CacheCodecs {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    public static final CacheCodec<String> STRING = new CacheCodec<String>() {
+        @Override
+        public byte[] encode(String value) {
+            return value.getBytes(UTF_8);
+        }
+
+        @Override
+        public String decode(byte[] data) {
+            return new String(data, UTF_8);
+        }
+    };
+
+    public static final CacheCodec<byte[]> BYTES = new CacheCodec<byte[]>() {
+        @Override
+        public byte[] encode(byte[] value) {
+            return value;
+        }
+
+        @Override
+        public byte[] decode(byte[] data) {
+            return data;
+        }
+    };
+
+    private CacheCodecs() {
+    }
+
+    /**
+     * Parcelable序列化
+     *
+     * @param creator 实体类的CREATOR
+     */
+    public static <T extends Parcelable> CacheCodec<T> parcelable(final Parcelable.Creator<T> creator) {
+        if (creator == null) throw new NullPointerException("creator == null");
+        return new CacheCodec<T>() {
+            @Override
+            public byte[] encode(T value) {
+                Parcel parcel = Parcel.obtain();
+                try {
+                    value.writeToParcel(parcel, 0);
+                    return parcel.marshall();
+                } finally {
+                    parcel.recycle();
+                }
+            }
+
+            @Override
+            public T decode(byte[] data) throws IOException {
+                Parcel parcel = Parcel.obtain();
+                try {
+                    parcel.unmarshall(data, 0, data.length);
+                    parcel.setDataPosition(0);
+                    return creator.createFromParcel(parcel);
+                } catch (RuntimeException e) {
+                    throw new IOException("parcel decode failed", e);
+                } finally {
+                    parcel.recycle();
+                }
+            }
+        };
+    }
+}
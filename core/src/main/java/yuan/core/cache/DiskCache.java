@@ -0,0 +1,201 @@
+package yuan.core.cache;
+
+import android.support.annotation.WorkerThread;
+import android.text.TextUtils;
+import android.util.Log;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.concurrent.TimeUnit;
+
+import yuan.core.tool.Codec;
+
+/**
+ * 描述：以{@link ICache}的方式使用{@link DiskLruCache}
+ * <p>
+ * 1、key经过MD5转换后作为文件名，可以包含任意字符
+ * 2、数据通过{@link CacheCodec}转换为字节，保存在每条缓存的第0个文件中，
+ * 因此DiskLruCache的valueCount必须为1
+ * 3、所有方法都会读写磁盘，不要在主线程调用；IO异常只记录日志，get返回null
+ * 4、支持单条数据设置有效时间，过期数据读取不到，由DiskLruCache在后台删除；
+ * {@link #getRecord}同时返回过期时间
+ *
+ * @author yuanye
+ * @date 2019/8/22 10:15
+ */
+public class DiskCache<T> implements ICache {
+
+    private static final String TAG = "DiskCache";
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final DiskLruCache cache;
+    private final CacheCodec<T> codec;
+
+    public DiskCache(DiskLruCache cache, CacheCodec<T> codec) {
+        if (cache.getValueCount() != 1) throw new IllegalArgumentException("valueCount != 1");
+        if (codec == null) throw new NullPointerException("codec == null");
+        this.cache = cache;
+        this.codec = codec;
+    }
+
+    public DiskLruCache getDiskLruCache() {
+        return cache;
+    }
+
+    @Override
+    @WorkerThread
+    public void put(String key, Object value) {
+        put(key, value, MemoryCache.NO_EXPIRE);
+    }
+
+    /**
+     * 添加缓存
+     *
+     * @param key   键
+     * @param value 值，为null时移除
+     * @param ttl   有效时间，单位：毫秒，{@link MemoryCache#NO_EXPIRE}为永不过期
+     */
+    @WorkerThread
+    @SuppressWarnings("unchecked")
+    public void put(String key, Object value, long ttl) {
+        if (TextUtils.isEmpty(key)) return;
+        if (value == null) {
+            remove(key);
+            return;
+        }
+        try {
+            write(key, codec.encode((T) value), ttl);
+        } catch (IOException e) {
+            Log.e(TAG, "DiskCache put Error:" + e.getMessage());
+        } catch (ClassCastException e) {
+            Log.e(TAG, "DiskCache put Error:" + e.getMessage());
+        }
+    }
+
+    @Override
+    @WorkerThread
+    public T get(String key) {
+        Record<T> record = getRecord(key);
+        return record == null ? null : record.value;
+    }
+
+    /**
+     * 获取缓存和过期时间，不存在或已过期时返回null
+     */
+    @WorkerThread
+    public Record<T> getRecord(String key) {
+        if (TextUtils.isEmpty(key)) return null;
+        try {
+            Record<byte[]> data = read(key);
+            return data == null ? null : new Record<>(codec.decode(data.value), data.expiresAt);
+        } catch (IOException e) {
+            Log.e(TAG, "DiskCache get Error:" + e.getMessage());
+            return null;
+        }
+    }
+
+    @Override
+    @WorkerThread
+    public void remove(String key) {
+        if (TextUtils.isEmpty(key)) return;
+        try {
+            cache.remove(diskKey(key));
+        } catch (IOException e) {
+            Log.e(TAG, "DiskCache remove Error:" + e.getMessage());
+        }
+    }
+
+    @Override
+    public boolean contains(String key) {
+        return !TextUtils.isEmpty(key) && !cache.isClosed() && cache.contains(diskKey(key));
+    }
+
+    /**
+     * 清空缓存，正在写入的数据不会被删除，写入完成后仍然可以读取
+     */
+    @Override
+    @WorkerThread
+    public void clear() {
+        try {
+            cache.evictAll();
+        } catch (IOException e) {
+            Log.e(TAG, "DiskCache clear Error:" + e.getMessage());
+        }
+    }
+
+    /**
+     * 读取原始字节和过期时间，不存在时返回null
+     */
+    Record<byte[]> read(String key) throws IOException {
+        DiskLruCache.Snapshot snapshot = cache.get(diskKey(key));
+        if (snapshot == null) return null;
+        try {
+            //直接从映射的文件复制到结果数组，不经过中间缓冲区
+            ByteBuffer buffer = snapshot.getBuffer(0);
+            byte[] data = new byte[buffer.remaining()];
+            buffer.get(data);
+            return new Record<>(data, snapshot.getExpiresAt());
+        } finally {
+            snapshot.close();
+        }
+    }
+
+    /**
+     * 写入原始字节，同一个key正在写入时放弃本次写入
+     *
+     * @param ttl 有效时间，单位：毫秒，{@link MemoryCache#NO_EXPIRE}为永不过期
+     * @return 是否写入成功
+     */
+    boolean write(String key, byte[] data, long ttl) throws IOException {
+        DiskLruCache.Editor editor = cache.edit(diskKey(key));
+        if (editor == null) return false;
+        OutputStream out = null;
+        try {
+            editor.setTimeToLive(ttl, TimeUnit.MILLISECONDS);
+            out = editor.newOutputStream(0);
+            out.write(data);
+            out.close();
+            out = null;
+            editor.commit();
+            return true;
+        } catch (IOException e) {
+            DiskLruCache.closeQuietly(out);
+            editor.abort();
+            throw e;
+        }
+    }
+
+    /**
+     * 转换为DiskLruCache可用的key
+     */
+    static String diskKey(String key) {
+        return Codec.MD5.getMessageDigest(key.getBytes(UTF_8));
+    }
+
+    /**
+     * 一条缓存数据
+     */
+    public static final class Record<V> {
+        public final V value;
+        /**
+         * 过期时间，单位：毫秒，与{@link System#currentTimeMillis()}一致，0为永不过期
+         */
+        public final long expiresAt;
+
+        Record(V value, long expiresAt) {
+            this.value = value;
+            this.expiresAt = expiresAt;
+        }
+
+        /**
+         * 剩余有效时间，单位：毫秒，永不过期时返回{@link MemoryCache#NO_EXPIRE}，已过期时返回-1
+         */
+        public long getTimeToLive() {
+            if (expiresAt == 0) return MemoryCache.NO_EXPIRE;
+            long ttl = expiresAt - System.currentTimeMillis();
+            return ttl > 0 ? ttl : -1;
+        }
+    }
+}
@@ -17,8 +17,12 @@
 package yuan.core.cache;
 
 import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
 import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.EOFException;
 import java.io.File;
 import java.io.FileInputStream;
@@ -29,23 +33,33 @@ import java.io.FilterOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
 import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.io.Reader;
 import java.io.StringWriter;
 import java.io.Writer;
-import java.lang.reflect.Array;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.charset.Charset;
 import java.util.ArrayList;
-import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.Iterator;
-import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 /**
  * *****************************************************************************
@@ -96,20 +110,51 @@ import java.util.concurrent.TimeUnit;
  * an error occurs while writing a cache value, the edit will fail silently.
  * Callers should handle other problems by catching {@code IOException} and
  * responding appropriately.
+ * <p/>
+ * <p>Concurrency: entries live in a concurrent map and each entry is its own
+ * lock, so reads, edits and removals of different keys run in parallel. A
+ * shared read lock is held by every operation; only journal rebuilds and
+ * {@link #close} take it exclusively. Journal lines are queued and written in
+ * batches by a dedicated thread, and LRU order is tracked with per-entry access
+ * stamps instead of an access-ordered map.
+ * <p/>
+ * <p>Expiry and eviction: an edit may give its entry an expiry with
+ * {@link Editor#setTimeToLive}. Expired entries read as missing and are
+ * deleted by the background thread before any live entry is evicted. Which
+ * live entries go first is decided by the {@link EvictionPolicy} passed to
+ * {@link #open}; the default is least recently used.
  */
 public final class DiskLruCache implements Closeable {
     static final String JOURNAL_FILE = "journal";
     static final String JOURNAL_FILE_TMP = "journal.tmp";
+    static final String INDEX_FILE = "journal.index";
+    static final String INDEX_FILE_TMP = "journal.index.tmp";
     static final String MAGIC = "libcore.io.DiskLruCache";
     static final String VERSION_1 = "1";
     static final long ANY_SEQUENCE_NUMBER = -1;
+    /**
+     * An editor that leaves the entry's expiry unchanged.
+     */
+    private static final long KEEP_EXPIRY = -1;
     private static final String CLEAN = "CLEAN";
     private static final String DIRTY = "DIRTY";
     private static final String REMOVE = "REMOVE";
     private static final String READ = "READ";
+    private static final int INDEX_MAGIC = 0x444c4349;
+    private static final int INDEX_VERSION = 2;
+    /**
+     * Marks the optional expiry token that ends a CLEAN line.
+     */
+    private static final char EXPIRY_PREFIX = 't';
 
     private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final Charset US_ASCII = Charset.forName("US-ASCII");
     private static final int IO_BUFFER_SIZE = 8 * 1024;
+    /**
+     * Values smaller than this are read into a heap buffer by
+     * {@link Snapshot#getBuffer}; mapping a file costs more than copying it.
+     */
+    static final int MAP_THRESHOLD = 16 * 1024;
 
     /*
      * This cache uses a journal file named "journal". A typical journal file
@@ -124,7 +169,7 @@ public final class DiskLruCache implements Closeable {
      *     CLEAN 335c4c6028171cfddfbaae1a9c313c52 3934 2342
      *     REMOVE 335c4c6028171cfddfbaae1a9c313c52
      *     DIRTY 1ab96a171faeeee38496d8b330771a7a
-     *     CLEAN 1ab96a171faeeee38496d8b330771a7a 1600 234
+     *     CLEAN 1ab96a171faeeee38496d8b330771a7a 1600 234 t1566788400000
      *     READ 335c4c6028171cfddfbaae1a9c313c52
      *     READ 3400330d1dfc7f3f7f4b8d4d803dfcf6
      *
@@ -141,7 +186,8 @@ public final class DiskLruCache implements Closeable {
      *     temporary files may need to be deleted.
      *   o CLEAN lines track a cache entry that has been successfully published
      *     and may be read. A publish line is followed by the lengths of each of
-     *     its values.
+     *     its values, and by "t" plus its expiry in epoch milliseconds if the
+     *     entry expires.
      *   o READ lines track accesses for LRU.
      *   o REMOVE lines track entries that have been deleted.
      *
@@ -149,44 +195,59 @@ public final class DiskLruCache implements Closeable {
      * occasionally be compacted by dropping redundant lines. A temporary file named
      * "journal.tmp" will be used during compaction; that file should be deleted if
      * it exists when the cache is opened.
+     *
+     * Each time the journal is rebuilt or the cache is closed, a binary index
+     * named "journal.index" is written next to it. The index holds every entry
+     * in LRU order plus the journal's length at that moment, so opening only
+     * parses the lines that were appended after it. The index is deleted before
+     * a journal is replaced; a missing or unreadable index falls back to a full
+     * replay.
      */
 
     private final File directory;
     private final File journalFile;
     private final File journalFileTmp;
+    private final File indexFile;
+    private final File indexFileTmp;
     private final int appVersion;
     private final long maxSize;
     private final int valueCount;
-    private long size = 0;
-    private Writer journalWriter;
-    private final LinkedHashMap<String, Entry> lruEntries
-            = new LinkedHashMap<String, Entry>(0, 0.75f, true);
-    private int redundantOpCount;
+    private final AtomicLong size = new AtomicLong();
+    private volatile JournalWriter journalWriter;
+    private volatile boolean closed;
+    private final ConcurrentHashMap<String, Entry> lruEntries = new ConcurrentHashMap<String, Entry>();
+    private final AtomicInteger redundantOpCount = new AtomicInteger();
+    private final EvictionPolicy evictionPolicy;
+    private final AtomicLong evictionCount = new AtomicLong();
+    private final AtomicLong evictedSize = new AtomicLong();
+    private final AtomicLong expiredCount = new AtomicLong();
+
+    /**
+     * Shared by every ordinary operation; taken exclusively only while the
+     * journal is rebuilt and while the cache is closed. Readers therefore
+     * never wait for each other or for another key's editor.
+     */
+    private final ReentrantReadWriteLock stateLock = new ReentrantReadWriteLock();
+
+    /**
+     * Source of access stamps. An entry's stamp is refreshed whenever it is
+     * read or published; the entry with the smallest stamp is least recently
+     * used.
+     */
+    private final AtomicLong accessClock = new AtomicLong();
 
     /**
      * To differentiate between old and current snapshots, each entry is given
      * a sequence number each time an edit is committed. A snapshot is stale if
      * its sequence number is not equal to its entry's sequence number.
      */
-    private long nextSequenceNumber = 0;
+    private final AtomicLong nextSequenceNumber = new AtomicLong();
 
-    /* From java.util.Arrays */
-    @SuppressWarnings("unchecked")
-    private static <T> T[] copyOfRange(T[] original, int start, int end) {
-        final int originalLength = original.length; // For exception priority compatibility.
-        if (start > end) {
-            throw new IllegalArgumentException();
-        }
-        if (start < 0 || start > originalLength) {
-            throw new ArrayIndexOutOfBoundsException();
-        }
-        final int resultLength = end - start;
-        final int copyLength = Math.min(resultLength, originalLength - start);
-        final T[] result = (T[]) Array
-                .newInstance(original.getClass().getComponentType(), resultLength);
-        System.arraycopy(original, start, result, 0, copyLength);
-        return result;
-    }
+    /**
+     * Released once the journal has been loaded; see {@link #openAsync}.
+     */
+    private final CountDownLatch loadLatch = new CountDownLatch(1);
+    private volatile IOException loadError;
 
     /**
      * Returns the remainder of 'reader' as a string, closing it when done.
@@ -267,34 +328,65 @@ public final class DiskLruCache implements Closeable {
     }
 
     /**
-     * This cache uses a single background thread to evict entries.
+     * This cache uses a single background thread to evict entries. Expired
+     * entries are only dropped there, never on the calling thread.
      */
     private final ExecutorService executorService = new ThreadPoolExecutor(0, 1,
             60L, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>());
+    /**
+     * True while a cleanup is queued but has not started, so a burst of
+     * expired reads submits one scan instead of one per read.
+     */
+    private final AtomicBoolean cleanupScheduled = new AtomicBoolean();
     private final Callable<Void> cleanupCallable = new Callable<Void>() {
         @Override
         public Void call() throws Exception {
-            synchronized (DiskLruCache.this) {
-                if (journalWriter == null) {
-                    return null; // closed
+            // cleared first, so changes made during this scan schedule another one
+            cleanupScheduled.set(false);
+            stateLock.readLock().lock();
+            try {
+                if (closed) {
+                    return null;
                 }
+                removeExpired();
                 trimToSize();
-                if (journalRebuildRequired()) {
-                    rebuildJournal();
-                    redundantOpCount = 0;
+            } finally {
+                stateLock.readLock().unlock();
+            }
+            if (journalRebuildRequired()) {
+                stateLock.writeLock().lock();
+                try {
+                    if (!closed && journalRebuildRequired()) {
+                        rebuildJournal();
+                    }
+                } finally {
+                    stateLock.writeLock().unlock();
                 }
             }
             return null;
         }
     };
 
-    private DiskLruCache(File directory, int appVersion, int valueCount, long maxSize) {
+    /**
+     * Queues {@link #cleanupCallable} unless it is already queued.
+     */
+    private void scheduleCleanup() {
+        if (cleanupScheduled.compareAndSet(false, true)) {
+            executorService.submit(cleanupCallable);
+        }
+    }
+
+    private DiskLruCache(File directory, int appVersion, int valueCount, long maxSize,
+                         EvictionPolicy evictionPolicy) {
         this.directory = directory;
         this.appVersion = appVersion;
         this.journalFile = new File(directory, JOURNAL_FILE);
         this.journalFileTmp = new File(directory, JOURNAL_FILE_TMP);
+        this.indexFile = new File(directory, INDEX_FILE);
+        this.indexFileTmp = new File(directory, INDEX_FILE_TMP);
         this.valueCount = valueCount;
         this.maxSize = maxSize;
+        this.evictionPolicy = evictionPolicy;
     }
 
     /**
@@ -309,73 +401,270 @@ public final class DiskLruCache implements Closeable {
      */
     public static DiskLruCache open(File directory, int appVersion, int valueCount, long maxSize)
             throws IOException {
+        return open(directory, appVersion, valueCount, maxSize, EvictionPolicies.LRU);
+    }
+
+    /**
+     * Opens the cache in {@code directory} and evicts entries in the order
+     * defined by {@code evictionPolicy} once it grows beyond {@code maxSize}.
+     *
+     * @see EvictionPolicies
+     */
+    public static DiskLruCache open(File directory, int appVersion, int valueCount, long maxSize,
+                                    EvictionPolicy evictionPolicy) throws IOException {
+        checkOpenArguments(valueCount, maxSize, evictionPolicy);
+        DiskLruCache cache = new DiskLruCache(directory, appVersion, valueCount, maxSize, evictionPolicy);
+        try {
+            cache.load();
+        } finally {
+            cache.loadLatch.countDown();
+        }
+        return cache;
+    }
+
+    private static void checkOpenArguments(int valueCount, long maxSize, EvictionPolicy evictionPolicy) {
         if (maxSize <= 0) {
             throw new IllegalArgumentException("maxSize <= 0");
         }
         if (valueCount <= 0) {
             throw new IllegalArgumentException("valueCount <= 0");
         }
+        if (evictionPolicy == null) {
+            throw new NullPointerException("evictionPolicy == null");
+        }
+    }
+
+    /**
+     * Opens the cache like {@link #open} but loads the journal on the cache's
+     * background thread and returns at once. Operations block until loading
+     * has finished, and {@link #contains} returns false meanwhile. If loading
+     * fails, every blocking operation throws the failure.
+     */
+    public static DiskLruCache openAsync(File directory, int appVersion, int valueCount, long maxSize) {
+        return openAsync(directory, appVersion, valueCount, maxSize, EvictionPolicies.LRU);
+    }
+
+    /**
+     * Opens the cache like {@link #open(File, int, int, long, EvictionPolicy)}
+     * but loads the journal in the background, see {@link #openAsync(File, int, int, long)}.
+     */
+    public static DiskLruCache openAsync(File directory, int appVersion, int valueCount, long maxSize,
+                                         EvictionPolicy evictionPolicy) {
+        checkOpenArguments(valueCount, maxSize, evictionPolicy);
+        final DiskLruCache cache = new DiskLruCache(directory, appVersion, valueCount, maxSize, evictionPolicy);
+        cache.executorService.submit(new Callable<Void>() {
+            @Override
+            public Void call() {
+                try {
+                    cache.load();
+                } catch (IOException e) {
+                    cache.loadError = e;
+                } finally {
+                    cache.loadLatch.countDown();
+                }
+                return null;
+            }
+        });
+        return cache;
+    }
 
+    /**
+     * Reads the existing journal, or creates a new empty cache if there is
+     * none or it is corrupt.
+     */
+    private void load() throws IOException {
         // prefer to pick up where we left off
-        DiskLruCache cache = new DiskLruCache(directory, appVersion, valueCount, maxSize);
-        if (cache.journalFile.exists()) {
+        if (journalFile.exists()) {
             try {
-                cache.readJournal();
-                cache.processJournal();
-                cache.journalWriter = new BufferedWriter(new FileWriter(cache.journalFile, true),
-                        IO_BUFFER_SIZE);
-                return cache;
+                boolean truncated = readJournal();
+                boolean hasExpired = processJournal();
+                if (truncated) {
+                    // never append after a torn line
+                    rebuildJournal();
+                } else {
+                    journalWriter = new JournalWriter(new BufferedWriter(
+                            new FileWriter(journalFile, true), IO_BUFFER_SIZE));
+                }
+                if (hasExpired) {
+                    scheduleCleanup();
+                }
+                return;
             } catch (IOException journalIsCorrupt) {
 //                SysTool.logW("DiskLruCache " + directory + " is corrupt: "
 //                        + journalIsCorrupt.getMessage() + ", removing");
-                cache.delete();
+                lruEntries.clear();
+                size.set(0);
+                deleteContents(directory);
             }
         }
 
         // create a new empty cache
         directory.mkdirs();
-        cache = new DiskLruCache(directory, appVersion, valueCount, maxSize);
-        cache.rebuildJournal();
-        return cache;
+        rebuildJournal();
     }
 
-    private void readJournal() throws IOException {
-        InputStream in = new BufferedInputStream(new FileInputStream(journalFile), IO_BUFFER_SIZE);
+    /**
+     * Blocks until the journal has been loaded.
+     *
+     * @throws IOException if loading failed
+     */
+    private void awaitLoaded() throws IOException {
+        if (loadLatch.getCount() > 0) {
+            try {
+                loadLatch.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("interrupted while loading cache");
+            }
+        }
+        if (loadError != null) {
+            throw new IOException("failed to load cache: " + loadError.getMessage(), loadError);
+        }
+    }
+
+    /**
+     * Returns true once the journal has been loaded, see {@link #openAsync}.
+     */
+    public boolean isLoaded() {
+        return loadLatch.getCount() == 0;
+    }
+
+    /**
+     * Loads the index if it is usable and replays the journal lines after it,
+     * otherwise replays the whole journal.
+     *
+     * @return true if the journal ends with an incomplete line
+     */
+    private boolean readJournal() throws IOException {
+        long offset = readIndex();
+        FileInputStream in = new FileInputStream(journalFile);
         try {
-            String magic = readAsciiLine(in);
-            String version = readAsciiLine(in);
-            String appVersionString = readAsciiLine(in);
-            String valueCountString = readAsciiLine(in);
-            String blank = readAsciiLine(in);
-            if (!MAGIC.equals(magic)
-                    || !VERSION_1.equals(version)
-                    || !Integer.toString(appVersion).equals(appVersionString)
-                    || !Integer.toString(valueCount).equals(valueCountString)
-                    || !"".equals(blank)) {
-                throw new IOException("unexpected journal header: ["
-                        + magic + ", " + version + ", " + valueCountString + ", " + blank + "]");
+            JournalReader reader = new JournalReader(in);
+            if (offset > 0) {
+                in.getChannel().position(offset);
+            } else {
+                String magic = reader.readLine();
+                String version = reader.readLine();
+                String appVersionString = reader.readLine();
+                String valueCountString = reader.readLine();
+                String blank = reader.readLine();
+                if (!MAGIC.equals(magic)
+                        || !VERSION_1.equals(version)
+                        || !Integer.toString(appVersion).equals(appVersionString)
+                        || !Integer.toString(valueCount).equals(valueCountString)
+                        || !"".equals(blank)) {
+                    throw new IOException("unexpected journal header: ["
+                            + magic + ", " + version + ", " + valueCountString + ", " + blank + "]");
+                }
             }
 
-            while (true) {
-                try {
-                    readJournalLine(readAsciiLine(in));
-                } catch (EOFException endOfJournal) {
-                    break;
+            String line;
+            while ((line = reader.readLine()) != null) {
+                readJournalLine(line);
+            }
+            return reader.isTruncated();
+        } finally {
+            closeQuietly(in);
+        }
+    }
+
+    /**
+     * Loads the entries stored in the index.
+     *
+     * @return the journal offset the index was written at, or -1 if there is
+     * no usable index and the whole journal must be replayed.
+     */
+    private long readIndex() {
+        if (!indexFile.exists()) {
+            return -1;
+        }
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile), IO_BUFFER_SIZE));
+            if (in.readInt() != INDEX_MAGIC
+                    || in.readInt() != INDEX_VERSION
+                    || in.readInt() != appVersion
+                    || in.readInt() != valueCount) {
+                return -1;
+            }
+            long offset = in.readLong();
+            if (offset <= 0 || offset > journalFile.length()) {
+                return -1;
+            }
+            int count = in.readInt();
+            // fill a separate map so a damaged index leaves nothing behind
+            Map<String, Entry> entries = new HashMap<String, Entry>(Math.max(count * 4 / 3 + 1, 16));
+            List<Entry> ordered = new ArrayList<Entry>(count);
+            for (int i = 0; i < count; i++) {
+                Entry entry = new Entry(in.readUTF());
+                if (in.readBoolean()) {
+                    entry.currentEditor = new Editor(entry);
+                } else {
+                    entry.readable = true;
                 }
+                for (int t = 0; t < valueCount; t++) {
+                    entry.lengths[t] = in.readLong();
+                }
+                entry.expiresAt = in.readLong();
+                entries.put(entry.key, entry);
+                ordered.add(entry);
             }
+            for (Entry entry : ordered) {
+                entry.accessStamp = accessClock.incrementAndGet();
+                evictionPolicy.onAccess(entry);
+            }
+            lruEntries.putAll(entries);
+            return offset;
+        } catch (IOException e) {
+            return -1;
         } finally {
             closeQuietly(in);
         }
     }
 
+    /**
+     * Writes the index for a journal that is {@code journalLength} bytes long.
+     * Entries must be ordered from least to most recently used.
+     */
+    private void writeIndex(List<Entry> entries, long journalLength) throws IOException {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(indexFileTmp), IO_BUFFER_SIZE));
+        try {
+            out.writeInt(INDEX_MAGIC);
+            out.writeInt(INDEX_VERSION);
+            out.writeInt(appVersion);
+            out.writeInt(valueCount);
+            out.writeLong(journalLength);
+            out.writeInt(entries.size());
+            for (Entry entry : entries) {
+                out.writeUTF(entry.key);
+                out.writeBoolean(entry.currentEditor != null);
+                for (long length : entry.lengths) {
+                    out.writeLong(length);
+                }
+                out.writeLong(entry.expiresAt);
+            }
+        } finally {
+            out.close();
+        }
+        if (!indexFileTmp.renameTo(indexFile)) {
+            deleteIfExists(indexFileTmp);
+        }
+    }
+
+    /**
+     * Parses one journal line without regular expressions or intermediate arrays.
+     */
     private void readJournalLine(String line) throws IOException {
-        String[] parts = line.split(" ");
-        if (parts.length < 2) {
+        int firstSpace = line.indexOf(' ');
+        if (firstSpace == -1) {
             throw new IOException("unexpected journal line: " + line);
         }
 
-        String key = parts[1];
-        if (parts[0].equals(REMOVE) && parts.length == 2) {
+        int keyBegin = firstSpace + 1;
+        int secondSpace = line.indexOf(' ', keyBegin);
+        String key = secondSpace == -1 ? line.substring(keyBegin) : line.substring(keyBegin, secondSpace);
+        if (secondSpace == -1 && isCommand(line, firstSpace, REMOVE)) {
             lruEntries.remove(key);
             return;
         }
@@ -385,32 +674,45 @@ public final class DiskLruCache implements Closeable {
             entry = new Entry(key);
             lruEntries.put(key, entry);
         }
+        // every line naming a key counts as an access, replaying the LRU order
+        entry.accessStamp = accessClock.incrementAndGet();
 
-        if (parts[0].equals(CLEAN) && parts.length == 2 + valueCount) {
+        if (secondSpace != -1 && isCommand(line, firstSpace, CLEAN)) {
             entry.readable = true;
             entry.currentEditor = null;
-            entry.setLengths(copyOfRange(parts, 2, parts.length));
-        } else if (parts[0].equals(DIRTY) && parts.length == 2) {
+            entry.setLengths(line, secondSpace + 1);
+            evictionPolicy.onAccess(entry);
+        } else if (secondSpace == -1 && isCommand(line, firstSpace, DIRTY)) {
             entry.currentEditor = new Editor(entry);
-        } else if (parts[0].equals(READ) && parts.length == 2) {
-            // this work was already done by calling lruEntries.get()
+        } else if (secondSpace == -1 && isCommand(line, firstSpace, READ)) {
+            // the access stamp was already refreshed above
+            evictionPolicy.onAccess(entry);
         } else {
             throw new IOException("unexpected journal line: " + line);
         }
     }
 
+    private static boolean isCommand(String line, int length, String command) {
+        return length == command.length() && line.startsWith(command);
+    }
+
     /**
      * Computes the initial size and collects garbage as a part of opening the
      * cache. Dirty entries are assumed to be inconsistent and will be deleted.
+     *
+     * @return true if some entries have already expired
      */
-    private void processJournal() throws IOException {
+    private boolean processJournal() throws IOException {
         deleteIfExists(journalFileTmp);
+        boolean hasExpired = false;
+        long now = System.currentTimeMillis();
         for (Iterator<Entry> i = lruEntries.values().iterator(); i.hasNext(); ) {
             Entry entry = i.next();
             if (entry.currentEditor == null) {
                 for (int t = 0; t < valueCount; t++) {
-                    size += entry.lengths[t];
+                    size.addAndGet(entry.lengths[t]);
                 }
+                hasExpired |= entry.isExpired(now);
             } else {
                 entry.currentEditor = null;
                 for (int t = 0; t < valueCount; t++) {
@@ -420,39 +722,88 @@ public final class DiskLruCache implements Closeable {
                 i.remove();
             }
         }
+        /*
+         * DIRTY lines are written by the journal thread, so a crash can leave
+         * dirty files whose DIRTY line never reached the disk. Nothing else
+         * may live in this directory, so every leftover temp file is garbage.
+         */
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                if (file.getName().endsWith(".tmp")) {
+                    deleteIfExists(file);
+                }
+            }
+        }
+        return hasExpired;
     }
 
     /**
      * Creates a new journal that omits redundant information. This replaces the
-     * current journal if it exists.
+     * current journal if it exists. Callers other than {@link #open} must hold
+     * the write lock, so no entry changes while the journal is written.
      */
-    private synchronized void rebuildJournal() throws IOException {
-        if (journalWriter != null) {
-            journalWriter.close();
-        }
-
+    private void rebuildJournal() throws IOException {
+        // the index describes the journal about to be replaced
+        deleteIfExists(indexFile);
+        List<Entry> entries = entriesByAccess();
         Writer writer = new BufferedWriter(new FileWriter(journalFileTmp), IO_BUFFER_SIZE);
-        writer.write(MAGIC);
-        writer.write("\n");
-        writer.write(VERSION_1);
-        writer.write("\n");
-        writer.write(Integer.toString(appVersion));
-        writer.write("\n");
-        writer.write(Integer.toString(valueCount));
-        writer.write("\n");
-        writer.write("\n");
-
-        for (Entry entry : lruEntries.values()) {
-            if (entry.currentEditor != null) {
-                writer.write(DIRTY + ' ' + entry.key + '\n');
-            } else {
-                writer.write(CLEAN + ' ' + entry.key + entry.getLengths() + '\n');
+        try {
+            writer.write(MAGIC);
+            writer.write("\n");
+            writer.write(VERSION_1);
+            writer.write("\n");
+            writer.write(Integer.toString(appVersion));
+            writer.write("\n");
+            writer.write(Integer.toString(valueCount));
+            writer.write("\n");
+            writer.write("\n");
+
+            // least recently used first, so replaying restores the access order
+            for (Entry entry : entries) {
+                if (entry.currentEditor != null) {
+                    writer.write(DIRTY + ' ' + entry.key + '\n');
+                } else {
+                    writer.write(CLEAN + ' ' + entry.key + entry.getLengths() + entry.getExpiry() + '\n');
+                }
             }
+        } finally {
+            writer.close();
         }
 
-        writer.close();
+        // lines queued before the rebuild describe the old journal
+        JournalWriter current = journalWriter;
+        if (current != null) {
+            current.drain();
+        }
         journalFileTmp.renameTo(journalFile);
-        journalWriter = new BufferedWriter(new FileWriter(journalFile, true), IO_BUFFER_SIZE);
+        try {
+            writeIndex(entries, journalFile.length());
+        } catch (IOException e) {
+            // without an index the next open replays the whole journal
+            indexFileTmp.delete();
+        }
+        Writer newWriter = new BufferedWriter(new FileWriter(journalFile, true), IO_BUFFER_SIZE);
+        if (current != null) {
+            current.reset(newWriter);
+        } else {
+            journalWriter = new JournalWriter(newWriter);
+        }
+        redundantOpCount.set(0);
+    }
+
+    /**
+     * Returns a copy of the entries ordered from least to most recently used.
+     */
+    private List<Entry> entriesByAccess() {
+        List<Entry> entries = new ArrayList<Entry>(lruEntries.values());
+        Collections.sort(entries, new Comparator<Entry>() {
+            @Override
+            public int compare(Entry a, Entry b) {
+                return a.accessStamp < b.accessStamp ? -1 : (a.accessStamp == b.accessStamp ? 0 : 1);
+            }
+        });
+        return entries;
     }
 
     private static void deleteIfExists(File file) throws IOException {
@@ -472,41 +823,85 @@ public final class DiskLruCache implements Closeable {
      * Returns a snapshot of the entry named {@code key}, or null if it doesn't
      * exist is not currently readable. If a value is returned, it is moved to
      * the head of the LRU queue.
+     * <p>
+     * Reads of different keys run in parallel; a read only waits while the
+     * same entry is being published. An expired entry is reported as missing
+     * and left for the background thread to delete.
      */
-    public synchronized Snapshot get(String key) throws IOException {
-        checkNotClosed();
-        validateKey(key);
-        Entry entry = lruEntries.get(key);
-        if (entry == null) {
-            return null;
-        }
+    public Snapshot get(String key) throws IOException {
+        awaitLoaded();
+        stateLock.readLock().lock();
+        try {
+            checkNotClosed();
+            validateKey(key);
+            Entry entry = lruEntries.get(key);
+            if (entry == null) {
+                return null;
+            }
 
-        if (!entry.readable) {
-            return null;
-        }
+            FileInputStream[] ins = new FileInputStream[valueCount];
+            long sequenceNumber;
+            long[] lengths;
+            long expiresAt;
+            synchronized (entry) {
+                // a removed entry's clean file may already belong to a newer entry for the key
+                if (!entry.readable || entry.removed) {
+                    return null;
+                }
+                if (entry.isExpired(System.currentTimeMillis())) {
+                    scheduleCleanup();
+                    return null;
+                }
 
-        /*
-         * Open all streams eagerly to guarantee that we see a single published
-         * snapshot. If we opened streams lazily then the streams could come
-         * from different edits.
-         */
-        InputStream[] ins = new InputStream[valueCount];
-        try {
-            for (int i = 0; i < valueCount; i++) {
-                ins[i] = new FileInputStream(entry.getCleanFile(i));
+                /*
+                 * Open all streams eagerly to guarantee that we see a single published
+                 * snapshot. If we opened streams lazily then the streams could come
+                 * from different edits.
+                 */
+                try {
+                    for (int i = 0; i < valueCount; i++) {
+                        ins[i] = new FileInputStream(entry.getCleanFile(i));
+                    }
+                } catch (FileNotFoundException e) {
+                    // a file must have been deleted manually!
+                    for (InputStream in : ins) {
+                        closeQuietly(in);
+                    }
+                    return null;
+                }
+                sequenceNumber = entry.sequenceNumber;
+                lengths = entry.lengths.clone();
+                expiresAt = entry.expiresAt;
+                entry.accessStamp = accessClock.incrementAndGet();
+                evictionPolicy.onAccess(entry);
+                journalWriter.append(READ + ' ' + key + '\n');
             }
-        } catch (FileNotFoundException e) {
-            // a file must have been deleted manually!
-            return null;
-        }
 
-        redundantOpCount++;
-        journalWriter.append(READ + ' ' + key + '\n');
-        if (journalRebuildRequired()) {
-            executorService.submit(cleanupCallable);
+            redundantOpCount.incrementAndGet();
+            if (journalRebuildRequired()) {
+                scheduleCleanup();
+            }
+
+            return new Snapshot(key, sequenceNumber, ins, lengths, expiresAt);
+        } finally {
+            stateLock.readLock().unlock();
         }
+    }
 
-        return new Snapshot(key, entry.sequenceNumber, ins);
+    /**
+     * Returns true if an entry named {@code key} exists and is readable. Unlike
+     * {@link #get} this opens no files and does not change the LRU order.
+     * Expired entries are not contained. While the cache is still loading this
+     * returns false without blocking.
+     */
+    public boolean contains(String key) {
+        if (!isLoaded()) {
+            return false;
+        }
+        checkNotClosed();
+        validateKey(key);
+        Entry entry = lruEntries.get(key);
+        return entry != null && entry.readable && !entry.isExpired(System.currentTimeMillis());
     }
 
     /**
@@ -517,28 +912,52 @@ public final class DiskLruCache implements Closeable {
         return edit(key, ANY_SEQUENCE_NUMBER);
     }
 
-    private synchronized Editor edit(String key, long expectedSequenceNumber) throws IOException {
-        checkNotClosed();
-        validateKey(key);
-        Entry entry = lruEntries.get(key);
-        if (expectedSequenceNumber != ANY_SEQUENCE_NUMBER
-                && (entry == null || entry.sequenceNumber != expectedSequenceNumber)) {
-            return null; // snapshot is stale
-        }
-        if (entry == null) {
-            entry = new Entry(key);
-            lruEntries.put(key, entry);
-        } else if (entry.currentEditor != null) {
-            return null; // another edit is in progress
-        }
-
-        Editor editor = new Editor(entry);
-        entry.currentEditor = editor;
+    private Editor edit(String key, long expectedSequenceNumber) throws IOException {
+        awaitLoaded();
+        stateLock.readLock().lock();
+        try {
+            checkNotClosed();
+            validateKey(key);
+            while (true) {
+                Entry entry = lruEntries.get(key);
+                if (expectedSequenceNumber != ANY_SEQUENCE_NUMBER && entry == null) {
+                    return null; // snapshot is stale
+                }
+                if (entry == null) {
+                    entry = new Entry(key);
+                    Entry existing = lruEntries.putIfAbsent(key, entry);
+                    if (existing != null) {
+                        entry = existing;
+                    }
+                }
 
-        // flush the journal before creating files to prevent file leaks
-        journalWriter.write(DIRTY + ' ' + key + '\n');
-        journalWriter.flush();
-        return editor;
+                Editor editor;
+                synchronized (entry) {
+                    if (entry.removed) {
+                        continue; // lost a race with remove(), look the key up again
+                    }
+                    if (expectedSequenceNumber != ANY_SEQUENCE_NUMBER
+                            && entry.sequenceNumber != expectedSequenceNumber) {
+                        return null; // snapshot is stale
+                    }
+                    if (entry.currentEditor != null) {
+                        return null; // another edit is in progress
+                    }
+                    editor = new Editor(entry);
+                    entry.currentEditor = editor;
+
+                    /*
+                     * The DIRTY line is written by the journal thread instead of being
+                     * flushed here; temp files it fails to record are deleted by
+                     * processJournal on the next open.
+                     */
+                    journalWriter.append(DIRTY + ' ' + key + '\n');
+                }
+                return editor;
+            }
+        } finally {
+            stateLock.readLock().unlock();
+        }
     }
 
     /**
@@ -556,73 +975,95 @@ public final class DiskLruCache implements Closeable {
         return maxSize;
     }
 
+    /**
+     * Returns the number of values per cache entry.
+     */
+    public int getValueCount() {
+        return valueCount;
+    }
+
     /**
      * Returns the number of bytes currently being used to store the values in
      * this cache. This may be greater than the max size if a background
      * deletion is pending.
      */
-    public synchronized long size() {
-        return size;
+    public long size() {
+        return size.get();
     }
 
-    private synchronized void completeEdit(Editor editor, boolean success) throws IOException {
-        Entry entry = editor.entry;
-        if (entry.currentEditor != editor) {
-            throw new IllegalStateException();
-        }
+    private void completeEdit(Editor editor, boolean success) throws IOException {
+        stateLock.readLock().lock();
+        try {
+            Entry entry = editor.entry;
+            synchronized (entry) {
+                if (entry.currentEditor != editor) {
+                    throw new IllegalStateException();
+                }
 
-        // if this edit is creating the entry for the first time, every index must have a value
-        if (success && !entry.readable) {
-            for (int i = 0; i < valueCount; i++) {
-                if (!entry.getDirtyFile(i).exists()) {
-                    editor.abort();
-                    throw new IllegalStateException("edit didn't create file " + i);
+                // if this edit is creating the entry for the first time, every index must have a value
+                if (success && !entry.readable) {
+                    for (int i = 0; i < valueCount; i++) {
+                        if (!entry.getDirtyFile(i).exists()) {
+                            editor.abort();
+                            throw new IllegalStateException("edit didn't create file " + i);
+                        }
+                    }
                 }
-            }
-        }
 
-        for (int i = 0; i < valueCount; i++) {
-            File dirty = entry.getDirtyFile(i);
-            if (success) {
-                if (dirty.exists()) {
-                    File clean = entry.getCleanFile(i);
-                    dirty.renameTo(clean);
-                    long oldLength = entry.lengths[i];
-                    long newLength = clean.length();
-                    entry.lengths[i] = newLength;
-                    size = size - oldLength + newLength;
+                for (int i = 0; i < valueCount; i++) {
+                    File dirty = entry.getDirtyFile(i);
+                    if (success) {
+                        if (dirty.exists()) {
+                            File clean = entry.getCleanFile(i);
+                            dirty.renameTo(clean);
+                            long oldLength = entry.lengths[i];
+                            long newLength = clean.length();
+                            entry.lengths[i] = newLength;
+                            size.addAndGet(newLength - oldLength);
+                        }
+                    } else {
+                        deleteIfExists(dirty);
+                    }
                 }
-            } else {
-                deleteIfExists(dirty);
-            }
-        }
 
-        redundantOpCount++;
-        entry.currentEditor = null;
-        if (entry.readable | success) {
-            entry.readable = true;
-            journalWriter.write(CLEAN + ' ' + entry.key + entry.getLengths() + '\n');
-            if (success) {
-                entry.sequenceNumber = nextSequenceNumber++;
+                entry.currentEditor = null;
+                if (entry.readable | success) {
+                    entry.readable = true;
+                    if (success && editor.expiresAt != KEEP_EXPIRY) {
+                        entry.expiresAt = editor.expiresAt;
+                    }
+                    journalWriter.append(CLEAN + ' ' + entry.key + entry.getLengths() + entry.getExpiry() + '\n');
+                    if (success) {
+                        entry.sequenceNumber = nextSequenceNumber.getAndIncrement();
+                        entry.accessStamp = accessClock.incrementAndGet();
+                        evictionPolicy.onAccess(entry);
+                    }
+                } else {
+                    entry.removed = true;
+                    journalWriter.append(REMOVE + ' ' + entry.key + '\n');
+                    lruEntries.remove(entry.key, entry);
+                }
             }
-        } else {
-            lruEntries.remove(entry.key);
-            journalWriter.write(REMOVE + ' ' + entry.key + '\n');
-        }
 
-        if (size > maxSize || journalRebuildRequired()) {
-            executorService.submit(cleanupCallable);
+            redundantOpCount.incrementAndGet();
+            if (size.get() > maxSize || journalRebuildRequired()) {
+                scheduleCleanup();
+            }
+        } finally {
+            stateLock.readLock().unlock();
         }
     }
 
     /**
      * We only rebuild the journal when it will halve the size of the journal
-     * and eliminate at least 2000 ops.
+     * and eliminate at least 2000 ops, or when appending to it has failed.
      */
     private boolean journalRebuildRequired() {
         final int REDUNDANT_OP_COMPACT_THRESHOLD = 2000;
-        return redundantOpCount >= REDUNDANT_OP_COMPACT_THRESHOLD
-                && redundantOpCount >= lruEntries.size();
+        int redundant = redundantOpCount.get();
+        JournalWriter writer = journalWriter;
+        return (writer != null && writer.hasErrors())
+                || (redundant >= REDUNDANT_OP_COMPACT_THRESHOLD && redundant >= lruEntries.size());
     }
 
     /**
@@ -631,29 +1072,50 @@ public final class DiskLruCache implements Closeable {
      *
      * @return true if an entry was removed.
      */
-    public synchronized boolean remove(String key) throws IOException {
-        checkNotClosed();
-        validateKey(key);
-        Entry entry = lruEntries.get(key);
-        if (entry == null || entry.currentEditor != null) {
-            return false;
+    public boolean remove(String key) throws IOException {
+        awaitLoaded();
+        stateLock.readLock().lock();
+        try {
+            checkNotClosed();
+            validateKey(key);
+            Entry entry = lruEntries.get(key);
+            return entry != null && removeEntry(entry);
+        } finally {
+            stateLock.readLock().unlock();
         }
+    }
 
-        for (int i = 0; i < valueCount; i++) {
-            File file = entry.getCleanFile(i);
-            if (!file.delete()) {
-                throw new IOException("failed to delete " + file);
+    /**
+     * Drops {@code entry} unless it is being edited, has never been published
+     * or was already dropped. The caller must hold the read lock.
+     */
+    private boolean removeEntry(Entry entry) throws IOException {
+        synchronized (entry) {
+            if (entry.currentEditor != null || !entry.readable || entry.removed) {
+                return false;
+            }
+
+            for (int i = 0; i < valueCount; i++) {
+                File file = entry.getCleanFile(i);
+                if (!file.delete()) {
+                    throw new IOException("failed to delete " + file);
+                }
+                size.addAndGet(-entry.lengths[i]);
+                entry.lengths[i] = 0;
             }
-            size -= entry.lengths[i];
-            entry.lengths[i] = 0;
+            entry.removed = true;
+            /*
+             * Appended under the entry lock so it cannot overtake this entry's CLEAN
+             * line, and before unmapping so it cannot follow a newer entry's lines.
+             */
+            journalWriter.append(REMOVE + ' ' + entry.key + '\n');
+            lruEntries.remove(entry.key, entry);
         }
 
-        redundantOpCount++;
-        journalWriter.append(REMOVE + ' ' + key + '\n');
-        lruEntries.remove(key);
+        redundantOpCount.incrementAndGet();
 
         if (journalRebuildRequired()) {
-            executorService.submit(cleanupCallable);
+            scheduleCleanup();
         }
 
         return true;
@@ -663,11 +1125,11 @@ public final class DiskLruCache implements Closeable {
      * Returns true if this cache has been closed.
      */
     public boolean isClosed() {
-        return journalWriter == null;
+        return closed || (isLoaded() && journalWriter == null);
     }
 
     private void checkNotClosed() {
-        if (journalWriter == null) {
+        if (isClosed()) {
             throw new IllegalStateException("cache is closed");
         }
     }
@@ -675,34 +1137,190 @@ public final class DiskLruCache implements Closeable {
     /**
      * Force buffered operations to the filesystem.
      */
-    public synchronized void flush() throws IOException {
-        checkNotClosed();
-        trimToSize();
-        journalWriter.flush();
+    public void flush() throws IOException {
+        awaitLoaded();
+        stateLock.readLock().lock();
+        try {
+            checkNotClosed();
+            trimToSize();
+            journalWriter.flush();
+        } finally {
+            stateLock.readLock().unlock();
+        }
     }
 
     /**
      * Closes this cache. Stored values will remain on the filesystem.
      */
-    public synchronized void close() throws IOException {
-        if (journalWriter == null) {
-            return; // already closed
+    public void close() throws IOException {
+        try {
+            awaitLoaded();
+        } catch (IOException loadFailed) {
+            // nothing was opened, isClosed() below is already true
         }
-        for (Entry entry : new ArrayList<Entry>(lruEntries.values())) {
-            if (entry.currentEditor != null) {
-                entry.currentEditor.abort();
+        stateLock.writeLock().lock();
+        try {
+            if (isClosed()) {
+                return; // already closed
             }
+            for (Entry entry : new ArrayList<Entry>(lruEntries.values())) {
+                Editor editor;
+                synchronized (entry) {
+                    editor = entry.currentEditor;
+                }
+                if (editor != null) {
+                    editor.abort();
+                }
+            }
+            trimToSize();
+            closed = true;
+            journalWriter.close();
+            // the next open loads the index instead of replaying the lines appended since the last rebuild
+            if (!journalWriter.hasErrors()) {
+                try {
+                    writeIndex(entriesByAccess(), journalFile.length());
+                } catch (IOException e) {
+                    indexFileTmp.delete();
+                }
+            }
+        } finally {
+            stateLock.writeLock().unlock();
         }
-        trimToSize();
-        journalWriter.close();
-        journalWriter = null;
+        executorService.shutdown();
     }
 
+    /**
+     * Evicts entries in the order chosen by the eviction policy until the
+     * cache fits in {@link #maxSize}. Expired entries are dropped first, so
+     * no live entry is evicted while they still take up space. The policy
+     * compares copies taken before sorting, so concurrent reads cannot
+     * reorder entries mid-sort.
+     */
     private void trimToSize() throws IOException {
-        while (size > maxSize) {
-//            Map.Entry<String, Entry> toEvict = lruEntries.eldest();
-            final Map.Entry<String, Entry> toEvict = lruEntries.entrySet().iterator().next();
-            remove(toEvict.getKey());
+        if (size.get() <= maxSize) {
+            return;
+        }
+        removeExpired();
+        if (size.get() <= maxSize) {
+            return;
+        }
+        List<CandidateSnapshot> candidates = new ArrayList<CandidateSnapshot>(lruEntries.size());
+        for (Entry entry : lruEntries.values()) {
+            // entries still being created have no clean files and nothing to free
+            if (entry.readable) {
+                candidates.add(new CandidateSnapshot(entry));
+            }
+        }
+        Collections.sort(candidates, evictionPolicy);
+        for (CandidateSnapshot candidate : candidates) {
+            if (size.get() <= maxSize) {
+                break;
+            }
+            if (removeEntry(candidate.entry)) {
+                evictionCount.incrementAndGet();
+                evictedSize.addAndGet(candidate.size);
+                evictionPolicy.onEvict(candidate);
+            }
+        }
+    }
+
+    /**
+     * Deletes every entry whose expiry has passed.
+     */
+    private void removeExpired() throws IOException {
+        long now = System.currentTimeMillis();
+        for (Entry entry : lruEntries.values()) {
+            if (entry.isExpired(now) && removeEntry(entry)) {
+                expiredCount.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Returns the number of entries evicted to keep the cache within its
+     * max size.
+     */
+    public long evictionCount() {
+        return evictionCount.get();
+    }
+
+    /**
+     * Returns the total bytes of the entries counted by {@link #evictionCount}.
+     */
+    public long evictedSize() {
+        return evictedSize.get();
+    }
+
+    /**
+     * Returns the number of entries deleted because they expired.
+     */
+    public long expiredCount() {
+        return expiredCount.get();
+    }
+
+    /**
+     * An immutable copy of an entry's eviction state, taken before sorting.
+     */
+    private static final class CandidateSnapshot implements EvictionPolicy.Candidate {
+        private final Entry entry;
+        private final long size;
+        private final long expiresAt;
+        private final long accessStamp;
+        private final double priority;
+
+        private CandidateSnapshot(Entry entry) {
+            this.entry = entry;
+            this.size = entry.getSize();
+            this.expiresAt = entry.expiresAt;
+            this.accessStamp = entry.accessStamp;
+            this.priority = entry.priority;
+        }
+
+        @Override
+        public String getKey() {
+            return entry.key;
+        }
+
+        @Override
+        public long getSize() {
+            return size;
+        }
+
+        @Override
+        public long getExpiresAt() {
+            return expiresAt;
+        }
+
+        @Override
+        public long getAccessStamp() {
+            return accessStamp;
+        }
+
+        @Override
+        public double getPriority() {
+            return priority;
+        }
+
+        @Override
+        public void setPriority(double priority) {
+            throw new UnsupportedOperationException("snapshot is read-only");
+        }
+    }
+
+    /**
+     * Deletes all stored values from the cache. Entries that are being edited
+     * are skipped: their edits complete normally and their values are stored.
+     */
+    public void evictAll() throws IOException {
+        awaitLoaded();
+        stateLock.readLock().lock();
+        try {
+            checkNotClosed();
+            for (Entry entry : new ArrayList<Entry>(lruEntries.values())) {
+                remove(entry.key);
+            }
+        } finally {
+            stateLock.readLock().unlock();
         }
     }
 
@@ -727,18 +1345,226 @@ public final class DiskLruCache implements Closeable {
         return readFully(new InputStreamReader(in, UTF_8));
     }
 
+    /**
+     * Appends journal lines on a dedicated thread. Callers only queue a line;
+     * the thread writes everything queued since its last pass and flushes
+     * once per batch, so a burst of operations costs a single write.
+     */
+    private static final class JournalWriter implements Runnable {
+        private final Object lock = new Object();
+        private final Thread thread;
+        private ArrayList<String> pending = new ArrayList<String>();
+        private Writer writer;
+        private long appendCount;
+        private long writtenCount;
+        private boolean closed;
+        private volatile boolean hasErrors;
+
+        JournalWriter(Writer writer) {
+            this.writer = writer;
+            thread = new Thread(this, "DiskLruCache-journal");
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        void append(String line) {
+            synchronized (lock) {
+                if (closed) {
+                    return;
+                }
+                pending.add(line);
+                appendCount++;
+                lock.notifyAll();
+            }
+        }
+
+        boolean hasErrors() {
+            return hasErrors;
+        }
+
+        /**
+         * Blocks until every line queued so far has been written.
+         */
+        void drain() throws InterruptedIOException {
+            synchronized (lock) {
+                long target = appendCount;
+                while (writtenCount < target) {
+                    try {
+                        lock.wait();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new InterruptedIOException();
+                    }
+                }
+            }
+        }
+
+        /**
+         * Blocks until every line queued so far is on the filesystem.
+         */
+        void flush() throws IOException {
+            drain();
+            if (hasErrors) {
+                throw new IOException("failed to write journal");
+            }
+        }
+
+        /**
+         * Switches to a rebuilt journal. The caller must make sure no line is
+         * queued concurrently.
+         */
+        void reset(Writer newWriter) throws IOException {
+            Writer old;
+            synchronized (lock) {
+                old = writer;
+                writer = newWriter;
+                hasErrors = false;
+            }
+            old.close();
+        }
+
+        /**
+         * Writes the remaining lines, stops the thread and closes the journal.
+         */
+        void close() throws IOException {
+            synchronized (lock) {
+                closed = true;
+                lock.notifyAll();
+            }
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            writer.close();
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                ArrayList<String> batch;
+                Writer out;
+                long target;
+                synchronized (lock) {
+                    while (pending.isEmpty() && !closed) {
+                        try {
+                            lock.wait();
+                        } catch (InterruptedException ignored) {
+                        }
+                    }
+                    if (pending.isEmpty()) {
+                        return; // closed and drained
+                    }
+                    batch = pending;
+                    pending = new ArrayList<String>();
+                    out = writer;
+                    target = appendCount;
+                }
+                boolean failed = false;
+                try {
+                    for (String line : batch) {
+                        out.write(line);
+                    }
+                    out.flush();
+                } catch (IOException e) {
+                    failed = true;
+                }
+                synchronized (lock) {
+                    if (failed) {
+                        hasErrors = true;
+                    }
+                    writtenCount = target;
+                    lock.notifyAll();
+                }
+            }
+        }
+    }
+
+    /**
+     * Reads ASCII journal lines from a private buffer, avoiding a synchronized
+     * call per byte. A last line without a terminating newline is reported
+     * through {@link #isTruncated} instead of being returned.
+     */
+    private static final class JournalReader {
+        private final InputStream in;
+        private final byte[] buffer = new byte[IO_BUFFER_SIZE];
+        private int pos;
+        private int end;
+        private boolean truncated;
+
+        JournalReader(InputStream in) {
+            this.in = in;
+        }
+
+        /**
+         * Returns the next line without its "\n" or "\r\n", or null at the end
+         * of the stream.
+         */
+        String readLine() throws IOException {
+            ByteArrayOutputStream partial = null;
+            while (true) {
+                if (pos == end) {
+                    end = in.read(buffer, 0, buffer.length);
+                    pos = 0;
+                    if (end == -1) {
+                        end = 0;
+                        truncated = partial != null && partial.size() > 0;
+                        return null;
+                    }
+                }
+                for (int i = pos; i < end; i++) {
+                    if (buffer[i] == '\n') {
+                        String line;
+                        if (partial == null) {
+                            int lineEnd = (i > pos && buffer[i - 1] == '\r') ? i - 1 : i;
+                            line = new String(buffer, pos, lineEnd - pos, US_ASCII);
+                        } else {
+                            partial.write(buffer, pos, i - pos);
+                            line = new String(partial.toByteArray(), US_ASCII);
+                            if (line.endsWith("\r")) {
+                                line = line.substring(0, line.length() - 1);
+                            }
+                        }
+                        pos = i + 1;
+                        return line;
+                    }
+                }
+                if (partial == null) {
+                    partial = new ByteArrayOutputStream(80);
+                }
+                partial.write(buffer, pos, end - pos);
+                pos = end;
+            }
+        }
+
+        boolean isTruncated() {
+            return truncated;
+        }
+    }
+
     /**
      * A snapshot of the values for an entry.
      */
     public final class Snapshot implements Closeable {
         private final String key;
         private final long sequenceNumber;
-        private final InputStream[] ins;
+        private final FileInputStream[] ins;
+        private final long[] lengths;
+        private final long expiresAt;
+        /**
+         * Buffers handed out by {@link #getBuffer}, created on first use.
+         */
+        private final ByteBuffer[] buffers;
+        private boolean closed;
 
-        private Snapshot(String key, long sequenceNumber, InputStream[] ins) {
+        private Snapshot(String key, long sequenceNumber, FileInputStream[] ins, long[] lengths,
+                         long expiresAt) {
             this.key = key;
             this.sequenceNumber = sequenceNumber;
             this.ins = ins;
+            this.lengths = lengths;
+            this.expiresAt = expiresAt;
+            this.buffers = new ByteBuffer[ins.length];
         }
 
         /**
@@ -758,14 +1584,75 @@ public final class DiskLruCache implements Closeable {
         }
 
         /**
-         * Returns the string value for {@code index}.
+         * Returns the whole string value for {@code index}, decoded directly
+         * from {@link #getBuffer} without going through a Reader.
          */
         public String getString(int index) throws IOException {
-            return inputStreamToString(getInputStream(index));
+            return UTF_8.decode(getBuffer(index)).toString();
+        }
+
+        /**
+         * Returns a read-only buffer holding the whole value for {@code index},
+         * positioned at 0. Values of {@link #MAP_THRESHOLD} bytes and more are
+         * memory-mapped, smaller ones are read into a heap buffer. Reading the
+         * buffer does not move the stream returned by {@link #getInputStream}.
+         * <p>
+         * The buffer belongs to this snapshot: it must not be used after
+         * {@link #close}. A mapping cannot be unmapped explicitly, so its pages
+         * are released once the buffer is garbage collected; don't keep
+         * references to it beyond the snapshot's lifetime.
+         */
+        public synchronized ByteBuffer getBuffer(int index) throws IOException {
+            if (closed) {
+                throw new IllegalStateException("snapshot is closed");
+            }
+            ByteBuffer buffer = buffers[index];
+            if (buffer == null) {
+                FileChannel channel = ins[index].getChannel();
+                long length = lengths[index];
+                if (length >= MAP_THRESHOLD) {
+                    buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, length);
+                } else {
+                    ByteBuffer heap = ByteBuffer.allocate((int) length);
+                    // positional reads leave the channel's position untouched
+                    while (heap.hasRemaining()) {
+                        if (channel.read(heap, heap.position()) == -1) {
+                            throw new EOFException("value " + index + " of " + key + " is shorter than "
+                                    + length + " bytes");
+                        }
+                    }
+                    heap.flip();
+                    buffer = heap.asReadOnlyBuffer();
+                }
+                buffers[index] = buffer;
+            }
+            return buffer.duplicate();
+        }
+
+        /**
+         * Returns the byte length of the value for {@code index}.
+         */
+        public long getLength(int index) {
+            return lengths[index];
+        }
+
+        /**
+         * Returns the wall-clock time in milliseconds at which this entry
+         * expires, or 0 if it never expires.
+         */
+        public long getExpiresAt() {
+            return expiresAt;
         }
 
+        /**
+         * Closes the streams and releases the buffers of this snapshot.
+         */
         @Override
-        public void close() {
+        public synchronized void close() {
+            closed = true;
+            for (int i = 0; i < buffers.length; i++) {
+                buffers[i] = null;
+            }
             for (InputStream in : ins) {
                 closeQuietly(in);
             }
@@ -778,6 +1665,7 @@ public final class DiskLruCache implements Closeable {
     public final class Editor {
         private final Entry entry;
         private boolean hasErrors;
+        private long expiresAt = KEEP_EXPIRY;
 
         private Editor(Entry entry) {
             this.entry = entry;
@@ -788,7 +1676,7 @@ public final class DiskLruCache implements Closeable {
          * or null if no value has been committed.
          */
         public InputStream newInputStream(int index) throws IOException {
-            synchronized (DiskLruCache.this) {
+            synchronized (entry) {
                 if (entry.currentEditor != this) {
                     throw new IllegalStateException();
                 }
@@ -816,7 +1704,7 @@ public final class DiskLruCache implements Closeable {
          * IOExceptions.
          */
         public OutputStream newOutputStream(int index) throws IOException {
-            synchronized (DiskLruCache.this) {
+            synchronized (entry) {
                 if (entry.currentEditor != this) {
                     throw new IllegalStateException();
                 }
@@ -850,6 +1738,23 @@ public final class DiskLruCache implements Closeable {
             }
         }
 
+        /**
+         * Sets when the entry expires, in {@link System#currentTimeMillis}
+         * milliseconds, applied on {@link #commit}. 0 means never. Without a
+         * call the entry keeps its previous expiry.
+         */
+        public void setExpiresAt(long expiresAt) {
+            this.expiresAt = Math.max(expiresAt, 0);
+        }
+
+        /**
+         * Makes the entry expire {@code ttl} after this call; 0 or less means
+         * never.
+         */
+        public void setTimeToLive(long ttl, TimeUnit unit) {
+            setExpiresAt(ttl > 0 ? System.currentTimeMillis() + unit.toMillis(ttl) : 0);
+        }
+
         /**
          * Aborts this edit. This releases the edit lock so another edit may be
          * started on the same key.
@@ -901,7 +1806,11 @@ public final class DiskLruCache implements Closeable {
         }
     }
 
-    private final class Entry {
+    /**
+     * An entry's state is guarded by the entry itself, which acts as the
+     * per-key lock for editing, publishing and removing it.
+     */
+    private final class Entry implements EvictionPolicy.Candidate {
         private final String key;
 
         /**
@@ -912,7 +1821,13 @@ public final class DiskLruCache implements Closeable {
         /**
          * True if this entry has ever been published
          */
-        private boolean readable;
+        private volatile boolean readable;
+
+        /**
+         * True once this entry has been dropped from {@link #lruEntries}; a
+         * new entry must be created for further edits of the key.
+         */
+        private boolean removed;
 
         /**
          * The ongoing edit or null if this entry is not being edited.
@@ -924,6 +1839,21 @@ public final class DiskLruCache implements Closeable {
          */
         private long sequenceNumber;
 
+        /**
+         * Value of {@link #accessClock} at the last read or publish.
+         */
+        private volatile long accessStamp;
+
+        /**
+         * When this entry expires, in epoch milliseconds, or 0 for never.
+         */
+        private volatile long expiresAt;
+
+        /**
+         * Set by the eviction policy in {@link EvictionPolicy#onAccess}.
+         */
+        private volatile double priority;
+
         private Entry(String key) {
             this.key = key;
             this.lengths = new long[valueCount];
@@ -938,24 +1868,94 @@ public final class DiskLruCache implements Closeable {
         }
 
         /**
-         * Set lengths using decimal numbers like "10123".
+         * Returns the expiry token of a CLEAN line, empty if the entry never
+         * expires.
+         */
+        public String getExpiry() {
+            return expiresAt != 0 ? " " + EXPIRY_PREFIX + expiresAt : "";
+        }
+
+        /**
+         * Set lengths from the decimal numbers like "10123" that follow
+         * {@code start} in a journal line, and the expiry from an optional
+         * trailing token like "t1566788400000".
          */
-        private void setLengths(String[] strings) throws IOException {
-            if (strings.length != valueCount) {
-                throw invalidLengths(strings);
+        private void setLengths(String line, int start) throws IOException {
+            int begin = start;
+            for (int i = 0; i < valueCount; i++) {
+                int end = line.indexOf(' ', begin);
+                if (end == -1) {
+                    end = line.length();
+                }
+                if (end == begin || (i < valueCount - 1 && end == line.length())) {
+                    throw invalidLengths(line);
+                }
+                try {
+                    lengths[i] = Long.parseLong(line.substring(begin, end));
+                } catch (NumberFormatException e) {
+                    throw invalidLengths(line);
+                }
+                begin = end + 1;
             }
 
-            try {
-                for (int i = 0; i < strings.length; i++) {
-                    lengths[i] = Long.parseLong(strings[i]);
+            expiresAt = 0;
+            if (begin < line.length()) {
+                if (line.charAt(begin) != EXPIRY_PREFIX || line.indexOf(' ', begin) != -1) {
+                    throw invalidLengths(line);
+                }
+                try {
+                    expiresAt = Long.parseLong(line.substring(begin + 1));
+                } catch (NumberFormatException e) {
+                    throw invalidLengths(line);
                 }
-            } catch (NumberFormatException e) {
-                throw invalidLengths(strings);
             }
         }
 
-        private IOException invalidLengths(String[] strings) throws IOException {
-            throw new IOException("unexpected journal line: " + Arrays.toString(strings));
+        private boolean isExpired(long now) {
+            long expires = expiresAt;
+            return expires != 0 && now >= expires;
+        }
+
+        @Override
+        public String getKey() {
+            return key;
+        }
+
+        /**
+         * Callers outside the entry lock may see lengths from two different
+         * edits; eviction only needs an estimate.
+         */
+        @Override
+        public long getSize() {
+            long total = 0;
+            for (long length : lengths) {
+                total += length;
+            }
+            return total;
+        }
+
+        @Override
+        public long getExpiresAt() {
+            return expiresAt;
+        }
+
+        @Override
+        public long getAccessStamp() {
+            return accessStamp;
+        }
+
+        @Override
+        public double getPriority() {
+            return priority;
+        }
+
+        @Override
+        public void setPriority(double priority) {
+            this.priority = priority;
+        }
+
+        private IOException invalidLengths(String line) throws IOException {
+            throw new IOException("unexpected journal line: " + line);
         }
 
         public File getCleanFile(int i) {
@@ -0,0 +1,92 @@
+package yuan.core.cache;
+
+/**
+ * 描述：常用的{@link EvictionPolicy}
+ * <p>
+ * 1、LRU：最久未访问的先淘汰
+ * 2、TTL_FIRST：设置了有效时间的数据按过期时间先后淘汰，之后再按LRU淘汰永不过期的数据
+ * 3、greedyDualSize：按大小淘汰，优先级 = L + 1/大小，L为上一个被淘汰数据的优先级，
+ * 大文件先被淘汰，经常访问的小文件能保留；每个缓存需要单独的实例
+ *
+ * @author yuanye
+ * @date 2019/8/26 10:32
+ */
+public final class EvictionPolicies {
+
+    public static final EvictionPolicy LRU = new EvictionPolicy() {
+        @Override
+        public void onAccess(Candidate candidate) {
+        }
+
+        @Override
+        public void onEvict(Candidate candidate) {
+        }
+
+        @Override
+        public int compare(Candidate a, Candidate b) {
+            return compareAccess(a, b);
+        }
+    };
+
+    public static final EvictionPolicy TTL_FIRST = new EvictionPolicy() {
+        @Override
+        public void onAccess(Candidate candidate) {
+        }
+
+        @Override
+        public void onEvict(Candidate candidate) {
+        }
+
+        @Override
+        public int compare(Candidate a, Candidate b) {
+            long aExpires = a.getExpiresAt();
+            long bExpires = b.getExpiresAt();
+            if (aExpires != 0 && bExpires != 0 && aExpires != bExpires) {
+                return aExpires < bExpires ? -1 : 1;
+            }
+            if ((aExpires == 0) != (bExpires == 0)) {
+                return aExpires != 0 ? -1 : 1;
+            }
+            return compareAccess(a, b);
+        }
+    };
+
+    private EvictionPolicies() {
+    }
+
+    /**
+     * GreedyDual-Size，每个缓存使用新的实例
+     */
+    public static EvictionPolicy greedyDualSize() {
+        return new GreedyDualSize();
+    }
+
+    private static int compareAccess(EvictionPolicy.Candidate a, EvictionPolicy.Candidate b) {
+        long aStamp = a.getAccessStamp();
+        long bStamp = b.getAccessStamp();
+        return aStamp < bStamp ? -1 : (aStamp == bStamp ? 0 : 1);
+    }
+
+    private static final class GreedyDualSize implements EvictionPolicy {
+        /**
+         * 上一个被淘汰数据的优先级，随淘汰不断增大，使长时间未访问的数据逐渐失去优势
+         */
+        private volatile double inflation;
+
+        @Override
+        public void onAccess(Candidate candidate) {
+            candidate.setPriority(inflation + 1.0 / Math.max(candidate.getSize(), 1));
+        }
+
+        @Override
+        public void onEvict(Candidate candidate) {
+            inflation = Math.max(inflation, candidate.getPriority());
+        }
+
+        @Override
+        public int compare(Candidate a, Candidate b) {
+            int result = Double.compare(a.getPriority(), b.getPriority());
+            return result != 0 ? result : compareAccess(a, b);
+        }
+    }
+}
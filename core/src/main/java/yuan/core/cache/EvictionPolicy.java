@@ -0,0 +1,59 @@
+package yuan.core.cache;
+
+import java.util.Comparator;
+
+/**
+ * 描述：{@link DiskLruCache}超出大小时的淘汰顺序
+ * <p>
+ * 1、compare：排在前面的先被淘汰，比较的是淘汰开始时的快照，不会在排序中途变化
+ * 2、onAccess：数据写入或读取后调用，可以更新{@link Candidate#setPriority}，
+ * 多个线程会同时调用，不同数据之间不加锁
+ * 3、onEvict：数据因超出大小被淘汰后调用，只在后台线程调用
+ * <p>
+ * 过期的数据无论使用哪种策略都会先被删除。常用实现见{@link EvictionPolicies}
+ *
+ * @author yuanye
+ * @date 2019/8/26 10:05
+ */
+public interface EvictionPolicy extends Comparator<EvictionPolicy.Candidate> {
+
+    /**
+     * 数据写入或读取后调用
+     */
+    void onAccess(Candidate candidate);
+
+    /**
+     * 数据被淘汰后调用
+     */
+    void onEvict(Candidate candidate);
+
+    /**
+     * 一条缓存的淘汰依据
+     */
+    interface Candidate {
+
+        String getKey();
+
+        /**
+         * 所有文件的总字节数
+         */
+        long getSize();
+
+        /**
+         * 过期时间，System.currentTimeMillis()，0为永不过期
+         */
+        long getExpiresAt();
+
+        /**
+         * 访问序号，越大表示越近被访问
+         */
+        long getAccessStamp();
+
+        /**
+         * 策略自定义的优先级，默认为0
+         */
+        double getPriority();
+
+        void setPriority(double priority);
+    }
+}
@@ -15,24 +15,116 @@
  */
 package yuan.core.cache;
 
-import android.support.v4.util.LruCache;
+import android.graphics.Bitmap;
+import android.os.SystemClock;
 import android.text.TextUtils;
 
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
 
 /**
  * Created by wanglei on 2016/11/28.
+ * <p>
+ * 内存缓存
+ * 1、按字节数限制大小，每条数据的大小由{@link Weigher}计算
+ * 2、分段加锁，不同段的读写互不阻塞，所有段共用总大小，超出时轮流淘汰各段最久未使用的数据，
+ * 大于maxSize的数据不缓存
+ * 3、支持单条数据设置有效时间，过期数据在读取时移除
+ * 4、统计命中、未命中、淘汰次数
  */
 
 public class MemoryCache implements ICache {
 
-    private LruCache<String, Object> cache;
-    private static MemoryCache instance;
+    /**
+     * 分段数量，必须是2的幂
+     */
+    private static final int SEGMENT_COUNT = 16;
+    /**
+     * 无法计算大小的对象按此估算，单位：字节
+     */
+    private static final int DEFAULT_OBJECT_WEIGHT = 64;
+    /**
+     * 永不过期
+     */
+    public static final long NO_EXPIRE = 0;
+
+    /**
+     * 默认计算方式：byte[]按长度，Bitmap按占用内存，字符串按字符数*2，其他对象按固定大小估算
+     */
+    public static final Weigher DEFAULT_WEIGHER = new Weigher() {
+        @Override
+        public int weigh(String key, Object value) {
+            int weight;
+            if (value instanceof byte[]) {
+                weight = ((byte[]) value).length;
+            } else if (value instanceof Bitmap) {
+                weight = ((Bitmap) value).getByteCount();
+            } else if (value instanceof CharSequence) {
+                weight = ((CharSequence) value).length() * 2;
+            } else {
+                weight = DEFAULT_OBJECT_WEIGHT;
+            }
+            return weight + key.length() * 2;
+        }
+    };
+
+    /**
+     * 按条数计算，每条数据大小为1
+     */
+    public static final Weigher ENTRY_COUNT_WEIGHER = new Weigher() {
+        @Override
+        public int weigh(String key, Object value) {
+            return 1;
+        }
+    };
+
+    private static volatile MemoryCache instance;
+
+    private final Segment[] segments;
+    private final long maxSize;
+    private final Weigher weigher;
+    /**
+     * 所有段的总大小
+     */
+    private final AtomicLong size = new AtomicLong();
+    /**
+     * 下一个淘汰的段
+     */
+    private final AtomicInteger evictCursor = new AtomicInteger();
+
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+    private final AtomicLong evictionCount = new AtomicLong();
+    private final AtomicLong expiredCount = new AtomicLong();
 
     private MemoryCache() {
-        int maxMemory = (int) Runtime.getRuntime().maxMemory();
-        int cacheSize = maxMemory / 8;
-        cache = new LruCache<String, Object>(cacheSize);
+        this(Runtime.getRuntime().maxMemory() / 8);
+    }
 
+    /**
+     * @param maxSize 最大字节数
+     */
+    public MemoryCache(long maxSize) {
+        this(maxSize, DEFAULT_WEIGHER);
+    }
+
+    /**
+     * @param maxSize 最大大小，单位与weigher一致
+     * @param weigher 计算每条数据的大小
+     */
+    public MemoryCache(long maxSize, Weigher weigher) {
+        if (maxSize <= 0) throw new IllegalArgumentException("maxSize <= 0");
+        if (weigher == null) throw new NullPointerException("weigher == null");
+        this.maxSize = maxSize;
+        this.weigher = weigher;
+        segments = new Segment[SEGMENT_COUNT];
+        for (int i = 0; i < SEGMENT_COUNT; i++) {
+            segments[i] = new Segment();
+        }
     }
 
     public static MemoryCache getInstance() {
@@ -48,43 +140,241 @@ public class MemoryCache implements ICache {
 
 
     @Override
-    public synchronized void put(String key, Object value) {
-        if (TextUtils.isEmpty(key)) return;
+    public void put(String key, Object value) {
+        put(key, value, NO_EXPIRE);
+    }
 
-        if (cache.get(key) != null) {
-            cache.remove(key);
+    /**
+     * 添加缓存
+     *
+     * @param key   键
+     * @param value 值，为null时移除；大于maxSize时不缓存，并移除该key原来的值
+     * @param ttl   有效时间，单位：毫秒，{@link #NO_EXPIRE}为永不过期
+     */
+    public void put(String key, Object value, long ttl) {
+        if (TextUtils.isEmpty(key)) return;
+        if (value == null) {
+            remove(key);
+            return;
         }
-        cache.put(key, value);
+        int weight = weigher.weigh(key, value);
+        if (weight < 0) throw new IllegalStateException("Negative weight: " + key + "=" + value);
+        Segment segment = segmentFor(key);
+        if (weight > maxSize) {
+            segment.remove(key);
+            return;
+        }
+        long expireAt = ttl > 0 ? SystemClock.elapsedRealtime() + ttl : NO_EXPIRE;
+        segment.put(key, new Node(value, weight, expireAt));
+        trimToSize(key);
     }
 
     @Override
     public Object get(String key) {
-        return cache.get(key);
+        if (TextUtils.isEmpty(key)) return null;
+        Object value = segmentFor(key).get(key);
+        if (value != null) {
+            hitCount.incrementAndGet();
+        } else {
+            missCount.incrementAndGet();
+        }
+        return value;
     }
 
-    public synchronized <T> T get(String key, Class<T> clazz) {
-        try {
-            return (T) cache.get(key);
-        } catch (Exception e) {
-            e.printStackTrace();
-        }
-        return null;
+    /**
+     * 获取指定类型的缓存，类型不匹配时返回null
+     */
+    public <T> T get(String key, Class<T> clazz) {
+        Object value = get(key);
+        return clazz.isInstance(value) ? clazz.cast(value) : null;
     }
 
     @Override
     public void remove(String key) {
-        if (cache.get(key) != null) {
-            cache.remove(key);
-        }
+        if (TextUtils.isEmpty(key)) return;
+        segmentFor(key).remove(key);
     }
 
     @Override
     public boolean contains(String key) {
-        return cache.get(key) != null;
+        return !TextUtils.isEmpty(key) && segmentFor(key).get(key) != null;
     }
 
     @Override
     public void clear() {
-        cache.evictAll();
+        for (Segment segment : segments) {
+            segment.clear();
+        }
+    }
+
+    /**
+     * 当前大小
+     */
+    public long size() {
+        return size.get();
+    }
+
+    public long maxSize() {
+        return maxSize;
+    }
+
+    public long hitCount() {
+        return hitCount.get();
+    }
+
+    public long missCount() {
+        return missCount.get();
+    }
+
+    /**
+     * 因超出大小被淘汰的次数
+     */
+    public long evictionCount() {
+        return evictionCount.get();
+    }
+
+    /**
+     * 因过期被移除的次数
+     */
+    public long expiredCount() {
+        return expiredCount.get();
+    }
+
+    @Override
+    public String toString() {
+        long hits = hitCount.get();
+        long accesses = hits + missCount.get();
+        int hitPercent = accesses != 0 ? (int) (100 * hits / accesses) : 0;
+        return String.format("MemoryCache[size=%d,maxSize=%d,hits=%d,misses=%d,evictions=%d,expired=%d,hitRate=%d%%]",
+                size(), maxSize, hits, missCount.get(), evictionCount.get(), expiredCount.get(), hitPercent);
+    }
+
+    /**
+     * 超出总大小时先移除过期数据，仍然超出时从各段轮流淘汰最久未使用的数据，
+     * 每次只持有一个段的锁，刚写入的key不淘汰
+     */
+    private void trimToSize(String key) {
+        if (size.get() <= maxSize) return;
+        for (Segment segment : segments) {
+            if (segment.expiring > 0) segment.removeExpired();
+        }
+        int idle = 0;
+        while (size.get() > maxSize && idle < SEGMENT_COUNT) {
+            Segment segment = segments[evictCursor.getAndIncrement() & (SEGMENT_COUNT - 1)];
+            idle = segment.evictEldest(key) ? 0 : idle + 1;
+        }
+    }
+
+    private Segment segmentFor(String key) {
+        int h = key.hashCode();
+        //打散hash的高位，避免只用到低位
+        h ^= (h >>> 16);
+        return segments[h & (SEGMENT_COUNT - 1)];
+    }
+
+    /**
+     * 计算缓存数据的大小
+     */
+    public interface Weigher {
+        /**
+         * @return 数据大小，不能小于0
+         */
+        int weigh(String key, Object value);
+    }
+
+    private static final class Node {
+        final Object value;
+        final int weight;
+        /**
+         * 过期时间，{@link #NO_EXPIRE}为永不过期
+         */
+        final long expireAt;
+
+        Node(Object value, int weight, long expireAt) {
+            this.value = value;
+            this.weight = weight;
+            this.expireAt = expireAt;
+        }
+
+        boolean isExpired(long now) {
+            return expireAt != NO_EXPIRE && now >= expireAt;
+        }
+    }
+
+    /**
+     * 一段缓存，按访问顺序排列，读写同步当前段，大小计入{@link #size}
+     */
+    private final class Segment {
+        private final LinkedHashMap<String, Node> map = new LinkedHashMap<>(16, 0.75f, true);
+        /**
+         * 设置了有效时间的数据条数，为0时不需要查找过期数据
+         */
+        private volatile int expiring;
+
+        synchronized Object get(String key) {
+            Node node = map.get(key);
+            if (node == null) return null;
+            if (node.expireAt != NO_EXPIRE && node.isExpired(SystemClock.elapsedRealtime())) {
+                map.remove(key);
+                removed(node);
+                expiredCount.incrementAndGet();
+                return null;
+            }
+            return node.value;
+        }
+
+        synchronized void put(String key, Node node) {
+            Node previous = map.put(key, node);
+            if (previous != null) removed(previous);
+            size.addAndGet(node.weight);
+            if (node.expireAt != NO_EXPIRE) expiring++;
+        }
+
+        synchronized void remove(String key) {
+            Node previous = map.remove(key);
+            if (previous != null) removed(previous);
+        }
+
+        synchronized void clear() {
+            for (Node node : map.values()) {
+                removed(node);
+            }
+            map.clear();
+        }
+
+        synchronized void removeExpired() {
+            long now = SystemClock.elapsedRealtime();
+            Iterator<Node> iterator = map.values().iterator();
+            while (iterator.hasNext()) {
+                Node node = iterator.next();
+                if (node.isExpired(now)) {
+                    iterator.remove();
+                    removed(node);
+                    expiredCount.incrementAndGet();
+                }
+            }
+        }
+
+        /**
+         * 淘汰本段最久未使用的一条数据
+         *
+         * @param keep 不淘汰的key
+         * @return 是否淘汰了数据
+         */
+        synchronized boolean evictEldest(String keep) {
+            for (Map.Entry<String, Node> entry : map.entrySet()) {
+                if (entry.getKey().equals(keep)) continue;
+                map.remove(entry.getKey());
+                removed(entry.getValue());
+                evictionCount.incrementAndGet();
+                return true;
+            }
+            return false;
+        }
+
+        private void removed(Node node) {
+            size.addAndGet(-node.weight);
+            if (node.expireAt != NO_EXPIRE) expiring--;
+        }
     }
 }
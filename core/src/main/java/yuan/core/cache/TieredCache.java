@@ -0,0 +1,263 @@
+package yuan.core.cache;
+
+import android.text.TextUtils;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 描述：内存+磁盘二级缓存
+ * <p>
+ * 1、put：立即写入内存，在后台线程按顺序写入磁盘，写入完成前get可以读到待写入的数据；
+ * 设置有效时间时内存和磁盘同时过期
+ * 2、get：先查内存，未命中时读取磁盘，命中后按剩余有效时间放入内存；读取磁盘期间该key被put/remove时不放入内存
+ * 3、remove/clear：立即从内存移除，磁盘的移除与之前的写入按顺序在后台执行，完成前get不再读取磁盘
+ * <p>
+ * 内存未命中时get会读取磁盘，不要在主线程调用；close之后的put/remove/clear只记录日志，不再执行
+ *
+ * @author yuanye
+ * @date 2019/8/22 11:02
+ */
+public class TieredCache<T> implements ICache {
+
+    private static final String TAG = "TieredCache";
+    /**
+     * 默认使用1/16的最大内存
+     */
+    private static final int DEFAULT_MEMORY_DIVISOR = 16;
+    /**
+     * 分段锁数量，必须是2的幂
+     */
+    private static final int LOCK_COUNT = 32;
+    /**
+     * pending中表示等待从磁盘移除
+     */
+    private static final Object REMOVED = new Object();
+
+    private final MemoryCache memory;
+    private final DiskCache<T> disk;
+    /**
+     * 等待写入磁盘的数据
+     */
+    private final ConcurrentHashMap<String, Object> pending = new ConcurrentHashMap<>();
+    /**
+     * 按key分段的锁和版本号，put/remove/clear时版本号加1，
+     * 磁盘命中后版本号未变化才放入内存，避免旧数据覆盖新写入的数据
+     */
+    private final Object[] locks = new Object[LOCK_COUNT];
+    private final int[] generations = new int[LOCK_COUNT];
+    /**
+     * 等待执行的磁盘clear数量，大于0时不读取磁盘
+     */
+    private final AtomicInteger pendingClears = new AtomicInteger();
+    /**
+     * 磁盘写线程，空闲时自动结束
+     */
+    private final ExecutorService diskExecutor = new ThreadPoolExecutor(0, 1,
+            60L, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>());
+    /**
+     * 已调用close
+     */
+    private volatile boolean closed;
+
+    /**
+     * 打开二级缓存，内存缓存使用最大内存的1/16
+     *
+     * @param directory   磁盘缓存目录，只能由这个缓存使用
+     * @param appVersion  版本号，变化时清空磁盘缓存
+     * @param maxDiskSize 磁盘缓存最大字节数
+     * @param codec       数据与字节的转换
+     */
+    public static <T> TieredCache<T> open(File directory, int appVersion, long maxDiskSize,
+                                          CacheCodec<T> codec) throws IOException {
+        MemoryCache memory = new MemoryCache(Runtime.getRuntime().maxMemory() / DEFAULT_MEMORY_DIVISOR);
+        DiskLruCache disk = DiskLruCache.open(directory, appVersion, 1, maxDiskSize);
+        return new TieredCache<>(memory, new DiskCache<>(disk, codec));
+    }
+
+    public TieredCache(MemoryCache memory, DiskCache<T> disk) {
+        if (memory == null || disk == null) throw new NullPointerException("memory == null || disk == null");
+        this.memory = memory;
+        this.disk = disk;
+        for (int i = 0; i < LOCK_COUNT; i++) {
+            locks[i] = new Object();
+        }
+    }
+
+    public MemoryCache getMemoryCache() {
+        return memory;
+    }
+
+    public DiskCache<T> getDiskCache() {
+        return disk;
+    }
+
+    @Override
+    public void put(String key, Object value) {
+        put(key, value, MemoryCache.NO_EXPIRE);
+    }
+
+    /**
+     * 添加缓存
+     *
+     * @param key   键
+     * @param value 值，为null时移除
+     * @param ttl   有效时间，单位：毫秒，{@link MemoryCache#NO_EXPIRE}为永不过期
+     */
+    public void put(final String key, final Object value, final long ttl) {
+        if (TextUtils.isEmpty(key) || isClosed("put")) return;
+        if (value == null) {
+            remove(key);
+            return;
+        }
+        int index = indexFor(key);
+        synchronized (locks[index]) {
+            generations[index]++;
+            memory.put(key, value, ttl);
+            pending.put(key, value);
+        }
+        executeDisk(new Runnable() {
+            @Override
+            public void run() {
+                //已被更新或移除，由后续任务处理
+                if (pending.get(key) != value) return;
+                disk.put(key, value, ttl);
+                pending.remove(key, value);
+            }
+        });
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public T get(String key) {
+        if (TextUtils.isEmpty(key)) return null;
+        Object value = memory.get(key);
+        if (value != null) return (T) value;
+        int index = indexFor(key);
+        int generation;
+        synchronized (locks[index]) {
+            generation = generations[index];
+        }
+        //等待写入或移除的数据
+        value = pending.get(key);
+        if (value == REMOVED) return null;
+        if (value != null) return (T) value;
+        if (pendingClears.get() > 0 || closed) return null;
+        DiskCache.Record<T> record = disk.getRecord(key);
+        if (record == null) return null;
+        //磁盘命中，读取期间没有修改时放入内存，与磁盘同时过期
+        long ttl = record.getTimeToLive();
+        if (ttl >= 0) {
+            synchronized (locks[index]) {
+                if (generation == generations[index]) memory.put(key, record.value, ttl);
+            }
+        }
+        return record.value;
+    }
+
+    @Override
+    public void remove(final String key) {
+        if (TextUtils.isEmpty(key) || isClosed("remove")) return;
+        int index = indexFor(key);
+        synchronized (locks[index]) {
+            generations[index]++;
+            memory.remove(key);
+            pending.put(key, REMOVED);
+        }
+        executeDisk(new Runnable() {
+            @Override
+            public void run() {
+                disk.remove(key);
+                pending.remove(key, REMOVED);
+            }
+        });
+    }
+
+    @Override
+    public boolean contains(String key) {
+        if (TextUtils.isEmpty(key)) return false;
+        if (memory.contains(key)) return true;
+        Object value = pending.get(key);
+        if (value != null) return value != REMOVED;
+        return pendingClears.get() == 0 && !closed && disk.contains(key);
+    }
+
+    @Override
+    public void clear() {
+        if (isClosed("clear")) return;
+        pendingClears.incrementAndGet();
+        for (int i = 0; i < LOCK_COUNT; i++) {
+            synchronized (locks[i]) {
+                generations[i]++;
+            }
+        }
+        memory.clear();
+        pending.clear();
+        executeDisk(new Runnable() {
+            @Override
+            public void run() {
+                disk.clear();
+                pendingClears.decrementAndGet();
+            }
+        });
+    }
+
+    /**
+     * 等待已提交的磁盘写入完成后关闭磁盘缓存，重复调用无效
+     */
+    public synchronized void close() {
+        if (closed) return;
+        closed = true;
+        diskExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    disk.getDiskLruCache().close();
+                } catch (IOException e) {
+                    Log.e(TAG, "TieredCache close Error:" + e.getMessage());
+                }
+            }
+        });
+        diskExecutor.shutdown();
+    }
+
+    /**
+     * 等待close完成，用于测试
+     */
+    boolean awaitClosed(long timeout, TimeUnit unit) throws InterruptedException {
+        return diskExecutor.awaitTermination(timeout, unit);
+    }
+
+    /**
+     * 已关闭时记录日志
+     */
+    private boolean isClosed(String operation) {
+        if (closed) Log.w(TAG, "TieredCache已关闭，忽略" + operation);
+        return closed;
+    }
+
+    /**
+     * 提交磁盘任务，与close同时执行时线程池可能已关闭，此时只记录日志
+     */
+    private void executeDisk(Runnable task) {
+        try {
+            diskExecutor.execute(task);
+        } catch (RejectedExecutionException e) {
+            Log.w(TAG, "TieredCache已关闭，忽略磁盘操作");
+        }
+    }
+
+    private static int indexFor(String key) {
+        int h = key.hashCode();
+        h ^= (h >>> 16);
+        return h & (LOCK_COUNT - 1);
+    }
+}
@@ -26,6 +26,17 @@ public class ChineseSortUtil {
     }
 
 
+    /**
+     * 获取汉字全拼，非汉字原样保留，无法识别的汉字为unknown
+     *
+     * @param text 文字
+     * @return 全拼
+     */
+    public static String getPinyin(String text) {
+        if (text == null) return "";
+        return CharacterParser.getInstance().getSelling(text);
+    }
+
     /**
      * 中文转拼音转换类
      *
@@ -78,7 +89,6 @@ public class ChineseSortUtil {
                 "yin", "ying", "yo", "yong", "you", "yu", "yuan", "yue", "yun", "za", "zai", "zan", "zang", "zao", "ze", "zei", "zen", "zeng", "zha",
                 "zhai", "zhan", "zhang", "zhao", "zhe", "zhen", "zheng", "zhi", "zhong", "zhou", "zhu", "zhua", "zhuai", "zhuan", "zhuang", "zhui",
                 "zhun", "zhuo", "zi", "zong", "zou", "zu", "zuan", "zui", "zun", "zuo"};
-        private StringBuilder buffer;
         private String resource;
         private static CharacterParser characterParser = new CharacterParser();
 
@@ -133,7 +143,8 @@ public class ChineseSortUtil {
 
         public String getSelling(String chs) {
             String key, value;
-            buffer = new StringBuilder();
+            //使用局部变量，多线程调用时互不影响
+            StringBuilder buffer = new StringBuilder();
             for (int i = 0; i < chs.length(); i++) {
                 key = chs.substring(i, i + 1);
                 if (key.getBytes().length >= 2) {
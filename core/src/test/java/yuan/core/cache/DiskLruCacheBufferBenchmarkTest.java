@@ -0,0 +1,88 @@
+package yuan.core.cache;
+
+import org.junit.Ignore;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 描述：不同大小的数据通过getInputStream和getBuffer完整读取为byte[]的耗时
+ * <p>
+ * 每种大小读取相同的总字节数；耗时和磁盘缓存有关，结果放在断言信息中，手动运行
+ *
+ * @author yuanye
+ * @date 2019/9/7 11:40
+ */
+@Ignore("基准测试，手动运行")
+public class DiskLruCacheBufferBenchmarkTest {
+
+    private static final int[] VALUE_SIZES = {1024, 8 * 1024, 16 * 1024, 256 * 1024, 1024 * 1024};
+    private static final long TOTAL_BYTES = 64L * 1024 * 1024;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void streamVersusBuffer() throws Exception {
+        DiskLruCache cache = DiskLruCache.open(folder.newFolder(), 1, 1, Long.MAX_VALUE);
+        StringBuilder result = new StringBuilder();
+        for (int size : VALUE_SIZES) {
+            String key = "k" + size;
+            DiskLruCacheSnapshotTest.put(cache, key, DiskLruCacheSnapshotTest.bytes(size));
+            int reads = (int) (TOTAL_BYTES / size);
+            //预热
+            run(cache, key, reads, true);
+            run(cache, key, reads, false);
+
+            long streamNanos = run(cache, key, reads, true);
+            long bufferNanos = run(cache, key, reads, false);
+            result.append(String.format("%dKB x %d: stream %.1f ms, buffer %.1f ms; ",
+                    size / 1024, reads, streamNanos / 1e6, bufferNanos / 1e6));
+        }
+        cache.close();
+        assertTrue(result.toString(), result.length() > 0);
+    }
+
+    /**
+     * 返回读取reads次的耗时，单位：纳秒
+     */
+    private static long run(DiskLruCache cache, String key, int reads, boolean stream) throws IOException {
+        long begin = System.nanoTime();
+        for (int i = 0; i < reads; i++) {
+            DiskLruCache.Snapshot snapshot = cache.get(key);
+            try {
+                byte[] data = stream ? readStream(snapshot.getInputStream(0)) : readBuffer(snapshot.getBuffer(0));
+                if (data.length != snapshot.getLength(0)) throw new IOException("short read");
+            } finally {
+                snapshot.close();
+            }
+        }
+        return System.nanoTime() - begin;
+    }
+
+    /**
+     * 原来的方式：经过缓冲区复制到ByteArrayOutputStream
+     */
+    private static byte[] readStream(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int count;
+        while ((count = in.read(buffer)) != -1) {
+            out.write(buffer, 0, count);
+        }
+        return out.toByteArray();
+    }
+
+    private static byte[] readBuffer(ByteBuffer buffer) {
+        byte[] data = new byte[buffer.remaining()];
+        buffer.get(data);
+        return data;
+    }
+}
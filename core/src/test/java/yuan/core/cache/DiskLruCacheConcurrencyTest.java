@@ -0,0 +1,84 @@
+package yuan.core.cache;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 描述：并发写入、移除和淘汰时，新建中的数据不会被删除，大小与文件一致
+ *
+ * @author yuanye
+ * @date 2019/8/30 17:20
+ */
+public class DiskLruCacheConcurrencyTest {
+
+    private static final int THREADS = 8;
+    private static final int KEYS = 300;
+    private static final long MAX_SIZE = 2000;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void editRemoveAndTrimConcurrently() throws Exception {
+        File dir = folder.newFolder();
+        final DiskLruCache cache = DiskLruCache.open(dir, 1, 1, MAX_SIZE);
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        List<Future<Void>> futures = new ArrayList<>();
+        for (int t = 0; t < THREADS; t++) {
+            final int thread = t;
+            futures.add(executor.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    for (int i = 0; i < 3000; i++) {
+                        String key = "k" + ((i * 7 + thread) % KEYS);
+                        if (i % 3 == 0) {
+                            DiskLruCache.Editor editor = cache.edit(key);
+                            if (editor != null) {
+                                editor.set(0, key + "-value-" + i);
+                                editor.commit();
+                            }
+                        } else if (i % 17 == 0) {
+                            cache.remove(key);
+                        } else {
+                            DiskLruCache.Snapshot snapshot = cache.get(key);
+                            if (snapshot != null) {
+                                assertTrue(snapshot.getString(0).startsWith(key + "-"));
+                                snapshot.close();
+                            }
+                        }
+                    }
+                    return null;
+                }
+            }));
+        }
+        //删除新建中的数据会抛出 failed to delete
+        for (Future<Void> future : futures) {
+            future.get(60, TimeUnit.SECONDS);
+        }
+        executor.shutdown();
+        cache.flush();
+        assertTrue(cache.size() <= MAX_SIZE);
+        cache.close();
+
+        long files = 0;
+        for (File file : dir.listFiles()) {
+            if (!file.getName().startsWith("journal")) files += file.length();
+        }
+        DiskLruCache reopened = DiskLruCache.open(dir, 1, 1, MAX_SIZE);
+        assertEquals(files, reopened.size());
+        reopened.close();
+    }
+}
@@ -0,0 +1,173 @@
+package yuan.core.cache;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static yuan.core.cache.DiskLruCacheJournalTest.getString;
+import static yuan.core.cache.DiskLruCacheJournalTest.put;
+import static yuan.core.cache.DiskLruCacheJournalTest.readFile;
+import static yuan.core.cache.DiskLruCacheJournalTest.writeFile;
+import static yuan.core.cache.DiskLruCacheJournalTest.writeJournal;
+
+/**
+ * 描述：DiskLruCache过期时间在日志中的读写，过期数据先于有效数据删除，各淘汰策略的淘汰顺序
+ *
+ * @author yuanye
+ * @date 2019/9/7 15:20
+ */
+public class DiskLruCacheExpiryTest {
+
+    private static final long MAX_SIZE = 10 * 1024;
+    private static final long HOUR = 60 * 60 * 1000;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void expiryRoundTrip() throws Exception {
+        File dir = folder.newFolder();
+        long expiresAt = System.currentTimeMillis() + HOUR;
+        DiskLruCache cache = DiskLruCache.open(dir, 1, 1, MAX_SIZE);
+        putExpiring(cache, "ttl", "aaa", expiresAt);
+        put(cache, "forever", "bbb");
+        cache.close();
+        assertTrue(readFile(new File(dir, DiskLruCache.JOURNAL_FILE)).contains("CLEAN ttl 3 t" + expiresAt + "\n"));
+        //不使用索引，从日志读取过期时间
+        assertTrue(new File(dir, DiskLruCache.INDEX_FILE).delete());
+
+        DiskLruCache reopened = DiskLruCache.open(dir, 1, 1, MAX_SIZE);
+        assertEquals(expiresAt, getExpiresAt(reopened, "ttl"));
+        assertEquals(0, getExpiresAt(reopened, "forever"));
+        reopened.close();
+    }
+
+    @Test
+    public void legacyJournalWithoutExpiryLoads() throws Exception {
+        File dir = folder.newFolder();
+        writeFile(new File(dir, "k.0"), "old");
+        writeJournal(dir, "CLEAN k 3");
+
+        DiskLruCache cache = DiskLruCache.open(dir, 1, 1, MAX_SIZE);
+        assertEquals("old", getString(cache, "k"));
+        assertEquals(0, getExpiresAt(cache, "k"));
+        cache.close();
+    }
+
+    @Test
+    public void malformedExpiryIsRejected() throws Exception {
+        for (String token : new String[]{"tabc", "x123", "t", "t1 t2"}) {
+            File dir = folder.newFolder();
+            writeFile(new File(dir, "k.0"), "old");
+            writeJournal(dir, "CLEAN k 3 " + token);
+
+            //日志损坏时清空缓存
+            DiskLruCache cache = DiskLruCache.open(dir, 1, 1, MAX_SIZE);
+            assertNull(token, cache.get("k"));
+            assertEquals(token, 0, cache.size());
+            assertFalse(token, new File(dir, "k.0").exists());
+            cache.close();
+        }
+    }
+
+    @Test
+    public void expiredEntriesGoBeforeLiveOnes() throws Exception {
+        DiskLruCache cache = DiskLruCache.open(folder.newFolder(), 1, 1, 10);
+        put(cache, "a", "aaaa");
+        //已经过期，但比a更晚访问
+        putExpiring(cache, "expired", "eeee", 1);
+        put(cache, "b", "bbbb");
+        cache.flush();
+
+        assertEquals("aaaa", getString(cache, "a"));
+        assertEquals("bbbb", getString(cache, "b"));
+        assertEquals(1, cache.expiredCount());
+        assertEquals(0, cache.evictionCount());
+        assertEquals(8, cache.size());
+        cache.close();
+    }
+
+    @Test
+    public void lruEvictsLeastRecentlyUsed() throws Exception {
+        DiskLruCache cache = DiskLruCache.open(folder.newFolder(), 1, 1, 12, EvictionPolicies.LRU);
+        put(cache, "a", "aaaa");
+        put(cache, "b", "bbbb");
+        put(cache, "c", "cccc");
+        getString(cache, "a");
+        put(cache, "d", "dddd");
+        cache.flush();
+
+        assertFalse(cache.contains("b"));
+        assertTrue(cache.contains("a"));
+        assertTrue(cache.contains("c"));
+        assertTrue(cache.contains("d"));
+        cache.close();
+    }
+
+    @Test
+    public void ttlFirstEvictsSoonestExpiry() throws Exception {
+        long now = System.currentTimeMillis();
+        DiskLruCache cache = DiskLruCache.open(folder.newFolder(), 1, 1, 12, EvictionPolicies.TTL_FIRST);
+        put(cache, "forever", "ffff");
+        putExpiring(cache, "later", "llll", now + 2 * HOUR);
+        putExpiring(cache, "sooner", "ssss", now + HOUR);
+        getString(cache, "sooner");
+        put(cache, "d", "dddd");
+        cache.flush();
+
+        //最近访问过，但最先过期
+        assertFalse(cache.contains("sooner"));
+        assertTrue(cache.contains("forever"));
+        assertTrue(cache.contains("later"));
+        assertTrue(cache.contains("d"));
+        cache.close();
+    }
+
+    @Test
+    public void greedyDualSizeEvictsLargeValues() throws Exception {
+        DiskLruCache cache = DiskLruCache.open(folder.newFolder(), 1, 1, 100, EvictionPolicies.greedyDualSize());
+        put(cache, "small1", repeat('a', 10));
+        put(cache, "small2", repeat('b', 10));
+        put(cache, "large", repeat('c', 60));
+        put(cache, "medium", repeat('d', 30));
+        cache.flush();
+
+        //LRU会淘汰small1
+        assertFalse(cache.contains("large"));
+        assertTrue(cache.contains("small1"));
+        assertTrue(cache.contains("small2"));
+        assertTrue(cache.contains("medium"));
+        cache.close();
+    }
+
+    private static void putExpiring(DiskLruCache cache, String key, String value, long expiresAt) throws IOException {
+        DiskLruCache.Editor editor = cache.edit(key);
+        editor.set(0, value);
+        editor.setExpiresAt(expiresAt);
+        editor.commit();
+    }
+
+    private static long getExpiresAt(DiskLruCache cache, String key) throws IOException {
+        DiskLruCache.Snapshot snapshot = cache.get(key);
+        try {
+            return snapshot.getExpiresAt();
+        } finally {
+            snapshot.close();
+        }
+    }
+
+    private static String repeat(char c, int count) {
+        StringBuilder builder = new StringBuilder(count);
+        for (int i = 0; i < count; i++) {
+            builder.append(c);
+        }
+        return builder.toString();
+    }
+}
@@ -0,0 +1,198 @@
+package yuan.core.cache;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static yuan.core.cache.DiskLruCacheJournalTest.getString;
+import static yuan.core.cache.DiskLruCacheJournalTest.put;
+import static yuan.core.cache.DiskLruCacheJournalTest.readFile;
+
+/**
+ * 描述：DiskLruCache打开时读取索引并回放之后的日志，索引不可用或日志末行不完整时的处理
+ *
+ * @author yuanye
+ * @date 2019/9/6 14:30
+ */
+public class DiskLruCacheIndexTest {
+
+    private static final long MAX_SIZE = 10 * 1024;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void closeWritesIndex() throws Exception {
+        File dir = folder.newFolder();
+        DiskLruCache cache = DiskLruCache.open(dir, 1, 1, MAX_SIZE);
+        File index = new File(dir, DiskLruCache.INDEX_FILE);
+        byte[] rebuilt = readBytes(index);
+        put(cache, "a", "aaa");
+        cache.close();
+        //关闭时按最新的日志长度重新写入
+        assertFalse(Arrays.equals(rebuilt, readBytes(index)));
+    }
+
+    @Test
+    public void indexPlusTailReplay() throws Exception {
+        File dir = folder.newFolder();
+        DiskLruCache cache = DiskLruCache.open(dir, 1, 1, MAX_SIZE);
+        put(cache, "a", "aaa");
+        put(cache, "b", "bbb");
+        cache.close();
+        File index = new File(dir, DiskLruCache.INDEX_FILE);
+        byte[] oldIndex = readBytes(index);
+
+        DiskLruCache second = DiskLruCache.open(dir, 1, 1, MAX_SIZE);
+        put(second, "c", "ccc");
+        assertTrue(second.remove("a"));
+        second.close();
+        //恢复第一次关闭时的索引，之后的日志需要回放
+        writeBytes(index, oldIndex);
+        //索引可用时不读取日志头，损坏日志头可以确认使用了索引
+        RandomAccessFile journal = new RandomAccessFile(new File(dir, DiskLruCache.JOURNAL_FILE), "rw");
+        journal.write("XXXXX".getBytes("US-ASCII"));
+        journal.close();
+
+        DiskLruCache reopened = DiskLruCache.open(dir, 1, 1, MAX_SIZE);
+        assertNull(reopened.get("a"));
+        assertEquals("bbb", getString(reopened, "b"));
+        assertEquals("ccc", getString(reopened, "c"));
+        assertEquals(6, reopened.size());
+        reopened.close();
+    }
+
+    @Test
+    public void damagedIndexFallsBackToJournal() throws Exception {
+        File dir = folder.newFolder();
+        DiskLruCache cache = DiskLruCache.open(dir, 1, 1, MAX_SIZE);
+        put(cache, "a", "aaa");
+        put(cache, "b", "bbb");
+        cache.close();
+        File index = new File(dir, DiskLruCache.INDEX_FILE);
+        byte[] bytes = readBytes(index);
+        //保留头部和偏移量，条目被截断
+        writeBytes(index, Arrays.copyOf(bytes, bytes.length - 4));
+
+        DiskLruCache reopened = DiskLruCache.open(dir, 1, 1, MAX_SIZE);
+        assertEquals("aaa", getString(reopened, "a"));
+        assertEquals("bbb", getString(reopened, "b"));
+        assertEquals(6, reopened.size());
+        reopened.close();
+    }
+
+    @Test
+    public void staleIndexFallsBackToJournal() throws Exception {
+        File dir = folder.newFolder();
+        DiskLruCache cache = DiskLruCache.open(dir, 1, 1, MAX_SIZE);
+        put(cache, "a", "aaa");
+        cache.close();
+        File journal = new File(dir, DiskLruCache.JOURNAL_FILE);
+        byte[] shortJournal = readBytes(journal);
+
+        DiskLruCache second = DiskLruCache.open(dir, 1, 1, MAX_SIZE);
+        put(second, "b", "bbb");
+        second.close();
+        //索引指向的位置超过日志长度
+        writeBytes(journal, shortJournal);
+
+        DiskLruCache reopened = DiskLruCache.open(dir, 1, 1, MAX_SIZE);
+        assertEquals("aaa", getString(reopened, "a"));
+        assertNull(reopened.get("b"));
+        assertEquals(3, reopened.size());
+        reopened.close();
+    }
+
+    @Test
+    public void tornLastLineRebuildsJournal() throws Exception {
+        File dir = folder.newFolder();
+        DiskLruCache cache = DiskLruCache.open(dir, 1, 1, MAX_SIZE);
+        put(cache, "a", "aaa");
+        cache.close();
+        File journal = new File(dir, DiskLruCache.JOURNAL_FILE);
+        //写入一半时进程退出
+        FileOutputStream out = new FileOutputStream(journal, true);
+        out.write("CLEAN b 3".getBytes("US-ASCII"));
+        out.close();
+
+        DiskLruCache reopened = DiskLruCache.open(dir, 1, 1, MAX_SIZE);
+        assertEquals("aaa", getString(reopened, "a"));
+        assertNull(reopened.get("b"));
+        String rebuilt = readFile(journal);
+        assertTrue(rebuilt.endsWith("\n"));
+        assertFalse(rebuilt.contains("CLEAN b"));
+        //之后追加的日志不会接在不完整的行后面
+        put(reopened, "c", "ccc");
+        reopened.close();
+
+        DiskLruCache again = DiskLruCache.open(dir, 1, 1, MAX_SIZE);
+        assertEquals("aaa", getString(again, "a"));
+        assertEquals("ccc", getString(again, "c"));
+        again.close();
+    }
+
+    @Test
+    public void openAsyncReportsLoadFailure() throws Exception {
+        //目录位置是一个文件，无法创建日志
+        File notDirectory = folder.newFile();
+        DiskLruCache cache = DiskLruCache.openAsync(notDirectory, 1, 1, MAX_SIZE);
+        try {
+            cache.get("a");
+            fail("加载失败时应抛出异常");
+        } catch (IOException expected) {
+            assertTrue(expected.getMessage().startsWith("failed to load cache"));
+        }
+        try {
+            cache.edit("a");
+            fail("加载失败时应抛出异常");
+        } catch (IOException expected) {
+        }
+        assertTrue(cache.isLoaded());
+        assertTrue(cache.isClosed());
+        cache.close();
+    }
+
+    @Test
+    public void openAsyncLoadsExistingEntries() throws Exception {
+        File dir = folder.newFolder();
+        DiskLruCache cache = DiskLruCache.open(dir, 1, 1, MAX_SIZE);
+        put(cache, "a", "aaa");
+        cache.close();
+
+        DiskLruCache reopened = DiskLruCache.openAsync(dir, 1, 1, MAX_SIZE);
+        assertEquals("aaa", getString(reopened, "a"));
+        assertTrue(reopened.isLoaded());
+        reopened.close();
+    }
+
+    static byte[] readBytes(File file) throws IOException {
+        RandomAccessFile in = new RandomAccessFile(file, "r");
+        try {
+            byte[] bytes = new byte[(int) in.length()];
+            in.readFully(bytes);
+            return bytes;
+        } finally {
+            in.close();
+        }
+    }
+
+    static void writeBytes(File file, byte[] bytes) throws IOException {
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(bytes);
+        } finally {
+            out.close();
+        }
+    }
+}
@@ -0,0 +1,139 @@
+package yuan.core.cache;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 描述：DiskLruCache日志的写入顺序和重新打开时的回放
+ *
+ * @author yuanye
+ * @date 2019/9/6 10:20
+ */
+public class DiskLruCacheJournalTest {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final long MAX_SIZE = 10 * 1024;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void removeBeforeNewEntryKeepsLiveEntry() throws Exception {
+        File dir = folder.newFolder();
+        writeFile(new File(dir, "k.0"), "fresh");
+        writeJournal(dir,
+                "CLEAN k 5",
+                "REMOVE k",
+                "DIRTY k",
+                "CLEAN k 5");
+
+        DiskLruCache cache = DiskLruCache.open(dir, 1, 1, MAX_SIZE);
+        assertEquals("fresh", getString(cache, "k"));
+        assertEquals(5, cache.size());
+        cache.close();
+    }
+
+    @Test
+    public void removeAfterNewEntryDropsIt() throws Exception {
+        //修复前remove先移出map再写REMOVE，新数据的DIRTY、CLEAN可能写在REMOVE之前
+        File dir = folder.newFolder();
+        writeFile(new File(dir, "k.0"), "fresh");
+        writeJournal(dir,
+                "CLEAN k 5",
+                "DIRTY k",
+                "CLEAN k 5",
+                "REMOVE k");
+
+        DiskLruCache cache = DiskLruCache.open(dir, 1, 1, MAX_SIZE);
+        assertNull(cache.get("k"));
+        cache.close();
+    }
+
+    @Test
+    public void removeThenRecreateIsJournaledInOrder() throws Exception {
+        File dir = folder.newFolder();
+        DiskLruCache cache = DiskLruCache.open(dir, 1, 1, MAX_SIZE);
+        put(cache, "k", "stale");
+        assertTrue(cache.remove("k"));
+        put(cache, "k", "fresh");
+        cache.close();
+
+        List<String> lines = readJournal(dir);
+        int remove = lines.lastIndexOf("REMOVE k");
+        int dirty = lines.lastIndexOf("DIRTY k");
+        assertTrue(lines.toString(), remove != -1 && remove < dirty);
+
+        DiskLruCache reopened = DiskLruCache.open(dir, 1, 1, MAX_SIZE);
+        assertEquals("fresh", getString(reopened, "k"));
+        reopened.close();
+    }
+
+    static void put(DiskLruCache cache, String key, String value) throws IOException {
+        DiskLruCache.Editor editor = cache.edit(key);
+        editor.set(0, value);
+        editor.commit();
+    }
+
+    static String getString(DiskLruCache cache, String key) throws IOException {
+        DiskLruCache.Snapshot snapshot = cache.get(key);
+        assertNotNull(key, snapshot);
+        try {
+            return snapshot.getString(0);
+        } finally {
+            snapshot.close();
+        }
+    }
+
+    /**
+     * 写入appVersion为1、valueCount为1的日志
+     */
+    static void writeJournal(File dir, String... lines) throws IOException {
+        StringBuilder journal = new StringBuilder();
+        journal.append(DiskLruCache.MAGIC).append('\n')
+                .append(DiskLruCache.VERSION_1).append('\n')
+                .append("1\n")
+                .append("1\n")
+                .append('\n');
+        for (String line : lines) {
+            journal.append(line).append('\n');
+        }
+        writeFile(new File(dir, DiskLruCache.JOURNAL_FILE), journal.toString());
+    }
+
+    static List<String> readJournal(File dir) throws IOException {
+        List<String> lines = new ArrayList<>();
+        for (String line : readFile(new File(dir, DiskLruCache.JOURNAL_FILE)).split("\n")) {
+            lines.add(line);
+        }
+        return lines;
+    }
+
+    static void writeFile(File file, String content) throws IOException {
+        OutputStream out = new FileOutputStream(file);
+        try {
+            out.write(content.getBytes(UTF_8));
+        } finally {
+            out.close();
+        }
+    }
+
+    static String readFile(File file) throws IOException {
+        return DiskLruCache.readFully(new InputStreamReader(new FileInputStream(file), UTF_8));
+    }
+}
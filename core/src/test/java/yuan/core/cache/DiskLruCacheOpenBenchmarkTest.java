@@ -0,0 +1,83 @@
+package yuan.core.cache;
+
+import org.junit.Ignore;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 描述：10000、50000、100000条数据时打开DiskLruCache的耗时，对比完整回放日志和读取索引
+ * <p>
+ * 打开时不读取数据文件，只生成日志；耗时和磁盘有关，结果放在断言信息中，手动运行
+ *
+ * @author yuanye
+ * @date 2019/9/6 16:10
+ */
+@Ignore("基准测试，手动运行")
+public class DiskLruCacheOpenBenchmarkTest {
+
+    private static final int[] ENTRY_COUNTS = {10000, 50000, 100000};
+    private static final int VALUE_SIZE = 1024;
+    private static final int ROUNDS = 5;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void replayVersusIndex() throws Exception {
+        StringBuilder result = new StringBuilder();
+        for (int count : ENTRY_COUNTS) {
+            File dir = folder.newFolder();
+            long replayNanos = Long.MAX_VALUE;
+            long indexNanos = Long.MAX_VALUE;
+            for (int round = 0; round < ROUNDS; round++) {
+                //没有索引，完整回放日志，关闭时写入索引
+                writeJournal(dir, count);
+                new File(dir, DiskLruCache.INDEX_FILE).delete();
+                replayNanos = Math.min(replayNanos, open(dir, count));
+                indexNanos = Math.min(indexNanos, open(dir, count));
+            }
+            result.append(String.format("%d entries: replay %.1f ms, index %.1f ms; ",
+                    count, replayNanos / 1e6, indexNanos / 1e6));
+        }
+        assertTrue(result.toString(), result.length() > 0);
+    }
+
+    /**
+     * 返回打开的耗时，单位：纳秒
+     */
+    private static long open(File dir, int count) throws IOException {
+        long begin = System.nanoTime();
+        DiskLruCache cache = DiskLruCache.open(dir, 1, 1, Long.MAX_VALUE);
+        long nanos = System.nanoTime() - begin;
+        assertEquals((long) count * VALUE_SIZE, cache.size());
+        cache.close();
+        return nanos;
+    }
+
+    /**
+     * 每条数据一行DIRTY和一行CLEAN，与正常写入时的日志相同
+     */
+    private static void writeJournal(File dir, int count) throws IOException {
+        Writer writer = new BufferedWriter(new FileWriter(new File(dir, DiskLruCache.JOURNAL_FILE)));
+        try {
+            writer.write(DiskLruCache.MAGIC + "\n" + DiskLruCache.VERSION_1 + "\n1\n1\n\n");
+            for (int i = 0; i < count; i++) {
+                String key = "3400330d1dfc7f3f7f4b8d4d803d" + i;
+                writer.write("DIRTY " + key + "\n");
+                writer.write("CLEAN " + key + " " + VALUE_SIZE + "\n");
+            }
+        } finally {
+            writer.close();
+        }
+    }
+}
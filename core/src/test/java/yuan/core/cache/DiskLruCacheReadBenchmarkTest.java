@@ -0,0 +1,113 @@
+package yuan.core.cache;
+
+import org.junit.Ignore;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 描述：多线程读取DiskLruCache的吞吐量，对比并行读取和原来所有get串行执行的方式
+ * <p>
+ * 原来get是synchronized方法，这里在同一个缓存外加一把全局锁模拟；
+ * 吞吐量和机器核数有关，结果放在断言信息中，手动运行
+ *
+ * @author yuanye
+ * @date 2019/9/6 11:05
+ */
+@Ignore("基准测试，手动运行")
+public class DiskLruCacheReadBenchmarkTest {
+
+    private static final int THREADS = 8;
+    private static final int OPERATIONS = 20000;
+    private static final int KEYS = 256;
+    private static final int VALUE_SIZE = 1024;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void parallelVersusSerializedReads() throws Exception {
+        DiskLruCache cache = DiskLruCache.open(folder.newFolder(), 1, 1, Long.MAX_VALUE);
+        StringBuilder value = new StringBuilder();
+        while (value.length() < VALUE_SIZE) {
+            value.append('v');
+        }
+        for (int i = 0; i < KEYS; i++) {
+            DiskLruCacheJournalTest.put(cache, "k" + i, value.toString());
+        }
+
+        //预热
+        run(cache, true);
+        run(cache, false);
+
+        long serialNanos = run(cache, true);
+        long parallelNanos = run(cache, false);
+        cache.close();
+        long total = (long) THREADS * OPERATIONS;
+        String result = String.format("%d threads x %d gets: serialized %d ops/ms, parallel %d ops/ms (%d cores)",
+                THREADS, OPERATIONS, total * 1000000 / serialNanos, total * 1000000 / parallelNanos,
+                Runtime.getRuntime().availableProcessors());
+        assertTrue(result, parallelNanos > 0 && serialNanos > 0);
+    }
+
+    /**
+     * 所有线程同时开始，返回全部完成的耗时，单位：纳秒
+     *
+     * @param serialized true:所有get持有同一把锁
+     */
+    private static long run(final DiskLruCache cache, final boolean serialized) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        final CountDownLatch start = new CountDownLatch(1);
+        final Object lock = new Object();
+        Future<?>[] futures = new Future[THREADS];
+        for (int t = 0; t < THREADS; t++) {
+            final long seed = t;
+            futures[t] = executor.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    Random random = new Random(seed);
+                    start.await();
+                    for (int i = 0; i < OPERATIONS; i++) {
+                        String key = "k" + random.nextInt(KEYS);
+                        if (serialized) {
+                            synchronized (lock) {
+                                read(cache, key);
+                            }
+                        } else {
+                            read(cache, key);
+                        }
+                    }
+                    return null;
+                }
+            });
+        }
+        long begin = System.nanoTime();
+        start.countDown();
+        for (Future<?> future : futures) {
+            future.get(5, TimeUnit.MINUTES);
+        }
+        long nanos = System.nanoTime() - begin;
+        executor.shutdown();
+        return nanos;
+    }
+
+    private static void read(DiskLruCache cache, String key) throws IOException {
+        DiskLruCache.Snapshot snapshot = cache.get(key);
+        try {
+            snapshot.getString(0);
+        } finally {
+            snapshot.close();
+        }
+    }
+}
@@ -0,0 +1,152 @@
+package yuan.core.cache;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * 描述：Snapshot.getBuffer小文件读入堆内存、大文件映射，不影响getInputStream，文件被截断和关闭后的处理
+ *
+ * @author yuanye
+ * @date 2019/9/7 10:15
+ */
+public class DiskLruCacheSnapshotTest {
+
+    private static final long MAX_SIZE = 10 * 1024 * 1024;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void smallValueReadIntoHeap() throws Exception {
+        DiskLruCache cache = DiskLruCache.open(folder.newFolder(), 1, 1, MAX_SIZE);
+        byte[] value = bytes(DiskLruCache.MAP_THRESHOLD - 1);
+        put(cache, "k", value);
+
+        DiskLruCache.Snapshot snapshot = cache.get("k");
+        ByteBuffer buffer = snapshot.getBuffer(0);
+        assertFalse(buffer.isDirect());
+        assertTrue(buffer.isReadOnly());
+        assertEquals(0, buffer.position());
+        assertArrayEquals(value, toArray(buffer));
+        snapshot.close();
+        cache.close();
+    }
+
+    @Test
+    public void largeValueMapped() throws Exception {
+        DiskLruCache cache = DiskLruCache.open(folder.newFolder(), 1, 1, MAX_SIZE);
+        byte[] value = bytes(DiskLruCache.MAP_THRESHOLD);
+        put(cache, "k", value);
+
+        DiskLruCache.Snapshot snapshot = cache.get("k");
+        ByteBuffer buffer = snapshot.getBuffer(0);
+        assertTrue(buffer.isDirect());
+        assertTrue(buffer.isReadOnly());
+        assertArrayEquals(value, toArray(buffer));
+        //每次返回独立的位置
+        assertEquals(0, snapshot.getBuffer(0).position());
+        snapshot.close();
+        cache.close();
+    }
+
+    @Test
+    public void bufferDoesNotMoveInputStream() throws Exception {
+        DiskLruCache cache = DiskLruCache.open(folder.newFolder(), 1, 1, MAX_SIZE);
+        for (int size : new int[]{100, DiskLruCache.MAP_THRESHOLD * 2}) {
+            byte[] value = bytes(size);
+            put(cache, "k" + size, value);
+
+            DiskLruCache.Snapshot snapshot = cache.get("k" + size);
+            toArray(snapshot.getBuffer(0));
+            assertArrayEquals(value, readFully(snapshot.getInputStream(0)));
+            snapshot.close();
+        }
+        cache.close();
+    }
+
+    @Test
+    public void truncatedFileThrowsEOFException() throws Exception {
+        File dir = folder.newFolder();
+        DiskLruCache cache = DiskLruCache.open(dir, 1, 1, MAX_SIZE);
+        put(cache, "k", bytes(100));
+        RandomAccessFile file = new RandomAccessFile(new File(dir, "k.0"), "rw");
+        file.setLength(50);
+        file.close();
+
+        DiskLruCache.Snapshot snapshot = cache.get("k");
+        try {
+            snapshot.getBuffer(0);
+            fail("文件比记录的长度短");
+        } catch (EOFException expected) {
+        }
+        snapshot.close();
+        cache.close();
+    }
+
+    @Test
+    public void getBufferAfterCloseThrows() throws Exception {
+        DiskLruCache cache = DiskLruCache.open(folder.newFolder(), 1, 1, MAX_SIZE);
+        put(cache, "k", bytes(100));
+
+        DiskLruCache.Snapshot snapshot = cache.get("k");
+        snapshot.getBuffer(0);
+        snapshot.close();
+        try {
+            snapshot.getBuffer(0);
+            fail("关闭后不能再获取");
+        } catch (IllegalStateException expected) {
+        }
+        cache.close();
+    }
+
+    static void put(DiskLruCache cache, String key, byte[] value) throws IOException {
+        DiskLruCache.Editor editor = cache.edit(key);
+        OutputStream out = editor.newOutputStream(0);
+        try {
+            out.write(value);
+        } finally {
+            out.close();
+        }
+        editor.commit();
+    }
+
+    static byte[] bytes(int size) {
+        byte[] bytes = new byte[size];
+        for (int i = 0; i < size; i++) {
+            bytes[i] = (byte) i;
+        }
+        return bytes;
+    }
+
+    private static byte[] toArray(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.get(bytes);
+        return bytes;
+    }
+
+    private static byte[] readFully(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int count;
+        while ((count = in.read(buffer)) != -1) {
+            out.write(buffer, 0, count);
+        }
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,149 @@
+package yuan.core.cache;
+
+import android.support.v4.util.LruCache;
+import android.text.TextUtils;
+
+import org.junit.Ignore;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 描述：8个线程并发读写，对比分段的MemoryCache和原来单个LruCache的实现
+ * <p>
+ * 80%读、20%写，吞吐量和机器核数有关，结果放在断言信息中，只校验大小限制，手动运行
+ *
+ * @author yuanye
+ * @date 2019/8/30 15:10
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 27, manifest = Config.NONE)
+@Ignore("基准测试，手动运行")
+public class MemoryCacheBenchmarkTest {
+
+    private static final int THREADS = 8;
+    private static final int OPERATIONS = 200000;
+    private static final int KEYS = 4096;
+    private static final int VALUE_SIZE = 64;
+    /**
+     * 约能缓存一半的key
+     */
+    private static final int MAX_SIZE = KEYS / 2 * (VALUE_SIZE + 16);
+
+    @Test
+    public void compareWithLruCache() throws Exception {
+        final String[] keys = new String[KEYS];
+        for (int i = 0; i < KEYS; i++) {
+            keys[i] = "key" + i;
+        }
+        final MemoryCache memoryCache = new MemoryCache(MAX_SIZE);
+        final LruMemoryCache lruCache = new LruMemoryCache(MAX_SIZE);
+
+        //预热
+        run(memoryCache, keys);
+        run(lruCache, keys);
+
+        long lruNanos = run(lruCache, keys);
+        long memoryNanos = run(memoryCache, keys);
+        long total = (long) THREADS * OPERATIONS;
+        String result = String.format("%d threads x %d ops: LruCache %d ops/ms, MemoryCache %d ops/ms (%d cores) %s",
+                THREADS, OPERATIONS, total * 1000000 / lruNanos, total * 1000000 / memoryNanos,
+                Runtime.getRuntime().availableProcessors(), memoryCache);
+        assertTrue(result, memoryCache.size() <= memoryCache.maxSize());
+    }
+
+    /**
+     * 所有线程同时开始，返回全部完成的耗时，单位：纳秒
+     */
+    private static long run(final ICache cache, final String[] keys) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        final CountDownLatch start = new CountDownLatch(1);
+        Future<?>[] futures = new Future[THREADS];
+        for (int t = 0; t < THREADS; t++) {
+            final long seed = t;
+            futures[t] = executor.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    Random random = new Random(seed);
+                    start.await();
+                    for (int i = 0; i < OPERATIONS; i++) {
+                        String key = keys[random.nextInt(keys.length)];
+                        if (random.nextInt(5) == 0) {
+                            cache.put(key, new byte[VALUE_SIZE]);
+                        } else {
+                            cache.get(key);
+                        }
+                    }
+                    return null;
+                }
+            });
+        }
+        long begin = System.nanoTime();
+        start.countDown();
+        for (Future<?> future : futures) {
+            future.get(5, TimeUnit.MINUTES);
+        }
+        long nanos = System.nanoTime() - begin;
+        executor.shutdown();
+        return nanos;
+    }
+
+    /**
+     * 原来的实现：单个LruCache，按字节数计算大小
+     */
+    static class LruMemoryCache implements ICache {
+
+        private final LruCache<String, Object> cache;
+
+        LruMemoryCache(int maxSize) {
+            cache = new LruCache<String, Object>(maxSize) {
+                @Override
+                protected int sizeOf(String key, Object value) {
+                    return MemoryCache.DEFAULT_WEIGHER.weigh(key, value);
+                }
+            };
+        }
+
+        @Override
+        public synchronized void put(String key, Object value) {
+            if (TextUtils.isEmpty(key)) return;
+            if (cache.get(key) != null) {
+                cache.remove(key);
+            }
+            cache.put(key, value);
+        }
+
+        @Override
+        public Object get(String key) {
+            return cache.get(key);
+        }
+
+        @Override
+        public void remove(String key) {
+            if (cache.get(key) != null) {
+                cache.remove(key);
+            }
+        }
+
+        @Override
+        public boolean contains(String key) {
+            return cache.get(key) != null;
+        }
+
+        @Override
+        public void clear() {
+            cache.evictAll();
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package yuan.core.cache;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowSystemClock;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 描述：MemoryCache所有段共用总大小
+ *
+ * @author yuanye
+ * @date 2019/8/30 14:20
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 27, manifest = Config.NONE)
+public class MemoryCacheTest {
+
+    @Test
+    public void entryLargerThanSegmentShareIsKept() {
+        MemoryCache cache = new MemoryCache(1600);
+        for (int i = 0; i < 20; i++) {
+            cache.put("small" + i, new byte[10]);
+        }
+        //超过maxSize/16，仍然缓存，只淘汰其他数据
+        cache.put("large", new byte[1000]);
+        assertNotNull(cache.get("large"));
+        assertTrue(cache.size() <= cache.maxSize());
+        assertEquals(0, cache.evictionCount());
+
+        cache.put("larger", new byte[1000]);
+        assertNotNull(cache.get("larger"));
+        assertNull(cache.get("large"));
+        assertTrue(cache.size() <= cache.maxSize());
+    }
+
+    @Test
+    public void entryLargerThanMaxSizeIsRejected() {
+        MemoryCache cache = new MemoryCache(1600);
+        cache.put("key", new byte[10]);
+        cache.put("other", new byte[10]);
+        cache.put("key", new byte[2000]);
+        //不缓存，也不淘汰其他数据
+        assertFalse(cache.contains("key"));
+        assertNotNull(cache.get("other"));
+        assertEquals(0, cache.evictionCount());
+        assertEquals(MemoryCache.DEFAULT_WEIGHER.weigh("other", new byte[10]), cache.size());
+    }
+
+    @Test
+    public void entryCountWeigherHoldsMaxEntries() {
+        MemoryCache cache = new MemoryCache(10, MemoryCache.ENTRY_COUNT_WEIGHER);
+        for (int i = 0; i < 30; i++) {
+            cache.put("key" + i, i);
+        }
+        assertEquals(10, cache.size());
+        assertEquals(20, cache.evictionCount());
+    }
+
+    @Test
+    public void expiredEntriesTrimmedBeforeEviction() throws Exception {
+        MemoryCache cache = new MemoryCache(4, MemoryCache.ENTRY_COUNT_WEIGHER);
+        cache.put("ttl", 1, 1);
+        cache.put("a", 1);
+        cache.put("b", 1);
+        cache.put("c", 1);
+        ShadowSystemClock.sleep(5);
+        cache.put("d", 1);
+        assertEquals(1, cache.expiredCount());
+        assertEquals(0, cache.evictionCount());
+        assertNotNull(cache.get("a"));
+    }
+}
@@ -0,0 +1,203 @@
+package yuan.core.cache;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowSystemClock;
+
+import java.io.File;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 描述：TieredCache重启后从磁盘恢复并保留有效时间，读取磁盘期间被修改时不放入内存
+ *
+ * @author yuanye
+ * @date 2019/8/30 16:30
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 27, manifest = Config.NONE)
+public class TieredCacheTest {
+
+    private static final long MAX_SIZE = 1024 * 1024;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private ExecutorService executor;
+
+    @Before
+    public void setUp() {
+        executor = Executors.newSingleThreadExecutor();
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void warmStartReadsFromDisk() throws Exception {
+        File dir = folder.newFolder();
+        TieredCache<String> cache = TieredCache.open(dir, 1, MAX_SIZE, CacheCodecs.STRING);
+        cache.put("a", "hello");
+        cache.put("b", "world");
+        cache.remove("b");
+        cache.close();
+        assertTrue(cache.awaitClosed(10, TimeUnit.SECONDS));
+
+        //模拟进程重启：新的内存缓存，同一个磁盘目录
+        TieredCache<String> restarted = TieredCache.open(dir, 1, MAX_SIZE, CacheCodecs.STRING);
+        assertNull(restarted.getMemoryCache().get("a"));
+        assertEquals("hello", restarted.get("a"));
+        assertNull(restarted.get("b"));
+        assertFalse(restarted.contains("b"));
+        //磁盘命中后放入内存
+        assertEquals("hello", restarted.getMemoryCache().get("a"));
+        restarted.close();
+        assertTrue(restarted.awaitClosed(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void promotionKeepsRemainingTimeToLive() throws Exception {
+        File dir = folder.newFolder();
+        TieredCache<String> cache = TieredCache.open(dir, 1, MAX_SIZE, CacheCodecs.STRING);
+        cache.put("ttl", "value", 60 * 1000);
+        cache.put("forever", "value");
+        cache.close();
+        assertTrue(cache.awaitClosed(10, TimeUnit.SECONDS));
+
+        TieredCache<String> restarted = TieredCache.open(dir, 1, MAX_SIZE, CacheCodecs.STRING);
+        assertEquals("value", restarted.get("ttl"));
+        assertEquals("value", restarted.get("forever"));
+        assertEquals("value", restarted.getMemoryCache().get("ttl"));
+        //内存中的数据和磁盘同时过期
+        ShadowSystemClock.sleep(61 * 1000);
+        assertNull(restarted.getMemoryCache().get("ttl"));
+        assertEquals("value", restarted.getMemoryCache().get("forever"));
+        restarted.close();
+        assertTrue(restarted.awaitClosed(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void putDuringDiskReadIsNotOverwritten() throws Exception {
+        final BlockingDiskCache disk = newDisk();
+        disk.put("key", "old");
+        final TieredCache<String> cache = new TieredCache<>(new MemoryCache(MAX_SIZE), disk);
+
+        Future<String> read = readBlocked(cache, disk, "key");
+        cache.put("key", "new");
+        disk.release.countDown();
+
+        assertEquals("old", read.get(10, TimeUnit.SECONDS));
+        assertEquals("new", cache.getMemoryCache().get("key"));
+        assertEquals("new", cache.get("key"));
+    }
+
+    @Test
+    public void removeDuringDiskReadIsNotUndone() throws Exception {
+        final BlockingDiskCache disk = newDisk();
+        disk.put("key", "old");
+        final TieredCache<String> cache = new TieredCache<>(new MemoryCache(MAX_SIZE), disk);
+
+        Future<String> read = readBlocked(cache, disk, "key");
+        cache.remove("key");
+        disk.release.countDown();
+
+        assertEquals("old", read.get(10, TimeUnit.SECONDS));
+        assertNull(cache.getMemoryCache().get("key"));
+        assertNull(cache.get("key"));
+        assertFalse(cache.contains("key"));
+    }
+
+    @Test
+    public void clearHidesDiskValueBeforeDiskClear() throws Exception {
+        final BlockingDiskCache disk = newDisk();
+        disk.put("key", "old");
+        TieredCache<String> cache = new TieredCache<>(new MemoryCache(MAX_SIZE), disk);
+        //磁盘清空之前也读取不到
+        cache.clear();
+        assertNull(cache.get("key"));
+        cache.close();
+        assertTrue(cache.awaitClosed(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void operationsAfterCloseAreIgnored() throws Exception {
+        TieredCache<String> cache = TieredCache.open(folder.newFolder(), 1, MAX_SIZE, CacheCodecs.STRING);
+        cache.put("a", "hello");
+        cache.close();
+        assertTrue(cache.awaitClosed(10, TimeUnit.SECONDS));
+        //关闭后不抛出RejectedExecutionException
+        cache.put("b", "world");
+        cache.remove("a");
+        cache.clear();
+        cache.close();
+        assertNull(cache.get("b"));
+        assertFalse(cache.contains("b"));
+        assertEquals("hello", cache.get("a"));
+    }
+
+    private BlockingDiskCache newDisk() throws Exception {
+        return new BlockingDiskCache(DiskLruCache.open(folder.newFolder(), 1, 1, MAX_SIZE));
+    }
+
+    /**
+     * 在其他线程读取，返回时已读到磁盘数据，尚未放入内存
+     */
+    private Future<String> readBlocked(final TieredCache<String> cache, BlockingDiskCache disk,
+                                       final String key) throws InterruptedException {
+        disk.block = true;
+        Future<String> future = executor.submit(new Callable<String>() {
+            @Override
+            public String call() {
+                return cache.get(key);
+            }
+        });
+        assertTrue(disk.read.await(10, TimeUnit.SECONDS));
+        disk.block = false;
+        return future;
+    }
+
+    /**
+     * 读取磁盘后等待，模拟读取期间的并发修改
+     */
+    static class BlockingDiskCache extends DiskCache<String> {
+
+        final CountDownLatch read = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        volatile boolean block;
+
+        BlockingDiskCache(DiskLruCache cache) {
+            super(cache, CacheCodecs.STRING);
+        }
+
+        @Override
+        public Record<String> getRecord(String key) {
+            Record<String> value = super.getRecord(key);
+            if (block) {
+                read.countDown();
+                try {
+                    release.await(10, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            return value;
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package yuan.depends.cache;
+
+import android.support.annotation.NonNull;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+
+import java.io.IOException;
+import java.lang.reflect.Type;
+import java.nio.charset.Charset;
+
+import yuan.core.cache.CacheCodec;
+import yuan.depends.okhttp.OKUtil;
+
+/**
+ * 描述：通过Gson转换为json保存的{@link CacheCodec}
+ * <p>
+ * 默认使用OKUtil.JsonBack的全局Gson，注册的TypeAdapter同样生效
+ *
+ * @author yuanye
+ * @date 2019/8/22 11:40
+ */
+public class GsonCodec<T> implements CacheCodec<T> {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final Gson gson;
+    private final Type type;
+
+    /**
+     * @param type 数据类型，支持泛型，如new TypeToken<List<Foo>>(){}.getType()
+     */
+    public GsonCodec(@NonNull Type type) {
+        this(null, type);
+    }
+
+    public GsonCodec(Gson gson, @NonNull Type type) {
+        if (type == null) throw new NullPointerException("type == null");
+        this.gson = gson;
+        this.type = type;
+    }
+
+    @Override
+    public byte[] encode(T value) {
+        return getGson().toJson(value, type).getBytes(UTF_8);
+    }
+
+    @Override
+    public T decode(byte[] data) throws IOException {
+        try {
+            return getGson().fromJson(new String(data, UTF_8), type);
+        } catch (JsonParseException e) {
+            throw new IOException("json decode failed", e);
+        }
+    }
+
+    private Gson getGson() {
+        return gson != null ? gson : OKUtil.JsonBack.getGson();
+    }
+}
@@ -7,45 +7,75 @@ import android.net.NetworkInfo;
 import android.os.Environment;
 import android.os.Handler;
 import android.os.Looper;
+import android.os.SystemClock;
 import android.support.annotation.AnyThread;
 import android.support.annotation.MainThread;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 import android.text.TextUtils;
+import android.util.LruCache;
 import android.util.Log;
 
 import com.google.gson.Gson;
+import com.google.gson.stream.JsonReader;
 
 import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.RandomAccessFile;
 import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.lang.reflect.TypeVariable;
 import java.net.FileNameMap;
 import java.net.URLConnection;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
-import java.util.TreeSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import okhttp3.Cache;
+import okhttp3.CacheControl;
 import okhttp3.Call;
 import okhttp3.Callback;
 import okhttp3.CookieJar;
 import okhttp3.FormBody;
 import okhttp3.Headers;
+import okhttp3.HttpUrl;
 import okhttp3.Interceptor;
 import okhttp3.MediaType;
 import okhttp3.MultipartBody;
 import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
 import okhttp3.Request;
 import okhttp3.RequestBody;
 import okhttp3.ResponseBody;
 
+import okio.Buffer;
+import okio.BufferedSink;
+import okio.BufferedSource;
+import okio.Okio;
+
+import yuan.core.tool.Codec;
+
 /**
  * 描述：基于OKHttp的网络请求封装。
  * <p>
@@ -78,7 +108,24 @@ public class OKUtil {
     /**
      * 所有使用过的文件缓存路径
      */
-    private static TreeSet<String> cachePaths;
+    private static final Set<String> cachePaths = new ConcurrentSkipListSet<>();
+    /**
+     * 缓存大小统计结果的有效时间，单位：毫秒
+     */
+    private final static long CACHE_SIZE_TTL = 30 * 1000;
+    /**
+     * 最近一次统计的缓存大小及统计时间
+     */
+    private static volatile long lastCacheSize = -1;
+    private static volatile long lastCacheSizeTime;
+    /**
+     * 缓存统计、清理任务线程，任务依次执行
+     */
+    private static ExecutorService cacheExecutor;
+    /**
+     * 缓存删除线程，限制同时删除的数量
+     */
+    private static ExecutorService deleteExecutor;
 
     private OkHttpClient client;
     private Request.Builder requestBuilder;
@@ -100,7 +147,7 @@ public class OKUtil {
      */
     public static long getCacheSize() {
         long total = 0;
-        if (cachePaths != null && cachePaths.size() > 0) {
+        if (cachePaths.size() > 0) {
             for (String path : cachePaths) {
                 total = total + getFolderSize(new File(path));
             }
@@ -139,13 +186,292 @@ public class OKUtil {
      * 删除缓存
      */
     public static void delCache() {
-        if (cachePaths != null && cachePaths.size() > 0) {
+        lastCacheSize = -1;
+        if (cachePaths.size() > 0) {
             for (String path : cachePaths) {
                 delFolder(path);
             }
         }
     }
 
+    /**
+     * 后台统计缓存文件夹大小，统计结果在CACHE_SIZE_TTL内有效
+     *
+     * @param back 主线程回调
+     */
+    public static void getCacheSizeAsync(@NonNull CacheBack back) {
+        getCacheSizeAsync(CACHE_SIZE_TTL, back);
+    }
+
+    /**
+     * 后台统计缓存文件夹大小，统计过程中通过onProgress回调已统计的大小
+     *
+     * @param ttl  上次统计结果的有效时间，单位：毫秒，0表示重新统计
+     * @param back 主线程回调
+     */
+    public static void getCacheSizeAsync(final long ttl, @NonNull final CacheBack back) {
+        if (back == null) throw new NullPointerException("回调：CacheBack == null");
+        long size = lastCacheSize;
+        if (size >= 0 && SystemClock.uptimeMillis() - lastCacheSizeTime < ttl) {
+            back.postComplete(size);
+            return;
+        }
+        getCacheExecutor().execute(new Runnable() {
+            @Override
+            public void run() {
+                long total = 0;
+                for (String path : cachePaths) {
+                    total = walkCache(new File(path), total, null, back);
+                }
+                lastCacheSize = total;
+                lastCacheSizeTime = SystemClock.uptimeMillis();
+                back.postComplete(total);
+            }
+        });
+    }
+
+    /**
+     * 后台删除所有缓存，多个文件夹同时删除，onComplete返回删除的字节数
+     *
+     * @param back 主线程回调
+     */
+    public static void delCacheAsync(@Nullable final CacheBack back) {
+        getCacheExecutor().execute(new Runnable() {
+            @Override
+            public void run() {
+                lastCacheSize = -1;
+                long deleted = deleteAll(back);
+                if (back != null) back.postComplete(deleted);
+            }
+        });
+    }
+
+    /**
+     * 后台按时间和大小清理缓存，先删除超过maxAge的文件，剩余大小超过maxSize时从最早的文件开始删除，
+     * OKHttp缓存文件夹通过Cache删除对应的缓存，不直接删除文件，onComplete返回删除的字节数；
+     * maxAge和maxSize都为0时不清理，删除所有缓存使用{@link #delCacheAsync}
+     *
+     * @param maxAge  文件最长保存时间，单位：毫秒，0表示不限制
+     * @param maxSize 清理后缓存的最大大小，单位：字节，0表示不限制
+     * @param back    主线程回调
+     */
+    public static void trimCacheAsync(final long maxAge, final long maxSize, @Nullable final CacheBack back) {
+        getCacheExecutor().execute(new Runnable() {
+            @Override
+            public void run() {
+                long deleted = 0;
+                if (maxAge > 0 || maxSize > 0) {
+                    lastCacheSize = -1;
+                    deleted = trim(maxAge, maxSize, back);
+                }
+                if (back != null) back.postComplete(deleted);
+            }
+        });
+    }
+
+    private static synchronized ExecutorService getCacheExecutor() {
+        if (cacheExecutor == null) {
+            cacheExecutor = Executors.newSingleThreadExecutor();
+            deleteExecutor = Executors.newFixedThreadPool(3);
+        }
+        return cacheExecutor;
+    }
+
+    /**
+     * 遍历文件夹，统计大小，有文件列表时收集所有文件
+     *
+     * @param file  文件夹
+     * @param total 已统计的大小
+     * @param files 所有文件，为null时不收集
+     * @return 统计后的大小
+     */
+    private static long walkCache(File file, long total, @Nullable List<File> files,
+                                  @Nullable CacheBack back) {
+        LinkedList<File> dirs = new LinkedList<>();
+        dirs.add(file);
+        while (!dirs.isEmpty()) {
+            File[] fileList = dirs.removeFirst().listFiles();
+            if (fileList == null) continue;
+            for (File child : fileList) {
+                if (child.isDirectory()) {
+                    dirs.add(child);
+                } else {
+                    total += child.length();
+                    if (files != null) files.add(child);
+                }
+            }
+            if (back != null) back.postProgress(total);
+        }
+        return total;
+    }
+
+    /**
+     * 删除所有缓存，每个文件夹的子文件由删除线程同时删除
+     */
+    private static long deleteAll(@Nullable final CacheBack back) {
+        final AtomicLong deleted = new AtomicLong();
+        //OKHttp缓存通过Cache删除，保证journal一致
+        for (Cache cache : RxHttpClient.caches.values()) {
+            try {
+                deleted.addAndGet(cache.size());
+                cache.evictAll();
+            } catch (IOException e) {
+                Log.d("OKUtil", "删除OKHttp缓存失败：" + e.getMessage());
+            }
+        }
+        if (back != null && deleted.get() > 0) back.postProgress(deleted.get());
+        for (MemoryResponseCache memoryCache : RxHttpClient.memoryCaches.values()) {
+            memoryCache.evictAll();
+        }
+        List<Future<?>> futures = new ArrayList<>();
+        for (String path : cachePaths) {
+            //正在使用的OKHttp缓存文件夹已清空，不能删除journal
+            if (RxHttpClient.caches.containsKey(path)) continue;
+            File[] fileList = new File(path).listFiles();
+            if (fileList == null) continue;
+            for (final File child : fileList) {
+                futures.add(deleteExecutor.submit(new Runnable() {
+                    @Override
+                    public void run() {
+                        long size = child.isDirectory() ? getFolderSize(child) : child.length();
+                        if (child.isDirectory()) {
+                            delFolder(child.getAbsolutePath());
+                        } else {
+                            child.delete();
+                        }
+                        long current = deleted.addAndGet(size);
+                        if (back != null) back.postProgress(current);
+                    }
+                }));
+            }
+        }
+        for (Future<?> future : futures) {
+            try {
+                future.get();
+            } catch (Exception e) {
+                Log.d("OKUtil", "删除缓存失败：" + e.getMessage());
+            }
+        }
+        return deleted.get();
+    }
+
+    /**
+     * 按时间和大小清理缓存，从最早修改的开始删除
+     */
+    private static long trim(long maxAge, long maxSize, @Nullable CacheBack back) {
+        if (maxSize <= 0) maxSize = Long.MAX_VALUE;
+        List<TrimItem> items = new ArrayList<>();
+        long total = 0;
+        for (String path : cachePaths) {
+            Cache cache = RxHttpClient.caches.get(path);
+            if (cache != null) {
+                total = walkHttpCache(cache, total, items);
+                continue;
+            }
+            List<File> files = new ArrayList<>();
+            total = walkCache(new File(path), total, files, null);
+            for (File file : files) {
+                items.add(new TrimItem(file, null, null, file.lastModified(), file.length()));
+            }
+        }
+        long before = total;
+        Collections.sort(items, new Comparator<TrimItem>() {
+            @Override
+            public int compare(TrimItem o1, TrimItem o2) {
+                long l1 = o1.lastModified;
+                long l2 = o2.lastModified;
+                return l1 < l2 ? -1 : (l1 == l2 ? 0 : 1);
+            }
+        });
+        //需要通过Cache删除的地址：<Cache,地址>
+        Map<Cache, Set<String>> evictUrls = new HashMap<>();
+        long now = System.currentTimeMillis();
+        for (TrimItem item : items) {
+            boolean expired = maxAge > 0 && now - item.lastModified > maxAge;
+            //按修改时间排序，之后的文件也不会过期
+            if (!expired && total <= maxSize) break;
+            if (item.cache != null) {
+                Set<String> urls = evictUrls.get(item.cache);
+                if (urls == null) {
+                    urls = new HashSet<>();
+                    evictUrls.put(item.cache, urls);
+                }
+                urls.add(item.url);
+                total -= item.length;
+            } else if (item.file.delete()) {
+                total -= item.length;
+                if (back != null) back.postProgress(before - total);
+            }
+        }
+        //OKHttp缓存通过Cache删除，保证journal一致
+        for (Map.Entry<Cache, Set<String>> entry : evictUrls.entrySet()) {
+            try {
+                Iterator<String> urls = entry.getKey().urls();
+                while (urls.hasNext()) {
+                    if (entry.getValue().contains(urls.next())) urls.remove();
+                }
+            } catch (IOException e) {
+                Log.d("OKUtil", "清理OKHttp缓存失败：" + e.getMessage());
+            }
+        }
+        if (back != null && !evictUrls.isEmpty()) back.postProgress(before - total);
+        return before - total;
+    }
+
+    /**
+     * 统计OKHttp缓存中每条缓存的大小和修改时间，不包含journal
+     *
+     * @param cache 正在使用的Cache
+     * @param total 已统计的大小
+     * @param items 所有缓存
+     * @return 统计后的大小
+     */
+    private static long walkHttpCache(Cache cache, long total, List<TrimItem> items) {
+        File dir = cache.directory();
+        try {
+            Iterator<String> urls = cache.urls();
+            while (urls.hasNext()) {
+                String url = urls.next();
+                HttpUrl httpUrl = HttpUrl.parse(url);
+                if (httpUrl == null) continue;
+                //Cache中每条缓存为key.0(头部)和key.1(内容)两个文件
+                String key = Cache.key(httpUrl);
+                File metadata = new File(dir, key + ".0");
+                long length = metadata.length() + new File(dir, key + ".1").length();
+                items.add(new TrimItem(null, cache, url, metadata.lastModified(), length));
+                total += length;
+            }
+        } catch (IOException e) {
+            Log.d("OKUtil", "统计OKHttp缓存失败：" + e.getMessage());
+        }
+        return total;
+    }
+
+    /**
+     * 待清理的缓存文件或OKHttp缓存
+     */
+    private static class TrimItem {
+        /**
+         * 普通缓存文件，OKHttp缓存时为null
+         */
+        final File file;
+        /**
+         * OKHttp缓存所在的Cache和地址
+         */
+        final Cache cache;
+        final String url;
+        final long lastModified;
+        final long length;
+
+        TrimItem(File file, Cache cache, String url, long lastModified, long length) {
+            this.file = file;
+            this.cache = cache;
+            this.url = url;
+            this.lastModified = lastModified;
+            this.length = length;
+        }
+    }
+
     /**
      * 删除文件夹
      *
@@ -198,6 +524,63 @@ public class OKUtil {
         return flag;
     }
 
+    /**
+     * Client池命中次数
+     *
+     * @return 复用已有Client的次数
+     */
+    public static long getClientPoolHitCount() {
+        return RxHttpClient.hitCount.get();
+    }
+
+    /**
+     * Client池未命中次数
+     *
+     * @return 新建Client的次数
+     */
+    public static long getClientPoolMissCount() {
+        return RxHttpClient.missCount.get();
+    }
+
+    /**
+     * 获取全局配置对应的内存缓存，用于查看命中率等统计
+     *
+     * @return MemoryResponseCache, 未开启缓存时返回null
+     */
+    @Nullable
+    public static MemoryResponseCache getMemoryCache() {
+        return mConfig == null ? null : getMemoryCache(mConfig);
+    }
+
+    /**
+     * 获取配置对应的内存缓存，用于查看命中率等统计
+     *
+     * @param config 配置
+     * @return MemoryResponseCache, 未开启缓存时返回null
+     */
+    @Nullable
+    public static MemoryResponseCache getMemoryCache(@NonNull Config config) {
+        return RxHttpClient.getMemoryCache(config);
+    }
+
+    /**
+     * 相同GET请求合并次数
+     *
+     * @return 未发起网络请求的次数
+     */
+    public static long getCoalesceHitCount() {
+        return SingleFlight.hitCount.get();
+    }
+
+    /**
+     * 开启合并的GET请求实际发起网络请求的次数
+     *
+     * @return 发起网络请求的次数
+     */
+    public static long getCoalesceMissCount() {
+        return SingleFlight.missCount.get();
+    }
+
     /**
      * 采用全局默认参数设置请求
      *
@@ -238,12 +621,9 @@ public class OKUtil {
      */
     private OKUtil(Context context, @NonNull Config config) {
         mContext = context;
-        if (cachePaths == null) {
-            cachePaths = new TreeSet<>();
-        }
         cachePaths.add(config.getCachePath());
-        //获取Client
-        client = new RxHttpClient(config).getClient();
+        //获取Client，相同配置复用同一个Client
+        client = RxHttpClient.obtain(context, config);
         requestBuilder = new Request.Builder();
         //配置公共请求头
         if (config != null) {
@@ -270,6 +650,29 @@ public class OKUtil {
         return new ParamBuild(requestBuilder, client, ParamBuild.GET, httpUrl);
     }
 
+    /**
+     * 批量请求
+     *
+     * @return
+     */
+    public BatchBuild batch() {
+        return new BatchBuild(client);
+    }
+
+    /**
+     * 多线程分段下载
+     *
+     * @param httpUrl 下载地址
+     * @return
+     */
+    public SegmentBuild segment(@NonNull String httpUrl) {
+        if (TextUtils.isEmpty(httpUrl)) {
+            throw new NullPointerException("地址：url == null");
+        }
+        requestBuilder.url(httpUrl);
+        return new SegmentBuild(requestBuilder, client);
+    }
+
     /**
      * 参数配置
      *
@@ -327,6 +730,10 @@ public class OKUtil {
          * 请求地址
          */
         private String url;
+        /**
+         * 相同GET请求合并的时间窗口，小于0不合并
+         */
+        private long coalesceWindow = -1;
 
 
         public ParamBuild(@NonNull Request.Builder request,
@@ -381,6 +788,25 @@ public class OKUtil {
         }
 
 
+        /**
+         * 合并正在进行中的相同GET请求，只发起一次网络请求，结果分发给所有回调
+         * 只合并同一Client发起的请求，FileBack下载不合并
+         */
+        public ParamBuild coalesce() {
+            return coalesce(0);
+        }
+
+        /**
+         * 合并正在进行中的相同GET请求
+         *
+         * @param window 只合并window毫秒内发起的相同请求，0表示不限制
+         */
+        public ParamBuild coalesce(long window) {
+            if (window < 0) throw new IllegalArgumentException("参数：window < 0");
+            this.coalesceWindow = window;
+            return this;
+        }
+
         /**
          * ****************************最后的执行部分****************************************
          */
@@ -402,11 +828,30 @@ public class OKUtil {
                     break;
             }
 
-            return new Execute(requestBuilder, client);
+            return new Execute(requestBuilder, client).coalesce(coalesceWindow);
         }
 
         public void execute(@NonNull BaseBack mainCall) {
+            buildBody();
+            new Execute(requestBuilder, client)
+                    .coalesce(coalesceWindow)
+                    .execute(mainCall);
+        }
+
+        /**
+         * 构建请求，用于批量请求
+         *
+         * @return Request
+         */
+        Request build() {
+            buildBody();
+            return requestBuilder.build();
+        }
 
+        /**
+         * 根据参数、文件、字节构建请求体
+         */
+        private void buildBody() {
             if (bytes.size() > 0 || files.size() > 0) {
                 /**
                  * 当存在文件数据时，上传文件的方式
@@ -465,7 +910,6 @@ public class OKUtil {
                         break;
                 }
             }
-            new Execute(requestBuilder, client).execute(mainCall);
         }
 
         /**
@@ -569,88 +1013,952 @@ public class OKUtil {
     }
 
     /**
-     * 最后的执行
-     * Created by YuanYe on 2017/9/26.
+     * 批量请求
+     * <p>
+     * 收集多个ParamBuild/Execute请求，按host限制同时进行的请求数，全部完成后在主线程回调一次BatchBack。
+     * 单个请求可以传入BaseBack单独处理返回，未传入时返回内容以字符串保存在BatchResult中。
+     * 接口支持时可通过mergeJson/mergeMultipart将所有请求体合并为一次请求，
+     * 此时只有一个BatchResult，单个请求的BaseBack不会回调。
      */
-    public class Execute {
+    public class BatchBuild {
 
-        protected Request.Builder requestBuilder;
-        protected OkHttpClient client;
+        private final static String TAG = "BatchBuild";
 
-        public Execute(Request.Builder request, OkHttpClient _client) {
-            this.requestBuilder = request;
-            this.client = _client;
-        }
+        private final static int MERGE_NONE = 0;
+        private final static int MERGE_JSON = 1;
+        private final static int MERGE_MULTIPART = 2;
+
+        public final MediaType JSON = MediaType.parse("application/json; charset=utf-8");
 
         /**
-         * ****************************callBack请求封装****************************************
+         * 执行体
          */
-        //统一对requestBuild处理，
-        private Request getRequestBuild() {
-            return requestBuilder.build();
-        }
-
-        //统一返回
-        public void execute(BaseBack mainBack) {
-            if (mainBack == null) throw new NullPointerException("回调：RxCall == null");
-            MainCall baseFileBack = new MainCall(mainBack);
-            client.newCall(getRequestBuild())
-                    .enqueue(baseFileBack);
-        }
-    }
-
-    /**
-     * 接替OKHttp返回回调
-     *
-     * @author yuanye
-     * @date 2018/11/28 11:56
-     */
-    class MainCall implements Callback {
-
-        private final String TAG = "MainCall";
+        private OkHttpClient client;
         /**
-         * 回调
+         * 所有请求
          */
-        private BaseBack mainBack;
+        private final List<BatchItem> items = new ArrayList<>();
+        /**
+         * 等待执行的请求
+         */
+        private final LinkedList<BatchItem> pending = new LinkedList<>();
+        /**
+         * 每个host正在执行的请求数
+         */
+        private final HashMap<String, Integer> running = new HashMap<>();
+        /**
+         * 每个host最多同时执行的请求数
+         */
+        private int maxPerHost = 4;
+        /**
+         * 合并方式
+         */
+        private int mergeType = MERGE_NONE;
+        /**
+         * 合并请求地址
+         */
+        private String mergeUrl;
+        /**
+         * 未完成的请求数
+         */
+        private int remaining;
+        private boolean executed;
+        private boolean canceled;
+        private BatchBack batchBack;
         /**
          * 主线程
          */
         private Handler mainHandler;
 
-        public MainCall(BaseBack mainBack) {
-            this.mainBack = mainBack;
+        public BatchBuild(@NonNull OkHttpClient _client) {
+            this.client = _client;
             mainHandler = new Handler(Looper.getMainLooper());
         }
 
-        @Override
-        public void onFailure(Call call, IOException e) {
-            runMainException(e);
+        public BatchBuild add(@NonNull ParamBuild paramBuild) {
+            return add(paramBuild, null);
         }
 
-        @Override
-        public void onResponse(Call call, okhttp3.Response response) throws IOException {
-            Response baseResponse = new Response();
-            baseResponse.code = response.code();
-            baseResponse.mssage = response.message();
-            baseResponse.requestUrl = response.request().url().url().getPath();
+        /**
+         * @param paramBuild 请求
+         * @param mainBack   单个请求的回调，为null时返回内容保存在BatchResult.body
+         */
+        public BatchBuild add(@NonNull ParamBuild paramBuild, @Nullable BaseBack mainBack) {
+            if (paramBuild == null) throw new NullPointerException("参数：paramBuild == null");
+            return addRequest(paramBuild.build(), mainBack);
+        }
 
-            ResponseBody body = response.body();
-            baseResponse.contentLength = body.contentLength();
+        /**
+         * @param execute  通过ParamBuild.json()创建的请求
+         * @param mainBack 单个请求的回调，为null时返回内容保存在BatchResult.body
+         */
+        public BatchBuild add(@NonNull Execute execute, @Nullable BaseBack mainBack) {
+            if (execute == null) throw new NullPointerException("参数：execute == null");
+            return addRequest(execute.getRequestBuild(), mainBack);
+        }
 
-            baseResponse.body = body;
+        private BatchBuild addRequest(Request request, BaseBack mainBack) {
+            if (executed) throw new IllegalStateException("批量请求已执行");
+            items.add(new BatchItem(items.size(), request, mainBack));
+            return this;
+        }
 
-            try {
-                mainBack.onResponse(baseResponse);
-            } catch (Exception e) {
-                runMainException(e);
-            }
+        public BatchBuild setMaxPerHost(int maxPerHost) {
+            if (maxPerHost <= 0) throw new IllegalArgumentException("参数：maxPerHost <= 0");
+            this.maxPerHost = maxPerHost;
+            return this;
         }
 
-        protected void runMainException(final Exception exception) {
-            mainHandler.post(new Runnable() {
-                @Override
-                public void run() {
-                    Log.d(TAG, "error:" + exception.getMessage());
+        /**
+         * 将所有请求体合并为json数组，一次POST到mergeUrl，要求所有请求体为json
+         *
+         * @param mergeUrl 合并请求地址
+         */
+        public BatchBuild mergeJson(@NonNull String mergeUrl) {
+            if (TextUtils.isEmpty(mergeUrl)) throw new NullPointerException("地址：url == null");
+            this.mergeType = MERGE_JSON;
+            this.mergeUrl = mergeUrl;
+            return this;
+        }
+
+        /**
+         * 将所有请求体作为multipart的各部分，一次POST到mergeUrl
+         *
+         * @param mergeUrl 合并请求地址
+         */
+        public BatchBuild mergeMultipart(@NonNull String mergeUrl) {
+            if (TextUtils.isEmpty(mergeUrl)) throw new NullPointerException("地址：url == null");
+            this.mergeType = MERGE_MULTIPART;
+            this.mergeUrl = mergeUrl;
+            return this;
+        }
+
+        public void execute(@NonNull BatchBack back) {
+            if (back == null) throw new NullPointerException("回调：BatchBack == null");
+            List<BatchItem> merged = null;
+            synchronized (this) {
+                if (executed) throw new IllegalStateException("批量请求已执行");
+                executed = true;
+                batchBack = back;
+                if (mergeType != MERGE_NONE && items.size() > 0) {
+                    merged = new ArrayList<>(items);
+                    items.clear();
+                    try {
+                        items.add(new BatchItem(0, mergeRequest(merged), null));
+                    } catch (IOException e) {
+                        BatchItem item = new BatchItem(0, merged.get(0).request, null);
+                        item.result.exception = e;
+                        items.add(item);
+                        remaining = 0;
+                        postComplete();
+                        return;
+                    }
+                }
+                if (canceled) {
+                    //execute之前已取消，直接回调
+                    for (BatchItem item : items) {
+                        item.result.exception = new IOException("Canceled");
+                    }
+                    remaining = 0;
+                    postComplete();
+                    return;
+                }
+                remaining = items.size();
+                pending.addAll(items);
+                if (remaining == 0) {
+                    postComplete();
+                    return;
+                }
+            }
+            if (merged != null) Log.d(TAG, "合并请求：" + merged.size() + " " + mergeUrl);
+            dispatch();
+        }
+
+        /**
+         * 取消所有未完成的请求，已取消的请求在BatchResult中为Canceled异常
+         * 在execute之前取消时，execute会立即回调，所有结果均为Canceled异常
+         */
+        public void cancel() {
+            List<BatchItem> calls = new ArrayList<>();
+            synchronized (this) {
+                if (canceled) return;
+                canceled = true;
+                int canceledCount = pending.size();
+                for (BatchItem item : pending) {
+                    item.result.exception = new IOException("Canceled");
+                }
+                pending.clear();
+                remaining -= canceledCount;
+                for (BatchItem item : items) {
+                    if (item.call != null) calls.add(item);
+                }
+                if (canceledCount > 0 && remaining == 0) postComplete();
+            }
+            for (BatchItem item : calls) {
+                item.call.cancel();
+            }
+        }
+
+        /**
+         * 按host限制执行等待中的请求
+         */
+        private void dispatch() {
+            List<BatchItem> ready = new ArrayList<>();
+            synchronized (this) {
+                if (canceled) return;
+                Iterator<BatchItem> iterator = pending.iterator();
+                while (iterator.hasNext()) {
+                    BatchItem item = iterator.next();
+                    String host = item.request.url().host();
+                    Integer count = running.get(host);
+                    if (count == null) count = 0;
+                    if (count < maxPerHost) {
+                        running.put(host, count + 1);
+                        iterator.remove();
+                        item.call = client.newCall(item.request);
+                        ready.add(item);
+                    }
+                }
+            }
+            for (BatchItem item : ready) {
+                item.call.enqueue(item);
+            }
+        }
+
+        private void finish(BatchItem item) {
+            synchronized (this) {
+                String host = item.request.url().host();
+                Integer count = running.get(host);
+                if (count != null && count > 1) {
+                    running.put(host, count - 1);
+                } else {
+                    running.remove(host);
+                }
+                remaining--;
+                if (remaining == 0) {
+                    postComplete();
+                    return;
+                }
+            }
+            dispatch();
+        }
+
+        /**
+         * 切换到主线程回调一次
+         */
+        private void postComplete() {
+            final List<BatchResult> results = new ArrayList<>(items.size());
+            for (BatchItem item : items) {
+                results.add(item.result);
+            }
+            mainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    batchBack.onComplete(results);
+                }
+            });
+        }
+
+        /**
+         * 合并所有请求体
+         */
+        private Request mergeRequest(List<BatchItem> merged) throws IOException {
+            RequestBody body;
+            if (mergeType == MERGE_JSON) {
+                Buffer buffer = new Buffer();
+                buffer.writeUtf8("[");
+                for (int i = 0; i < merged.size(); i++) {
+                    RequestBody itemBody = merged.get(i).request.body();
+                    if (itemBody == null) throw new IOException("合并请求的请求体为空：" + merged.get(i).request.url());
+                    if (i > 0) buffer.writeUtf8(",");
+                    itemBody.writeTo(buffer);
+                }
+                buffer.writeUtf8("]");
+                body = RequestBody.create(JSON, buffer.readByteString());
+            } else {
+                MultipartBody.Builder multipartBody = new MultipartBody.Builder().setType(MultipartBody.FORM);
+                for (int i = 0; i < merged.size(); i++) {
+                    RequestBody itemBody = merged.get(i).request.body();
+                    if (itemBody == null) throw new IOException("合并请求的请求体为空：" + merged.get(i).request.url());
+                    multipartBody.addFormDataPart("request" + i, null, itemBody);
+                }
+                body = multipartBody.build();
+            }
+            //使用第一个请求的头部(包含公共头部)
+            return merged.get(0).request.newBuilder()
+                    .url(mergeUrl)
+                    .post(body)
+                    .build();
+        }
+
+        /**
+         * 批量请求中的单个请求
+         */
+        private class BatchItem implements Callback {
+
+            private final Request request;
+            private final BaseBack mainBack;
+            private final BatchResult result;
+            private Call call;
+
+            BatchItem(int index, Request request, BaseBack mainBack) {
+                this.request = request;
+                this.mainBack = mainBack;
+                this.result = new BatchResult(index, request.url().toString());
+            }
+
+            @Override
+            public void onFailure(Call call, IOException e) {
+                result.exception = e;
+                if (mainBack != null) {
+                    new MainCall(mainBack).onFailure(call, e);
+                }
+                finish(this);
+            }
+
+            @Override
+            public void onResponse(Call call, okhttp3.Response response) {
+                result.code = response.code();
+                MainCall mainCall = mainBack == null ? null : new MainCall(mainBack);
+                try {
+                    if (mainCall != null) {
+                        mainCall.deliver(response);
+                    } else {
+                        result.body = response.body().string();
+                    }
+                } catch (Exception e) {
+                    //回调处理失败也记为该请求失败
+                    result.exception = e;
+                    if (mainCall != null) mainCall.runMainException(e);
+                } finally {
+                    response.close();
+                }
+                finish(this);
+            }
+        }
+    }
+
+    /**
+     * 批量请求全部完成的回调
+     */
+    public interface BatchBack {
+        /**
+         * 主线程回调，按添加顺序返回每个请求的结果
+         */
+        @MainThread
+        void onComplete(List<BatchResult> results);
+    }
+
+    /**
+     * 批量请求中单个请求的结果
+     */
+    public static class BatchResult {
+        /**
+         * 添加顺序
+         */
+        public final int index;
+        /**
+         * 请求地址
+         */
+        public final String url;
+        /**
+         * 请求状态码，请求失败时为0
+         */
+        public volatile int code;
+        /**
+         * 返回内容，传入BaseBack时为null
+         */
+        public volatile String body;
+        /**
+         * 请求异常
+         */
+        public volatile Exception exception;
+
+        BatchResult(int index, String url) {
+            this.index = index;
+            this.url = url;
+        }
+
+        public boolean isSuccessful() {
+            return exception == null && code >= 200 && code < 300;
+        }
+    }
+
+    /**
+     * 多线程分段下载
+     * <p>
+     * 先通过HEAD获取Content-Length和Accept-Ranges，再将文件按大小分段，
+     * 使用同一个Client并发下载，每段通过FileChannel写入文件对应的位置，单段失败时只重试该段。
+     * 服务器不支持Range或文件较小时，使用FileBack单线程下载；分段数不超过文件大小/minSegmentSize，
+     * 分段请求返回非206的成功响应（服务器忽略了Range）时，放弃分段改为单线程下载。
+     * 回调使用FileBack，onSuccess中bytes为null，onDowning为所有分段的总进度。
+     */
+    public class SegmentBuild {
+
+        private final static String TAG = "SegmentBuild";
+
+        /**
+         * 请求参数
+         */
+        private Request.Builder requestBuilder;
+        /**
+         * 执行体
+         */
+        private OkHttpClient client;
+        /**
+         * 分段数
+         */
+        private int segmentCount = 3;
+        /**
+         * 每段失败后重试次数
+         */
+        private int retryCount = 3;
+        /**
+         * 小于该大小的文件不分段，单位：字节
+         */
+        private long minSegmentSize = 1024 * 1024;
+
+        public SegmentBuild(@NonNull Request.Builder request, @NonNull OkHttpClient _client) {
+            this.requestBuilder = request;
+            this.client = _client;
+        }
+
+        public SegmentBuild addHead(@NonNull String key, @NonNull String value) {
+            if (TextUtils.isEmpty(key)) throw new NullPointerException("参数：head.key == null");
+            requestBuilder.addHeader(key, value);
+            return this;
+        }
+
+        public SegmentBuild setSegmentCount(int segmentCount) {
+            this.segmentCount = segmentCount;
+            return this;
+        }
+
+        public SegmentBuild setRetryCount(int retryCount) {
+            this.retryCount = retryCount;
+            return this;
+        }
+
+        /**
+         * 设置每段的最小大小，文件较小时减少分段数
+         *
+         * @param minSegmentSize 单位：字节，必须大于0
+         */
+        public SegmentBuild setMinSegmentSize(long minSegmentSize) {
+            if (minSegmentSize <= 0) throw new IllegalArgumentException("参数：minSegmentSize <= 0");
+            this.minSegmentSize = minSegmentSize;
+            return this;
+        }
+
+        public void execute(@NonNull final FileBack fileBack) {
+            if (fileBack == null) throw new NullPointerException("回调：FileBack == null");
+            final Request request = requestBuilder.build();
+            if (!fileBack.isSave || segmentCount <= 1) {
+                executeSingle(fileBack);
+                return;
+            }
+            //获取文件大小，避免gzip导致Content-Length不是文件实际大小
+            Request head = request.newBuilder()
+                    .head()
+                    .header("Accept-Encoding", "identity")
+                    .build();
+            client.newCall(head).enqueue(new Callback() {
+                @Override
+                public void onFailure(Call call, IOException e) {
+                    Log.d(TAG, "获取文件大小失败：" + e.getMessage());
+                    executeSingle(fileBack);
+                }
+
+                @Override
+                public void onResponse(Call call, okhttp3.Response response) {
+                    long total = -1;
+                    boolean acceptRanges = "bytes".equalsIgnoreCase(response.header("Accept-Ranges"));
+                    try {
+                        total = Long.parseLong(response.header("Content-Length", "-1"));
+                    } catch (NumberFormatException e) {
+                        Log.d(TAG, "Content-Length：" + response.header("Content-Length"));
+                    }
+                    boolean successful = response.isSuccessful();
+                    response.close();
+                    //每段不小于minSegmentSize
+                    int count = (int) Math.max(1, Math.min(segmentCount, total / minSegmentSize));
+                    if (!successful || !acceptRanges || count <= 1) {
+                        executeSingle(fileBack);
+                        return;
+                    }
+                    new SegmentTask(request, fileBack, total, count).start();
+                }
+            });
+        }
+
+        /**
+         * 单线程下载
+         */
+        private void executeSingle(FileBack fileBack) {
+            new Execute(requestBuilder, client).execute(fileBack.setFileOnly(true));
+        }
+
+        /**
+         * 下载的一段数据
+         */
+        private class Segment {
+            /**
+             * 开始位置
+             */
+            final long start;
+            /**
+             * 结束位置，包含
+             */
+            final long end;
+            /**
+             * 已写入的字节数
+             */
+            long written;
+            /**
+             * 已重试次数
+             */
+            int retry;
+
+            Segment(long start, long end) {
+                this.start = start;
+                this.end = end;
+            }
+        }
+
+        /**
+         * 一次分段下载任务
+         */
+        private class SegmentTask {
+
+            private final Request request;
+            private final FileBack fileBack;
+            private final long total;
+            /**
+             * 实际分段数
+             */
+            private final int count;
+            private File file;
+            private File partFile;
+            private RandomAccessFile randomFile;
+            private FileChannel channel;
+            /**
+             * 所有分段已下载的字节数
+             */
+            private long downloaded;
+            /**
+             * 未完成的分段数
+             */
+            private AtomicInteger remaining;
+            /**
+             * 是否已失败
+             */
+            private final AtomicBoolean failed = new AtomicBoolean();
+            /**
+             * 所有发出的请求，失败时取消
+             */
+            private final List<Call> calls = new ArrayList<>();
+
+            SegmentTask(Request request, FileBack fileBack, long total, int count) {
+                this.request = request;
+                this.fileBack = fileBack;
+                this.total = total;
+                this.count = count;
+            }
+
+            void start() {
+                if (TextUtils.isEmpty(fileBack.fileName)) {
+                    fileBack.fileName = fileBack.getNameFromUrl(request.url().url().getPath());
+                }
+                file = new File(fileBack.saveDir, fileBack.fileName);
+                partFile = new File(fileBack.saveDir, fileBack.fileName + FileBack.PART_SUFFIX);
+                try {
+                    randomFile = new RandomAccessFile(partFile, "rw");
+                    randomFile.setLength(total);
+                    channel = randomFile.getChannel();
+                } catch (IOException e) {
+                    fail(e);
+                    return;
+                }
+                fileBack.lastDowningPercent = -1;
+                long size = total / count;
+                remaining = new AtomicInteger(count);
+                for (int i = 0; i < count; i++) {
+                    long start = i * size;
+                    long end = i == count - 1 ? total - 1 : start + size - 1;
+                    enqueue(new Segment(start, end));
+                }
+            }
+
+            private void enqueue(final Segment segment) {
+                Request range = request.newBuilder()
+                        .header("Range", "bytes=" + (segment.start + segment.written) + "-" + segment.end)
+                        .build();
+                Call call = client.newCall(range);
+                synchronized (calls) {
+                    if (failed.get()) return;
+                    calls.add(call);
+                }
+                call.enqueue(new Callback() {
+                    @Override
+                    public void onFailure(Call call, IOException e) {
+                        retry(segment, e);
+                    }
+
+                    @Override
+                    public void onResponse(Call call, okhttp3.Response response) {
+                        if (response.isSuccessful() && response.code() != 206) {
+                            //服务器忽略了Range，返回的是整个文件
+                            response.close();
+                            fallback(response.code());
+                            return;
+                        }
+                        IOException error = null;
+                        try {
+                            write(segment, response);
+                        } catch (IOException e) {
+                            error = e;
+                        } finally {
+                            response.close();
+                        }
+                        if (error != null) {
+                            retry(segment, error);
+                        } else if (remaining.decrementAndGet() == 0) {
+                            complete();
+                        }
+                    }
+                });
+            }
+
+            /**
+             * 写入该段数据到文件对应位置
+             */
+            private void write(Segment segment, okhttp3.Response response) throws IOException {
+                if (response.code() != 206) {
+                    throw new IOException("分段下载失败：" + response.code() + " " + response.message());
+                }
+                InputStream is = response.body().byteStream();
+                byte[] buffer = new byte[8192];
+                int len;
+                while (!failed.get() && (len = is.read(buffer)) != -1) {
+                    long position = segment.start + segment.written;
+                    //忽略超出该段范围的数据
+                    int count = (int) Math.min(len, segment.end + 1 - position);
+                    if (count <= 0) break;
+                    ByteBuffer byteBuffer = ByteBuffer.wrap(buffer, 0, count);
+                    while (byteBuffer.hasRemaining()) {
+                        position += channel.write(byteBuffer, position);
+                    }
+                    segment.written += count;
+                    progress(count);
+                }
+                if (failed.get()) {
+                    throw new IOException("Canceled");
+                }
+                if (segment.start + segment.written <= segment.end) {
+                    throw new IOException("分段数据不完整：" + segment.start + "-" + segment.end);
+                }
+            }
+
+            private void retry(Segment segment, IOException e) {
+                if (failed.get()) return;
+                if (segment.retry < retryCount) {
+                    segment.retry++;
+                    Log.d(TAG, "分段重试" + segment.retry + "：" + e.getMessage());
+                    enqueue(segment);
+                } else {
+                    fail(e);
+                }
+            }
+
+            /**
+             * 汇总所有分段的进度
+             */
+            private synchronized void progress(int count) {
+                downloaded += count;
+                fileBack.postDowning(total, downloaded, false);
+            }
+
+            private void complete() {
+                try {
+                    closeFile();
+                    synchronized (this) {
+                        fileBack.postDowning(total, total, true);
+                    }
+                    fileBack.finishFile(partFile, file);
+                } catch (IOException e) {
+                    fileBack.runMainFail(e);
+                }
+            }
+
+            private void fail(Exception e) {
+                if (!failed.compareAndSet(false, true)) return;
+                synchronized (calls) {
+                    for (Call call : calls) {
+                        call.cancel();
+                    }
+                }
+                try {
+                    closeFile();
+                } catch (IOException ignored) {
+                }
+                partFile.delete();
+                fileBack.runMainFail(e);
+            }
+
+            /**
+             * 取消所有分段，删除临时文件后改为单线程下载
+             */
+            private void fallback(int code) {
+                if (!failed.compareAndSet(false, true)) return;
+                Log.d(TAG, "服务器不支持分段：" + code + "，改为单线程下载");
+                synchronized (calls) {
+                    for (Call call : calls) {
+                        call.cancel();
+                    }
+                }
+                try {
+                    closeFile();
+                } catch (IOException ignored) {
+                }
+                partFile.delete();
+                synchronized (this) {
+                    fileBack.lastDowningPercent = -1;
+                }
+                executeSingle(fileBack);
+            }
+
+            private void closeFile() throws IOException {
+                if (randomFile != null) {
+                    randomFile.close();
+                }
+            }
+        }
+    }
+
+    /**
+     * 最后的执行
+     * Created by YuanYe on 2017/9/26.
+     */
+    public class Execute {
+
+        protected Request.Builder requestBuilder;
+        protected OkHttpClient client;
+        /**
+         * 相同GET请求合并的时间窗口，单位：毫秒，小于0不合并，0不限制时间
+         */
+        protected long coalesceWindow = -1;
+
+        public Execute(Request.Builder request, OkHttpClient _client) {
+            this.requestBuilder = request;
+            this.client = _client;
+        }
+
+        /**
+         * 合并正在进行中的相同GET请求，只发起一次网络请求，结果分发给所有回调
+         *
+         * @param window 只合并window毫秒内发起的相同请求，0表示不限制
+         */
+        public Execute coalesce(long window) {
+            this.coalesceWindow = window;
+            return this;
+        }
+
+        /**
+         * ****************************callBack请求封装****************************************
+         */
+        //统一对requestBuild处理，
+        private Request getRequestBuild() {
+            return requestBuilder.build();
+        }
+
+        //统一返回
+        public void execute(BaseBack mainBack) {
+            if (mainBack == null) throw new NullPointerException("回调：RxCall == null");
+            MainCall baseFileBack = new MainCall(mainBack);
+            Request request = getRequestBuild();
+            if (mainBack instanceof FileBack) {
+                //断点续传时添加Range
+                request = ((FileBack) mainBack).prepare(request);
+            }
+            //文件下载各自写入文件，不合并，避免将整个文件读入内存
+            if (coalesceWindow >= 0 && "GET".equals(request.method())
+                    && !(mainBack instanceof FileBack)) {
+                SingleFlight.execute(client, request, baseFileBack, coalesceWindow);
+                return;
+            }
+            client.newCall(request)
+                    .enqueue(baseFileBack);
+        }
+    }
+
+    /**
+     * 描述：合并进行中的相同GET请求
+     * <p>
+     * 以Client、请求方法、最终地址和头部作为Key，时间窗口内发起的相同请求共用一次网络请求，
+     * 只有一个回调时直接返回，多个回调时缓存返回数据后分发给每个回调
+     */
+    static class SingleFlight {
+
+        private static final String TAG = "SingleFlight";
+
+        /**
+         * 进行中的请求：<Key,请求>
+         */
+        private static final HashMap<String, Flight> flights = new HashMap<>();
+        /**
+         * 合并次数
+         */
+        static final AtomicLong hitCount = new AtomicLong();
+        /**
+         * 实际发起请求次数
+         */
+        static final AtomicLong missCount = new AtomicLong();
+
+        static void execute(OkHttpClient client, Request request, MainCall mainCall, long window) {
+            //不同Client的拦截器、缓存、超时不同，不能共用
+            String key = Integer.toHexString(System.identityHashCode(client)) + " "
+                    + request.method() + " " + request.url() + "\n" + request.headers();
+            long now = SystemClock.uptimeMillis();
+            Flight flight;
+            synchronized (flights) {
+                flight = flights.get(key);
+                if (flight != null && flight.client == client
+                        && (window == 0 || now - flight.startTime <= window)) {
+                    flight.calls.add(mainCall);
+                    hitCount.incrementAndGet();
+                    return;
+                }
+                flight = new Flight(key, client, now);
+                flight.calls.add(mainCall);
+                flights.put(key, flight);
+                missCount.incrementAndGet();
+            }
+            client.newCall(request).enqueue(flight);
+        }
+
+        /**
+         * 一次实际的网络请求
+         */
+        private static class Flight implements Callback {
+
+            private final String key;
+            private final OkHttpClient client;
+            private final long startTime;
+            private final List<MainCall> calls = new ArrayList<>();
+
+            Flight(String key, OkHttpClient client, long startTime) {
+                this.key = key;
+                this.client = client;
+                this.startTime = startTime;
+            }
+
+            /**
+             * 结束合并，之后的相同请求重新发起
+             *
+             * @return 需要回调的请求
+             */
+            private List<MainCall> finish() {
+                synchronized (flights) {
+                    if (flights.get(key) == this) {
+                        flights.remove(key);
+                    }
+                    return new ArrayList<>(calls);
+                }
+            }
+
+            @Override
+            public void onFailure(Call call, IOException e) {
+                for (MainCall mainCall : finish()) {
+                    mainCall.onFailure(call, e);
+                }
+            }
+
+            @Override
+            public void onResponse(Call call, okhttp3.Response response) throws IOException {
+                List<MainCall> mainCalls = finish();
+                if (mainCalls.size() == 1) {
+                    mainCalls.get(0).onResponse(call, response);
+                    return;
+                }
+                ResponseBody body = response.body();
+                MediaType contentType = body.contentType();
+                byte[] bytes;
+                try {
+                    bytes = body.bytes();
+                } catch (IOException e) {
+                    onFailure(call, e);
+                    return;
+                }
+                Log.d(TAG, "合并请求：" + mainCalls.size() + " " + key);
+                for (MainCall mainCall : mainCalls) {
+                    mainCall.onResponse(call, response.newBuilder()
+                            .body(ResponseBody.create(contentType, bytes))
+                            .build());
+                }
+            }
+        }
+    }
+
+    /**
+     * 接替OKHttp返回回调
+     *
+     * @author yuanye
+     * @date 2018/11/28 11:56
+     */
+    class MainCall implements Callback {
+
+        private final String TAG = "MainCall";
+        /**
+         * 回调
+         */
+        private BaseBack mainBack;
+        /**
+         * 主线程
+         */
+        private Handler mainHandler;
+
+        public MainCall(BaseBack mainBack) {
+            this.mainBack = mainBack;
+            mainHandler = new Handler(Looper.getMainLooper());
+        }
+
+        @Override
+        public void onFailure(Call call, IOException e) {
+            runMainException(e);
+        }
+
+        @Override
+        public void onResponse(Call call, okhttp3.Response response) throws IOException {
+            try {
+                deliver(response);
+            } catch (Exception e) {
+                runMainException(e);
+            }
+        }
+
+        /**
+         * 转换返回数据并交给回调处理，回调抛出的异常由调用者处理
+         */
+        void deliver(okhttp3.Response response) throws Exception {
+            Response baseResponse = new Response();
+            baseResponse.code = response.code();
+            baseResponse.mssage = response.message();
+            baseResponse.requestUrl = response.request().url().url().getPath();
+            baseResponse.headers = response.headers();
+
+            ResponseBody body = response.body();
+            baseResponse.contentLength = body.contentLength();
+
+            baseResponse.body = body;
+
+            mainBack.onResponse(baseResponse);
+        }
+
+        protected void runMainException(final Exception exception) {
+            mainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    Log.d(TAG, "error:" + exception.getMessage());
                     mainBack.onFail(exception);
                 }
             });
@@ -666,21 +1974,77 @@ public class OKUtil {
      * 本类设计说明：
      * 根据ClientBuilder构建Client初始化，
      * 根据CacheInterceptor实现OKHttp缓存,
-     * 本类主要用于创建OKHttpClient对象,一次请求创建一个OKHttpClient对象
+     * 本类主要用于创建OKHttpClient对象，相同配置共用一个OKHttpClient对象，
+     * 所有OKHttpClient均由同一个根Client通过newBuilder()派生，共享连接池和线程池
      */
-    class RxHttpClient {
+    static class RxHttpClient {
 
         private static final String TAG = "RxHttpClient";
 
+        /**
+         * 根Client，只用于派生，持有公共的连接池和调度线程池
+         */
+        private static final OkHttpClient rootClient = new OkHttpClient();
+        /**
+         * 最多保留的Client数量，单次请求使用的Config较多时淘汰最久未使用的
+         */
+        private static final int MAX_CLIENTS = 16;
+        /**
+         * 已创建的Client：<配置,Client>，被淘汰的Client仍可继续使用，只是不再复用
+         */
+        private static final LruCache<ClientKey, OkHttpClient> clients = new LruCache<>(MAX_CLIENTS);
+        /**
+         * 已创建的缓存：<缓存路径,Cache>，同一个文件夹只能有一个Cache实例
+         */
+        private static final ConcurrentHashMap<String, Cache> caches = new ConcurrentHashMap<>();
+        /**
+         * 已创建的内存缓存：<缓存路径,MemoryResponseCache>
+         */
+        private static final ConcurrentHashMap<String, MemoryResponseCache> memoryCaches = new ConcurrentHashMap<>();
+        /**
+         * 命中次数
+         */
+        static final AtomicLong hitCount = new AtomicLong();
+        /**
+         * 未命中次数
+         */
+        static final AtomicLong missCount = new AtomicLong();
+
         private OkHttpClient client; //主要创建的网络请求client
         private Config config; //配置参数
+        private Context context;
+
+        /**
+         * 获取配置对应的OkHttpClient，相同配置返回同一个实例
+         *
+         * @param context 上下文
+         * @param config  基本配置
+         * @return OkHttpClient
+         */
+        static OkHttpClient obtain(Context context, @NonNull Config config) {
+            ClientKey key = new ClientKey(config);
+            //同一配置只创建一次，派生Client只是复制配置，开销较小
+            synchronized (clients) {
+                OkHttpClient client = clients.get(key);
+                if (client != null) {
+                    hitCount.incrementAndGet();
+                    return client;
+                }
+                client = new RxHttpClient(context, config).getClient();
+                clients.put(key, client);
+                missCount.incrementAndGet();
+                return client;
+            }
+        }
 
         /**
          * 传入构建参数创建OkHttpClient
          *
          * @param _config 基本配置
          */
-        public RxHttpClient(@NonNull Config _config) {
+        private RxHttpClient(Context context, @NonNull Config _config) {
+            //Client会被缓存，避免持有Activity
+            this.context = context == null ? null : context.getApplicationContext();
             this.config = _config;
         }
 
@@ -691,7 +2055,7 @@ public class OKUtil {
          */
         public OkHttpClient getClient() {
             if (client == null) {
-                OkHttpClient.Builder builder = new OkHttpClient.Builder();
+                OkHttpClient.Builder builder = rootClient.newBuilder();
                 //失败后是否重新连接
                 builder.retryOnConnectionFailure(config.isReConnect());
                 //连接超时
@@ -705,114 +2069,484 @@ public class OKUtil {
                 }
                 //设置缓存
                 if (config.isCache()) {
-                    File cacheFile = new File(config.getCachePath());
-                    if (cacheFile == null) {
-                        Log.e(TAG, "请检查OKHttp缓存文件夹路径：" + config.getCachePath());
-                    } else if (!cacheFile.exists()) {
-                        if (!cacheFile.mkdirs()) {
-                            Log.e(TAG, "创建OKHttp缓存文件夹失败，文件夹路径：" + config.getCachePath());
-                        }
-                    }
-                    if (cacheFile.exists()) {//设置缓存大小
-                        Cache cache = new Cache(cacheFile, config.getCacheSize());
+                    Cache cache = getCache(config);
+                    if (cache != null) {//设置缓存大小
                         builder.cache(cache);
                     }
+                    //内存缓存，命中时不再读取磁盘缓存
+                    MemoryResponseCache memoryCache = getMemoryCache(config);
+                    if (memoryCache != null) {
+                        builder.addInterceptor(new MemoryCacheInterceptor(memoryCache, context, config));
+                    }
                     //设置缓存拦截器，实现网络缓存(有网络的时候不缓存，没有网络的时候缓存)
-                    builder.addInterceptor(new OfflineInterceptor(mContext, config))
+                    builder.addInterceptor(new OfflineInterceptor(context, config))
                             .addNetworkInterceptor(new NetworkInterceptor(config));
                 }
                 client = builder.build();
             }
-            return client;
+            return client;
+        }
+
+        /**
+         * 获取缓存路径对应的Cache，同一路径共用一个实例，缓存大小以首次创建时为准
+         *
+         * @param config 基本配置
+         * @return Cache, 文件夹不可用时返回null
+         */
+        @Nullable
+        static Cache getCache(Config config) {
+            String cachePath = config.getCachePath();
+            Cache cache = caches.get(cachePath);
+            if (cache != null) {
+                return cache;
+            }
+            File cacheFile = new File(cachePath);
+            if (!cacheFile.exists()) {
+                if (!cacheFile.mkdirs()) {
+                    Log.e(TAG, "创建OKHttp缓存文件夹失败，文件夹路径：" + cachePath);
+                }
+            }
+            if (!cacheFile.exists()) {
+                Log.e(TAG, "请检查OKHttp缓存文件夹路径：" + cachePath);
+                return null;
+            }
+            Cache created = new Cache(cacheFile, config.getCacheSize());
+            cache = caches.putIfAbsent(cachePath, created);
+            return cache == null ? created : cache;
+        }
+
+        /**
+         * 获取缓存路径对应的内存缓存，同一路径共用一个实例，缓存大小以首次创建时为准
+         *
+         * @param config 基本配置
+         * @return MemoryResponseCache, 未开启内存缓存时返回null
+         */
+        @Nullable
+        static MemoryResponseCache getMemoryCache(Config config) {
+            if (!config.isCache() || config.getMemoryCacheSize() <= 0) {
+                return null;
+            }
+            String cachePath = config.getCachePath();
+            MemoryResponseCache memoryCache = memoryCaches.get(cachePath);
+            if (memoryCache != null) {
+                return memoryCache;
+            }
+            MemoryResponseCache created = new MemoryResponseCache(
+                    (int) Math.min(config.getMemoryCacheSize(), Integer.MAX_VALUE),
+                    config.getMemoryCacheEntrySize());
+            memoryCache = memoryCaches.putIfAbsent(cachePath, created);
+            return memoryCache == null ? created : memoryCache;
+        }
+
+        /**
+         * 描述：Client池的Key，只包含影响OkHttpClient构建的配置
+         * 公共头部在每次请求时添加，不参与比较
+         */
+        static final class ClientKey {
+
+            private final long connectTimeout;
+            private final long readTimeout;
+            private final boolean isReConnect;
+            private final CookieJar cookie;
+            private final boolean isCache;
+            private final String cachePath;
+            private final long cacheSize;
+            private final long onlineCacheTime;
+            private final long offlineCacheTime;
+            private final long memoryCacheSize;
+            private final long memoryCacheEntrySize;
+
+            ClientKey(Config config) {
+                connectTimeout = config.getConnectTimeout();
+                readTimeout = config.getReadTimeout();
+                isReConnect = config.isReConnect();
+                cookie = config.getCookie();
+                isCache = config.isCache();
+                //未开启缓存时缓存参数无效
+                cachePath = isCache ? config.getCachePath() : null;
+                cacheSize = isCache ? config.getCacheSize() : 0;
+                onlineCacheTime = isCache ? config.getOnlineCacheTime() : 0;
+                offlineCacheTime = isCache ? config.getOfflineCacheTime() : 0;
+                memoryCacheSize = isCache ? config.getMemoryCacheSize() : 0;
+                memoryCacheEntrySize = isCache ? config.getMemoryCacheEntrySize() : 0;
+            }
+
+            @Override
+            public boolean equals(Object o) {
+                if (this == o) return true;
+                if (!(o instanceof ClientKey)) return false;
+                ClientKey key = (ClientKey) o;
+                return connectTimeout == key.connectTimeout
+                        && readTimeout == key.readTimeout
+                        && isReConnect == key.isReConnect
+                        && cookie == key.cookie
+                        && isCache == key.isCache
+                        && cacheSize == key.cacheSize
+                        && onlineCacheTime == key.onlineCacheTime
+                        && offlineCacheTime == key.offlineCacheTime
+                        && memoryCacheSize == key.memoryCacheSize
+                        && memoryCacheEntrySize == key.memoryCacheEntrySize
+                        && (cachePath == null ? key.cachePath == null : cachePath.equals(key.cachePath));
+            }
+
+            @Override
+            public int hashCode() {
+                int result = (int) (connectTimeout ^ (connectTimeout >>> 32));
+                result = 31 * result + (int) (readTimeout ^ (readTimeout >>> 32));
+                result = 31 * result + (isReConnect ? 1 : 0);
+                result = 31 * result + (cookie != null ? System.identityHashCode(cookie) : 0);
+                result = 31 * result + (isCache ? 1 : 0);
+                result = 31 * result + (cachePath != null ? cachePath.hashCode() : 0);
+                result = 31 * result + (int) (cacheSize ^ (cacheSize >>> 32));
+                result = 31 * result + (int) (onlineCacheTime ^ (onlineCacheTime >>> 32));
+                result = 31 * result + (int) (offlineCacheTime ^ (offlineCacheTime >>> 32));
+                result = 31 * result + (int) (memoryCacheSize ^ (memoryCacheSize >>> 32));
+                result = 31 * result + (int) (memoryCacheEntrySize ^ (memoryCacheEntrySize >>> 32));
+                return result;
+            }
+        }
+
+        /**
+         * 描述：有网络时请求拦截器
+         * <p>
+         * 缓存策略
+         * 有网络时，从网络中读取数据
+         * 无网络时，从缓存中读取数据
+         *
+         * @author yuanye
+         * @date 2019/4/19 14:43
+         */
+        class NetworkInterceptor implements Interceptor {
+
+            private Config config; //配置参数
+
+            protected NetworkInterceptor(Config config) {
+                this.config = config;
+            }
+
+            @Override
+            public okhttp3.Response intercept(Chain chain) throws IOException {
+                Request request = chain.request();
+                okhttp3.Response response = chain.proceed(request);
+                return response.newBuilder()
+                        //在线的时候的缓存过期时间，如果想要不缓存，直接时间设置为0
+                        .header("Cache-Control", "public, max-age=" + config.getOnlineCacheTime())
+                        .removeHeader("Pragma")
+                        .build();
+            }
+        }
+
+        /**
+         * 描述：无网络时响应拦截器
+         *
+         * @author yuanye
+         * @date 2019/4/19 14:52
+         */
+        class OfflineInterceptor implements Interceptor {
+
+            private Context context;
+            private Config config;
+
+            public OfflineInterceptor(Context context, Config config) {
+                this.context = context;
+                this.config = config;
+            }
+
+            @Override
+            public okhttp3.Response intercept(Chain chain) throws IOException {
+                Request request = chain.request();
+                if (!isConnect(context)) {
+                    request = request.newBuilder()
+                            //离线的时候的缓存的过期时间
+                            .header("Cache-Control", "public, only-if-cached, max-stale=" + config.getOfflineCacheTime())
+                            .build();
+                }
+                return chain.proceed(request);
+            }
+        }
+
+        /**
+         * 描述：内存缓存拦截器
+         * <p>
+         * 位于OKHttp磁盘缓存之前，命中时直接返回，不再读取磁盘缓存。
+         * 过期规则与磁盘缓存一致：
+         * 有网络时，缓存时间小于onlineCacheTime(max-age)时使用
+         * 无网络时，缓存时间小于onlineCacheTime+offlineCacheTime(max-stale)时使用
+         */
+        class MemoryCacheInterceptor implements Interceptor {
+
+            private MemoryResponseCache memoryCache;
+            private Context context;
+            private Config config;
+
+            public MemoryCacheInterceptor(MemoryResponseCache memoryCache, Context context, Config config) {
+                this.memoryCache = memoryCache;
+                this.context = context;
+                this.config = config;
+            }
+
+            @Override
+            public okhttp3.Response intercept(Chain chain) throws IOException {
+                Request request = chain.request();
+                CacheControl cacheControl = request.cacheControl();
+                if (!"GET".equals(request.method()) || cacheControl.noStore()) {
+                    return chain.proceed(request);
+                }
+                //在线、离线都不使用缓存时，缓存的响应永远不会命中，不再复制响应体
+                if (config.getOnlineCacheTime() <= 0 && config.getOfflineCacheTime() <= 0) {
+                    return chain.proceed(request);
+                }
+                String key = Cache.key(request.url());
+                if (!cacheControl.noCache()) {
+                    long maxAge = config.getOnlineCacheTime();
+                    if (!isConnect(context)) {
+                        maxAge += config.getOfflineCacheTime();
+                    }
+                    okhttp3.Response cached = memoryCache.getResponse(key, request, maxAge * 1000);
+                    if (cached != null) {
+                        return cached;
+                    }
+                }
+                okhttp3.Response response = chain.proceed(request);
+                memoryCache.putResponse(key, response);
+                return response;
+            }
+        }
+
+        /**
+         * 判断网络情况
+         *
+         * @param context 上下文
+         * @return false 表示没有网络 true 表示有网络
+         */
+        private static boolean isConnect(Context context) {
+            // 获得网络状态管理器
+            ConnectivityManager connectivityManager = (ConnectivityManager) context
+                    .getSystemService(Context.CONNECTIVITY_SERVICE);
+
+            if (connectivityManager == null) {
+                return false;
+            } else {
+                // 建立网络数组
+                @SuppressLint("MissingPermission") NetworkInfo[] net_info = connectivityManager.getAllNetworkInfo();
+                if (net_info != null) {
+                    for (int i = 0; i < net_info.length; i++) {
+                        // 判断获得的网络状态是否是处于连接状态
+                        if (net_info[i].getState() == NetworkInfo.State.CONNECTED) {
+                            return true;
+                        }
+                    }
+                }
+            }
+            return false;
+        }
+    }
+
+    /**
+     * 描述：网络请求内存缓存
+     * <p>
+     * 按返回内容字节数计算大小的LRU缓存，Key与OKHttp磁盘缓存相同，只缓存较小的GET请求返回
+     */
+    public static class MemoryResponseCache {
+
+        /**
+         * 缓存的返回内容
+         */
+        private final LruCache<String, Entry> cache;
+        /**
+         * 单条缓存最大字节数
+         */
+        private final long maxEntrySize;
+        private final AtomicLong hitCount = new AtomicLong();
+        private final AtomicLong missCount = new AtomicLong();
+
+        MemoryResponseCache(int maxSize, long maxEntrySize) {
+            this.maxEntrySize = maxEntrySize;
+            cache = new LruCache<String, Entry>(maxSize) {
+                @Override
+                protected int sizeOf(String key, Entry value) {
+                    return value.body.length;
+                }
+            };
+        }
+
+        /**
+         * 获取未过期的缓存
+         *
+         * @param maxAge 最大缓存时间，单位：毫秒
+         */
+        @Nullable
+        okhttp3.Response getResponse(String key, Request request, long maxAge) {
+            Entry entry = cache.get(key);
+            if (entry == null) {
+                missCount.incrementAndGet();
+                return null;
+            }
+            long now = System.currentTimeMillis();
+            if (now - entry.receivedResponseAtMillis >= maxAge
+                    || !entry.url.equals(request.url().toString())) {
+                missCount.incrementAndGet();
+                return null;
+            }
+            hitCount.incrementAndGet();
+            return new okhttp3.Response.Builder()
+                    .request(request)
+                    .protocol(entry.protocol)
+                    .code(entry.code)
+                    .message(entry.message)
+                    .headers(entry.headers)
+                    .body(ResponseBody.create(entry.contentType, entry.body))
+                    .sentRequestAtMillis(entry.sentRequestAtMillis)
+                    .receivedResponseAtMillis(entry.receivedResponseAtMillis)
+                    .build();
         }
 
         /**
-         * 描述：有网络时请求拦截器
-         * <p>
-         * 缓存策略
-         * 有网络时，从网络中读取数据
-         * 无网络时，从缓存中读取数据
-         *
-         * @author yuanye
-         * @date 2019/4/19 14:43
+         * 缓存较小的成功返回，不消耗原返回内容
          */
-        class NetworkInterceptor implements Interceptor {
+        void putResponse(String key, okhttp3.Response response) throws IOException {
+            ResponseBody body = response.body();
+            if (response.code() != 200 || body == null
+                    || response.cacheControl().noStore()
+                    || body.contentLength() > maxEntrySize) {
+                return;
+            }
+            String vary = response.header("Vary");
+            if (vary != null && !"Accept-Encoding".equalsIgnoreCase(vary.trim())) {
+                return;
+            }
+            //只读取maxEntrySize+1个字节，超出时不缓存
+            ResponseBody peek = response.peekBody(maxEntrySize + 1);
+            if (peek.contentLength() > maxEntrySize) {
+                return;
+            }
+            Entry entry = new Entry();
+            entry.url = response.request().url().toString();
+            entry.protocol = response.protocol();
+            entry.code = response.code();
+            entry.message = response.message();
+            entry.headers = response.headers();
+            entry.contentType = body.contentType();
+            entry.body = peek.bytes();
+            entry.sentRequestAtMillis = response.sentRequestAtMillis();
+            entry.receivedResponseAtMillis = response.receivedResponseAtMillis();
+            cache.put(key, entry);
+        }
 
-            private Config config; //配置参数
+        public long hitCount() {
+            return hitCount.get();
+        }
 
-            protected NetworkInterceptor(Config config) {
-                this.config = config;
-            }
+        public long missCount() {
+            return missCount.get();
+        }
 
-            @Override
-            public okhttp3.Response intercept(Chain chain) throws IOException {
-                Request request = chain.request();
-                okhttp3.Response response = chain.proceed(request);
-                return response.newBuilder()
-                        //在线的时候的缓存过期时间，如果想要不缓存，直接时间设置为0
-                        .header("Cache-Control", "public, max-age=" + config.getOnlineCacheTime())
-                        .removeHeader("Pragma")
-                        .build();
-            }
+        /**
+         * @return 命中率
+         */
+        public float hitRatio() {
+            long hit = hitCount.get();
+            long total = hit + missCount.get();
+            return total == 0 ? 0 : hit * 1.0f / total;
+        }
+
+        public int evictionCount() {
+            return cache.evictionCount();
         }
 
         /**
-         * 描述：无网络时响应拦截器
-         *
-         * @author yuanye
-         * @date 2019/4/19 14:52
+         * @return 已缓存的字节数
          */
-        class OfflineInterceptor implements Interceptor {
+        public int size() {
+            return cache.size();
+        }
 
-            private Context context;
-            private Config config;
+        public int maxSize() {
+            return cache.maxSize();
+        }
 
-            public OfflineInterceptor(Context context, Config config) {
-                this.context = context;
-                this.config = config;
-            }
+        public void evictAll() {
+            cache.evictAll();
+        }
+
+        /**
+         * 一条缓存
+         */
+        private static class Entry {
+            String url;
+            Protocol protocol;
+            int code;
+            String message;
+            Headers headers;
+            MediaType contentType;
+            byte[] body;
+            long sentRequestAtMillis;
+            long receivedResponseAtMillis;
+        }
+    }
 
+    /**
+     * 缓存统计、清理回调
+     */
+    public abstract static class CacheBack {
+        /**
+         * 进度回调最小间隔，单位：毫秒
+         */
+        private final static long PROGRESS_INTERVAL = 100;
+        /**
+         * 主线程
+         */
+        private Handler mainHandler;
+        private volatile long progress;
+        private long lastProgressTime;
+        private final AtomicBoolean progressPosted = new AtomicBoolean();
+        private final Runnable progressRunnable = new Runnable() {
             @Override
-            public okhttp3.Response intercept(Chain chain) throws IOException {
-                Request request = chain.request();
-                if (!isConnect(context)) {
-                    request = request.newBuilder()
-                            //离线的时候的缓存的过期时间
-                            .header("Cache-Control", "public, only-if-cached, max-stale=" + config.getOfflineCacheTime())
-                            .build();
-                }
-                return chain.proceed(request);
+            public void run() {
+                progressPosted.set(false);
+                onProgress(progress);
             }
+        };
 
+        public CacheBack() {
+            mainHandler = new Handler(Looper.getMainLooper());
+        }
 
-            /**
-             * 判断网络情况
-             *
-             * @param context 上下文
-             * @return false 表示没有网络 true 表示有网络
-             */
-            private boolean isConnect(Context context) {
-                // 获得网络状态管理器
-                ConnectivityManager connectivityManager = (ConnectivityManager) context
-                        .getSystemService(Context.CONNECTIVITY_SERVICE);
+        /**
+         * 统计或删除中
+         *
+         * @param size 已统计或已删除的大小
+         */
+        @MainThread
+        public void onProgress(long size) {
+        }
 
-                if (connectivityManager == null) {
-                    return false;
-                } else {
-                    // 建立网络数组
-                    @SuppressLint("MissingPermission") NetworkInfo[] net_info = connectivityManager.getAllNetworkInfo();
-                    if (net_info != null) {
-                        for (int i = 0; i < net_info.length; i++) {
-                            // 判断获得的网络状态是否是处于连接状态
-                            if (net_info[i].getState() == NetworkInfo.State.CONNECTED) {
-                                return true;
-                            }
-                        }
-                    }
-                }
-                return false;
+        /**
+         * 完成
+         *
+         * @param size 缓存大小或删除的大小
+         */
+        @MainThread
+        public abstract void onComplete(long size);
+
+        synchronized void postProgress(long size) {
+            progress = size;
+            long now = SystemClock.uptimeMillis();
+            if (now - lastProgressTime < PROGRESS_INTERVAL) return;
+            lastProgressTime = now;
+            if (progressPosted.compareAndSet(false, true)) {
+                mainHandler.post(progressRunnable);
             }
         }
+
+        void postComplete(final long size) {
+            mainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    onComplete(size);
+                }
+            });
+        }
     }
 
     /**
@@ -842,26 +2576,77 @@ public class OKUtil {
      * Gson处理返回--使用RxJava切换处理方法到主线程
      * 支持的json说明：
      * 1、当setUseNetBean（）为空时，T代表完整Json的实体对象
+     * 2、T支持完整的泛型类型，如List<Foo>，也可以通过构造方法直接传入Type
+     * 3、默认使用流式解析，直接从ResponseBody.charStream()解析实体，不生成完整的json字符串，
+     * onSuccess中json为null；需要原始json字符串时通过JsonBack(true)开启keepJson
      */
     public abstract static class JsonBack<T> implements BaseBack {
 
         private final static String TAG = "JsonBack";
+        /**
+         * 所有JsonBack共用的Gson
+         */
+        private static volatile Gson gson = new Gson();
+        /**
+         * 已解析过的泛型类型：<JsonBack子类,T的类型>
+         */
+        private static final ConcurrentHashMap<Class<?>, Type> types = new ConcurrentHashMap<>();
         /**
          * 主线程
          */
         private Handler mainHandler;
+        /**
+         * 解析的实体类型
+         */
+        private final Type type;
+        /**
+         * 是否保留原始json字符串 true:保留， false:流式解析，不保留
+         */
+        private final boolean keepJson;
 
         /**
-         * 解析出的实体
+         * 设置全局使用的Gson，如需注册TypeAdapter等
+         *
+         * @param _gson Gson
          */
-        private T entity = null;
+        public static void setGson(@NonNull Gson _gson) {
+            if (_gson == null) throw new NullPointerException("参数：gson == null");
+            gson = _gson;
+        }
+
+        public static Gson getGson() {
+            return gson;
+        }
 
+        /**
+         * 默认流式解析，不保留原始json字符串
+         */
         public JsonBack() {
+            this(null, false);
+        }
+
+        /**
+         * @param keepJson 是否保留原始json字符串，true时先读取完整字符串再解析
+         */
+        public JsonBack(boolean keepJson) {
+            this(null, keepJson);
+        }
+
+        /**
+         * @param type     解析的实体类型，为null时取泛型T的类型
+         * @param keepJson 是否保留原始json字符串，true时先读取完整字符串再解析
+         */
+        public JsonBack(@Nullable Type type, boolean keepJson) {
             mainHandler = new Handler(Looper.getMainLooper());
+            this.type = type != null ? type : getType();
+            this.keepJson = keepJson;
         }
 
         /**
          * 主线程成功方法
+         *
+         * @param t    解析出的实体
+         * @param json 原始json字符串，流式解析时为null
          */
         @MainThread
         public abstract void onSuccess(T t, String json);
@@ -874,11 +2659,16 @@ public class OKUtil {
          */
         @Override
         public void onResponse(Response response) {
+            ResponseBody body = response.body;
             try {
-                final String json = response.body.string();
-                Class<T> clazz = getClazz();
-                if (clazz != null) {
-                    entity = new Gson().fromJson(json, clazz);
+                final String json;
+                final T entity;
+                if (keepJson) {
+                    json = body.string();
+                    entity = type != null ? gson.<T>fromJson(json, type) : null;
+                } else {
+                    json = null;
+                    entity = type != null ? this.<T>fromStream(body) : null;
                 }
                 mainHandler.post(new Runnable() {
                     @Override
@@ -893,6 +2683,8 @@ public class OKUtil {
                         onFail(e);
                     }
                 });
+            } finally {
+                body.close();
             }
         }
 
@@ -902,16 +2694,38 @@ public class OKUtil {
         }
 
         /**
-         * 反射泛型生成对象
+         * 流式解析，不生成完整的json字符串
          */
-        private Class<T> getClazz() {
+        private <E> E fromStream(ResponseBody body) throws IOException {
+            JsonReader reader = gson.newJsonReader(body.charStream());
             try {
-                return (Class<T>) ((ParameterizedType) this.getClass().getGenericSuperclass()
-                ).getActualTypeArguments()[0];
-            } catch (ClassCastException e) {
-                Log.i(TAG, e.getMessage());
+                return gson.fromJson(reader, type);
+            } finally {
+                reader.close();
+            }
+        }
+
+        /**
+         * 反射获取泛型类型，同一个子类只解析一次
+         */
+        private Type getType() {
+            Class<?> clazz = getClass();
+            Type type = types.get(clazz);
+            if (type != null) {
+                return type;
+            }
+            Type superclass = clazz.getGenericSuperclass();
+            if (!(superclass instanceof ParameterizedType)) {
+                Log.i(TAG, "未指定泛型类型：" + clazz.getName());
+                return null;
+            }
+            type = ((ParameterizedType) superclass).getActualTypeArguments()[0];
+            if (type instanceof TypeVariable) {
+                Log.i(TAG, "无法解析泛型类型：" + type);
+                return null;
             }
-            return null;
+            types.putIfAbsent(clazz, type);
+            return type;
         }
 
     }
@@ -920,8 +2734,21 @@ public class OKUtil {
     /**
      * Created by YuanYe on 2017/9/13.
      * 文件下载
+     * <p>
+     * 默认同时保存文件和缓存到内存中，大文件下载建议开启setFileOnly(true)，
+     * 只通过Okio写入文件，不在内存中保存副本，此时onSuccess中bytes为null。
+     * 开启setResume(true)后先写入"文件名.part"，再次下载时通过Range从已下载位置继续，
+     * 下载完成后校验md5(如果设置)并重命名为目标文件。
      */
     public abstract static class FileBack implements BaseBack {
+        /**
+         * 断点续传临时文件后缀
+         */
+        private final static String PART_SUFFIX = ".part";
+        /**
+         * 单次读取的字节数
+         */
+        private final static long SEGMENT_SIZE = 8192;
         /**
          * 文件保存的地址
          */
@@ -942,6 +2769,53 @@ public class OKUtil {
          * 文件当前已下载大小
          */
         private long currentSum = 0;
+        /**
+         * 是否只保存文件，不缓存到内存
+         */
+        private boolean fileOnly;
+        /**
+         * 是否断点续传
+         */
+        private boolean resume;
+        /**
+         * 文件校验md5，为空时不校验
+         */
+        private String md5;
+        /**
+         * 下载进度最小回调间隔，单位：毫秒
+         */
+        private long downingInterval = 100;
+        /**
+         * 下载进度最小变化，单位：百分比
+         */
+        private int downingStep = 1;
+        /**
+         * 最新的下载进度，在主线程回调时读取
+         */
+        private volatile long downingTotal;
+        private volatile long downingCurrent;
+        /**
+         * 上次post进度的时间和百分比，只在下载线程使用
+         */
+        private long lastDowningTime;
+        private int lastDowningPercent = -1;
+        /**
+         * 是否已有未执行的进度回调
+         */
+        private final AtomicBoolean downingPosted = new AtomicBoolean();
+        /**
+         * 复用的进度回调
+         */
+        private final Runnable downingRunnable = new Runnable() {
+            @Override
+            public void run() {
+                downingPosted.set(false);
+                long total = downingTotal;
+                long current = downingCurrent;
+                // 下载中
+                onDowning(getPercent(total, current), total, current);
+            }
+        };
 
         /**
          * 初始化
@@ -1008,6 +2882,37 @@ public class OKUtil {
             }
         }
 
+        /**
+         * 只保存文件，不在内存中缓存，onSuccess中bytes为null，未设置保存路径时无效
+         *
+         * @param fileOnly true:只保存文件
+         */
+        public FileBack setFileOnly(boolean fileOnly) {
+            this.fileOnly = fileOnly;
+            return this;
+        }
+
+        /**
+         * 断点续传，开启后默认只保存文件
+         *
+         * @param resume true:从上次下载位置继续下载
+         */
+        public FileBack setResume(boolean resume) {
+            this.resume = resume;
+            if (resume) fileOnly = true;
+            return this;
+        }
+
+        /**
+         * 下载完成后校验文件md5，校验失败删除文件并回调onFail
+         *
+         * @param md5 文件md5
+         */
+        public FileBack setMd5(@Nullable String md5) {
+            this.md5 = md5;
+            return this;
+        }
+
         @Override
         public void onFail(Exception e) {
         }
@@ -1033,10 +2938,15 @@ public class OKUtil {
 
         @Override
         public void onResponse(Response response) throws Exception {
+            if (isSave && fileOnly) {
+                saveFile(response);
+                return;
+            }
             byte[] buffer = new byte[2048];
             //当前缓存文件大小
             int len;
             currentSum = 0;
+            lastDowningPercent = -1;
             final long total = response.contentLength;
             InputStream is = response.body.byteStream();
             //保存到本地文件
@@ -1054,15 +2964,9 @@ public class OKUtil {
                 bos.write(buffer, 0, len);
                 if (isSave) fos.write(buffer, 0, len);
                 currentSum += len;
-                //切换到主线程
-                mainHandler.post(new Runnable() {
-                    @Override
-                    public void run() {
-                        // 下载中
-                        onDowning((int) (currentSum * 1.0f / total * 100), total, currentSum);
-                    }
-                });
+                postDowning(total, currentSum, false);
             }
+            postDowning(total < 0 ? currentSum : total, currentSum, true);
             if (fos != null) {
                 fos.flush();
                 fos.close();
@@ -1072,6 +2976,167 @@ public class OKUtil {
             runMainSuccess(isSave ? saveDir + File.separator + fileName : null, bos.toByteArray());
         }
 
+        /**
+         * 断点续传时根据已下载的临时文件添加Range
+         *
+         * @param request 请求
+         * @return 处理后的请求
+         */
+        Request prepare(Request request) {
+            if (!isSave || !resume) return request;
+            if (TextUtils.isEmpty(fileName)) fileName = getNameFromUrl(request.url().url().getPath());
+            File partFile = new File(saveDir, fileName + PART_SUFFIX);
+            if (!partFile.exists() || partFile.length() == 0) return request;
+            return request.newBuilder()
+                    .header("Range", "bytes=" + partFile.length() + "-")
+                    .build();
+        }
+
+        /**
+         * 通过Okio直接写入文件，不在内存中保存副本
+         */
+        private void saveFile(Response response) throws IOException {
+            if (TextUtils.isEmpty(fileName)) fileName = getNameFromUrl(response.requestUrl);
+            File file = new File(saveDir, fileName);
+            File partFile = new File(saveDir, fileName + PART_SUFFIX);
+            ResponseBody body = response.body;
+            try {
+                if (response.code == 416 && resume) {
+                    //已下载位置超出文件大小，可能已下载完成
+                    long total = parseRangeTotal(response.headers.get("Content-Range"));
+                    if (total < 0 || total != partFile.length()) {
+                        partFile.delete();
+                        throw new IOException("断点续传失败，请重新下载：" + response.code);
+                    }
+                    postDowning(total, total, true);
+                    finishFile(partFile, file);
+                    return;
+                }
+                if (response.code != 200 && response.code != 206) {
+                    throw new IOException("下载失败：" + response.code + " " + response.mssage);
+                }
+                //服务器不支持Range时返回200，重新下载
+                boolean append = resume && response.code == 206 && partFile.exists();
+                long offset = append ? partFile.length() : 0;
+                if (append && parseRangeStart(response.headers.get("Content-Range")) != offset) {
+                    partFile.delete();
+                    throw new IOException("断点续传位置不一致，请重新下载");
+                }
+                long total = response.contentLength < 0 ? -1 : offset + response.contentLength;
+                currentSum = offset;
+                lastDowningPercent = -1;
+                BufferedSource source = body.source();
+                BufferedSink sink = Okio.buffer(append ? Okio.appendingSink(partFile) : Okio.sink(partFile));
+                try {
+                    long len;
+                    while ((len = source.read(sink.buffer(), SEGMENT_SIZE)) != -1) {
+                        sink.emitCompleteSegments();
+                        currentSum += len;
+                        postDowning(total, currentSum, false);
+                    }
+                    sink.flush();
+                    postDowning(total < 0 ? currentSum : total, currentSum, true);
+                } finally {
+                    sink.close();
+                }
+                finishFile(partFile, file);
+            } catch (IOException e) {
+                //不续传时临时文件不会再被使用
+                if (!resume) partFile.delete();
+                throw e;
+            } finally {
+                body.close();
+            }
+        }
+
+        /**
+         * 校验文件并重命名为目标文件
+         */
+        private void finishFile(File partFile, File file) throws IOException {
+            if (!TextUtils.isEmpty(md5)) {
+                String fileMd5 = Codec.MD5.getMD5(partFile);
+                if (!md5.equalsIgnoreCase(fileMd5)) {
+                    partFile.delete();
+                    throw new IOException("文件校验失败，md5：" + fileMd5);
+                }
+            }
+            if (file.exists() && !file.delete()) {
+                throw new IOException("删除旧文件失败：" + file.getAbsolutePath());
+            }
+            if (!partFile.renameTo(file)) {
+                throw new IOException("重命名文件失败：" + partFile.getAbsolutePath());
+            }
+            runMainSuccess(file.getAbsolutePath(), null);
+        }
+
+        /**
+         * 解析Content-Range: bytes start-end/total中的start
+         */
+        private long parseRangeStart(@Nullable String contentRange) {
+            if (contentRange == null) return -1;
+            int start = contentRange.indexOf(' ');
+            int end = contentRange.indexOf('-');
+            if (start < 0 || end < start) return -1;
+            try {
+                return Long.parseLong(contentRange.substring(start + 1, end).trim());
+            } catch (NumberFormatException e) {
+                return -1;
+            }
+        }
+
+        /**
+         * 解析Content-Range: bytes start-end/total中的total
+         */
+        private long parseRangeTotal(@Nullable String contentRange) {
+            if (contentRange == null) return -1;
+            int index = contentRange.lastIndexOf('/');
+            if (index < 0) return -1;
+            try {
+                return Long.parseLong(contentRange.substring(index + 1).trim());
+            } catch (NumberFormatException e) {
+                return -1;
+            }
+        }
+
+        /**
+         * 设置下载进度回调频率，时间间隔和进度变化任一满足即回调，下载完成时一定回调
+         *
+         * @param interval 最小回调间隔，单位：毫秒
+         * @param step     最小进度变化，单位：百分比
+         */
+        public FileBack setDowningInterval(long interval, int step) {
+            this.downingInterval = interval;
+            this.downingStep = step;
+            return this;
+        }
+
+        /**
+         * 切换到主线程通知下载进度
+         * 只保存最新进度，未执行的回调不会重复post，按时间间隔或进度变化节流
+         *
+         * @param force 是否忽略节流，用于下载完成时
+         */
+        private void postDowning(long total, long current, boolean force) {
+            downingTotal = total;
+            downingCurrent = current;
+            long now = SystemClock.uptimeMillis();
+            int percent = getPercent(total, current);
+            if (!force && now - lastDowningTime < downingInterval
+                    && percent - lastDowningPercent < downingStep) {
+                return;
+            }
+            lastDowningTime = now;
+            lastDowningPercent = percent;
+            if (downingPosted.compareAndSet(false, true)) {
+                mainHandler.post(downingRunnable);
+            }
+        }
+
+        private int getPercent(long total, long current) {
+            if (total <= 0) return 0;
+            return (int) (current * 100 / total);
+        }
+
         /**
          * @param url
          * @return 从下载连接中解析出文件名
@@ -1091,6 +3156,16 @@ public class OKUtil {
                 }
             });
         }
+
+        private void runMainFail(final Exception exception) {
+            //切换到主线程
+            mainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    onFail(exception);
+                }
+            });
+        }
     }
 
     /**
@@ -1115,6 +3190,8 @@ public class OKUtil {
         private String cachePath;//OKHttp缓存文件存放路径
         private long onlineCacheTime;//网络在线时使用的缓存时长(单位：秒)
         private long offlineCacheTime;//网络离线时使用的网络缓存时长(单位：秒)
+        private long memoryCacheSize;//内存缓存大小(单位：字节)，0表示不使用内存缓存
+        private long memoryCacheEntrySize;//单条内存缓存最大大小(单位：字节)
 
 
         private Config(Builder builder) {
@@ -1129,6 +3206,8 @@ public class OKUtil {
             isCache = builder.isCache;
             onlineCacheTime = builder.onlineCacheTime;
             offlineCacheTime = builder.offlineCacheTime;
+            memoryCacheSize = builder.memoryCacheSize;
+            memoryCacheEntrySize = builder.memoryCacheEntrySize;
         }
 
         public long getConnectTimeout() {
@@ -1171,6 +3250,14 @@ public class OKUtil {
             return offlineCacheTime;
         }
 
+        public long getMemoryCacheSize() {
+            return memoryCacheSize;
+        }
+
+        public long getMemoryCacheEntrySize() {
+            return memoryCacheEntrySize;
+        }
+
         public final static class Builder {
             private long connectTimeout;
             private long readTimeout;
@@ -1182,6 +3269,8 @@ public class OKUtil {
             private String cachePath;
             private long onlineCacheTime;
             private long offlineCacheTime;
+            private long memoryCacheSize;
+            private long memoryCacheEntrySize;
 
             public Builder() {
                 connectTimeout = CONNECTTIMEOUT;
@@ -1194,6 +3283,9 @@ public class OKUtil {
                 onlineCacheTime = 0;
                 //离线缓存默认7天
                 offlineCacheTime = 7 * 24 * 60 * 60;
+                //默认内存缓存为最大内存的六十四分之一，单条最大64KB
+                memoryCacheSize = Runtime.getRuntime().maxMemory() / 64;
+                memoryCacheEntrySize = 64 * 1024;
             }
 
             public Builder setConnectTimeout(long connectTimeout) {
@@ -1246,6 +3338,16 @@ public class OKUtil {
                 return this;
             }
 
+            public Builder setMemoryCacheSize(long memoryCacheSize) {
+                this.memoryCacheSize = memoryCacheSize;
+                return this;
+            }
+
+            public Builder setMemoryCacheEntrySize(long memoryCacheEntrySize) {
+                this.memoryCacheEntrySize = memoryCacheEntrySize;
+                return this;
+            }
+
             public Config build() {
                 return new Config(this);
             }
@@ -1278,5 +3380,9 @@ public class OKUtil {
          * 请求状态码
          */
         public int code;
+        /**
+         * 返回头部
+         */
+        public Headers headers;
     }
 }
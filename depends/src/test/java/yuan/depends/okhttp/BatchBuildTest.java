@@ -0,0 +1,122 @@
+package yuan.depends.okhttp;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowLooper;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 描述：批量请求的取消和单个回调异常
+ *
+ * @author yuanye
+ * @date 2019/8/28 11:20
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 27, manifest = Config.NONE)
+public class BatchBuildTest {
+
+    private MockWebServer server;
+    private OKUtil util;
+
+    @Before
+    public void setUp() throws IOException {
+        server = new MockWebServer();
+        server.start();
+        util = OKUtil.with(RuntimeEnvironment.application, new OKUtil.Config.Builder().setCache(false).build());
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        server.shutdown();
+    }
+
+    @Test
+    public void cancelBeforeExecuteStillCompletes() throws Exception {
+        OKUtil.BatchBuild batch = util.batch()
+                .add(util.get(server.url("/a").toString()))
+                .add(util.get(server.url("/b").toString()));
+        batch.cancel();
+        RecordingBatchBack back = new RecordingBatchBack();
+        batch.execute(back);
+        back.await();
+
+        assertEquals(0, server.getRequestCount());
+        assertEquals(2, back.results.size());
+        for (OKUtil.BatchResult result : back.results) {
+            assertFalse(result.isSuccessful());
+            assertEquals("Canceled", result.exception.getMessage());
+        }
+    }
+
+    @Test
+    public void callbackExceptionIsRecordedAsFailure() throws Exception {
+        server.enqueue(new MockResponse().setBody("ok"));
+        server.enqueue(new MockResponse().setBody("ok"));
+        final IllegalStateException error = new IllegalStateException("解析失败");
+        SingleFlightTest.StringBack failing = new SingleFlightTest.StringBack() {
+            @Override
+            public void onResponse(OKUtil.Response response) throws Exception {
+                throw error;
+            }
+        };
+        RecordingBatchBack back = new RecordingBatchBack();
+        util.batch()
+                .add(util.get(server.url("/a").toString()), failing)
+                .add(util.get(server.url("/b").toString()))
+                .execute(back);
+        back.await();
+
+        OKUtil.BatchResult first = back.results.get(0);
+        assertEquals(200, first.code);
+        assertFalse(first.isSuccessful());
+        assertTrue(first.exception == error);
+        //单个请求的回调也收到onFail
+        assertEquals(1, failing.errors.size());
+        OKUtil.BatchResult second = back.results.get(1);
+        assertTrue(second.isSuccessful());
+        assertNull(second.exception);
+        assertNotNull(second.body);
+    }
+
+    /**
+     * 等待批量请求完成
+     */
+    static class RecordingBatchBack implements OKUtil.BatchBack {
+
+        private final CountDownLatch done = new CountDownLatch(1);
+        volatile List<OKUtil.BatchResult> results;
+
+        @Override
+        public void onComplete(List<OKUtil.BatchResult> results) {
+            this.results = results;
+            done.countDown();
+        }
+
+        void await() throws InterruptedException {
+            long deadline = System.currentTimeMillis() + 10 * 1000;
+            while (!done.await(10, TimeUnit.MILLISECONDS)) {
+                ShadowLooper.runUiThreadTasksIncludingDelayedTasks();
+                if (System.currentTimeMillis() > deadline) throw new AssertionError("批量请求超时");
+            }
+            ShadowLooper.runUiThreadTasksIncludingDelayedTasks();
+        }
+    }
+}
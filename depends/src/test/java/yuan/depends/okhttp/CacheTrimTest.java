@@ -0,0 +1,159 @@
+package yuan.depends.okhttp;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowLooper;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.Cache;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 描述：清理缓存时OKHttp缓存通过Cache删除，maxSize为0表示不限制
+ *
+ * @author yuanye
+ * @date 2019/8/28 16:30
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 27, manifest = Config.NONE)
+public class CacheTrimTest {
+
+    private static final long HOUR = 60 * 60 * 1000;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private MockWebServer server;
+    private OKUtil util;
+    private Cache cache;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new MockWebServer();
+        server.start();
+        OKUtil.Config config = new OKUtil.Config.Builder()
+                .setCache(true)
+                .setCachePath(folder.newFolder().getPath())
+                .setOnlineCacheTime(3600)
+                .build();
+        util = OKUtil.with(RuntimeEnvironment.application, config);
+        cache = OKUtil.RxHttpClient.getCache(config);
+        long now = System.currentTimeMillis();
+        //old最早，mid其次，new最新
+        request("/old", now - 3 * HOUR);
+        request("/mid", now - 2 * HOUR);
+        request("/new", now);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        server.shutdown();
+    }
+
+    @Test
+    public void maxAgeEvictsThroughCache() throws Exception {
+        long deleted = trim(150 * 60 * 1000, 0);
+
+        assertTrue(deleted > 0);
+        assertEquals(urls("/mid", "/new"), cachedUrls());
+        assertTrue(new File(cache.directory(), "journal").exists());
+    }
+
+    @Test
+    public void maxSizeEvictsOldestFirst() throws Exception {
+        long entrySize = cache.size() / 3;
+        trim(0, entrySize + entrySize / 2);
+
+        assertEquals(urls("/new"), cachedUrls());
+        assertTrue(new File(cache.directory(), "journal").exists());
+    }
+
+    @Test
+    public void zeroMaxSizeIsUnlimited() throws Exception {
+        long deleted = trim(24 * HOUR, 0);
+
+        assertEquals(0, deleted);
+        assertEquals(urls("/old", "/mid", "/new"), cachedUrls());
+    }
+
+    /**
+     * 请求并写入缓存，修改缓存文件的修改时间
+     */
+    private void request(String path, long lastModified) throws Exception {
+        server.enqueue(new MockResponse().setBody("body of " + path));
+        SingleFlightTest.StringBack back = new SingleFlightTest.StringBack();
+        util.get(server.url(path).toString()).execute(back);
+        back.await();
+        String key = Cache.key(server.url(path));
+        assertTrue(new File(cache.directory(), key + ".0").setLastModified(lastModified));
+        assertTrue(new File(cache.directory(), key + ".1").setLastModified(lastModified));
+    }
+
+    @Test
+    public void noLimitsDeletesNothing() throws Exception {
+        List<String> before = cachedUrls();
+        long deleted = trim(0, 0);
+
+        assertEquals(0, deleted);
+        assertEquals(before, cachedUrls());
+    }
+
+    private long trim(long maxAge, long maxSize) throws InterruptedException {
+        final CountDownLatch done = new CountDownLatch(1);
+        final long[] deleted = new long[1];
+        OKUtil.trimCacheAsync(maxAge, maxSize, new OKUtil.CacheBack() {
+            @Override
+            public void onComplete(long size) {
+                deleted[0] = size;
+                done.countDown();
+            }
+        });
+        long deadline = System.currentTimeMillis() + 10 * 1000;
+        while (!done.await(10, TimeUnit.MILLISECONDS)) {
+            ShadowLooper.runUiThreadTasksIncludingDelayedTasks();
+            if (System.currentTimeMillis() > deadline) throw new AssertionError("清理超时");
+        }
+        return deleted[0];
+    }
+
+    private List<String> urls(String... paths) {
+        List<String> urls = new ArrayList<>();
+        for (String path : paths) {
+            urls.add(server.url(path).toString());
+        }
+        return urls;
+    }
+
+    private List<String> cachedUrls() throws IOException {
+        List<String> urls = new ArrayList<>();
+        Iterator<String> iterator = cache.urls();
+        while (iterator.hasNext()) {
+            urls.add(iterator.next());
+        }
+        //按请求顺序比较
+        List<String> ordered = new ArrayList<>();
+        for (String url : urls("/old", "/mid", "/new")) {
+            if (urls.contains(url)) ordered.add(url);
+        }
+        assertEquals(urls.size(), ordered.size());
+        return ordered;
+    }
+}
@@ -0,0 +1,279 @@
+package yuan.depends.okhttp;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowLooper;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import okhttp3.mockwebserver.SocketPolicy;
+import okio.Buffer;
+import okio.Okio;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 描述：FileBack只保存文件、断点续传、md5校验
+ *
+ * @author yuanye
+ * @date 2019/8/27 10:12
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 27, manifest = Config.NONE)
+public class FileBackDownloadTest {
+
+    /**
+     * 大文件大小，远大于内存增长的上限
+     */
+    private static final int LARGE_SIZE = 64 * 1024 * 1024;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private MockWebServer server;
+
+    @Before
+    public void setUp() throws IOException {
+        server = new MockWebServer();
+        server.start();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        server.shutdown();
+    }
+
+    @Test
+    public void fileOnlyDownloadKeepsHeapFlat() throws Exception {
+        Buffer body = new Buffer();
+        byte[] chunk = new byte[8192];
+        for (int i = 0; i < chunk.length; i++) {
+            chunk[i] = (byte) i;
+        }
+        for (int i = 0; i < LARGE_SIZE / chunk.length; i++) {
+            body.write(chunk);
+        }
+        String md5 = body.md5().hex();
+        server.enqueue(new MockResponse().setBody(body));
+
+        File dir = folder.newFolder();
+        RecordingFileBack back = new RecordingFileBack(dir.getPath(), "large.bin");
+        back.setFileOnly(true).setMd5(md5);
+        HeapSampler sampler = new HeapSampler();
+        sampler.start();
+        download(back);
+        long peak = sampler.finish();
+
+        assertNull(back.error);
+        assertNull(back.bytes);
+        File file = new File(dir, "large.bin");
+        assertEquals(file.getAbsolutePath(), back.path);
+        assertEquals(LARGE_SIZE, file.length());
+        assertFalse(new File(dir, "large.bin.part").exists());
+        assertTrue("heap grew by " + peak + " bytes", peak < LARGE_SIZE / 4);
+    }
+
+    @Test
+    public void resumesFromPartFile() throws Exception {
+        File dir = folder.newFolder();
+        Okio.buffer(Okio.sink(new File(dir, "resume.txt.part"))).writeUtf8("hello ").close();
+        server.enqueue(new MockResponse()
+                .setResponseCode(206)
+                .setHeader("Content-Range", "bytes 6-10/11")
+                .setBody("world"));
+
+        RecordingFileBack back = new RecordingFileBack(dir.getPath(), "resume.txt");
+        back.setResume(true).setMd5(new Buffer().writeUtf8("hello world").md5().hex());
+        download(back);
+
+        RecordedRequest request = server.takeRequest();
+        assertEquals("bytes=6-", request.getHeader("Range"));
+        assertNull(back.error);
+        assertEquals("hello world", Okio.buffer(Okio.source(new File(dir, "resume.txt"))).readUtf8());
+        assertFalse(new File(dir, "resume.txt.part").exists());
+    }
+
+    @Test
+    public void restartsWhenServerIgnoresRange() throws Exception {
+        File dir = folder.newFolder();
+        Okio.buffer(Okio.sink(new File(dir, "full.txt.part"))).writeUtf8("stale").close();
+        server.enqueue(new MockResponse().setBody("hello world"));
+
+        RecordingFileBack back = new RecordingFileBack(dir.getPath(), "full.txt");
+        back.setResume(true);
+        download(back);
+
+        assertNull(back.error);
+        assertEquals("hello world", Okio.buffer(Okio.source(new File(dir, "full.txt"))).readUtf8());
+    }
+
+    @Test
+    public void md5MismatchFailsAndDeletesPartFile() throws Exception {
+        File dir = folder.newFolder();
+        server.enqueue(new MockResponse().setBody("hello world"));
+
+        RecordingFileBack back = new RecordingFileBack(dir.getPath(), "bad.txt");
+        back.setFileOnly(true).setMd5("00000000000000000000000000000000");
+        download(back);
+
+        assertNotNull(back.error);
+        assertFalse(new File(dir, "bad.txt").exists());
+        assertFalse(new File(dir, "bad.txt.part").exists());
+    }
+
+    @Test
+    public void interruptedDownloadDeletesPartFileWithoutResume() throws Exception {
+        File dir = folder.newFolder();
+        server.enqueue(truncatedResponse());
+
+        RecordingFileBack back = new RecordingFileBack(dir.getPath(), "cut.bin");
+        back.setFileOnly(true);
+        download(back);
+
+        assertNotNull(back.error);
+        assertFalse(new File(dir, "cut.bin").exists());
+        assertFalse(new File(dir, "cut.bin.part").exists());
+    }
+
+    @Test
+    public void interruptedDownloadKeepsPartFileForResume() throws Exception {
+        File dir = folder.newFolder();
+        server.enqueue(truncatedResponse());
+
+        RecordingFileBack back = new RecordingFileBack(dir.getPath(), "cut.bin");
+        back.setResume(true);
+        download(back);
+
+        assertNotNull(back.error);
+        assertFalse(new File(dir, "cut.bin").exists());
+        assertTrue(new File(dir, "cut.bin.part").exists());
+    }
+
+    /**
+     * 传输响应体的过程中断开连接
+     */
+    private static MockResponse truncatedResponse() {
+        return new MockResponse()
+                .setBody(new Buffer().write(new byte[256 * 1024]))
+                .setSocketPolicy(SocketPolicy.DISCONNECT_DURING_RESPONSE_BODY);
+    }
+
+    private void download(RecordingFileBack back) throws InterruptedException {
+        OKUtil.with(RuntimeEnvironment.application, new OKUtil.Config.Builder().setCache(false).build())
+                .get(server.url("/file").toString())
+                .execute(back);
+        back.await();
+    }
+
+    /**
+     * 记录回调结果
+     */
+    static class RecordingFileBack extends OKUtil.FileBack {
+
+        private final CountDownLatch done = new CountDownLatch(1);
+        volatile String path;
+        volatile byte[] bytes;
+        volatile Exception error;
+        volatile int downingCount;
+        volatile int lastPercent = -1;
+        volatile long lastTotal;
+        volatile long lastCurrent;
+        volatile int percentAtDone = -1;
+
+        RecordingFileBack(String fileDir, String fileName) {
+            super(fileDir, fileName);
+        }
+
+        @Override
+        public void onSuccess(String fileDir, byte[] bytes) {
+            this.path = fileDir;
+            this.bytes = bytes;
+            this.percentAtDone = lastPercent;
+            done.countDown();
+        }
+
+        @Override
+        public void onFail(Exception e) {
+            this.error = e;
+            done.countDown();
+        }
+
+        @Override
+        public void onDowning(int percent, long total, long current) {
+            downingCount++;
+            lastPercent = percent;
+            lastTotal = total;
+            lastCurrent = current;
+        }
+
+        /**
+         * 等待主线程回调，期间执行主线程消息
+         */
+        void await() throws InterruptedException {
+            long deadline = System.currentTimeMillis() + 60 * 1000;
+            while (!done.await(10, TimeUnit.MILLISECONDS)) {
+                ShadowLooper.runUiThreadTasksIncludingDelayedTasks();
+                if (System.currentTimeMillis() > deadline) throw new AssertionError("下载超时");
+            }
+            //完成回调之前post的进度回调
+            ShadowLooper.runUiThreadTasksIncludingDelayedTasks();
+        }
+    }
+
+    /**
+     * 后台采样已使用的堆内存，返回相对开始时的最大增长
+     */
+    static class HeapSampler extends Thread {
+
+        private volatile boolean running = true;
+        private long baseline;
+        private volatile long peak;
+
+        @Override
+        public synchronized void start() {
+            System.gc();
+            baseline = used();
+            super.start();
+        }
+
+        @Override
+        public void run() {
+            while (running) {
+                peak = Math.max(peak, used() - baseline);
+                try {
+                    Thread.sleep(2);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        }
+
+        long finish() throws InterruptedException {
+            running = false;
+            join();
+            return peak;
+        }
+
+        private static long used() {
+            Runtime runtime = Runtime.getRuntime();
+            return runtime.totalMemory() - runtime.freeMemory();
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package yuan.depends.okhttp;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okio.Buffer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 描述：下载进度回调次数受节流限制，且完成时一定回调100%
+ *
+ * @author yuanye
+ * @date 2019/8/27 14:36
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 27, manifest = Config.NONE)
+public class FileBackProgressTest {
+
+    private static final int SIZE = 8 * 1024 * 1024;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private MockWebServer server;
+
+    @Before
+    public void setUp() throws IOException {
+        server = new MockWebServer();
+        server.start();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        server.shutdown();
+    }
+
+    @Test
+    public void defaultIntervalBoundsCallbacksByPercent() throws Exception {
+        FileBackDownloadTest.RecordingFileBack back = download(null);
+
+        //每个百分比最多一次，外加开始和完成
+        assertTrue("onDowning called " + back.downingCount + " times", back.downingCount <= 102);
+        assertFinished(back);
+    }
+
+    @Test
+    public void coarseStepBoundsCallbacks() throws Exception {
+        FileBackDownloadTest.RecordingFileBack back = download(25);
+
+        assertTrue("onDowning called " + back.downingCount + " times", back.downingCount <= 6);
+        assertFinished(back);
+    }
+
+    private FileBackDownloadTest.RecordingFileBack download(Integer step) throws Exception {
+        //小块慢速发送，产生大量读取
+        server.enqueue(new MockResponse()
+                .setBody(new Buffer().write(new byte[SIZE]))
+                .throttleBody(256 * 1024, 5, TimeUnit.MILLISECONDS));
+        File dir = folder.newFolder();
+        FileBackDownloadTest.RecordingFileBack back =
+                new FileBackDownloadTest.RecordingFileBack(dir.getPath(), "progress.bin");
+        back.setFileOnly(true);
+        if (step != null) back.setDowningInterval(Long.MAX_VALUE, step);
+        OKUtil.with(RuntimeEnvironment.application, new OKUtil.Config.Builder().setCache(false).build())
+                .get(server.url("/progress").toString())
+                .execute(back);
+        back.await();
+        return back;
+    }
+
+    private void assertFinished(FileBackDownloadTest.RecordingFileBack back) {
+        assertNull(back.error);
+        assertTrue(back.downingCount > 0);
+        assertEquals(100, back.percentAtDone);
+        assertEquals(100, back.lastPercent);
+        assertEquals(SIZE, back.lastTotal);
+        assertEquals(SIZE, back.lastCurrent);
+    }
+}
@@ -0,0 +1,109 @@
+package yuan.depends.okhttp;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.io.IOException;
+
+import okhttp3.Cache;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+/**
+ * 描述：内存缓存命中时不再读取OKHttp磁盘缓存
+ *
+ * @author yuanye
+ * @date 2019/8/28 14:10
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 27, manifest = Config.NONE)
+public class MemoryCacheInterceptorTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private MockWebServer server;
+
+    @Before
+    public void setUp() throws IOException {
+        server = new MockWebServer();
+        server.start();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        server.shutdown();
+    }
+
+    @Test
+    public void warmMemoryHitSkipsDiskCache() throws Exception {
+        server.enqueue(new MockResponse().setBody("cached"));
+        OKUtil.Config config = new OKUtil.Config.Builder()
+                .setCache(true)
+                .setCachePath(folder.newFolder().getPath())
+                .setOnlineCacheTime(60)
+                .build();
+        OKUtil util = OKUtil.with(RuntimeEnvironment.application, config);
+        Cache cache = OKUtil.RxHttpClient.getCache(config);
+        OKUtil.MemoryResponseCache memoryCache = OKUtil.getMemoryCache(config);
+        assertNotNull(cache);
+        assertNotNull(memoryCache);
+
+        //第一次请求网络，写入磁盘缓存和内存缓存
+        SingleFlightTest.StringBack cold = new SingleFlightTest.StringBack();
+        util.get(server.url("/data").toString()).execute(cold);
+        cold.await();
+        assertEquals("cached", cold.body);
+        assertEquals(1, cache.requestCount());
+        assertEquals(1, cache.networkCount());
+        assertEquals(0, memoryCache.hitCount());
+
+        //第二次命中内存缓存，磁盘缓存和网络都不再访问
+        SingleFlightTest.StringBack warm = new SingleFlightTest.StringBack();
+        util.get(server.url("/data").toString()).execute(warm);
+        warm.await();
+        assertEquals("cached", warm.body);
+        assertEquals(1, memoryCache.hitCount());
+        assertEquals(1, cache.requestCount());
+        assertEquals(0, cache.hitCount());
+        assertEquals(1, server.getRequestCount());
+    }
+
+    @Test
+    public void noCacheTimeSkipsMemoryCache() throws Exception {
+        server.enqueue(new MockResponse().setBody("first"));
+        server.enqueue(new MockResponse().setBody("second"));
+        OKUtil.Config config = new OKUtil.Config.Builder()
+                .setCache(true)
+                .setCachePath(folder.newFolder().getPath())
+                .setOnlineCacheTime(0)
+                .setOfflineCacheTime(0)
+                .build();
+        OKUtil util = OKUtil.with(RuntimeEnvironment.application, config);
+        OKUtil.MemoryResponseCache memoryCache = OKUtil.getMemoryCache(config);
+        assertNotNull(memoryCache);
+
+        SingleFlightTest.StringBack first = new SingleFlightTest.StringBack();
+        util.get(server.url("/data").toString()).execute(first);
+        first.await();
+        SingleFlightTest.StringBack second = new SingleFlightTest.StringBack();
+        util.get(server.url("/data").toString()).execute(second);
+        second.await();
+
+        //缓存永远不会命中，不查询也不保存
+        assertEquals("second", second.body);
+        assertEquals(2, server.getRequestCount());
+        assertEquals(0, memoryCache.hitCount());
+        assertEquals(0, memoryCache.missCount());
+    }
+}
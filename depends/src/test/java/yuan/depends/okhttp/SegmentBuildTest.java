@@ -0,0 +1,142 @@
+package yuan.depends.okhttp;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import okio.Buffer;
+import okio.ByteString;
+import okio.Okio;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+
+/**
+ * 描述：分段数限制、minSegmentSize校验、服务器忽略Range时改为单线程下载
+ *
+ * @author yuanye
+ * @date 2019/8/27 16:05
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 27, manifest = Config.NONE)
+public class SegmentBuildTest {
+
+    private static final Pattern RANGE = Pattern.compile("bytes=(\\d+)-(\\d+)?");
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private MockWebServer server;
+    private ByteString content;
+    /**
+     * 收到的GET请求的Range，无Range时为空字符串
+     */
+    private final List<String> ranges = new CopyOnWriteArrayList<>();
+
+    @Before
+    public void setUp() throws IOException {
+        byte[] bytes = new byte[3 * 1024 * 1024 + 17];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) (i * 31);
+        }
+        content = ByteString.of(bytes);
+        server = new MockWebServer();
+        server.start();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        server.shutdown();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsNonPositiveMinSegmentSize() {
+        OKUtil.with(RuntimeEnvironment.application).segment(server.url("/f").toString()).setMinSegmentSize(0);
+    }
+
+    @Test
+    public void segmentCountLimitedByMinSegmentSize() throws Exception {
+        server.setDispatcher(new RangeDispatcher(true));
+        File file = download(8, 1024 * 1024);
+
+        //3MB多一点，每段至少1MB，最多3段
+        assertEquals(3, ranges.size());
+        assertEquals(content, Okio.buffer(Okio.source(file)).readByteString());
+    }
+
+    @Test
+    public void fallsBackToSingleStreamWhenRangeIgnored() throws Exception {
+        server.setDispatcher(new RangeDispatcher(false));
+        File file = download(3, 1024 * 1024);
+
+        //分段请求均收到200，改为一次不带Range的完整下载
+        assertEquals("", ranges.get(ranges.size() - 1));
+        assertEquals(content, Okio.buffer(Okio.source(file)).readByteString());
+        assertFalse(new File(file.getPath() + ".part").exists());
+    }
+
+    private File download(int segmentCount, long minSegmentSize) throws Exception {
+        File dir = folder.newFolder();
+        FileBackDownloadTest.RecordingFileBack back =
+                new FileBackDownloadTest.RecordingFileBack(dir.getPath(), "segment.bin");
+        OKUtil.with(RuntimeEnvironment.application, new OKUtil.Config.Builder().setCache(false).build())
+                .segment(server.url("/segment.bin").toString())
+                .setSegmentCount(segmentCount)
+                .setMinSegmentSize(minSegmentSize)
+                .execute(back);
+        back.await();
+        assertNull(back.error);
+        return new File(dir, "segment.bin");
+    }
+
+    /**
+     * HEAD声明支持Range，GET按supportRange返回206分段或200完整内容
+     */
+    private class RangeDispatcher extends Dispatcher {
+
+        private final boolean supportRange;
+
+        RangeDispatcher(boolean supportRange) {
+            this.supportRange = supportRange;
+        }
+
+        @Override
+        public MockResponse dispatch(RecordedRequest request) {
+            if ("HEAD".equals(request.getMethod())) {
+                return new MockResponse()
+                        .setHeader("Accept-Ranges", "bytes")
+                        .setHeader("Content-Length", content.size());
+            }
+            String range = request.getHeader("Range");
+            ranges.add(range == null ? "" : range);
+            Matcher matcher = range == null ? null : RANGE.matcher(range);
+            if (!supportRange || matcher == null || !matcher.matches()) {
+                return new MockResponse().setBody(new Buffer().write(content));
+            }
+            int start = Integer.parseInt(matcher.group(1));
+            int end = matcher.group(2) == null ? content.size() - 1 : Integer.parseInt(matcher.group(2));
+            return new MockResponse()
+                    .setResponseCode(206)
+                    .setHeader("Content-Range", "bytes " + start + "-" + end + "/" + content.size())
+                    .setBody(new Buffer().write(content.substring(start, end + 1)));
+        }
+    }
+}
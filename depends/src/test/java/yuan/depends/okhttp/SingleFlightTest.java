@@ -0,0 +1,150 @@
+package yuan.depends.okhttp;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowLooper;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 描述：合并相同GET请求只在同一Client内进行，文件下载不合并
+ *
+ * @author yuanye
+ * @date 2019/8/28 09:40
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 27, manifest = Config.NONE)
+public class SingleFlightTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private MockWebServer server;
+
+    @Before
+    public void setUp() throws IOException {
+        server = new MockWebServer();
+        server.start();
+        server.setDispatcher(new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) throws InterruptedException {
+                //延迟响应，保证后发起的请求能合并到进行中的请求
+                Thread.sleep(300);
+                return new MockResponse().setBody("hello");
+            }
+        });
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        server.shutdown();
+    }
+
+    @Test
+    public void sameClientCoalesces() throws Exception {
+        OKUtil util = OKUtil.with(RuntimeEnvironment.application,
+                new OKUtil.Config.Builder().setCache(false).build());
+        StringBack first = new StringBack();
+        StringBack second = new StringBack();
+        util.get(server.url("/a").toString()).coalesce().execute(first);
+        util.get(server.url("/a").toString()).coalesce().execute(second);
+        first.await();
+        second.await();
+
+        assertEquals(1, server.getRequestCount());
+        assertEquals("hello", first.body);
+        assertEquals("hello", second.body);
+    }
+
+    @Test
+    public void differentClientsDoNotCoalesce() throws Exception {
+        StringBack first = new StringBack();
+        StringBack second = new StringBack();
+        OKUtil.with(RuntimeEnvironment.application,
+                new OKUtil.Config.Builder().setCache(false).setReadTimeout(11000).build())
+                .get(server.url("/a").toString()).coalesce().execute(first);
+        OKUtil.with(RuntimeEnvironment.application,
+                new OKUtil.Config.Builder().setCache(false).setReadTimeout(12000).build())
+                .get(server.url("/a").toString()).coalesce().execute(second);
+        first.await();
+        second.await();
+
+        assertEquals(2, server.getRequestCount());
+        assertTrue(first.errors.isEmpty());
+        assertTrue(second.errors.isEmpty());
+        assertEquals("hello", first.body);
+        assertEquals("hello", second.body);
+    }
+
+    @Test
+    public void fileDownloadsDoNotCoalesce() throws Exception {
+        OKUtil util = OKUtil.with(RuntimeEnvironment.application,
+                new OKUtil.Config.Builder().setCache(false).build());
+        File dir = folder.newFolder();
+        FileBackDownloadTest.RecordingFileBack first =
+                new FileBackDownloadTest.RecordingFileBack(dir.getPath(), "a.txt");
+        FileBackDownloadTest.RecordingFileBack second =
+                new FileBackDownloadTest.RecordingFileBack(dir.getPath(), "b.txt");
+        util.get(server.url("/a").toString()).coalesce().execute(first.setFileOnly(true));
+        util.get(server.url("/a").toString()).coalesce().execute(second.setFileOnly(true));
+        first.await();
+        second.await();
+
+        assertEquals(2, server.getRequestCount());
+        assertNull(first.error);
+        assertNull(second.error);
+        assertTrue(new File(dir, "a.txt").exists());
+        assertTrue(new File(dir, "b.txt").exists());
+    }
+
+    /**
+     * 在子线程读取返回字符串
+     */
+    static class StringBack implements OKUtil.BaseBack {
+
+        private final CountDownLatch done = new CountDownLatch(1);
+        volatile String body;
+        final List<Exception> errors = new CopyOnWriteArrayList<>();
+
+        @Override
+        public void onResponse(OKUtil.Response response) throws Exception {
+            body = response.body.string();
+            done.countDown();
+        }
+
+        @Override
+        public void onFail(Exception e) {
+            errors.add(e);
+            done.countDown();
+        }
+
+        void await() throws InterruptedException {
+            long deadline = System.currentTimeMillis() + 10 * 1000;
+            while (!done.await(10, TimeUnit.MILLISECONDS)) {
+                ShadowLooper.runUiThreadTasksIncludingDelayedTasks();
+                if (System.currentTimeMillis() > deadline) throw new AssertionError("请求超时");
+            }
+        }
+    }
+}
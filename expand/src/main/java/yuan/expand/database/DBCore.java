@@ -0,0 +1,577 @@
+package yuan.expand.database;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteException;
+import android.database.sqlite.SQLiteStatement;
+import android.util.Log;
+import android.util.LruCache;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 描述：数据库连接核心，DBUtil和SQLManager共用
+ * <p>
+ * 线程模型：
+ * 1、每个数据库文件只有一个DBCore，同一个文件不会被打开多次
+ * 2、写：所有写操作使用同一个写连接，SQLiteDatabase内部保证同一时间只有一个写事务，
+ * 写连接一直保持打开，只有调用close才关闭，其他线程不会用到已关闭的连接
+ * 3、读：开启WAL后查询使用只读连接池，不会被写事务阻塞；未开启时使用写连接
+ * 4、预编译语句缓存：取出的语句由当前线程独占，使用完归还，缓存中已被取出时重新编译一条；
+ * 不对语句加锁，避免持有语句锁等待写连接，而持有写连接的事务又等待该语句造成死锁
+ * 5、实体映射{@link EntityMapper}创建后不可变，通过ConcurrentHashMap缓存，读取不加锁
+ * 6、DBUtil和SQLManager通过obtain获取时增加引用计数，通过release释放，最后一个使用者释放时关闭；
+ * 仍在使用时不能以其他版本号获取
+ *
+ * @author yuanye
+ * @date 2019/8/21 10:12
+ */
+final class DBCore {
+
+    private static final String TAG = "DBCore";
+    /**
+     * 预编译语句缓存数量
+     */
+    private static final int STATEMENT_CACHE_SIZE = 32;
+    /**
+     * 默认读连接数量
+     */
+    static final int DEFAULT_READER_POOL_SIZE = 2;
+    /**
+     * 每个线程最近插入的id：<表名,id>
+     */
+    private final ThreadLocal<Map<String, Long>> lastInsertIds = new ThreadLocal<Map<String, Long>>() {
+        @Override
+        protected Map<String, Long> initialValue() {
+            return new HashMap<>();
+        }
+    };
+    /**
+     * 等待读连接归还的最长时间，单位：毫秒
+     */
+    static final long READER_WAIT_MS = 1000;
+    /**
+     * 已打开的数据库：<数据库名,DBCore>
+     */
+    private static final Map<String, DBCore> cores = new HashMap<>();
+    /**
+     * 注册的实体类，升级时自动同步表结构
+     */
+    private static final List<Class<?>> entities = new ArrayList<>();
+    /**
+     * 注册的升级步骤
+     */
+    private static final List<Migration> migrations = new ArrayList<>();
+
+    private final SQLHelper helper;
+    /**
+     * 数据库版本
+     */
+    private final int version;
+    /**
+     * 写连接
+     */
+    private SQLiteDatabase writDB;
+    /**
+     * 空闲的只读连接，WAL模式下使用
+     */
+    private final ArrayBlockingQueue<SQLiteDatabase> readers;
+    /**
+     * 已打开的只读连接数量
+     */
+    private final AtomicInteger readerCount = new AtomicInteger();
+    /**
+     * 已取出未归还的只读连接，关闭时清空，之后归还的连接直接关闭
+     */
+    private final Set<SQLiteDatabase> busyReaders = Collections.newSetFromMap(new IdentityHashMap<SQLiteDatabase, Boolean>());
+    /**
+     * 数据库名称
+     */
+    private final String name;
+    /**
+     * 使用者数量，访问时同步cores
+     */
+    private int refCount;
+    /**
+     * 写线程，所有异步写操作串行执行
+     */
+    private ExecutorService writeExecutor;
+    /**
+     * 读线程池
+     */
+    private ExecutorService readExecutor;
+    /**
+     * 空闲的预编译语句：<sql,SQLiteStatement>，访问时同步该对象
+     */
+    private final LruCache<String, SQLiteStatement> statements = new LruCache<String, SQLiteStatement>(STATEMENT_CACHE_SIZE) {
+        @Override
+        protected void entryRemoved(boolean evicted, String key, SQLiteStatement oldValue, SQLiteStatement newValue) {
+            //被淘汰或被同一sql的语句替换时关闭，取出使用时不关闭
+            if (evicted || newValue != null) oldValue.close();
+        }
+    };
+    /**
+     * 已取出的语句：<SQLiteStatement,取出时的statementGeneration>，访问时同步statements
+     */
+    private final Map<SQLiteStatement, Integer> checkedOut = new IdentityHashMap<>();
+    /**
+     * 写连接重新打开的次数，之前编译的语句归还时直接关闭
+     */
+    private int statementGeneration;
+    /**
+     * 打开数据库次数
+     */
+    private final AtomicLong openCount = new AtomicLong();
+    /**
+     * 数据库已打开，不需要重新打开的次数
+     */
+    private final AtomicLong openAvoidedCount = new AtomicLong();
+    /**
+     * 预编译语句缓存命中次数
+     */
+    private final AtomicLong statementHitCount = new AtomicLong();
+    /**
+     * 预编译语句缓存未命中次数
+     */
+    private final AtomicLong statementMissCount = new AtomicLong();
+
+    /**
+     * 获取数据库并增加引用计数，同一个数据库名只创建一次，不再使用时调用release
+     *
+     * @param context        上下文对象
+     * @param name           数据库名称
+     * @param version        数据库版本
+     * @param readerPoolSize 读连接数量，只在首次创建时有效
+     * @throws IllegalStateException 数据库仍在使用时修改了版本号
+     */
+    static DBCore obtain(Context context, String name, int version, int readerPoolSize) {
+        synchronized (cores) {
+            DBCore core = cores.get(name);
+            if (core != null && core.version != version) {
+                if (core.refCount > 0) {
+                    throw new IllegalStateException("数据库" + name + "版本" + core.version
+                            + "仍在使用，请先调用closeDB关闭后再切换到版本" + version);
+                }
+                core.close();
+                core = null;
+            }
+            if (core == null) {
+                core = new DBCore(context.getApplicationContext(), name, version, readerPoolSize);
+                cores.put(name, core);
+            }
+            core.refCount++;
+            return core;
+        }
+    }
+
+    /**
+     * 释放obtain获取的引用，最后一个使用者释放时关闭所有连接并移除，
+     * 移除和关闭都在cores锁内完成，避免同时obtain拿到正在关闭的实例
+     */
+    void release() {
+        synchronized (cores) {
+            if (refCount > 0) refCount--;
+            if (refCount > 0) return;
+            if (cores.get(name) == this) cores.remove(name);
+            close();
+        }
+    }
+
+    static synchronized void addEntity(Class<?>... classes) {
+        for (Class<?> clazz : classes) {
+            if (!entities.contains(clazz)) entities.add(clazz);
+        }
+    }
+
+    static synchronized void addMigration(Migration... steps) {
+        Collections.addAll(migrations, steps);
+    }
+
+    private DBCore(Context context, String name, int version, int readerPoolSize) {
+        this.name = name;
+        this.version = version;
+        helper = new SQLHelper(context, name, null, version, readerPoolSize);
+        synchronized (DBCore.class) {
+            helper.setSchema(new ArrayList<>(entities), new ArrayList<>(migrations));
+        }
+        readers = new ArrayBlockingQueue<>(Math.max(helper.getReaderPoolSize(), 1));
+        writDB = helper.getWritableDatabase();
+        openCount.incrementAndGet();
+    }
+
+    /**
+     * 获取写连接，关闭后重新打开
+     */
+    synchronized SQLiteDatabase writer() {
+        if (!writDB.isOpen()) {
+            //关闭后重新打开，之前编译的语句已失效
+            evictStatements();
+            writDB = helper.getWritableDatabase();
+            openCount.incrementAndGet();
+        } else {
+            openAvoidedCount.incrementAndGet();
+        }
+        return writDB;
+    }
+
+    /**
+     * 数据库版本
+     */
+    int getVersion() {
+        return writer().getVersion();
+    }
+
+    /**
+     * 关闭所有连接和线程池，使用中的读连接在归还时关闭
+     */
+    synchronized void close() {
+        evictStatements();
+        synchronized (busyReaders) {
+            readerCount.addAndGet(-busyReaders.size());
+            busyReaders.clear();
+        }
+        SQLiteDatabase reader;
+        while ((reader = readers.poll()) != null) {
+            reader.close();
+            readerCount.decrementAndGet();
+        }
+        writDB.close();
+        //已提交的任务执行完后线程结束，再次使用时重新创建
+        if (writeExecutor != null) {
+            writeExecutor.shutdown();
+            writeExecutor = null;
+        }
+        if (readExecutor != null) {
+            readExecutor.shutdown();
+            readExecutor = null;
+        }
+    }
+
+    long getOpenCount() {
+        return openCount.get();
+    }
+
+    long getOpenAvoidedCount() {
+        return openAvoidedCount.get();
+    }
+
+    long getStatementHitCount() {
+        return statementHitCount.get();
+    }
+
+    long getStatementMissCount() {
+        return statementMissCount.get();
+    }
+
+    /**
+     * 获取一个读连接，使用完必须调用releaseReader
+     * <p>
+     * 未开启WAL时返回写连接；否则优先复用空闲的只读连接，数量不足时新建，
+     * 达到readerPoolSize后等待其他线程归还，超过{@link #READER_WAIT_MS}仍没有归还时使用写连接
+     */
+    SQLiteDatabase acquireReader() {
+        SQLiteDatabase writer = writer();
+        int poolSize = helper.getReaderPoolSize();
+        if (poolSize <= 0) return writer;
+        SQLiteDatabase reader = readers.poll();
+        if (reader == null) {
+            if (readerCount.incrementAndGet() <= poolSize) {
+                try {
+                    reader = helper.openReader();
+                } catch (SQLiteException e) {
+                    readerCount.decrementAndGet();
+                    Log.e(TAG, "DBCore openReader Error:" + e.getMessage());
+                    return writer;
+                }
+                markBusy(reader);
+                return reader;
+            }
+            readerCount.decrementAndGet();
+            try {
+                reader = readers.poll(READER_WAIT_MS, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return writer;
+            }
+            if (reader == null) {
+                //读连接都未归还，可能有RowIterable没有close
+                Log.w(TAG, "DBCore acquireReader timeout, all " + poolSize + " readers in use, fall back to writer");
+                return writer;
+            }
+        }
+        if (!reader.isOpen()) {
+            readerCount.decrementAndGet();
+            return acquireReader();
+        }
+        markBusy(reader);
+        return reader;
+    }
+
+    private void markBusy(SQLiteDatabase reader) {
+        synchronized (busyReaders) {
+            busyReaders.add(reader);
+        }
+    }
+
+    /**
+     * 归还读连接
+     */
+    void releaseReader(SQLiteDatabase reader) {
+        if (reader == writDB) return;
+        boolean busy;
+        synchronized (busyReaders) {
+            busy = busyReaders.remove(reader);
+        }
+        if (!busy) {
+            //取出后数据库已关闭，已不计入readerCount；或是重新打开前的写连接
+            if (reader.isOpen()) reader.close();
+            return;
+        }
+        if (!reader.isOpen()) {
+            readerCount.decrementAndGet();
+            return;
+        }
+        if (!readers.offer(reader)) {
+            reader.close();
+            readerCount.decrementAndGet();
+        }
+    }
+
+    /**
+     * 获取预编译语句，优先使用缓存中空闲的语句
+     * <p>
+     * 返回的语句由调用线程独占，不需要同步，使用完必须调用releaseStatement归还；
+     * 相同sql的语句已被其他线程取出时重新编译一条，归还时多余的语句被关闭
+     *
+     * @param sql sql语句
+     * @return SQLiteStatement
+     */
+    SQLiteStatement acquireStatement(String sql) {
+        SQLiteDatabase writer = writer();
+        int generation;
+        synchronized (statements) {
+            generation = statementGeneration;
+            SQLiteStatement statement = statements.remove(sql);
+            if (statement != null) {
+                statementHitCount.incrementAndGet();
+                checkedOut.put(statement, generation);
+                return statement;
+            }
+        }
+        statementMissCount.incrementAndGet();
+        //编译需要等待写连接，不能持有statements锁
+        SQLiteStatement statement = writer.compileStatement(sql);
+        synchronized (statements) {
+            checkedOut.put(statement, generation);
+        }
+        return statement;
+    }
+
+    /**
+     * 归还预编译语句，写连接已重新打开时关闭该语句
+     *
+     * @param sql       获取时的sql语句
+     * @param statement acquireStatement返回的语句
+     */
+    void releaseStatement(String sql, SQLiteStatement statement) {
+        statement.clearBindings();
+        synchronized (statements) {
+            Integer generation = checkedOut.remove(statement);
+            if (generation != null && generation == statementGeneration) {
+                statements.put(sql, statement);
+                return;
+            }
+        }
+        statement.close();
+    }
+
+    /**
+     * 关闭所有空闲语句，已取出的语句归还时关闭
+     */
+    private void evictStatements() {
+        synchronized (statements) {
+            statementGeneration++;
+            statements.evictAll();
+        }
+    }
+
+    /**
+     * 执行增删改sql语句，使用缓存的预编译语句
+     *
+     * @param sql      sql语句
+     * @param bindArgs 参数，支持String/Number/byte[]/null
+     * @return 影响的行数
+     */
+    int execSQL(String sql, Object[] bindArgs) {
+        SQLiteStatement statement = acquireStatement(sql);
+        try {
+            if (bindArgs != null) {
+                for (int i = 0; i < bindArgs.length; i++) {
+                    bind(statement, i + 1, bindArgs[i]);
+                }
+            }
+            return statement.executeUpdateDelete();
+        } finally {
+            releaseStatement(sql, statement);
+        }
+    }
+
+    /**
+     * 当前线程最近插入该表的id，没有时返回-1
+     * <p>
+     * 写连接被多个线程共用，last_insert_rowid返回的是任意线程最后一次插入的id，
+     * 所以记录每次插入语句自身返回的id
+     */
+    long lastInsertRowId(String table) {
+        Long id = lastInsertIds.get().get(table);
+        return id == null ? -1 : id;
+    }
+
+    /**
+     * 记录当前线程插入该表的id
+     */
+    void recordInsert(String table, long id) {
+        if (id != -1) lastInsertIds.get().put(table, id);
+    }
+
+    /**
+     * 插入一条数据
+     *
+     * @param table      表名
+     * @param object     实体
+     * @param primaryKey 需要跳过的自增字段
+     * @return 新数据的id，失败返回-1
+     */
+    long insert(String table, Object object, String primaryKey) throws IllegalAccessException {
+        ContentValues values = EntityMapper.of(object.getClass()).toValues(object, primaryKey);
+        long id = writer().insert(table, null, values);
+        recordInsert(table, id);
+        return id;
+    }
+
+    int update(String table, ContentValues values, String whereClause, String[] whereArgs) {
+        return writer().update(table, values, whereClause, whereArgs);
+    }
+
+    int delete(String table, String whereClause, String[] whereArgs) {
+        return writer().delete(table, whereClause, whereArgs);
+    }
+
+    /**
+     * 查询并转换为实体
+     */
+    <T> ArrayList<T> query(String table, String[] columns, String selection, String[] selectionArgs,
+                           String orderBy, Class<T> clazz) throws IllegalAccessException, InstantiationException {
+        SQLiteDatabase reader = acquireReader();
+        try {
+            Cursor cursor = reader.query(table, columns, selection, selectionArgs, null, null, orderBy);
+            try {
+                return readAll(cursor, clazz);
+            } finally {
+                cursor.close();
+            }
+        } finally {
+            releaseReader(reader);
+        }
+    }
+
+    /**
+     * sql语句查询并转换为实体
+     */
+    <T> ArrayList<T> rawQuery(String sql, String[] selectionArgs, Class<T> clazz)
+            throws IllegalAccessException, InstantiationException {
+        SQLiteDatabase reader = acquireReader();
+        try {
+            Cursor cursor = reader.rawQuery(sql, selectionArgs);
+            try {
+                return readAll(cursor, clazz);
+            } finally {
+                cursor.close();
+            }
+        } finally {
+            releaseReader(reader);
+        }
+    }
+
+    /**
+     * 游标转换为实体，每个游标只查找一次列下标
+     */
+    static <T> ArrayList<T> readAll(Cursor cursor, Class<T> clazz) throws
+            IllegalAccessException, InstantiationException {
+        ArrayList<T> list = new ArrayList<>(cursor.getCount());
+        EntityMapper<T>.RowReader reader = EntityMapper.of(clazz).reader(cursor);
+        while (cursor.moveToNext()) {
+            list.add(reader.read(cursor));
+        }
+        return list;
+    }
+
+    synchronized ExecutorService getWriteExecutor() {
+        if (writeExecutor == null) {
+            writeExecutor = Executors.newSingleThreadExecutor();
+        }
+        return writeExecutor;
+    }
+
+    synchronized ExecutorService getReadExecutor() {
+        if (readExecutor == null) {
+            readExecutor = Executors.newFixedThreadPool(Math.max(helper.getReaderPoolSize(), 1));
+        }
+        return readExecutor;
+    }
+
+    /**
+     * 按类型绑定参数
+     */
+    static void bind(SQLiteStatement statement, int index, Object value) {
+        if (value == null) {
+            statement.bindNull(index);
+        } else if (value instanceof String) {
+            statement.bindString(index, (String) value);
+        } else if (value instanceof Double || value instanceof Float) {
+            statement.bindDouble(index, ((Number) value).doubleValue());
+        } else if (value instanceof Number) {
+            statement.bindLong(index, ((Number) value).longValue());
+        } else if (value instanceof Boolean) {
+            statement.bindLong(index, (Boolean) value ? 1 : 0);
+        } else if (value instanceof byte[]) {
+            statement.bindBlob(index, (byte[]) value);
+        } else {
+            statement.bindString(index, value.toString());
+        }
+    }
+
+    /**
+     * 建表语句，表已存在时跳过
+     *
+     * @param tableName      表名
+     * @param primaryKeyName 自增主键名称
+     * @param map            表字段<字段名，字段类型>
+     */
+    static String getCreateTableSql(String tableName, String primaryKeyName, Map<String, String> map) {
+        StringBuilder sql = new StringBuilder("create table if not exists ");//创建表
+        sql.append(tableName).append("( '").append(primaryKeyName)
+                .append("' integer not null primary key autoincrement");
+        //默认添加主键
+        for (Map.Entry<String, String> entry : map.entrySet()) {
+            if (entry.getKey().equals(primaryKeyName)) continue;
+            sql.append(",'").append(entry.getKey()).append("' ").append(entry.getValue());
+        }
+        sql.append(")");
+        return sql.toString();
+    }
+}
@@ -4,19 +4,36 @@ import android.content.ContentValues;
 import android.content.Context;
 import android.content.pm.PackageManager;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteException;
+import android.database.sqlite.SQLiteStatement;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.support.annotation.MainThread;
 import android.text.TextUtils;
 import android.util.Log;
 
-import java.lang.reflect.Field;
+import java.io.Closeable;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Set;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * 描述：数据库操作工具类
+ * <p>
+ * 连接管理和线程模型见{@link DBCore}：单个写连接，开启WAL后查询使用只读连接池，
+ * 写事务进行中也可以读取已提交的数据
  *
  * @author yuanye
  * @date 2019/4/26 13:56
@@ -27,11 +44,15 @@ public class DBUtil {
     /**
      * 默认自增字段名
      */
-    private static final String PRIMARYKEY = "id";
+    static final String PRIMARYKEY = "id";
+    /**
+     * 批量插入时每个事务默认插入的条数
+     */
+    private static final int DEFAULT_CHUNK_SIZE = 500;
     /**
      * 单例
      */
-    private static DBUtil manager;
+    private static volatile DBUtil manager;
     /**
      * 数据库名
      */
@@ -41,13 +62,21 @@ public class DBUtil {
      */
     private static int dbVersion;
     /**
-     * 写操作
+     * 数据库连接，与SQLManager共用
+     */
+    private final DBCore core;
+    /**
+     * 主线程
+     */
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    /**
+     * 数据表变化监听
      */
-    private SQLiteDatabase writDB;
+    private final InvalidationTracker tracker = new InvalidationTracker(this);
     /**
-     * Android 原生数据库操作对象
+     * 是否已调用closeDB释放core
      */
-    private SQLHelper helper;
+    private final AtomicBoolean released = new AtomicBoolean();
 
     /**
      * 获取实例
@@ -88,10 +117,22 @@ public class DBUtil {
      * @return
      */
     public static DBUtil getDB(Context context, String name, int version) {
+        return getDB(context, name, version, DBCore.DEFAULT_READER_POOL_SIZE);
+    }
+
+    /**
+     * @param context        上下文对象
+     * @param name           数据库名称
+     * @param version        数据库版本
+     * @param readerPoolSize 读连接数量，大于0时开启WAL，查询使用独立的只读连接，
+     *                       不会被写事务阻塞；0表示读写共用一个连接
+     * @return
+     */
+    public static DBUtil getDB(Context context, String name, int version, int readerPoolSize) {
         if (manager == null) {
             synchronized (DBUtil.class) {
                 if (manager == null || name != dbName || version != dbVersion) {
-                    manager = new DBUtil(context, name, version);
+                    manager = new DBUtil(context, name, version, readerPoolSize);
                 }
             }
         }
@@ -105,31 +146,88 @@ public class DBUtil {
      * @param name
      * @param version
      */
-    private DBUtil(Context context, String name, int version) {
+    private DBUtil(Context context, String name, int version, int readerPoolSize) {
         if (context == null) throw new NullPointerException("Context 不能为空，请先调用init初始化");
         if (TextUtils.isEmpty(name)) throw new NullPointerException("请先指定操作数据库名称");
         //获取数据库操作对象
-        helper = new SQLHelper(context, name, null, version);
-        writDB = helper.getWritableDatabase();
+        core = DBCore.obtain(context, name, version, readerPoolSize);
         dbName = name;
         dbVersion = version;
     }
 
+    /**
+     * 注册实体类，需要在getDB之前调用
+     * <p>
+     * 首次创建数据库时创建对应的表；版本升级时对比实体字段与表结构，
+     * 自动新增字段，删除字段或修改类型时重建表并保留共有字段的数据
+     *
+     * @param classes 实体类
+     */
+    public static void addEntity(Class<?>... classes) {
+        DBCore.addEntity(classes);
+    }
+
+    /**
+     * 注册升级步骤，需要在getDB之前调用
+     * <p>
+     * 升级时先按版本顺序执行升级步骤，再根据注册的实体类同步表结构，全部在一个事务中执行
+     *
+     * @param steps 升级步骤
+     */
+    public static void addMigration(Migration... steps) {
+        DBCore.addMigration(steps);
+    }
+
     /**
      * 获取数据库版本
      */
     public int getVersion() {
-        checkWritDB();
-        return writDB.getVersion();
+        return core.getVersion();
     }
 
     /**
      * 关闭数据库
+     * <p>
+     * 数据库打开后一直保持，不再每次操作后关闭，不再使用时调用该方法关闭；
+     * 与SQLManager共用连接时，两者都关闭后才真正关闭，之后通过getDB重新获取；
+     * observe的监听同时取消
      */
     public void closeDB() {
-        if (helper != null && writDB != null) {
-            writDB.close();
+        synchronized (DBUtil.class) {
+            if (manager == this) manager = null;
         }
+        if (released.compareAndSet(false, true)) {
+            tracker.close();
+            core.release();
+        }
+    }
+
+    /**
+     * 打开数据库的次数
+     */
+    public long getOpenCount() {
+        return core.getOpenCount();
+    }
+
+    /**
+     * 数据库已打开，不需要重新打开的次数
+     */
+    public long getOpenAvoidedCount() {
+        return core.getOpenAvoidedCount();
+    }
+
+    /**
+     * 预编译语句缓存命中次数
+     */
+    public long getStatementHitCount() {
+        return core.getStatementHitCount();
+    }
+
+    /**
+     * 预编译语句缓存未命中次数
+     */
+    public long getStatementMissCount() {
+        return core.getStatementMissCount();
     }
 
     /*
@@ -139,41 +237,34 @@ public class DBUtil {
     /**
      * 创建数据表
      * <p>
-     * 根据数据类型反射创建数据表
+     * 根据数据类型创建数据表，字段只解析一次，
+     * 同时创建通过{@link Index}/{@link Indexes}声明的索引，已存在的表和索引会跳过
      *
      * @param clazz
      */
     public void createTable(Class clazz) {
-        checkWritDB();
-        Field[] fields = clazz.getDeclaredFields();//获取该类所有的属性
-        HashMap<String, String> map = new HashMap<>();
-        for (Field field : fields) {
-            field.setAccessible(true);
-            if (field.getType() == String.class) {
-                map.put(field.getName(), "text");
-            } else if (field.getType() == Integer.class || field.getType() == int.class) {
-                map.put(field.getName(), "integer");
-            } else if (field.getType() == Float.class || field.getType() == float.class) {
-                map.put(field.getName(), "real");
-            } else if (field.getType() == Double.class || field.getType() == double.class) {
-                map.put(field.getName(), "real");
-            } else if (field.getType() == Boolean.class || field.getType() == boolean.class) {
-                map.put(field.getName(), "bit");
-            } else if (field.getType() == Long.class || field.getType() == long.class) {
-                map.put(field.getName(), "integer");
-            } else if (field.getType() == char.class) {
-                map.put(field.getName(), "blob");
-            } else if (field.getType() == byte.class || field.getType() == Byte.class) {
-                map.put(field.getName(), "blob");
-            } else if (field.getType() == short.class || field.getType() == Short.class) {
-                map.put(field.getName(), "integer");
-            } else {
-
+        SQLiteDatabase writDB = core.writer();
+        EntityMapper<?> mapper = EntityMapper.of(clazz);
+        _createTable(mapper.tableName, PRIMARYKEY, mapper.getColumnTypes());
+        for (EntityMapper.IndexInfo index : mapper.indexes) {
+            String sql = index.getCreateSql();
+            try {
+                writDB.execSQL(sql);
+            } catch (SQLiteException e) {
+                Log.e(TAG, "DBUtil createIndex execSQL error:  \r\nsql=" + sql + "\r\n" + e.getMessage());
+            }
+        }
+        if (mapper.ftsColumns.length > 0) {
+            writDB.beginTransaction();
+            try {
+                FtsIndex.sync(writDB, mapper);
+                writDB.setTransactionSuccessful();
+            } catch (SQLiteException e) {
+                Log.e(TAG, "DBUtil createFts error:" + e.getMessage());
+            } finally {
+                writDB.endTransaction();
             }
-            field.setAccessible(false);
         }
-        _createTable(getClazzName(clazz), PRIMARYKEY, map);
-        if (writDB != null) writDB.close();
     }
 
     /**
@@ -185,7 +276,6 @@ public class DBUtil {
      */
     public void createTable(String tableName, Map<String, String> map) {
         _createTable(tableName, PRIMARYKEY, map);
-        if (writDB != null) writDB.close();
     }
 
     /**
@@ -197,7 +287,6 @@ public class DBUtil {
      */
     public void createTable(String tableName, String primaryKeyName, Map<String, String> map) {
         _createTable(tableName, primaryKeyName, map);
-        if (writDB != null) writDB.close();
     }
 
     /**
@@ -209,21 +298,8 @@ public class DBUtil {
      */
     private void _createTable(String tableName, String
             primaryKeyName, Map<String, String> map) {
-        checkWritDB();
-        String sql = "create table if not exists " + tableName + "( '";//创建表
-        sql = sql + primaryKeyName + "' integer" + " not null primary key autoincrement,";
-        int i = 0;
-        //默认添加主键
-        for (Map.Entry<String, String> entry : map.entrySet()) {
-            i++;
-            if (entry.getKey().equals(primaryKeyName)) continue;
-            if (i != map.size()) {
-                sql = sql + "'" + entry.getKey() + "' " + entry.getValue() + ",";
-            } else {
-                sql = sql + "'" + entry.getKey() + "' " + entry.getValue();
-            }
-        }
-        sql = sql + ")";
+        SQLiteDatabase writDB = core.writer();
+        String sql = DBCore.getCreateTableSql(tableName, primaryKeyName, map);
         try {
             writDB.execSQL(sql);
         } catch (SQLiteException e) {
@@ -231,86 +307,146 @@ public class DBUtil {
         }
     }
 
-
     /*
      * ************************************插入数据**************************************************
      */
 
     /**
      * 插入多条数据
+     * <p>
+     * 所有数据在一个事务中插入，每个实体类只编译一次插入语句；
+     * 有数据插入失败(如违反唯一约束)时事务回滚，记录日志后逐条插入，跳过失败的数据
      *
      * @param object
      */
     public void insertList(List object) {
-        checkWritDB();
-        writDB.beginTransaction(); // 手动设置开始事务
-        List list = (List) object;
-        for (Object obj : list) {
-            insertData(obj);
+        try {
+            insertBulk(object, false, Integer.MAX_VALUE);
+        } catch (SQLiteException e) {
+            Log.e(TAG, "DBUtil insertList Error:" + e.getMessage());
+            for (Object item : object) {
+                insertData(item);
+            }
         }
-        writDB.setTransactionSuccessful(); // 设置事务处理成功，不设置会自动回滚不提交
-        writDB.endTransaction(); // 处理完成
-        writDB.close();
     }
 
     /**
-     * 插入数据
+     * 批量插入，默认每DEFAULT_CHUNK_SIZE条提交一次
+     *
+     * @param list 数据
+     * @return 插入结果
+     */
+    public BulkResult insertBulk(List<?> list) {
+        return insertBulk(list, false, DEFAULT_CHUNK_SIZE);
+    }
+
+    /**
+     * 批量插入
      * <p>
-     * 如果传入List,则批量插入
+     * 每个实体类只编译一次插入语句，按字段类型直接绑定参数，
+     * 每chunkSize条提交一次事务，避免一个事务长时间占用写锁
+     *
+     * @param list      数据
+     * @param replace   true:使用INSERT OR REPLACE，包含id字段，id为0时自增
+     * @param chunkSize 每个事务插入的条数
+     * @return 插入结果
      */
-    public void insert(Object object) {
-        if (helper == null || writDB == null) {
-            //创建表
-            createTable(object.getClass());
+    public BulkResult insertBulk(List<?> list, boolean replace, int chunkSize) {
+        if (chunkSize <= 0) throw new IllegalArgumentException("chunkSize 必须大于0");
+        SQLiteDatabase writDB = core.writer();
+        long start = SystemClock.elapsedRealtime();
+        int rows = 0;
+        Class lastClass = null;
+        EntityMapper mapper = null;
+        String sql = null;
+        SQLiteStatement statement = null;
+        Set<String> tables = new HashSet<>();
+        int index = 0;
+        int size = list.size();
+        try {
+            while (index < size) {
+                int end = (int) Math.min((long) index + chunkSize, size);
+                int chunkRows = 0;
+                //本事务插入的最后一个id：<表名,id>，提交后才记录
+                Map<String, Long> chunkIds = new HashMap<>();
+                boolean success = false;
+                writDB.beginTransaction(); // 手动设置开始事务
+                try {
+                    for (; index < end; index++) {
+                        Object object = list.get(index);
+                        if (object.getClass() != lastClass) {
+                            lastClass = object.getClass();
+                            mapper = EntityMapper.of(lastClass);
+                            if (statement != null) core.releaseStatement(sql, statement);
+                            //已归还，获取新语句失败时finally不能再次归还
+                            statement = null;
+                            sql = mapper.getInsertSql(replace);
+                            statement = core.acquireStatement(sql);
+                            tables.add(mapper.tableName);
+                        }
+                        mapper.bindInsert(statement, object, replace);
+                        long id = statement.executeInsert();
+                        if (id != -1) {
+                            updatePinyin(mapper, id, object);
+                            chunkIds.put(mapper.tableName, id);
+                            chunkRows++;
+                        }
+                    }
+                    writDB.setTransactionSuccessful(); // 设置事务处理成功，不设置会自动回滚不提交
+                    success = true;
+                } catch (IllegalAccessException e) {
+                    Log.e(TAG, "DBUtil insert Error:" + e.getMessage());
+                } finally {
+                    writDB.endTransaction(); // 处理完成
+                }
+                if (!success) break;
+                rows += chunkRows;
+                for (Map.Entry<String, Long> entry : chunkIds.entrySet()) {
+                    core.recordInsert(entry.getKey(), entry.getValue());
+                }
+            }
+        } finally {
+            if (statement != null) core.releaseStatement(sql, statement);
+        }
+        //整批只通知一次
+        if (rows > 0) {
+            for (String table : tables) {
+                tracker.notifyChanged(table);
+            }
         }
+        return new BulkResult(rows, SystemClock.elapsedRealtime() - start);
+    }
 
-        checkWritDB();
-        insertData(object);
-        writDB.close();
+    /**
+     * 插入数据
+     * <p>
+     * 如果传入List,则批量插入
+     *
+     * @return 插入的id，失败返回-1
+     */
+    public long insert(Object object) {
+        return insertData(object);
     }
 
     /**
-     * 通过反射插入一条数据
+     * 插入一条数据
      *
      * @param object
+     * @return 插入的id，失败返回-1
      */
-    private void insertData(Object object) {
-        Class clazz = object.getClass();
-        Field[] fields = clazz.getDeclaredFields();//获取该类所有的属性
-        ContentValues value = new ContentValues();
-        for (Field field : fields) {
-            if (PRIMARYKEY.equals(field.getName())) {
-                //跳过自增字段
-                continue;
-            }
-            try {
-                field.setAccessible(true); //取消对age属性的修饰符的检查访问，以便为属性赋值
-                Object content = field.get(object);//获取该属性的内容
-                if (field.getType() == String.class) {
-                    value.put(field.getName(), (String) content);
-                } else if (field.getType() == Integer.class || field.getType() == int.class) {
-                    value.put(field.getName(), (int) content);
-                } else if (field.getType() == Float.class || field.getType() == float.class) {
-                    value.put(field.getName(), (float) content);
-                } else if (field.getType() == Double.class || field.getType() == double.class) {
-                    value.put(field.getName(), (double) content);
-                } else if (field.getType() == Boolean.class || field.getType() == boolean.class) {
-                    value.put(field.getName(), (boolean) content);
-                } else if (field.getType() == Long.class || field.getType() == long.class) {
-                    value.put(field.getName(), (long) content);
-                } else if (field.getType() == byte.class || field.getType() == Byte.class) {
-                    value.put(field.getName(), (Byte) content);
-                } else if (field.getType() == short.class || field.getType() == Short.class) {
-                    value.put(field.getName(), (Short) content);
-                } else {
-
-                }
-                field.setAccessible(false);//恢复对age属性的修饰符的检查访问
-            } catch (IllegalAccessException e) {
-                Log.e(TAG, "DBUtil insert Error:" + e.getMessage());
+    private long insertData(Object object) {
+        EntityMapper mapper = EntityMapper.of(object.getClass());
+        try {
+            long id = core.insert(mapper.tableName, object, PRIMARYKEY);
+            if (id != -1) {
+                updatePinyin(mapper, id, object);
+                tracker.notifyChanged(mapper.tableName);
             }
+            return id;
+        } catch (IllegalAccessException e) {
+            Log.e(TAG, "DBUtil insert Error:" + e.getMessage());
+            return -1;
         }
-        writDB.insert(getClazzName(object.getClass()), null, value);
     }
 
 
@@ -342,16 +478,12 @@ public class DBUtil {
      */
     public <T> ArrayList<T> query(String[] columns, String selection,
                                   String[] selectionArgs, String orderBy, Class<T> clazz) {
-        checkWritDB();
         String orderby = null;
         ArrayList<T> list = null;
         if (!TextUtils.isEmpty(orderBy)) orderby = orderBy + " desc";
         //查询获得游标
         try {
-            Cursor cursor = writDB.query(getClazzName(clazz), columns, selection, selectionArgs, null, null, orderby);
-            list = handleCursor(cursor, clazz);
-            cursor.close();
-            writDB.close();
+            list = core.query(getClazzName(clazz), columns, selection, selectionArgs, orderby, clazz);
         } catch (IllegalAccessException e) {
             Log.e(TAG, "DBUtil query异常 Error:" + e.getMessage());
         } catch (InstantiationException e) {
@@ -374,90 +506,420 @@ public class DBUtil {
      * @return
      */
     public <T> ArrayList<T> querySQL(String sql, String[] selectionArgs, Class<T> clazz) {
-        checkWritDB();
         ArrayList<T> list = null;
         try {
-            Cursor cursor = writDB.rawQuery(sql, selectionArgs);
-            list = handleCursor(cursor, clazz);
-            cursor.close();
+            list = core.rawQuery(sql, selectionArgs, clazz);
         } catch (IllegalAccessException e) {
             Log.e(TAG, "DBUtil querySQL异常 Error:" + e.getMessage());
         } catch (InstantiationException e) {
             Log.e(TAG, "DBUtil querySQL异常 Error:" + e.getMessage());
         }
-        if (writDB != null) writDB.close();
         return list;
     }
 
     /**
-     * 查询最新插入的一条数据的id
+     * 查询当前线程最新插入的一条数据的id
      * <p>
-     * 注意，只在当前进程插入有效,需要在插入后调用,否则查询到的数据不匹配
+     * 只记录insert、insertList、insertBulk插入的数据，其他线程的插入不影响结果，
+     * 通过execSQL执行的插入语句不记录，没有插入过时返回-1
      */
     public int queryLastId(Class clazz) {
-        checkWritDB();
-        String sql = "select last_insert_rowid() from " + getClazzName(clazz);
-        Cursor cursor = writDB.rawQuery(sql, null);
-        int a = -1;
-        if (cursor.moveToFirst()) {
-            a = cursor.getInt(0);
+        return (int) core.lastInsertRowId(getClazzName(clazz));
+    }
+
+    /*
+     * ************************************分页查询**************************************************
+     */
+
+    /**
+     * 分页查询，使用keyset分页(id > afterId)，按id升序
+     * <p>
+     * 不使用OFFSET，翻到后面的页也不需要扫描前面的数据
+     *
+     * @param clazz         实体类
+     * @param selection     where子句，可以为null，例如 name=?
+     * @param selectionArgs where子句对应的条件值
+     * @param afterId       上一页最后一条数据的id，第一页传Long.MIN_VALUE
+     * @param limit         每页条数
+     * @return 当前页，查询失败返回null
+     */
+    public <T> Page<T> queryPage(Class<T> clazz, String selection, String[] selectionArgs,
+                                 long afterId, int limit) {
+        Page<T> page = null;
+        SQLiteDatabase reader = acquireReader();
+        try {
+            Cursor cursor = reader.query(getClazzName(clazz), null, keysetWhere(selection),
+                    keysetArgs(afterId, selectionArgs), null, null, PRIMARYKEY, String.valueOf(limit));
+            try {
+                ArrayList<T> items = new ArrayList<>(cursor.getCount());
+                EntityMapper<T>.RowReader rowReader = EntityMapper.of(clazz).reader(cursor);
+                int idIndex = cursor.getColumnIndexOrThrow(PRIMARYKEY);
+                long lastId = afterId;
+                while (cursor.moveToNext()) {
+                    items.add(rowReader.read(cursor));
+                    lastId = cursor.getLong(idIndex);
+                }
+                page = new Page<>(items, lastId, items.size() >= limit);
+            } finally {
+                cursor.close();
+            }
+        } catch (Exception e) {
+            Log.e(TAG, "DBUtil queryPage异常 Error:" + e.getMessage());
+        } finally {
+            releaseReader(reader);
         }
-        if (writDB != null) writDB.close();
-        return a;
+        return page;
     }
 
     /**
-     * 处理游标查询
+     * 查询afterId之后第offset条数据的id，只读取id列，用于快速定位分页位置
      *
-     * @param cursor
-     * @param clazz
-     * @param <T>
-     * @return
-     * @throws IllegalAccessException
-     * @throws InstantiationException
-     * @throws NoSuchFieldException
-     */
-    private <T> ArrayList<T> handleCursor(Cursor cursor, Class<T> clazz) throws
-            IllegalAccessException, InstantiationException {
-        ArrayList<T> list = new ArrayList<>();
-        cursor.moveToFirst();
-        while (!cursor.isAfterLast()) {
-            T t = clazz.newInstance();
-            for (int i = 0; i < cursor.getColumnCount(); i++) {
-                String content = cursor.getString(i);//获得获取的数据记录第i条字段的内容
-                String columnName = cursor.getColumnName(i);// 获取数据记录第i条字段名的
-                Field field = null;
-                try {
-                    field = clazz.getDeclaredField(columnName);//获取该字段名的Field对象。
-                } catch (NoSuchFieldException e) {
-                    //如果不存在该字段，跳过
-                    continue;
+     * @return id，不存在返回null
+     */
+    Long queryKeyAt(Class clazz, String selection, String[] selectionArgs, long afterId, int offset) {
+        SQLiteDatabase reader = acquireReader();
+        try {
+            Cursor cursor = reader.query(getClazzName(clazz), new String[]{PRIMARYKEY},
+                    keysetWhere(selection), keysetArgs(afterId, selectionArgs),
+                    null, null, PRIMARYKEY, offset + ",1");
+            try {
+                return cursor.moveToFirst() ? cursor.getLong(0) : null;
+            } finally {
+                cursor.close();
+            }
+        } finally {
+            releaseReader(reader);
+        }
+    }
+
+    /**
+     * 查询条数
+     *
+     * @param clazz         实体类
+     * @param selection     where子句，可以为null
+     * @param selectionArgs where子句对应的条件值
+     */
+    public long queryCount(Class clazz, String selection, String[] selectionArgs) {
+        SQLiteDatabase reader = acquireReader();
+        try {
+            return DatabaseUtils.queryNumEntries(reader, getClazzName(clazz), selection, selectionArgs);
+        } finally {
+            releaseReader(reader);
+        }
+    }
+
+    /**
+     * 分页数据源，可以直接作为RecyclerAdapter的数据源，
+     * 滑动时按页异步加载，内存中只保留最近访问的几页；总条数也在读线程统计，
+     * 数据变化后调用{@link PagedList#refresh()}
+     *
+     * @param clazz         实体类
+     * @param selection     where子句，可以为null
+     * @param selectionArgs where子句对应的条件值
+     * @param pageSize      每页条数
+     */
+    public <T> PagedList<T> queryPaged(Class<T> clazz, String selection, String[] selectionArgs, int pageSize) {
+        return new PagedList<>(this, clazz, selection, selectionArgs, pageSize);
+    }
+
+    /**
+     * 逐行查询，遍历时才把游标的当前行转换为实体，不会一次创建所有对象
+     * <p>
+     * 使用完必须调用close，按id升序
+     *
+     * @param clazz         实体类
+     * @param selection     where子句，可以为null
+     * @param selectionArgs where子句对应的条件值
+     */
+    public <T> RowIterable<T> iterate(Class<T> clazz, String selection, String[] selectionArgs) {
+        SQLiteDatabase reader = acquireReader();
+        try {
+            Cursor cursor = reader.query(getClazzName(clazz), null, selection, selectionArgs,
+                    null, null, PRIMARYKEY);
+            return new RowIterable<>(this, reader, cursor, EntityMapper.of(clazz));
+        } catch (RuntimeException e) {
+            releaseReader(reader);
+            throw e;
+        }
+    }
+
+    private static String keysetWhere(String selection) {
+        if (TextUtils.isEmpty(selection)) return PRIMARYKEY + " > ?";
+        return PRIMARYKEY + " > ? AND (" + selection + ")";
+    }
+
+    private static String[] keysetArgs(long afterId, String[] selectionArgs) {
+        int length = selectionArgs == null ? 0 : selectionArgs.length;
+        String[] args = new String[length + 1];
+        args[0] = String.valueOf(afterId);
+        if (length > 0) System.arraycopy(selectionArgs, 0, args, 1, length);
+        return args;
+    }
+
+    /**
+     * 分页查询结果
+     */
+    public static class Page<T> {
+        /**
+         * 当前页数据
+         */
+        public final List<T> items;
+        /**
+         * 当前页最后一条数据的id，作为下一页的afterId
+         */
+        public final long lastId;
+        /**
+         * 是否可能还有下一页
+         */
+        public final boolean hasMore;
+
+        Page(List<T> items, long lastId, boolean hasMore) {
+            this.items = items;
+            this.lastId = lastId;
+            this.hasMore = hasMore;
+        }
+    }
+
+    /**
+     * 逐行读取游标的查询结果，只能遍历一次
+     */
+    public static final class RowIterable<T> implements Iterable<T>, Closeable {
+
+        private final DBUtil db;
+        private final SQLiteDatabase reader;
+        private final Cursor cursor;
+        private final EntityMapper<T>.RowReader rowReader;
+        private boolean iterated;
+        private boolean closed;
+
+        private RowIterable(DBUtil db, SQLiteDatabase reader, Cursor cursor, EntityMapper<T> mapper) {
+            this.db = db;
+            this.reader = reader;
+            this.cursor = cursor;
+            this.rowReader = mapper.reader(cursor);
+        }
+
+        /**
+         * 结果条数
+         */
+        public int getCount() {
+            return cursor.getCount();
+        }
+
+        @Override
+        public Iterator<T> iterator() {
+            if (iterated) throw new IllegalStateException("RowIterable 只能遍历一次");
+            iterated = true;
+            return new Iterator<T>() {
+                @Override
+                public boolean hasNext() {
+                    return !closed && !cursor.isLast() && cursor.getCount() > 0;
                 }
-                field.setAccessible(true);//取消对age属性的修饰符的检查访问，以便为属性赋值
-                //属性名和字段名相同
-                if (columnName.equals(field.getName())) {
-                    if (field.getType() == String.class) {
-                        field.set(t, content);
-                    } else if (field.getType() == Integer.class || field.getType() == int.class) {
-                        field.set(t, Integer.parseInt(content));
-                    } else if (field.getType() == Float.class || field.getType() == float.class) {
-                        field.set(t, Float.parseFloat(content));
-                    } else if (field.getType() == Double.class || field.getType() == double.class) {
-                        field.set(t, Double.parseDouble(content));
-                    } else if (field.getType() == Boolean.class || field.getType() == boolean.class) {
-                        field.set(t, Boolean.parseBoolean(content));
-                    } else if (field.getType() == Long.class || field.getType() == long.class) {
-                        field.set(t, Long.parseLong(content));
+
+                @Override
+                public T next() {
+                    if (!hasNext() || !cursor.moveToNext()) throw new NoSuchElementException();
+                    try {
+                        return rowReader.read(cursor);
+                    } catch (IllegalAccessException e) {
+                        throw new IllegalStateException(e);
+                    } catch (InstantiationException e) {
+                        throw new IllegalStateException(e);
                     }
                 }
-                field.setAccessible(false);//恢复对age属性的修饰符的检查访问
-            }
-            list.add(t);
-            cursor.moveToNext();
+
+                @Override
+                public void remove() {
+                    throw new UnsupportedOperationException();
+                }
+            };
+        }
+
+        /**
+         * 关闭游标并归还读连接
+         */
+        @Override
+        public void close() {
+            if (closed) return;
+            closed = true;
+            cursor.close();
+            db.releaseReader(reader);
+        }
+    }
+
+    /*
+     * ************************************全文检索**************************************************
+     */
+
+    /**
+     * 全文检索，最多返回100条
+     *
+     * @see #search(Class, String, int)
+     */
+    public <T> ArrayList<T> search(Class<T> clazz, String query) {
+        return search(clazz, query, 100);
+    }
+
+    /**
+     * 全文检索{@link FullText}字段，按相关度排序
+     * <p>
+     * query使用FTS语法，例如 zhang* 前缀匹配、 张三 OR lisi ；
+     * 开启拼音的字段可以用全拼、单字拼音、首字母检索
+     *
+     * @param clazz 实体类
+     * @param query 检索语句
+     * @param limit 最多返回的条数
+     * @return 检索结果，失败返回null
+     */
+    public <T> ArrayList<T> search(Class<T> clazz, String query, int limit) {
+        ArrayList<T> list = null;
+        SQLiteDatabase reader = acquireReader();
+        try {
+            list = FtsIndex.search(reader, clazz, query, limit);
+        } catch (Exception e) {
+            Log.e(TAG, "DBUtil search异常 Error:" + e.getMessage());
+        } finally {
+            releaseReader(reader);
         }
         return list;
     }
 
+    /**
+     * 重建全文检索索引，例如索引表数据异常或通过execSQL批量修改数据之后
+     */
+    public void rebuildSearchIndex(Class clazz) {
+        SQLiteDatabase writDB = core.writer();
+        EntityMapper<?> mapper = EntityMapper.of(clazz);
+        if (mapper.ftsColumns.length == 0) return;
+        writDB.beginTransaction();
+        try {
+            FtsIndex.rebuild(writDB, mapper);
+            writDB.setTransactionSuccessful();
+        } finally {
+            writDB.endTransaction();
+        }
+    }
+
+    /**
+     * 写入插入数据的拼音索引
+     */
+    private void updatePinyin(EntityMapper<?> mapper, long id, Object object) throws IllegalAccessException {
+        String sql = FtsIndex.getPinyinSql(mapper);
+        if (sql == null) return;
+        SQLiteStatement statement = core.acquireStatement(sql);
+        try {
+            FtsIndex.bindPinyin(statement, mapper, id, object);
+        } finally {
+            core.releaseStatement(sql, statement);
+        }
+    }
+
+    /**
+     * update之后重新计算拼音索引
+     */
+    private void refreshPinyin(String table, String whereClause, String[] whereArgs) {
+        EntityMapper<?> mapper = EntityMapper.ofTable(table);
+        if (mapper == null || mapper.pinyinColumns.length == 0) return;
+        FtsIndex.refreshPinyin(core.writer(), mapper, whereClause, whereArgs);
+    }
+
+    /*
+     * ************************************查询计划**************************************************
+     */
+
+    /**
+     * 查看查询计划，用于检查查询是否使用了索引
+     * <p>
+     * 执行EXPLAIN QUERY PLAN，出现全表扫描时输出警告日志
+     *
+     * @param clazz         实体类
+     * @param selection     where子句，例如 age=?
+     * @param selectionArgs where子句对应的条件值
+     * @param orderBy       排序，可以为null
+     * @return 查询计划
+     */
+    public QueryPlan explainQuery(Class clazz, String selection, String[] selectionArgs, String orderBy) {
+        StringBuilder sql = new StringBuilder("SELECT * FROM ").append(getClazzName(clazz));
+        if (!TextUtils.isEmpty(selection)) sql.append(" WHERE ").append(selection);
+        if (!TextUtils.isEmpty(orderBy)) sql.append(" ORDER BY ").append(orderBy);
+        return explainSQL(sql.toString(), selectionArgs);
+    }
+
+    /**
+     * 查看sql语句的查询计划
+     *
+     * @param sql           查询语句
+     * @param selectionArgs 参数
+     * @return 查询计划
+     */
+    public QueryPlan explainSQL(String sql, String[] selectionArgs) {
+        List<String> details = new ArrayList<>();
+        SQLiteDatabase reader = acquireReader();
+        try {
+            Cursor cursor = reader.rawQuery("EXPLAIN QUERY PLAN " + sql, selectionArgs);
+            try {
+                int detailIndex = cursor.getColumnIndexOrThrow("detail");
+                while (cursor.moveToNext()) {
+                    details.add(cursor.getString(detailIndex));
+                }
+            } finally {
+                cursor.close();
+            }
+        } finally {
+            releaseReader(reader);
+        }
+        QueryPlan plan = new QueryPlan(sql, details);
+        if (plan.isFullScan()) Log.w(TAG, "DBUtil 全表扫描:" + plan);
+        return plan;
+    }
+
+    /**
+     * 查询计划
+     */
+    public static class QueryPlan {
+        /**
+         * 查询语句
+         */
+        public final String sql;
+        /**
+         * EXPLAIN QUERY PLAN 每一行的detail
+         */
+        public final List<String> details;
+
+        QueryPlan(String sql, List<String> details) {
+            this.sql = sql;
+            this.details = details;
+        }
+
+        /**
+         * 是否存在全表扫描(SCAN TABLE且没有使用索引)
+         */
+        public boolean isFullScan() {
+            for (String detail : details) {
+                if (detail.startsWith("SCAN") && !detail.contains(" USING ")) return true;
+            }
+            return false;
+        }
+
+        /**
+         * 是否需要临时B树排序(ORDER BY/GROUP BY 没有使用索引)
+         */
+        public boolean isTempSort() {
+            for (String detail : details) {
+                if (detail.contains("TEMP B-TREE")) return true;
+            }
+            return false;
+        }
+
+        @Override
+        public String toString() {
+            return "QueryPlan{" +
+                    "sql='" + sql + '\'' +
+                    ", details=" + details +
+                    '}';
+        }
+    }
+
     /**
      * ************************************删除数据**************************************************
      */
@@ -469,9 +931,8 @@ public class DBUtil {
      */
     public void delete(String tableName) {
         try {
-            checkWritDB();
-            writDB.execSQL("delete from " + getClazzName(tableName));
-            writDB.close();
+            execSQL("delete from " + getClazzName(tableName), null);
+            tracker.notifyChanged(getClazzName(tableName));
         } catch (Exception e) {
             Log.e(TAG, "DBUtil delete Error:" + e.getMessage());
         }
@@ -485,9 +946,7 @@ public class DBUtil {
      * @param whereArgs   where子句对应的条件值    new String[]{"1"}
      */
     public void delete(String table, String whereClause, String[] whereArgs) {
-        checkWritDB();
-        writDB.delete(table, whereClause, whereArgs);
-        writDB.close();
+        if (core.delete(table, whereClause, whereArgs) > 0) tracker.notifyChanged(table);
     }
 
     /*
@@ -504,8 +963,10 @@ public class DBUtil {
      */
     public void update(String table, ContentValues values, String whereClause, String[]
             whereArgs) {
-        checkWritDB();
-        writDB.update(table, values, whereClause, whereArgs);
+        if (core.update(table, values, whereClause, whereArgs) > 0) {
+            refreshPinyin(table, whereClause, whereArgs);
+            tracker.notifyChanged(table);
+        }
     }
 
     /**
@@ -516,54 +977,217 @@ public class DBUtil {
      * @param whereArgs
      */
     public void update(Object object, String whereClause, String[] whereArgs) {
-        ContentValues values = new ContentValues();
-        Class clazz = object.getClass();
-        Field[] fields = clazz.getDeclaredFields();//获取该类所有的属性
-        for (Field field : fields) {
-            try {
-                field.setAccessible(true); //取消对age属性的修饰符的检查访问，以便为属性赋值
-                Object content = field.get(object);//获取该属性的内容
-                if (content != null) {
-                    if (content.getClass() == String.class || content.getClass() == char.class) {
-                        values.put(field.getName(), (String) content);
-                    } else if (content.getClass() == Integer.class || content.getClass() == int.class) {
-                        values.put(field.getName(), (int) content);
-                    } else if (content.getClass() == Float.class || content.getClass() == float.class) {
-                        values.put(field.getName(), (float) content);
-                    } else if (content.getClass() == Double.class || content.getClass() == double.class) {
-                        values.put(field.getName(), (double) content);
-                    } else if (content.getClass() == Boolean.class || content.getClass() == boolean.class) {
-                        values.put(field.getName(), (boolean) content);
-                    } else if (content.getClass() == Long.class || content.getClass() == long.class) {
-                        values.put(field.getName(), (long) content);
-                    } else if (content.getClass() == byte.class || content.getClass() == Byte.class) {
-                        values.put(field.getName(), (byte[]) content);
-                    } else if (content.getClass() == short.class || content.getClass() == Short.class) {
-                        values.put(field.getName(), (short) content);
-                    } else {
-                        update(content, whereClause, whereArgs);
+        ContentValues values;
+        try {
+            values = EntityMapper.of(object.getClass()).toUpdateValues(object, PRIMARYKEY);
+        } catch (IllegalAccessException e) {
+            Log.e(TAG, "DBUtil update Error:" + e.getMessage());
+            return;
+        }
+        if (values.size() == 0) return;
+        String table = getClazzName(object.getClass().getName());
+        if (core.update(table, values, whereClause, whereArgs) > 0) {
+            refreshPinyin(table, whereClause, whereArgs);
+            tracker.notifyChanged(table);
+        }
+    }
+
+    /*
+     * ************************************异步操作**************************************************
+     */
+
+    /**
+     * 在读线程池中执行，适合查询操作，结果在主线程回调
+     *
+     * @param task 数据库操作
+     * @param back 结果回调，可以为null
+     */
+    public <T> Future<T> executeRead(Callable<T> task, DBBack<T> back) {
+        return core.getReadExecutor().submit(wrap(task, back));
+    }
+
+    /**
+     * 在写线程中执行，所有写操作串行执行，结果在主线程回调
+     *
+     * @param task 数据库操作
+     * @param back 结果回调，可以为null
+     */
+    public <T> Future<T> executeWrite(Callable<T> task, DBBack<T> back) {
+        return core.getWriteExecutor().submit(wrap(task, back));
+    }
+
+    private <T> Callable<T> wrap(final Callable<T> task, final DBBack<T> back) {
+        return new Callable<T>() {
+            @Override
+            public T call() throws Exception {
+                try {
+                    final T result = task.call();
+                    if (back != null) {
+                        mainHandler.post(new Runnable() {
+                            @Override
+                            public void run() {
+                                back.onResult(result);
+                            }
+                        });
+                    }
+                    return result;
+                } catch (final Exception e) {
+                    if (back != null) {
+                        mainHandler.post(new Runnable() {
+                            @Override
+                            public void run() {
+                                back.onError(e);
+                            }
+                        });
                     }
+                    throw e;
                 }
-                field.setAccessible(false);//恢复对age属性的修饰符的检查访问
-            } catch (IllegalAccessException e) {
-                e.printStackTrace();
             }
+        };
+    }
+
+    ExecutorService getReadExecutor() {
+        return core.getReadExecutor();
+    }
+
+    /*
+     * ************************************监听查询**************************************************
+     */
+
+    /**
+     * 监听整张表
+     *
+     * @see #observe(String[], String, String[], String, Class, DBBack)
+     */
+    public <T> Subscription observe(Class<T> clazz, DBBack<ArrayList<T>> back) {
+        return observe(null, null, null, null, clazz, back);
+    }
+
+    /**
+     * 监听查询，立即查询一次，之后insert/insertList/update/delete修改该表时在读线程重新查询，
+     * 结果在主线程回调
+     * <p>
+     * 合并时间内的多次修改只重新查询一次，批量插入整批只通知一次，
+     * execSQL无法确定修改的表，不会触发通知，需要调用{@link #notifyChanged(Class)}
+     *
+     * @param columns       要想显示的列
+     * @param selection     where子句
+     * @param selectionArgs where子句对应的条件值
+     * @param orderBy       排序字段名
+     * @param clazz         实体类
+     * @param back          查询结果回调
+     * @return 用于取消监听
+     */
+    public <T> Subscription observe(String[] columns, String selection, String[] selectionArgs,
+                                    String orderBy, Class<T> clazz, DBBack<ArrayList<T>> back) {
+        return tracker.observe(clazz, columns, selection, selectionArgs, orderBy, back);
+    }
+
+    /**
+     * 手动通知表发生变化
+     */
+    public void notifyChanged(Class clazz) {
+        tracker.notifyChanged(getClazzName(clazz));
+    }
+
+    /**
+     * 设置监听查询的合并时间，默认50毫秒
+     *
+     * @param debounce 单位：毫秒
+     */
+    public void setObserveDebounce(long debounce) {
+        tracker.setDebounce(debounce);
+    }
+
+    /**
+     * 取消监听
+     */
+    public interface Subscription {
+
+        void cancel();
+
+        boolean isCanceled();
+    }
+
+    /**
+     * 异步操作回调
+     */
+    public abstract static class DBBack<T> {
+        /**
+         * 操作完成
+         */
+        @MainThread
+        public abstract void onResult(T result);
+
+        /**
+         * 操作异常
+         */
+        @MainThread
+        public void onError(Exception e) {
+            Log.e(TAG, "DBUtil execute Error:" + e.getMessage());
         }
-        checkWritDB();
-        writDB.update(getClazzName(object.getClass().getName()), values, whereClause, whereArgs);
-        writDB.close();
     }
 
     /**
-     * 检验Db是否开启
+     * 批量插入结果
      */
-    private void checkWritDB() {
-        if (helper == null || writDB == null) throw new NullPointerException("请先打开数据库");
-        if (!writDB.isOpen()) {
-            writDB = helper.getWritableDatabase();
+    public static class BulkResult {
+        /**
+         * 插入成功的条数
+         */
+        public final int rows;
+        /**
+         * 耗时，单位：毫秒
+         */
+        public final long time;
+
+        BulkResult(int rows, long time) {
+            this.rows = rows;
+            this.time = time;
+        }
+
+        /**
+         * 每秒插入的条数
+         */
+        public double getRowsPerSecond() {
+            return time == 0 ? rows * 1000.0 : rows * 1000.0 / time;
+        }
+
+        @Override
+        public String toString() {
+            return "BulkResult{" +
+                    "rows=" + rows +
+                    ", time=" + time +
+                    ", rowsPerSecond=" + getRowsPerSecond() +
+                    '}';
         }
     }
 
+    /**
+     * 获取一个读连接，使用完必须调用releaseReader
+     */
+    SQLiteDatabase acquireReader() {
+        return core.acquireReader();
+    }
+
+    /**
+     * 归还读连接
+     */
+    void releaseReader(SQLiteDatabase reader) {
+        core.releaseReader(reader);
+    }
+
+    /**
+     * 执行增删改sql语句，使用缓存的预编译语句
+     *
+     * @param sql      sql语句
+     * @param bindArgs 参数，支持String/Number/byte[]/null
+     * @return 影响的行数
+     */
+    public int execSQL(String sql, Object[] bindArgs) {
+        return core.execSQL(sql, bindArgs);
+    }
+
     /**
      * 解析名字
      */
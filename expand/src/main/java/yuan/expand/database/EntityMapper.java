@@ -0,0 +1,606 @@
+package yuan.expand.database;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteStatement;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 描述：实体类与数据表的映射
+ * <p>
+ * 每个实体类只解析一次字段并缓存，读取游标时每个游标只查找一次列下标，
+ * 按字段类型通过Cursor.getInt/getLong/getDouble/getBlob读取，
+ * 避免每一行都反射查找字段、切换访问权限以及字符串转换
+ *
+ * @param <T> 实体类型
+ */
+final class EntityMapper<T> {
+
+    /**
+     * 字段类型
+     */
+    static final int TYPE_STRING = 1;
+    static final int TYPE_INT = 2;
+    static final int TYPE_LONG = 3;
+    static final int TYPE_FLOAT = 4;
+    static final int TYPE_DOUBLE = 5;
+    static final int TYPE_BOOLEAN = 6;
+    static final int TYPE_SHORT = 7;
+    static final int TYPE_BYTE = 8;
+    static final int TYPE_CHAR = 9;
+    static final int TYPE_BLOB = 10;
+
+    /**
+     * 已解析的实体类：<实体类,映射>
+     */
+    private static final ConcurrentHashMap<Class<?>, EntityMapper<?>> mappers = new ConcurrentHashMap<>();
+
+    /**
+     * 实体类
+     */
+    final Class<T> clazz;
+    /**
+     * 表名
+     */
+    final String tableName;
+    /**
+     * 所有字段，包含主键
+     */
+    final Column[] columns;
+    /**
+     * 字段名对应的字段
+     */
+    private final HashMap<String, Column> columnMap;
+    /**
+     * 通过{@link Index}声明的索引
+     */
+    final List<IndexInfo> indexes;
+    /**
+     * 通过{@link FullText}声明的全文检索字段
+     */
+    final Column[] ftsColumns;
+    /**
+     * 需要索引拼音的全文检索字段
+     */
+    final Column[] pinyinColumns;
+
+    /**
+     * 获取实体类的映射，同一个类只解析一次
+     *
+     * @param clazz 实体类
+     * @return EntityMapper
+     */
+    @SuppressWarnings("unchecked")
+    static <T> EntityMapper<T> of(Class<T> clazz) {
+        EntityMapper<T> mapper = (EntityMapper<T>) mappers.get(clazz);
+        if (mapper == null) {
+            EntityMapper<T> created = new EntityMapper<>(clazz);
+            mapper = (EntityMapper<T>) mappers.putIfAbsent(clazz, created);
+            if (mapper == null) mapper = created;
+        }
+        return mapper;
+    }
+
+    /**
+     * 根据类名解析表名
+     */
+    static String getTableName(String className) {
+        return className.substring(className.lastIndexOf('.') + 1);
+    }
+
+    private EntityMapper(Class<T> clazz) {
+        this.clazz = clazz;
+        this.tableName = getTableName(clazz.getName());
+        List<Column> list = new ArrayList<>();
+        columnMap = new HashMap<>();
+        for (Field field : clazz.getDeclaredFields()) {
+            //跳过静态字段和编译器生成的字段(如内部类的this$0)
+            if (Modifier.isStatic(field.getModifiers()) || field.isSynthetic()) continue;
+            int type = getType(field.getType());
+            if (type == 0) continue;
+            field.setAccessible(true);
+            Column column = new Column(field, type);
+            list.add(column);
+            columnMap.put(column.name, column);
+        }
+        columns = list.toArray(new Column[list.size()]);
+        indexes = parseIndexes();
+        List<Column> fts = new ArrayList<>();
+        List<Column> pinyin = new ArrayList<>();
+        for (Column column : columns) {
+            FullText fullText = column.field.getAnnotation(FullText.class);
+            if (fullText == null) continue;
+            if (column.type != TYPE_STRING) {
+                throw new IllegalArgumentException(clazz.getName() + "." + column.name + " @FullText只支持String类型");
+            }
+            fts.add(column);
+            if (fullText.pinyin()) pinyin.add(column);
+        }
+        ftsColumns = fts.toArray(new Column[fts.size()]);
+        pinyinColumns = pinyin.toArray(new Column[pinyin.size()]);
+    }
+
+    /**
+     * 根据表名查找已解析的实体类映射
+     *
+     * @return 未解析过返回null
+     */
+    static EntityMapper<?> ofTable(String tableName) {
+        for (EntityMapper<?> mapper : mappers.values()) {
+            if (mapper.tableName.equals(tableName)) return mapper;
+        }
+        return null;
+    }
+
+    /**
+     * 解析字段和类上声明的索引
+     */
+    private List<IndexInfo> parseIndexes() {
+        List<IndexInfo> list = new ArrayList<>();
+        for (Column column : columns) {
+            Index index = column.field.getAnnotation(Index.class);
+            if (index != null) {
+                list.add(new IndexInfo(tableName, index.name(), new String[]{column.name}, index.unique()));
+            }
+        }
+        Index index = clazz.getAnnotation(Index.class);
+        if (index != null) list.add(toIndexInfo(index));
+        Indexes indexArray = clazz.getAnnotation(Indexes.class);
+        if (indexArray != null) {
+            for (Index item : indexArray.value()) {
+                list.add(toIndexInfo(item));
+            }
+        }
+        return list;
+    }
+
+    private IndexInfo toIndexInfo(Index index) {
+        String[] names = index.columns();
+        if (names.length == 0) {
+            throw new IllegalArgumentException(clazz.getName() + " 类上的@Index必须指定columns");
+        }
+        for (String name : names) {
+            if (!columnMap.containsKey(name) && !DBUtil.PRIMARYKEY.equals(name)) {
+                throw new IllegalArgumentException(clazz.getName() + " 不存在字段 " + name);
+            }
+        }
+        return new IndexInfo(tableName, index.name(), names, index.unique());
+    }
+
+    /**
+     * 获取字段类型，不支持的类型返回0
+     */
+    private static int getType(Class<?> type) {
+        if (type == String.class) {
+            return TYPE_STRING;
+        } else if (type == Integer.class || type == int.class) {
+            return TYPE_INT;
+        } else if (type == Long.class || type == long.class) {
+            return TYPE_LONG;
+        } else if (type == Float.class || type == float.class) {
+            return TYPE_FLOAT;
+        } else if (type == Double.class || type == double.class) {
+            return TYPE_DOUBLE;
+        } else if (type == Boolean.class || type == boolean.class) {
+            return TYPE_BOOLEAN;
+        } else if (type == Short.class || type == short.class) {
+            return TYPE_SHORT;
+        } else if (type == Byte.class || type == byte.class) {
+            return TYPE_BYTE;
+        } else if (type == char.class) {
+            return TYPE_CHAR;
+        } else if (type == byte[].class) {
+            return TYPE_BLOB;
+        }
+        return 0;
+    }
+
+    /**
+     * 获取字段
+     *
+     * @param name 字段名
+     * @return 不存在时返回null
+     */
+    Column getColumn(String name) {
+        return columnMap.get(name);
+    }
+
+    /**
+     * 建表字段
+     *
+     * @return <字段名，字段类型>
+     */
+    Map<String, String> getColumnTypes() {
+        LinkedHashMap<String, String> map = new LinkedHashMap<>();
+        for (Column column : columns) {
+            map.put(column.name, column.sqlType);
+        }
+        return map;
+    }
+
+    /**
+     * 实体转为ContentValues
+     *
+     * @param object     实体
+     * @param primaryKey 需要跳过的自增字段，为null时不跳过
+     */
+    ContentValues toValues(Object object, String primaryKey) throws IllegalAccessException {
+        ContentValues values = new ContentValues(columns.length);
+        for (Column column : columns) {
+            if (column.name.equals(primaryKey)) continue;
+            column.put(values, object);
+        }
+        return values;
+    }
+
+    /**
+     * 实体转为更新用的ContentValues，跳过值为null的字段
+     *
+     * @param object     实体
+     * @param primaryKey 需要跳过的自增字段，为null时不跳过
+     */
+    ContentValues toUpdateValues(Object object, String primaryKey) throws IllegalAccessException {
+        ContentValues values = new ContentValues(columns.length);
+        for (Column column : columns) {
+            if (column.name.equals(primaryKey)) continue;
+            if (!column.primitive && column.field.get(object) == null) continue;
+            column.put(values, object);
+        }
+        return values;
+    }
+
+    /**
+     * 插入语句，参数顺序与columns一致
+     *
+     * @param replace 是否使用INSERT OR REPLACE，true时包含自增字段
+     */
+    String getInsertSql(boolean replace) {
+        StringBuilder sql = new StringBuilder(replace ? "INSERT OR REPLACE INTO '" : "INSERT INTO '");
+        sql.append(tableName).append("' (");
+        int count = 0;
+        for (Column column : columns) {
+            if (!replace && column.isPrimaryKey()) continue;
+            if (count > 0) sql.append(',');
+            sql.append('\'').append(column.name).append('\'');
+            count++;
+        }
+        sql.append(") VALUES (");
+        for (int i = 0; i < count; i++) {
+            sql.append(i == 0 ? "?" : ",?");
+        }
+        sql.append(')');
+        return sql.toString();
+    }
+
+    /**
+     * 按类型绑定插入语句参数，与getInsertSql对应
+     *
+     * @param replace 是否使用INSERT OR REPLACE，true时自增字段为0则绑定null，由数据库生成
+     */
+    void bindInsert(SQLiteStatement statement, Object object, boolean replace) throws IllegalAccessException {
+        statement.clearBindings();
+        int index = 1;
+        for (Column column : columns) {
+            if (column.isPrimaryKey()) {
+                if (!replace) continue;
+                Object key = column.field.get(object);
+                if (key == null || (key instanceof Number && ((Number) key).longValue() == 0)) {
+                    statement.bindNull(index++);
+                    continue;
+                }
+            }
+            column.bind(statement, index++, object);
+        }
+    }
+
+    /**
+     * 创建游标读取器，每个游标只查找一次列下标
+     */
+    RowReader reader(Cursor cursor) {
+        return new RowReader(cursor);
+    }
+
+    /**
+     * 游标读取器
+     */
+    final class RowReader {
+
+        /**
+         * 游标每一列对应的字段，没有对应字段时为null
+         */
+        private final Column[] cursorColumns;
+
+        private RowReader(Cursor cursor) {
+            int count = cursor.getColumnCount();
+            cursorColumns = new Column[count];
+            for (int i = 0; i < count; i++) {
+                cursorColumns[i] = columnMap.get(cursor.getColumnName(i));
+            }
+        }
+
+        /**
+         * 读取游标当前行
+         */
+        T read(Cursor cursor) throws IllegalAccessException, InstantiationException {
+            T t = clazz.newInstance();
+            for (int i = 0; i < cursorColumns.length; i++) {
+                Column column = cursorColumns[i];
+                if (column != null) column.read(cursor, i, t);
+            }
+            return t;
+        }
+    }
+
+    /**
+     * 索引
+     */
+    static final class IndexInfo {
+
+        final String name;
+        final String[] columns;
+        final boolean unique;
+        private final String tableName;
+
+        IndexInfo(String tableName, String name, String[] columns, boolean unique) {
+            this.tableName = tableName;
+            this.columns = columns;
+            this.unique = unique;
+            if (name == null || name.length() == 0) {
+                StringBuilder builder = new StringBuilder("index_").append(tableName);
+                for (String column : columns) {
+                    builder.append('_').append(column);
+                }
+                name = builder.toString();
+            }
+            this.name = name;
+        }
+
+        /**
+         * 建索引语句，已存在时跳过
+         */
+        String getCreateSql() {
+            StringBuilder sql = new StringBuilder(unique ? "CREATE UNIQUE INDEX IF NOT EXISTS '" : "CREATE INDEX IF NOT EXISTS '");
+            sql.append(name).append("' ON '").append(tableName).append("' (");
+            for (int i = 0; i < columns.length; i++) {
+                if (i > 0) sql.append(',');
+                sql.append('\'').append(columns[i]).append('\'');
+            }
+            sql.append(')');
+            return sql.toString();
+        }
+    }
+
+    /**
+     * 实体的一个字段
+     */
+    static final class Column {
+
+        final String name;
+        final Field field;
+        final int type;
+        final String sqlType;
+        final boolean primitive;
+
+        private Column(Field field, int type) {
+            this.field = field;
+            this.name = field.getName();
+            this.type = type;
+            this.primitive = field.getType().isPrimitive();
+            this.sqlType = getSqlType(type);
+        }
+
+        /**
+         * 与原建表类型保持一致
+         */
+        private static String getSqlType(int type) {
+            switch (type) {
+                case TYPE_STRING:
+                    return "text";
+                case TYPE_FLOAT:
+                case TYPE_DOUBLE:
+                    return "real";
+                case TYPE_BOOLEAN:
+                    return "bit";
+                case TYPE_CHAR:
+                case TYPE_BYTE:
+                case TYPE_BLOB:
+                    return "blob";
+                default:
+                    return "integer";
+            }
+        }
+
+        /**
+         * 读取字段值放入ContentValues
+         */
+        void put(ContentValues values, Object object) throws IllegalAccessException {
+            if (primitive) {
+                switch (type) {
+                    case TYPE_INT:
+                        values.put(name, field.getInt(object));
+                        break;
+                    case TYPE_LONG:
+                        values.put(name, field.getLong(object));
+                        break;
+                    case TYPE_FLOAT:
+                        values.put(name, field.getFloat(object));
+                        break;
+                    case TYPE_DOUBLE:
+                        values.put(name, field.getDouble(object));
+                        break;
+                    case TYPE_BOOLEAN:
+                        values.put(name, field.getBoolean(object));
+                        break;
+                    case TYPE_SHORT:
+                        values.put(name, field.getShort(object));
+                        break;
+                    case TYPE_BYTE:
+                        values.put(name, field.getByte(object));
+                        break;
+                    case TYPE_CHAR:
+                        values.put(name, String.valueOf(field.getChar(object)));
+                        break;
+                }
+                return;
+            }
+            Object content = field.get(object);
+            if (content == null) {
+                values.putNull(name);
+                return;
+            }
+            switch (type) {
+                case TYPE_STRING:
+                    values.put(name, (String) content);
+                    break;
+                case TYPE_INT:
+                    values.put(name, (Integer) content);
+                    break;
+                case TYPE_LONG:
+                    values.put(name, (Long) content);
+                    break;
+                case TYPE_FLOAT:
+                    values.put(name, (Float) content);
+                    break;
+                case TYPE_DOUBLE:
+                    values.put(name, (Double) content);
+                    break;
+                case TYPE_BOOLEAN:
+                    values.put(name, (Boolean) content);
+                    break;
+                case TYPE_SHORT:
+                    values.put(name, (Short) content);
+                    break;
+                case TYPE_BYTE:
+                    values.put(name, (Byte) content);
+                    break;
+                case TYPE_BLOB:
+                    values.put(name, (byte[]) content);
+                    break;
+            }
+        }
+
+        /**
+         * 是否为自增字段
+         */
+        boolean isPrimaryKey() {
+            return DBUtil.PRIMARYKEY.equals(name);
+        }
+
+        /**
+         * 按类型绑定字段值到语句的第index个参数
+         */
+        void bind(SQLiteStatement statement, int index, Object object) throws IllegalAccessException {
+            if (primitive) {
+                switch (type) {
+                    case TYPE_INT:
+                        statement.bindLong(index, field.getInt(object));
+                        break;
+                    case TYPE_LONG:
+                        statement.bindLong(index, field.getLong(object));
+                        break;
+                    case TYPE_FLOAT:
+                        statement.bindDouble(index, field.getFloat(object));
+                        break;
+                    case TYPE_DOUBLE:
+                        statement.bindDouble(index, field.getDouble(object));
+                        break;
+                    case TYPE_BOOLEAN:
+                        statement.bindLong(index, field.getBoolean(object) ? 1 : 0);
+                        break;
+                    case TYPE_SHORT:
+                        statement.bindLong(index, field.getShort(object));
+                        break;
+                    case TYPE_BYTE:
+                        statement.bindLong(index, field.getByte(object));
+                        break;
+                    case TYPE_CHAR:
+                        statement.bindString(index, String.valueOf(field.getChar(object)));
+                        break;
+                }
+                return;
+            }
+            Object content = field.get(object);
+            if (content == null) {
+                statement.bindNull(index);
+                return;
+            }
+            switch (type) {
+                case TYPE_STRING:
+                    statement.bindString(index, (String) content);
+                    break;
+                case TYPE_FLOAT:
+                case TYPE_DOUBLE:
+                    statement.bindDouble(index, ((Number) content).doubleValue());
+                    break;
+                case TYPE_BOOLEAN:
+                    statement.bindLong(index, (Boolean) content ? 1 : 0);
+                    break;
+                case TYPE_BLOB:
+                    statement.bindBlob(index, (byte[]) content);
+                    break;
+                default:
+                    statement.bindLong(index, ((Number) content).longValue());
+                    break;
+            }
+        }
+
+        /**
+         * 按类型读取游标的第index列并赋值
+         */
+        void read(Cursor cursor, int index, Object object) throws IllegalAccessException {
+            if (cursor.isNull(index)) {
+                if (!primitive) field.set(object, null);
+                return;
+            }
+            switch (type) {
+                case TYPE_STRING:
+                    field.set(object, cursor.getString(index));
+                    break;
+                case TYPE_INT:
+                    if (primitive) field.setInt(object, cursor.getInt(index));
+                    else field.set(object, cursor.getInt(index));
+                    break;
+                case TYPE_LONG:
+                    if (primitive) field.setLong(object, cursor.getLong(index));
+                    else field.set(object, cursor.getLong(index));
+                    break;
+                case TYPE_FLOAT:
+                    if (primitive) field.setFloat(object, cursor.getFloat(index));
+                    else field.set(object, cursor.getFloat(index));
+                    break;
+                case TYPE_DOUBLE:
+                    if (primitive) field.setDouble(object, cursor.getDouble(index));
+                    else field.set(object, cursor.getDouble(index));
+                    break;
+                case TYPE_BOOLEAN:
+                    //ContentValues中boolean以1/0保存
+                    if (primitive) field.setBoolean(object, cursor.getInt(index) != 0);
+                    else field.set(object, cursor.getInt(index) != 0);
+                    break;
+                case TYPE_SHORT:
+                    if (primitive) field.setShort(object, cursor.getShort(index));
+                    else field.set(object, cursor.getShort(index));
+                    break;
+                case TYPE_BYTE:
+                    if (primitive) field.setByte(object, (byte) cursor.getInt(index));
+                    else field.set(object, (byte) cursor.getInt(index));
+                    break;
+                case TYPE_CHAR:
+                    String content = cursor.getString(index);
+                    if (content != null && content.length() > 0) field.setChar(object, content.charAt(0));
+                    break;
+                case TYPE_BLOB:
+                    field.set(object, cursor.getBlob(index));
+                    break;
+            }
+        }
+    }
+}
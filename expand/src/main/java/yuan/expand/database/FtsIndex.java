@@ -0,0 +1,312 @@
+package yuan.expand.database;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+
+import yuan.core.sort.ChineseSortUtil;
+
+/**
+ * 描述：全文检索索引
+ * <p>
+ * 1、为{@link FullText}字段创建FTS4表(表名_fts)，docid与原表id一致
+ * 2、原表的insert/update/delete通过触发器同步到索引表
+ * 3、拼音字段(字段名_py)无法在触发器中计算，由DBUtil写入数据后更新
+ * 4、检索结果按matchinfo计算的相关度排序
+ * <p>
+ * FTS4的simple分词器把连续的中文当作一个词，拼音字段中额外写入逐字拆分的汉字，
+ * 开启拼音后也可以按单个汉字检索
+ *
+ * @author yuanye
+ * @date 2019/8/19 14:20
+ */
+final class FtsIndex {
+
+    /**
+     * 拼音字段后缀
+     */
+    private static final String PINYIN_SUFFIX = "_py";
+
+    private FtsIndex() {
+    }
+
+    static String getTableName(EntityMapper<?> mapper) {
+        return mapper.tableName + "_fts";
+    }
+
+    /**
+     * 创建或更新索引表和触发器，索引表新建或字段变化时重建索引数据
+     */
+    static void sync(SQLiteDatabase db, EntityMapper<?> mapper) {
+        if (mapper.ftsColumns.length == 0) return;
+        String fts = getTableName(mapper);
+        List<String> expected = getFtsColumns(mapper);
+        Map<String, String> existing = SchemaMigrator.getTableInfo(db, fts);
+        boolean rebuild = false;
+        if (!existing.isEmpty() && !existing.keySet().equals(new HashSet<>(expected))) {
+            db.execSQL("DROP TABLE '" + fts + "'");
+            for (String suffix : new String[]{"_ai", "_au", "_ad"}) {
+                db.execSQL("DROP TRIGGER IF EXISTS '" + fts + suffix + "'");
+            }
+            existing.clear();
+        }
+        if (existing.isEmpty()) {
+            db.execSQL("CREATE VIRTUAL TABLE '" + fts + "' USING fts4(" + join(expected, "", "") + ")");
+            rebuild = true;
+        }
+        createTriggers(db, mapper);
+        if (rebuild) rebuild(db, mapper);
+    }
+
+    private static void createTriggers(SQLiteDatabase db, EntityMapper<?> mapper) {
+        String table = mapper.tableName;
+        String fts = getTableName(mapper);
+        String key = DBUtil.PRIMARYKEY;
+        List<String> names = new ArrayList<>();
+        for (EntityMapper.Column column : mapper.ftsColumns) {
+            names.add(column.name);
+        }
+        StringBuilder sets = new StringBuilder();
+        for (String name : names) {
+            if (sets.length() > 0) sets.append(',');
+            sets.append('"').append(name).append("\"=new.\"").append(name).append('"');
+        }
+        db.execSQL("CREATE TRIGGER IF NOT EXISTS '" + fts + "_ai' AFTER INSERT ON '" + table + "' BEGIN "
+                + "INSERT OR REPLACE INTO '" + fts + "' (docid," + join(names, "", "") + ") VALUES (new.\"" + key + "\","
+                + join(names, "new.", "") + "); END");
+        db.execSQL("CREATE TRIGGER IF NOT EXISTS '" + fts + "_au' AFTER UPDATE ON '" + table + "' BEGIN "
+                + "UPDATE '" + fts + "' SET " + sets + " WHERE docid=old.\"" + key + "\"; END");
+        db.execSQL("CREATE TRIGGER IF NOT EXISTS '" + fts + "_ad' AFTER DELETE ON '" + table + "' BEGIN "
+                + "DELETE FROM '" + fts + "' WHERE docid=old.\"" + key + "\"; END");
+    }
+
+    /**
+     * 清空并重建索引数据
+     */
+    static void rebuild(SQLiteDatabase db, EntityMapper<?> mapper) {
+        String fts = getTableName(mapper);
+        List<String> names = new ArrayList<>();
+        for (EntityMapper.Column column : mapper.ftsColumns) {
+            names.add(column.name);
+        }
+        db.execSQL("DELETE FROM '" + fts + "'");
+        db.execSQL("INSERT INTO '" + fts + "' (docid," + join(names, "", "") + ") SELECT \""
+                + DBUtil.PRIMARYKEY + "\"," + join(names, "", "") + " FROM '" + mapper.tableName + "'");
+        refreshPinyin(db, mapper, null, null);
+    }
+
+    /**
+     * 更新拼音字段的语句，参数为各拼音字段和docid
+     *
+     * @return 没有拼音字段返回null
+     */
+    static String getPinyinSql(EntityMapper<?> mapper) {
+        if (mapper.pinyinColumns.length == 0) return null;
+        StringBuilder sql = new StringBuilder("UPDATE '").append(getTableName(mapper)).append("' SET ");
+        for (int i = 0; i < mapper.pinyinColumns.length; i++) {
+            if (i > 0) sql.append(',');
+            sql.append('"').append(mapper.pinyinColumns[i].name).append(PINYIN_SUFFIX).append("\"=?");
+        }
+        sql.append(" WHERE docid=?");
+        return sql.toString();
+    }
+
+    /**
+     * 绑定实体的拼音并执行，调用方需要同步statement
+     */
+    static void bindPinyin(SQLiteStatement statement, EntityMapper<?> mapper, long id, Object object)
+            throws IllegalAccessException {
+        statement.clearBindings();
+        for (int i = 0; i < mapper.pinyinColumns.length; i++) {
+            DBCore.bind(statement, i + 1, toPinyin((String) mapper.pinyinColumns[i].field.get(object)));
+        }
+        statement.bindLong(mapper.pinyinColumns.length + 1, id);
+        statement.executeUpdateDelete();
+    }
+
+    /**
+     * 按条件重新计算拼音字段，用于update之后
+     *
+     * @param whereClause 原表的where子句，为null时更新全部
+     * @param whereArgs   where子句对应的条件值
+     */
+    static void refreshPinyin(SQLiteDatabase db, EntityMapper<?> mapper, String whereClause, String[] whereArgs) {
+        String sql = getPinyinSql(mapper);
+        if (sql == null) return;
+        String[] projection = new String[mapper.pinyinColumns.length + 1];
+        projection[0] = DBUtil.PRIMARYKEY;
+        for (int i = 0; i < mapper.pinyinColumns.length; i++) {
+            projection[i + 1] = mapper.pinyinColumns[i].name;
+        }
+        SQLiteStatement statement = db.compileStatement(sql);
+        Cursor cursor = db.query(mapper.tableName, projection, whereClause, whereArgs, null, null, null);
+        try {
+            while (cursor.moveToNext()) {
+                statement.clearBindings();
+                for (int i = 1; i < projection.length; i++) {
+                    DBCore.bind(statement, i, toPinyin(cursor.getString(i)));
+                }
+                statement.bindLong(projection.length, cursor.getLong(0));
+                statement.executeUpdateDelete();
+            }
+        } finally {
+            cursor.close();
+            statement.close();
+        }
+    }
+
+    /**
+     * 检索，按相关度排序
+     *
+     * @param db    数据库
+     * @param clazz 实体类
+     * @param query FTS检索语句，例如 zhang* 、 张三 OR lisi
+     * @param limit 最多返回的条数
+     */
+    static <T> ArrayList<T> search(SQLiteDatabase db, Class<T> clazz, String query, int limit)
+            throws IllegalAccessException, InstantiationException {
+        EntityMapper<T> mapper = EntityMapper.of(clazz);
+        if (mapper.ftsColumns.length == 0) {
+            throw new IllegalArgumentException(clazz.getName() + " 没有@FullText字段");
+        }
+        String fts = getTableName(mapper);
+        final Map<Long, Double> scores = new HashMap<>();
+        Cursor cursor = db.rawQuery("SELECT docid, matchinfo(" + fts + ", 'pcx') FROM '" + fts
+                + "' WHERE " + fts + " MATCH ?", new String[]{query});
+        try {
+            while (cursor.moveToNext()) {
+                scores.put(cursor.getLong(0), score(cursor.getBlob(1)));
+            }
+        } finally {
+            cursor.close();
+        }
+        List<Long> ids = new ArrayList<>(scores.keySet());
+        Collections.sort(ids, new Comparator<Long>() {
+            @Override
+            public int compare(Long o1, Long o2) {
+                return Double.compare(scores.get(o2), scores.get(o1));
+            }
+        });
+        if (ids.size() > limit) ids = ids.subList(0, limit);
+        ArrayList<T> list = new ArrayList<>(ids.size());
+        if (ids.isEmpty()) return list;
+        //id为数字，直接拼接到语句中，避免超过参数数量限制
+        StringBuilder in = new StringBuilder();
+        for (Long id : ids) {
+            if (in.length() > 0) in.append(',');
+            in.append(id);
+        }
+        Map<Long, T> rows = new HashMap<>();
+        cursor = db.rawQuery("SELECT * FROM '" + mapper.tableName + "' WHERE \""
+                + DBUtil.PRIMARYKEY + "\" IN (" + in + ")", null);
+        try {
+            EntityMapper<T>.RowReader reader = mapper.reader(cursor);
+            int idIndex = cursor.getColumnIndexOrThrow(DBUtil.PRIMARYKEY);
+            while (cursor.moveToNext()) {
+                rows.put(cursor.getLong(idIndex), reader.read(cursor));
+            }
+        } finally {
+            cursor.close();
+        }
+        for (Long id : ids) {
+            T t = rows.get(id);
+            if (t != null) list.add(t);
+        }
+        return list;
+    }
+
+    /**
+     * 相关度：每个词在每个字段中，当前行命中次数 / 所有行命中次数 之和
+     *
+     * @param matchInfo matchinfo(fts, 'pcx')
+     */
+    private static double score(byte[] matchInfo) {
+        if (matchInfo == null || matchInfo.length < 8) return 0;
+        IntBuffer info = ByteBuffer.wrap(matchInfo).order(ByteOrder.nativeOrder()).asIntBuffer();
+        int phrases = info.get(0);
+        int columns = info.get(1);
+        double score = 0;
+        for (int i = 0; i < phrases; i++) {
+            for (int j = 0; j < columns; j++) {
+                int base = 2 + 3 * (i * columns + j);
+                int hits = info.get(base);
+                int allHits = info.get(base + 1);
+                if (hits > 0 && allHits > 0) score += (double) hits / allHits;
+            }
+        }
+        return score;
+    }
+
+    /**
+     * 拼音分词：逐字汉字、每个字的拼音、全拼、首字母，以空格分隔
+     * <p>
+     * 例如 张三 -> 张 三 zhang san zhangsan zs
+     */
+    static String toPinyin(String text) {
+        if (text == null || text.length() == 0) return null;
+        StringBuilder chars = new StringBuilder();
+        StringBuilder syllables = new StringBuilder();
+        StringBuilder words = new StringBuilder();
+        StringBuilder full = new StringBuilder();
+        StringBuilder initials = new StringBuilder();
+        for (int i = 0; i < text.length(); i++) {
+            char ch = text.charAt(i);
+            if (ch >= '\u4e00' && ch <= '\u9fa5') {
+                chars.append(ch).append(' ');
+                String pinyin = ChineseSortUtil.getPinyin(String.valueOf(ch));
+                if (pinyin.length() > 0 && !"unknown".equals(pinyin)) {
+                    syllables.append(pinyin).append(' ');
+                    full.append(pinyin);
+                    initials.append(pinyin.charAt(0));
+                }
+            } else if (Character.isLetterOrDigit(ch)) {
+                full.append(Character.toLowerCase(ch));
+            } else {
+                appendWord(words, full, initials);
+            }
+        }
+        appendWord(words, full, initials);
+        return chars.append(syllables).append(words).toString().trim();
+    }
+
+    private static void appendWord(StringBuilder words, StringBuilder full, StringBuilder initials) {
+        if (full.length() > 0) words.append(full).append(' ');
+        if (initials.length() > 1) words.append(initials).append(' ');
+        full.setLength(0);
+        initials.setLength(0);
+    }
+
+    /**
+     * 索引表字段：全文检索字段 + 拼音字段
+     */
+    private static List<String> getFtsColumns(EntityMapper<?> mapper) {
+        List<String> names = new ArrayList<>();
+        for (EntityMapper.Column column : mapper.ftsColumns) {
+            names.add(column.name);
+        }
+        for (EntityMapper.Column column : mapper.pinyinColumns) {
+            names.add(column.name + PINYIN_SUFFIX);
+        }
+        return names;
+    }
+
+    private static String join(List<String> names, String prefix, String suffix) {
+        StringBuilder builder = new StringBuilder();
+        for (String name : names) {
+            if (builder.length() > 0) builder.append(',');
+            builder.append(prefix).append('"').append(name).append('"').append(suffix);
+        }
+        return builder.toString();
+    }
+}
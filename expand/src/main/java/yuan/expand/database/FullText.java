@@ -0,0 +1,28 @@
+package yuan.expand.database;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * 描述：全文检索字段，只支持String类型
+ * <p>
+ * createTable时创建FTS4索引表(表名_fts)和同步触发器，通过{@link DBUtil#search(Class, String)}检索
+ *
+ * @author yuanye
+ * @date 2019/8/19 14:20
+ */
+@Target({ElementType.FIELD})  //作用域 字段
+@Retention(RetentionPolicy.RUNTIME)  //运行时有效
+@Documented
+public @interface FullText {
+
+    /**
+     * 是否同时索引拼音，可以通过全拼、单字拼音、首字母检索中文
+     *
+     * @return
+     */
+    boolean pinyin() default false;
+}
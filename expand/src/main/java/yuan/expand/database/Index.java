@@ -0,0 +1,43 @@
+package yuan.expand.database;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * 描述：数据表索引，createTable时创建(已存在则跳过)
+ * <p>
+ * 1、注解在字段上：为该字段创建单列索引，columns无效
+ * 2、注解在类上：为columns中的字段创建组合索引，多个组合索引使用{@link Indexes}
+ *
+ * @author yuanye
+ * @date 2019/8/14 15:32
+ */
+@Target({ElementType.FIELD, ElementType.TYPE})  //作用域 字段、类
+@Retention(RetentionPolicy.RUNTIME)  //运行时有效
+@Documented
+public @interface Index {
+
+    /**
+     * 索引名，默认 index_表名_字段名
+     *
+     * @return
+     */
+    String name() default "";
+
+    /**
+     * 组合索引的字段名，按顺序
+     *
+     * @return
+     */
+    String[] columns() default {};
+
+    /**
+     * 是否唯一索引
+     *
+     * @return
+     */
+    boolean unique() default false;
+}
@@ -0,0 +1,26 @@
+package yuan.expand.database;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * 描述：一个数据表声明多个组合索引
+ *
+ * @author yuanye
+ * @date 2019/8/14 15:32
+ */
+@Target({ElementType.TYPE})  //作用域 类
+@Retention(RetentionPolicy.RUNTIME)  //运行时有效
+@Documented
+public @interface Indexes {
+
+    /**
+     * 组合索引
+     *
+     * @return
+     */
+    Index[] value();
+}
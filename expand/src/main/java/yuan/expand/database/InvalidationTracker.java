@@ -0,0 +1,237 @@
+package yuan.expand.database;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 描述：数据表变化监听
+ * <p>
+ * 1、写操作调用notifyChanged标记变化的表，debounce时间内的多次变化合并为一次
+ * 2、到期后对监听了这些表的查询在读线程重新查询，查询进行中再次变化只会在结束后再查一次
+ * 3、查询结果放入队列，通过一次post批量回调到主线程
+ * 4、合并使用守护线程计时，DBUtil关闭时一起结束
+ *
+ * @author yuanye
+ * @date 2019/8/15 9:47
+ */
+final class InvalidationTracker {
+
+    /**
+     * 默认合并时间，单位：毫秒
+     */
+    static final long DEFAULT_DEBOUNCE = 50;
+
+    private final DBUtil db;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    /**
+     * 所有监听中的查询
+     */
+    private final CopyOnWriteArrayList<Observation<?>> observations = new CopyOnWriteArrayList<>();
+    /**
+     * 等待通知的表
+     */
+    private final Set<String> pendingTables = new HashSet<>();
+    /**
+     * 等待回调到主线程的结果
+     */
+    private final List<Runnable> deliveries = new ArrayList<>();
+    private volatile long debounce = DEFAULT_DEBOUNCE;
+    private ScheduledExecutorService scheduler;
+    private volatile boolean closed;
+    private boolean flushScheduled;
+    private boolean deliveryPosted;
+
+    private final Runnable flushRunnable = new Runnable() {
+        @Override
+        public void run() {
+            Set<String> tables;
+            synchronized (pendingTables) {
+                flushScheduled = false;
+                tables = new HashSet<>(pendingTables);
+                pendingTables.clear();
+            }
+            for (Observation<?> observation : observations) {
+                if (tables.contains(observation.table)) observation.requery();
+            }
+        }
+    };
+
+    private final Runnable deliveryRunnable = new Runnable() {
+        @Override
+        public void run() {
+            List<Runnable> list;
+            synchronized (deliveries) {
+                deliveryPosted = false;
+                list = new ArrayList<>(deliveries);
+                deliveries.clear();
+            }
+            for (Runnable runnable : list) {
+                runnable.run();
+            }
+        }
+    };
+
+    InvalidationTracker(DBUtil db) {
+        this.db = db;
+    }
+
+    /**
+     * 设置合并时间
+     */
+    void setDebounce(long debounce) {
+        this.debounce = Math.max(debounce, 0);
+    }
+
+    /**
+     * 标记表发生变化
+     */
+    void notifyChanged(String table) {
+        if (closed || observations.isEmpty()) return;
+        synchronized (pendingTables) {
+            pendingTables.add(table);
+            if (flushScheduled) return;
+            flushScheduled = true;
+        }
+        ScheduledExecutorService scheduler = getScheduler();
+        if (scheduler != null) scheduler.schedule(flushRunnable, debounce, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 取消所有监听并结束计时线程，关闭后不再通知
+     */
+    void close() {
+        ScheduledExecutorService old;
+        synchronized (this) {
+            closed = true;
+            old = scheduler;
+            scheduler = null;
+        }
+        for (Observation<?> observation : observations) {
+            observation.cancel();
+        }
+        if (old != null) old.shutdownNow();
+    }
+
+    /**
+     * 添加监听，立即查询一次
+     */
+    <T> DBUtil.Subscription observe(Class<T> clazz, String[] columns, String selection, String[] selectionArgs,
+                                    String orderBy, DBUtil.DBBack<ArrayList<T>> back) {
+        Observation<T> observation = new Observation<>(clazz, columns, selection, selectionArgs, orderBy, back);
+        if (closed) {
+            observation.cancel();
+            return observation;
+        }
+        observations.add(observation);
+        observation.requery();
+        return observation;
+    }
+
+    private synchronized ScheduledExecutorService getScheduler() {
+        if (closed) return null;
+        if (scheduler == null) {
+            scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "DBInvalidationTracker");
+                    //不阻止进程退出
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return scheduler;
+    }
+
+    /**
+     * 结果加入队列，队列为空时post一次
+     */
+    private void deliver(Runnable runnable) {
+        synchronized (deliveries) {
+            deliveries.add(runnable);
+            if (deliveryPosted) return;
+            deliveryPosted = true;
+        }
+        mainHandler.post(deliveryRunnable);
+    }
+
+    /**
+     * 一个监听中的查询
+     */
+    private final class Observation<T> implements DBUtil.Subscription, Runnable {
+
+        final String table;
+        private final Class<T> clazz;
+        private final String[] columns;
+        private final String selection;
+        private final String[] selectionArgs;
+        private final String orderBy;
+        private final DBUtil.DBBack<ArrayList<T>> back;
+        private volatile boolean canceled;
+        /**
+         * 是否正在查询
+         */
+        private final AtomicBoolean running = new AtomicBoolean();
+        /**
+         * 查询开始后表又发生了变化
+         */
+        private final AtomicBoolean dirty = new AtomicBoolean();
+
+        Observation(Class<T> clazz, String[] columns, String selection, String[] selectionArgs,
+                    String orderBy, DBUtil.DBBack<ArrayList<T>> back) {
+            this.table = EntityMapper.getTableName(clazz.getName());
+            this.clazz = clazz;
+            this.columns = columns;
+            this.selection = selection;
+            this.selectionArgs = selectionArgs;
+            this.orderBy = orderBy;
+            this.back = back;
+        }
+
+        void requery() {
+            if (canceled) return;
+            dirty.set(true);
+            if (running.compareAndSet(false, true)) {
+                db.getReadExecutor().execute(this);
+            }
+        }
+
+        @Override
+        public void run() {
+            while (!canceled && dirty.getAndSet(false)) {
+                final ArrayList<T> result = db.query(columns, selection, selectionArgs, orderBy, clazz);
+                deliver(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (!canceled) back.onResult(result);
+                    }
+                });
+            }
+            running.set(false);
+            //结束前又发生变化，重新查询
+            if (!canceled && dirty.get()) requery();
+        }
+
+        @Override
+        public void cancel() {
+            canceled = true;
+            observations.remove(this);
+        }
+
+        @Override
+        public boolean isCanceled() {
+            return canceled;
+        }
+    }
+}
@@ -0,0 +1,40 @@
+package yuan.expand.database;
+
+import android.database.sqlite.SQLiteDatabase;
+
+/**
+ * 描述：数据库版本升级步骤
+ * <p>
+ * 通过{@link DBUtil#addMigration(Migration...)}注册，升级时按版本顺序执行，
+ * 执行完所有步骤后再根据注册的实体类自动补充新增的字段
+ *
+ * @author yuanye
+ * @date 2019/8/16 11:05
+ */
+public abstract class Migration {
+    /**
+     * 起始版本
+     */
+    public final int startVersion;
+    /**
+     * 目标版本
+     */
+    public final int endVersion;
+
+    /**
+     * @param startVersion 起始版本
+     * @param endVersion   目标版本，必须大于起始版本
+     */
+    public Migration(int startVersion, int endVersion) {
+        if (endVersion <= startVersion) throw new IllegalArgumentException("endVersion 必须大于 startVersion");
+        this.startVersion = startVersion;
+        this.endVersion = endVersion;
+    }
+
+    /**
+     * 执行升级，已在事务中执行，不需要再开启事务
+     *
+     * @param db 数据库
+     */
+    public abstract void migrate(SQLiteDatabase db);
+}
@@ -0,0 +1,213 @@
+package yuan.expand.database;
+
+import android.support.annotation.MainThread;
+import android.support.v7.widget.RecyclerView;
+import android.util.Log;
+import android.util.LruCache;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+
+/**
+ * 描述：分页数据源
+ * <p>
+ * 可以直接作为RecyclerAdapter的数据源，get到未加载的位置时返回null并在读线程加载该页，
+ * 加载完成后通知Adapter刷新对应的item。内存中最多保留maxPages页数据，
+ * 翻页使用keyset分页(id > ?)，只记录每页第一条数据之前的id
+ * <p>
+ * 总条数在读线程统计，统计完成前size为0；数据变化后调用{@link #refresh()}重新统计
+ * <p>
+ * 只能在主线程访问
+ *
+ * @author yuanye
+ * @date 2019/8/12 10:21
+ */
+public class PagedList<T> extends AbstractList<T> {
+
+    private static final String TAG = "PagedList";
+    /**
+     * 默认内存中保留的页数
+     */
+    private static final int DEFAULT_MAX_PAGES = 3;
+
+    private final DBUtil db;
+    private final Class<T> clazz;
+    private final String selection;
+    private final String[] selectionArgs;
+    private final int pageSize;
+    /**
+     * 总条数，在读线程统计，完成前为0
+     */
+    private int size;
+    /**
+     * 每次refresh加1，丢弃refresh之前发起的加载结果
+     */
+    private int generation;
+    /**
+     * 每页的起始key：第n页为 id > pageKeys[n] 的前pageSize条
+     */
+    private final List<Long> pageKeys = new ArrayList<>();
+    /**
+     * 已加载的页：<页码,数据>
+     */
+    private final LruCache<Integer, List<T>> pages;
+    /**
+     * 加载中的页码
+     */
+    private final Set<Integer> loading = new HashSet<>();
+    /**
+     * 加载完成后需要通知的Adapter
+     */
+    private RecyclerView.Adapter<?> adapter;
+
+    PagedList(DBUtil db, Class<T> clazz, String selection, String[] selectionArgs, int pageSize) {
+        if (pageSize <= 0) throw new IllegalArgumentException("pageSize 必须大于0");
+        this.db = db;
+        this.clazz = clazz;
+        this.selection = selection;
+        this.selectionArgs = selectionArgs;
+        this.pageSize = pageSize;
+        this.pages = new LruCache<>(DEFAULT_MAX_PAGES);
+        pageKeys.add(Long.MIN_VALUE);
+        refresh();
+    }
+
+    /**
+     * 重新统计总条数，清空已加载的页，完成后调用notifyDataSetChanged
+     */
+    @MainThread
+    public void refresh() {
+        final int current = ++generation;
+        db.executeRead(new Callable<Long>() {
+            @Override
+            public Long call() throws Exception {
+                return db.queryCount(clazz, selection, selectionArgs);
+            }
+        }, new DBUtil.DBBack<Long>() {
+            @Override
+            public void onResult(Long count) {
+                if (current != generation) return;
+                size = count.intValue();
+                pages.evictAll();
+                loading.clear();
+                pageKeys.clear();
+                pageKeys.add(Long.MIN_VALUE);
+                if (adapter != null) adapter.notifyDataSetChanged();
+            }
+
+            @Override
+            public void onError(Exception e) {
+                Log.e(TAG, "PagedList refresh Error:" + e.getMessage());
+            }
+        });
+    }
+
+    /**
+     * 绑定Adapter，页加载完成后调用notifyItemRangeChanged
+     */
+    @MainThread
+    public void attach(RecyclerView.Adapter<?> adapter) {
+        this.adapter = adapter;
+    }
+
+    /**
+     * 设置内存中最多保留的页数
+     */
+    @MainThread
+    public void setMaxPages(int maxPages) {
+        pages.resize(maxPages);
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    /**
+     * 获取数据，所在页未加载时返回null，并开始加载
+     */
+    @Override
+    @MainThread
+    public T get(int index) {
+        if (index < 0 || index >= size) throw new IndexOutOfBoundsException("index=" + index + ", size=" + size);
+        int page = index / pageSize;
+        List<T> items = pages.get(page);
+        if (items == null) {
+            loadPage(page);
+            return null;
+        }
+        int offset = index % pageSize;
+        return offset < items.size() ? items.get(offset) : null;
+    }
+
+    /**
+     * 加载指定页
+     * <p>
+     * 如果该页的起始key未知，从最近一个已知key开始只查询id定位，不创建中间页的实体
+     */
+    private void loadPage(final int page) {
+        if (!loading.add(page)) return;
+        final int current = generation;
+        final int knownPage = Math.min(page, pageKeys.size() - 1);
+        final long knownKey = pageKeys.get(knownPage);
+        db.executeRead(new Callable<PageResult<T>>() {
+            @Override
+            public PageResult<T> call() throws Exception {
+                List<Long> keys = new ArrayList<>();
+                long key = knownKey;
+                for (int i = knownPage; i < page; i++) {
+                    Long next = db.queryKeyAt(clazz, selection, selectionArgs, key, pageSize - 1);
+                    if (next == null) return new PageResult<>(keys, null);
+                    key = next;
+                    keys.add(key);
+                }
+                DBUtil.Page<T> result = db.queryPage(clazz, selection, selectionArgs, key, pageSize);
+                return new PageResult<>(keys, result);
+            }
+        }, new DBUtil.DBBack<PageResult<T>>() {
+            @Override
+            public void onResult(PageResult<T> result) {
+                if (current != generation) return;
+                loading.remove(page);
+                for (int i = 0; i < result.keys.size(); i++) {
+                    int keyPage = knownPage + 1 + i;
+                    if (keyPage == pageKeys.size()) pageKeys.add(result.keys.get(i));
+                }
+                if (result.page == null) return;
+                if (page + 1 == pageKeys.size() && result.page.hasMore) {
+                    pageKeys.add(result.page.lastId);
+                }
+                pages.put(page, result.page.items);
+                if (adapter != null && !result.page.items.isEmpty()) {
+                    adapter.notifyItemRangeChanged(page * pageSize, result.page.items.size());
+                }
+            }
+
+            @Override
+            public void onError(Exception e) {
+                if (current == generation) loading.remove(page);
+                Log.e(TAG, "PagedList loadPage Error:" + e.getMessage());
+            }
+        });
+    }
+
+    /**
+     * 后台加载结果
+     */
+    private static class PageResult<T> {
+        /**
+         * 定位过程中得到的起始key
+         */
+        final List<Long> keys;
+        final DBUtil.Page<T> page;
+
+        PageResult(List<Long> keys, DBUtil.Page<T> page) {
+            this.keys = keys;
+            this.page = page;
+        }
+    }
+}
@@ -5,6 +5,9 @@ import android.database.DatabaseErrorHandler;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
 
+import java.util.Collections;
+import java.util.List;
+
 /**
  * Created by YuanYe on 2018/1/3.
  * 简化SQL 语句操作
@@ -18,6 +21,24 @@ import android.database.sqlite.SQLiteOpenHelper;
  */
 class SQLHelper extends SQLiteOpenHelper {
 
+    private final Context context;
+    /**
+     * 数据库文件名
+     */
+    private final String name;
+    /**
+     * 读连接数量，大于0时开启WAL
+     */
+    private final int readerPoolSize;
+    /**
+     * 注册的实体类
+     */
+    private List<Class<?>> entities = Collections.emptyList();
+    /**
+     * 注册的升级步骤
+     */
+    private List<Migration> migrations = Collections.emptyList();
+
     /**
      * @param context 上下文对象
      * @param name    数据库文件名
@@ -26,7 +47,23 @@ class SQLHelper extends SQLiteOpenHelper {
      *                上一次创建的版本高，SQLiteOpenHelper就会调用onUpgrade()方法。
      */
     public SQLHelper(Context context, String name, SQLiteDatabase.CursorFactory factory, int version) {
+        this(context, name, factory, version, 0);
+    }
+
+    /**
+     * @param context        上下文对象
+     * @param name           数据库文件名
+     * @param factory        创建Cursor的工厂类,参数为了可以自定义Cursor创建(ps:一般为null)、
+     * @param version        数据库版本号
+     * @param readerPoolSize 读连接数量，大于0时开启WAL(Write-Ahead Logging)，
+     *                       读操作使用独立的只读连接，写事务进行中也可以查询
+     */
+    public SQLHelper(Context context, String name, SQLiteDatabase.CursorFactory factory, int version, int readerPoolSize) {
         super(context, name, factory, version);
+        this.context = context;
+        this.name = name;
+        this.readerPoolSize = name == null ? 0 : Math.max(readerPoolSize, 0);
+        setWriteAheadLoggingEnabled(this.readerPoolSize > 0);
     }
 
     /**
@@ -38,6 +75,35 @@ class SQLHelper extends SQLiteOpenHelper {
      */
     public SQLHelper(Context context, String name, SQLiteDatabase.CursorFactory factory, int version, DatabaseErrorHandler errorHandler) {
         super(context, name, factory, version, errorHandler);
+        this.context = context;
+        this.name = name;
+        this.readerPoolSize = 0;
+    }
+
+    /**
+     * 设置实体类和升级步骤，需要在打开数据库之前设置
+     */
+    void setSchema(List<Class<?>> entities, List<Migration> migrations) {
+        this.entities = entities;
+        this.migrations = migrations;
+    }
+
+    /**
+     * 读连接数量，0表示未开启WAL，读写共用一个连接
+     */
+    public int getReaderPoolSize() {
+        return readerPoolSize;
+    }
+
+    /**
+     * 打开一个只读连接
+     * <p>
+     * WAL模式下只读连接读取的是最近一次提交的数据，不会被写事务阻塞，
+     * 需要先通过getWritableDatabase创建数据库文件
+     */
+    public SQLiteDatabase openReader() {
+        String path = context.getDatabasePath(name).getPath();
+        return SQLiteDatabase.openDatabase(path, null, SQLiteDatabase.OPEN_READONLY);
     }
 
     /**
@@ -46,7 +112,7 @@ class SQLHelper extends SQLiteOpenHelper {
      */
     @Override
     public void onCreate(SQLiteDatabase sqLiteDatabase) {
-
+        SchemaMigrator.createTables(sqLiteDatabase, entities);
     }
 
 
@@ -62,13 +128,16 @@ class SQLHelper extends SQLiteOpenHelper {
 
     /**
      * 更新数据库
+     * <p>
+     * 依次执行注册的升级步骤，再对比实体类字段同步表结构，
+     * 与版本号更新在同一个事务中，失败时整体回滚
      *
      * @param sqLiteDatabase
-     * @param i
-     * @param i1
+     * @param i              当前版本
+     * @param i1             目标版本
      */
     @Override
     public void onUpgrade(SQLiteDatabase sqLiteDatabase, int i, int i1) {
-
+        SchemaMigrator.migrate(sqLiteDatabase, i, i1, migrations, entities);
     }
 }
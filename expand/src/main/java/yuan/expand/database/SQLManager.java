@@ -2,12 +2,10 @@ package yuan.expand.database;
 
 import android.content.ContentValues;
 import android.content.Context;
-import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.text.TextUtils;
 import android.util.Log;
 
-import java.lang.reflect.Field;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
@@ -22,21 +20,24 @@ import java.util.Map;
  * 5、删除表字段
  * 6、按id查询数据库
  * 7、模糊查询
+ * <p>
+ * 与DBUtil共用{@link DBCore}，同一个数据库文件只打开一次，可以在多个线程中同时使用
  */
 
 public class SQLManager {
 
     private final static String TAG = "SQLManager";
 
-    private SQLiteDatabase writDB; //写操作
-    private SQLHelper helper;
+    private volatile DBCore core;
 
-    private int errorCode = 0; //错误码
-
-    private static SQLManager manager;
+    private static volatile SQLManager manager;
 
     public static SQLManager getInstance() {
-        if (manager == null) manager = new SQLManager();
+        if (manager == null) {
+            synchronized (SQLManager.class) {
+                if (manager == null) manager = new SQLManager();
+            }
+        }
         return manager;
     }
 
@@ -47,13 +48,18 @@ public class SQLManager {
      * 新建并打开数据库，数据库文件保存在项目目录下
      * 进行数据库操作必须先打开数据库才能操作
      */
-    public void create(Context context, String name, int version) {
-        if (helper == null) {
-            helper = new SQLHelper(context, name, null, version);
-            writDB = helper.getWritableDatabase();
-        } else {
-            checkWritDB();
-        }
+    public synchronized void create(Context context, String name, int version) {
+        close();
+        core = DBCore.obtain(context, name, version, DBCore.DEFAULT_READER_POOL_SIZE);
+    }
+
+    /**
+     * 关闭数据库，与DBUtil共用连接时，两者都关闭后才真正关闭
+     */
+    public synchronized void close() {
+        DBCore core = this.core;
+        this.core = null;
+        if (core != null) core.release();
     }
 
     /*
@@ -68,23 +74,7 @@ public class SQLManager {
      * @param map            表字段
      */
     public void createTable(String tableName, String primaryKeyName, Map<String, String> map) {
-        checkWritDB();
-        String sql = "create table if not exists " + tableName + "(";//创建表
-        sql = sql + primaryKeyName + " integer " + " not null primary key autoincrement,";
-        int i = 0;
-        //默认添加主键
-        for (Map.Entry<String, String> entry : map.entrySet()) {
-            i++;
-            if (entry.getKey().equals(primaryKeyName)) continue;
-            if (i != map.size()) {
-                sql = sql + entry.getKey() + " " + entry.getValue() + ",";
-            } else {
-                sql = sql + entry.getKey() + " " + entry.getValue();
-            }
-        }
-        sql = sql + ")";
-        writDB.execSQL(sql);
-        writDB.close();
+        checkCore().writer().execSQL(DBCore.getCreateTableSql(tableName, primaryKeyName, map));
     }
 
     /**
@@ -108,14 +98,16 @@ public class SQLManager {
      * 采用事务处理，一次提交，提高数据库读写速度
      */
     public void insert(String tableName, String primaryKeyName, List<Object> list) {
-        checkWritDB();
+        SQLiteDatabase writDB = checkCore().writer();
         writDB.beginTransaction(); // 手动设置开始事务
-        for (int i = 0; i < list.size(); i++) {
-            insert(tableName, primaryKeyName, list.get(i));
+        try {
+            for (int i = 0; i < list.size(); i++) {
+                insert(tableName, primaryKeyName, list.get(i));
+            }
+            writDB.setTransactionSuccessful(); // 设置事务处理成功，不设置会自动回滚不提交
+        } finally {
+            writDB.endTransaction(); // 处理完成
         }
-        writDB.setTransactionSuccessful(); // 设置事务处理成功，不设置会自动回滚不提交
-        writDB.endTransaction(); // 处理完成
-        writDB.close();
     }
 
     /**
@@ -123,37 +115,15 @@ public class SQLManager {
      *
      * @param tableName 表名
      * @param object    插入对象
+     * @return 插入的id，失败返回-1
      */
-    public void insert(String tableName, String primaryKeyName, Object object) {
-        checkWritDB();
-        Class clazz = object.getClass();
-        Field[] fields = clazz.getDeclaredFields();//获取该类所有的属性
-        ContentValues value = new ContentValues();
-        for (Field field : fields) {
-            if (!primaryKeyName.equals(field.getName())) {
-                try {
-                    field.setAccessible(true); //取消对age属性的修饰符的检查访问，以便为属性赋值
-                    Object content = field.get(object);//获取该属性的内容
-                    if (field.getType() == String.class) {
-                        value.put(field.getName(), (String) content);
-                    } else if (field.getType() == Integer.class || field.getType() == int.class) {
-                        value.put(field.getName(), (int) content);
-                    } else if (field.getType() == Float.class || field.getType() == float.class) {
-                        value.put(field.getName(), (float) content);
-                    } else if (field.getType() == Double.class || field.getType() == double.class) {
-                        value.put(field.getName(), (double) content);
-                    } else if (field.getType() == Boolean.class || field.getType() == boolean.class) {
-                        value.put(field.getName(), (boolean) content);
-                    } else if (field.getType() == Long.class || field.getType() == long.class) {
-                        value.put(field.getName(), (long) content);
-                    }
-                    field.setAccessible(false);//恢复对age属性的修饰符的检查访问
-                } catch (IllegalAccessException e) {
-                    Log.e(TAG, "DBUtil insert Error:" + e.getMessage());
-                }
-            }
+    public long insert(String tableName, String primaryKeyName, Object object) {
+        try {
+            return checkCore().insert(tableName, object, primaryKeyName);
+        } catch (IllegalAccessException e) {
+            Log.e(TAG, "DBUtil insert Error:" + e.getMessage());
+            return -1;
         }
-        writDB.insert(tableName, null, value);
     }
 
     /*
@@ -193,20 +163,14 @@ public class SQLManager {
      */
     public <T> ArrayList<T> query(String tableName, String[] columns, String selection,
                                   String[] selectionArgs, String orderBy, Class<T> clazz) {
-        checkWritDB();
+        DBCore core = checkCore();
         String orderby = null;
         ArrayList<T> list = null;
         if (!TextUtils.isEmpty(orderBy)) orderby = orderBy + " desc";
-        //查询获得游标
         try {
-            Cursor cursor = writDB.query(tableName, columns, selection, selectionArgs, null, null, orderby);
-            list = handleCursor(cursor, clazz);
-            cursor.close();
-            writDB.close();
+            list = core.query(tableName, columns, selection, selectionArgs, orderby, clazz);
         } catch (IllegalAccessException e) {
             Log.e(TAG, "DBUtil query Error:" + e.getMessage());
-        } catch (NoSuchFieldException e) {
-            Log.e(TAG, "DBUtil query Error:" + e.getMessage());
         } catch (InstantiationException e) {
             Log.e(TAG, "DBUtil query Error:" + e.getMessage());
         } catch (Exception e) {
@@ -227,82 +191,25 @@ public class SQLManager {
      * @return
      */
     public <T> ArrayList<T> querySQL(String sql, String[] selectionArgs, Class<T> clazz) {
-        checkWritDB();
+        DBCore core = checkCore();
         ArrayList<T> list = null;
-        Cursor cursor = writDB.rawQuery(sql, selectionArgs);
         try {
-            list = handleCursor(cursor, clazz);
-            cursor.close();
+            list = core.rawQuery(sql, selectionArgs, clazz);
         } catch (IllegalAccessException e) {
             Log.e(TAG, "DBUtil querySQL Error:" + e.getMessage());
         } catch (InstantiationException e) {
             Log.e(TAG, "DBUtil querySQL Error:" + e.getMessage());
-        } catch (NoSuchFieldException e) {
-            Log.e(TAG, "DBUtil querySQL Error:" + e.getMessage());
-        }
-        return list;
-    }
-
-    /**
-     * 处理游标查询
-     *
-     * @param cursor
-     * @param clazz
-     * @param <T>
-     * @return
-     * @throws IllegalAccessException
-     * @throws InstantiationException
-     * @throws NoSuchFieldException
-     */
-    private <T> ArrayList<T> handleCursor(Cursor cursor, Class<T> clazz) throws IllegalAccessException, InstantiationException, NoSuchFieldException {
-        ArrayList<T> list = new ArrayList<>();
-        cursor.moveToFirst();
-        while (!cursor.isAfterLast()) {
-            T t = clazz.newInstance();
-            for (int i = 0; i < cursor.getColumnCount(); i++) {
-                String content = cursor.getString(i);//获得获取的数据记录第i条字段的内容
-                String columnName = cursor.getColumnName(i);// 获取数据记录第i条字段名的
-                Field field = t.getClass().getDeclaredField(columnName);//获取该字段名的Field对象。
-                field.setAccessible(true);//取消对age属性的修饰符的检查访问，以便为属性赋值
-                //属性名和字段名相同
-                if (columnName.equals(field.getName())) {
-                    if (field.getType() == String.class) {
-                        field.set(t, content);
-                    } else if (field.getType() == Integer.class || field.getType() == int.class) {
-                        field.set(t, Integer.parseInt(content));
-                    } else if (field.getType() == Float.class || field.getType() == float.class) {
-                        field.set(t, Float.parseFloat(content));
-                    } else if (field.getType() == Double.class || field.getType() == double.class) {
-                        field.set(t, Double.parseDouble(content));
-                    } else if (field.getType() == Boolean.class || field.getType() == boolean.class) {
-                        field.set(t, Boolean.parseBoolean(content));
-                    } else if (field.getType() == Long.class || field.getType() == long.class) {
-                        field.set(t, Long.parseLong(content));
-                    }
-                }
-                field.setAccessible(false);//恢复对age属性的修饰符的检查访问
-            }
-            list.add(t);
-            cursor.moveToNext();
         }
         return list;
     }
 
-
     /**
-     * 查询最新插入的一条数据的id
-     * ***注意，只在当前进程插入有效
-     * 需要在插入后调用，否则查询到的数据不匹配
+     * 查询当前线程最新插入的一条数据的id
+     * ***注意，只记录insert插入的数据，通过execSQL执行的插入语句不记录
+     * 没有插入过时返回-1
      */
     public int searchLastInsertRowID(String tableName) {
-        checkWritDB();
-        String sql = "select last_insert_rowid() from " + tableName;
-        Cursor cursor = writDB.rawQuery(sql, null);
-        int a = -1;
-        if (cursor.moveToFirst()) {
-            a = cursor.getInt(0);
-        }
-        return a;
+        return (int) checkCore().lastInsertRowId(tableName);
     }
 
     /**
@@ -312,9 +219,7 @@ public class SQLManager {
     public void deleteTable(String tableName) {
         //清空表
         try {
-            checkWritDB();
-            writDB.execSQL("delete from " + tableName);
-            writDB.close();
+            checkCore().execSQL("delete from " + tableName, null);
         } catch (Exception e) {
             Log.e(TAG, "DBUtil deleteTable Error:" + e.getMessage());
         }
@@ -328,9 +233,7 @@ public class SQLManager {
      * @param whereArgs   where子句对应的条件值    new String[]{"1"}
      */
     public void delete(String table, String whereClause, String[] whereArgs) {
-        checkWritDB();
-        writDB.delete(table, whereClause, whereArgs);
-        writDB.close();
+        checkCore().delete(table, whereClause, whereArgs);
     }
 
     /*
@@ -346,39 +249,28 @@ public class SQLManager {
      * @param whereArgs   where子句对应的条件值    new String[]{"1"}
      */
     public void update(String table, ContentValues values, String whereClause, String[] whereArgs) {
-        checkWritDB();
-        writDB.update(table, values, whereClause, whereArgs);
-        writDB.close();
+        checkCore().update(table, values, whereClause, whereArgs);
     }
 
+    /**
+     * 更新数据，值为null的属性不更新
+     */
     public void update(String table, Object object, String whereClause, String[] whereArgs) {
-        ContentValues values = new ContentValues();
-        Class clazz = object.getClass();
-        Field[] fields = clazz.getDeclaredFields();//获取该类所有的属性
-        for (Field field : fields) {
-            try {
-                field.setAccessible(true); //取消对age属性的修饰符的检查访问，以便为属性赋值
-                String content = field.get(object) + "";//获取该属性的内容
-                if (!TextUtils.isEmpty(content)) {
-                    values.put(field.getName(), content);
-                }
-                field.setAccessible(false);//恢复对age属性的修饰符的检查访问
-            } catch (IllegalAccessException e) {
-                Log.e(TAG, e.getMessage());
-            }
+        DBCore core = checkCore();
+        try {
+            ContentValues values = EntityMapper.of(object.getClass()).toUpdateValues(object, null);
+            core.update(table, values, whereClause, whereArgs);
+        } catch (IllegalAccessException e) {
+            Log.e(TAG, e.getMessage());
         }
-        checkWritDB();
-        writDB.update(table, values, whereClause, whereArgs);
-        writDB.close();
     }
 
     /**
      * 检验Db是否开启
      */
-    private void checkWritDB() {
-        if (helper == null || writDB == null) throw new NullPointerException("请先创建数据库");
-        if (!writDB.isOpen()) {
-            writDB = helper.getWritableDatabase();
-        }
+    private DBCore checkCore() {
+        DBCore core = this.core;
+        if (core == null) throw new NullPointerException("请先创建数据库");
+        return core;
     }
 }
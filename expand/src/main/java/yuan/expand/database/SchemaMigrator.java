@@ -0,0 +1,178 @@
+package yuan.expand.database;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * 描述：数据库升级
+ * <p>
+ * 1、按版本顺序执行注册的{@link Migration}，同一起始版本优先选择跨度最大的步骤；
+ * 中间缺少步骤而之后还有步骤时抛出异常，不跳过之后的步骤
+ * 2、对比实体类字段与PRAGMA table_info：
+ * 只新增字段时执行ALTER TABLE ADD COLUMN；
+ * 删除字段或字段类型变化时新建表，复制共有字段的数据后替换原表
+ * <p>
+ * SQLiteOpenHelper在同一个事务中调用onUpgrade，任意一步失败整体回滚
+ *
+ * @author yuanye
+ * @date 2019/8/16 11:05
+ */
+final class SchemaMigrator {
+
+    private static final String TAG = "SchemaMigrator";
+
+    private SchemaMigrator() {
+    }
+
+    /**
+     * 从oldVersion升级到newVersion
+     *
+     * @param db         数据库
+     * @param oldVersion 当前版本
+     * @param newVersion 目标版本
+     * @param migrations 注册的升级步骤
+     * @param entities   注册的实体类
+     * @throws IllegalStateException 缺少某个版本开始的步骤，但之后还有需要执行的步骤
+     */
+    static void migrate(SQLiteDatabase db, int oldVersion, int newVersion,
+                        List<Migration> migrations, List<Class<?>> entities) {
+        int version = oldVersion;
+        while (version < newVersion) {
+            Migration next = null;
+            for (Migration migration : migrations) {
+                if (migration.startVersion != version || migration.endVersion > newVersion) continue;
+                if (next == null || migration.endVersion > next.endVersion) next = migration;
+            }
+            if (next == null) {
+                Migration skipped = firstAfter(migrations, version, newVersion);
+                //没有对应的步骤，剩余的变化由字段对比处理
+                if (skipped == null) break;
+                String message = "missing migration from version " + version
+                        + ", cannot reach " + skipped.startVersion + " -> " + skipped.endVersion;
+                Log.e(TAG, message);
+                throw new IllegalStateException(message);
+            }
+            Log.i(TAG, "migrate " + next.startVersion + " -> " + next.endVersion);
+            next.migrate(db);
+            version = next.endVersion;
+        }
+        for (Class<?> entity : entities) {
+            syncTable(db, EntityMapper.of(entity));
+        }
+    }
+
+    /**
+     * 起始版本大于version、不超过newVersion的第一个步骤
+     */
+    private static Migration firstAfter(List<Migration> migrations, int version, int newVersion) {
+        Migration first = null;
+        for (Migration migration : migrations) {
+            if (migration.startVersion <= version || migration.endVersion > newVersion) continue;
+            if (first == null || migration.startVersion < first.startVersion) first = migration;
+        }
+        return first;
+    }
+
+    /**
+     * 创建注册的实体类对应的表
+     */
+    static void createTables(SQLiteDatabase db, List<Class<?>> entities) {
+        for (Class<?> entity : entities) {
+            EntityMapper<?> mapper = EntityMapper.of(entity);
+            db.execSQL(DBCore.getCreateTableSql(mapper.tableName, DBUtil.PRIMARYKEY, mapper.getColumnTypes()));
+            createIndexes(db, mapper);
+            FtsIndex.sync(db, mapper);
+        }
+    }
+
+    /**
+     * 使表结构与实体类一致
+     */
+    static void syncTable(SQLiteDatabase db, EntityMapper<?> mapper) {
+        Map<String, String> existing = getTableInfo(db, mapper.tableName);
+        Map<String, String> declared = mapper.getColumnTypes();
+        if (existing.isEmpty()) {
+            db.execSQL(DBCore.getCreateTableSql(mapper.tableName, DBUtil.PRIMARYKEY, declared));
+            createIndexes(db, mapper);
+            FtsIndex.sync(db, mapper);
+            return;
+        }
+        List<String> added = new ArrayList<>();
+        boolean rebuild = false;
+        for (Map.Entry<String, String> entry : declared.entrySet()) {
+            String name = entry.getKey();
+            if (name.equals(DBUtil.PRIMARYKEY)) continue;
+            String type = existing.get(name);
+            if (type == null) {
+                added.add(name);
+            } else if (!type.equalsIgnoreCase(entry.getValue())) {
+                rebuild = true;
+            }
+        }
+        for (String name : existing.keySet()) {
+            if (!name.equals(DBUtil.PRIMARYKEY) && !declared.containsKey(name)) rebuild = true;
+        }
+        if (rebuild) {
+            copyTable(db, mapper, existing, declared);
+        } else {
+            for (String name : added) {
+                db.execSQL("ALTER TABLE '" + mapper.tableName + "' ADD COLUMN '" + name + "' " + declared.get(name));
+            }
+        }
+        createIndexes(db, mapper);
+        FtsIndex.sync(db, mapper);
+        //原表删除时触发器也被删除，重新创建后同步索引数据
+        if (rebuild && mapper.ftsColumns.length > 0) FtsIndex.rebuild(db, mapper);
+    }
+
+    /**
+     * 新建表并复制共有字段的数据，再替换原表
+     */
+    private static void copyTable(SQLiteDatabase db, EntityMapper<?> mapper,
+                                  Map<String, String> existing, Map<String, String> declared) {
+        String table = mapper.tableName;
+        String temp = table + "_migrate";
+        Log.i(TAG, "rebuild table " + table);
+        db.execSQL("DROP TABLE IF EXISTS '" + temp + "'");
+        db.execSQL(DBCore.getCreateTableSql(temp, DBUtil.PRIMARYKEY, declared));
+        StringBuilder columns = new StringBuilder("'").append(DBUtil.PRIMARYKEY).append('\'');
+        for (String name : declared.keySet()) {
+            if (name.equals(DBUtil.PRIMARYKEY) || !existing.containsKey(name)) continue;
+            columns.append(",'").append(name).append('\'');
+        }
+        db.execSQL("INSERT INTO '" + temp + "' (" + columns + ") SELECT " + columns + " FROM '" + table + "'");
+        db.execSQL("DROP TABLE '" + table + "'");
+        db.execSQL("ALTER TABLE '" + temp + "' RENAME TO '" + table + "'");
+    }
+
+    private static void createIndexes(SQLiteDatabase db, EntityMapper<?> mapper) {
+        for (EntityMapper.IndexInfo index : mapper.indexes) {
+            db.execSQL(index.getCreateSql());
+        }
+    }
+
+    /**
+     * 读取表结构：<字段名,字段类型>，表不存在时为空
+     */
+    static Map<String, String> getTableInfo(SQLiteDatabase db, String table) {
+        Map<String, String> map = new HashMap<>();
+        Cursor cursor = db.rawQuery("PRAGMA table_info('" + table + "')", null);
+        try {
+            int nameIndex = cursor.getColumnIndexOrThrow("name");
+            int typeIndex = cursor.getColumnIndexOrThrow("type");
+            while (cursor.moveToNext()) {
+                map.put(cursor.getString(nameIndex), cursor.getString(typeIndex).toLowerCase(Locale.US));
+            }
+        } finally {
+            cursor.close();
+        }
+        return map;
+    }
+}
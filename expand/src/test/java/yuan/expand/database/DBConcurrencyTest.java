@@ -0,0 +1,153 @@
+package yuan.expand.database;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+/**
+ * 描述：批量插入事务与使用同一条预编译语句的execSQL并发执行，不会死锁
+ *
+ * @author yuanye
+ * @date 2019/8/29 10:05
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 27, manifest = Config.NONE)
+public class DBConcurrencyTest {
+
+    private static final int ROUNDS = 20;
+    private static final int BULK_SIZE = 50;
+    private static final int SINGLE_COUNT = 200;
+
+    private DBUtil db;
+    private ExecutorService executor;
+
+    @Before
+    public void setUp() {
+        db = DBUtil.getDB(RuntimeEnvironment.application, "concurrency.db", 1);
+        db.createTable(StressNote.class);
+        executor = Executors.newFixedThreadPool(5);
+    }
+
+    @After
+    public void tearDown() throws InterruptedException {
+        executor.shutdownNow();
+        //死锁时线程仍持有连接和锁，不再关闭数据库
+        if (executor.awaitTermination(5, TimeUnit.SECONDS)) db.closeDB();
+    }
+
+    @Test
+    public void bulkInsertAndExecSqlDoNotDeadlock() throws Exception {
+        //与insertBulk使用同一条插入语句
+        final String sql = EntityMapper.of(StressNote.class).getInsertSql(false);
+        List<Callable<Void>> tasks = new ArrayList<>();
+        for (int t = 0; t < 2; t++) {
+            tasks.add(new Callable<Void>() {
+                @Override
+                public Void call() {
+                    for (int round = 0; round < ROUNDS; round++) {
+                        List<StressNote> notes = new ArrayList<>();
+                        for (int i = 0; i < BULK_SIZE; i++) {
+                            notes.add(new StressNote("bulk", round));
+                        }
+                        //每10条一个事务，事务之间其他线程可以写入
+                        db.insertBulk(notes, false, 10);
+                    }
+                    return null;
+                }
+            });
+            tasks.add(new Callable<Void>() {
+                @Override
+                public Void call() {
+                    for (int i = 0; i < SINGLE_COUNT; i++) {
+                        db.execSQL(sql, new Object[]{"single", i});
+                    }
+                    return null;
+                }
+            });
+        }
+        tasks.add(new Callable<Void>() {
+            @Override
+            public Void call() {
+                for (int i = 0; i < SINGLE_COUNT; i++) {
+                    db.queryLastId(StressNote.class);
+                }
+                return null;
+            }
+        });
+        List<Future<Void>> futures = new ArrayList<>();
+        for (Callable<Void> task : tasks) {
+            futures.add(executor.submit(task));
+        }
+        for (Future<Void> future : futures) {
+            try {
+                future.get(60, TimeUnit.SECONDS);
+            } catch (TimeoutException e) {
+                fail("并发写入超时，可能发生死锁");
+            }
+        }
+
+        assertEquals(2 * ROUNDS * BULK_SIZE, db.query(null, "title=?", new String[]{"bulk"}, null, StressNote.class).size());
+        assertEquals(2 * SINGLE_COUNT, db.query(null, "title=?", new String[]{"single"}, null, StressNote.class).size());
+    }
+
+    @Test
+    public void lastIdIsPerThread() throws Exception {
+        List<Callable<Void>> tasks = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            final int thread = t;
+            tasks.add(new Callable<Void>() {
+                @Override
+                public Void call() {
+                    for (int i = 0; i < SINGLE_COUNT; i++) {
+                        long id = db.insert(new StressNote("own", thread));
+                        //其他线程同时插入，仍返回本线程插入的id
+                        assertEquals(id, db.queryLastId(StressNote.class));
+                        List<StressNote> notes = db.query(null, "id=?", new String[]{String.valueOf(id)}, null, StressNote.class);
+                        assertEquals(thread, notes.get(0).time);
+                    }
+                    return null;
+                }
+            });
+        }
+        List<Future<Void>> futures = new ArrayList<>();
+        for (Callable<Void> task : tasks) {
+            futures.add(executor.submit(task));
+        }
+        for (Future<Void> future : futures) {
+            future.get(60, TimeUnit.SECONDS);
+        }
+    }
+
+    /**
+     * 测试实体
+     */
+    public static class StressNote {
+        public int id;
+        public String title;
+        public long time;
+
+        public StressNote() {
+        }
+
+        StressNote(String title, long time) {
+            this.title = title;
+            this.time = time;
+        }
+    }
+}
@@ -0,0 +1,164 @@
+package yuan.expand.database;
+
+import android.database.sqlite.SQLiteDatabase;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * 描述：DBCore引用计数、关闭时结束线程池和读连接
+ *
+ * @author yuanye
+ * @date 2019/8/29 15:20
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 27, manifest = Config.NONE)
+public class DBLifecycleTest {
+
+    @Test
+    public void closeShutsDownExecutors() throws Exception {
+        DBUtil db = DBUtil.getDB(RuntimeEnvironment.application, "lifecycle.db", 1);
+        ExecutorService read = db.getReadExecutor();
+        assertEquals(1, (int) db.executeWrite(new Callable<Integer>() {
+            @Override
+            public Integer call() {
+                return 1;
+            }
+        }, null).get());
+        db.closeDB();
+
+        assertTrue(read.isShutdown());
+        //关闭后重新获取，线程池重新创建
+        DBUtil reopened = DBUtil.getDB(RuntimeEnvironment.application, "lifecycle.db", 1);
+        assertNotSame(db, reopened);
+        assertFalse(reopened.getReadExecutor().isShutdown());
+        reopened.closeDB();
+    }
+
+    @Test
+    public void lastReleaseRemovesCore() {
+        DBCore core = DBCore.obtain(RuntimeEnvironment.application, "release.db", 1, 2);
+        core.release();
+        //已移除，再次获取时重新创建
+        DBCore reopened = DBCore.obtain(RuntimeEnvironment.application, "release.db", 1, 2);
+        assertNotSame(core, reopened);
+        reopened.release();
+    }
+
+    @Test
+    public void versionChangeRefusedWhileInUse() {
+        DBCore core = DBCore.obtain(RuntimeEnvironment.application, "version.db", 1, 2);
+        DBCore shared = DBCore.obtain(RuntimeEnvironment.application, "version.db", 1, 2);
+        assertSame(core, shared);
+        try {
+            DBCore.obtain(RuntimeEnvironment.application, "version.db", 2, 2);
+            fail("使用中不能切换版本");
+        } catch (IllegalStateException expected) {
+        }
+        shared.release();
+        //仍有一个使用者
+        assertTrue(core.writer().isOpen());
+        try {
+            DBCore.obtain(RuntimeEnvironment.application, "version.db", 2, 2);
+            fail("使用中不能切换版本");
+        } catch (IllegalStateException expected) {
+        }
+        core.release();
+
+        DBCore upgraded = DBCore.obtain(RuntimeEnvironment.application, "version.db", 2, 2);
+        assertEquals(2, upgraded.getVersion());
+        upgraded.release();
+    }
+
+    @Test
+    public void readerReturnedAfterCloseIsClosed() {
+        DBCore core = DBCore.obtain(RuntimeEnvironment.application, "reader.db", 1, 2);
+        SQLiteDatabase reader = core.acquireReader();
+        assertNotSame(core.writer(), reader);
+        assertTrue(reader.isOpen());
+        core.release();
+
+        core.releaseReader(reader);
+        assertFalse(reader.isOpen());
+    }
+
+    @Test
+    public void closeStopsTrackerThread() throws Exception {
+        DBUtil db = DBUtil.getDB(RuntimeEnvironment.application, "tracker.db", 1);
+        db.createTable(LifecycleNote.class);
+        DBUtil.Subscription subscription = db.observe(null, null, null, null, LifecycleNote.class,
+                new DBUtil.DBBack<ArrayList<LifecycleNote>>() {
+                    @Override
+                    public void onResult(ArrayList<LifecycleNote> result) {
+                    }
+
+                    @Override
+                    public void onError(Exception e) {
+                    }
+                });
+        db.insert(new LifecycleNote());
+
+        Thread tracker = null;
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            if ("DBInvalidationTracker".equals(thread.getName())) tracker = thread;
+        }
+        assertNotNull(tracker);
+        //不阻止进程退出
+        assertTrue(tracker.isDaemon());
+
+        db.closeDB();
+        tracker.join(5000);
+        assertFalse(tracker.isAlive());
+        assertTrue(subscription.isCanceled());
+    }
+
+    @Test
+    public void leakedIteratorsDoNotBlockQueries() throws Exception {
+        final DBUtil db = DBUtil.getDB(RuntimeEnvironment.application, "leak.db", 1);
+        db.createTable(LifecycleNote.class);
+        db.insert(new LifecycleNote());
+        //占用所有读连接，不close
+        DBUtil.RowIterable<LifecycleNote> first = db.iterate(LifecycleNote.class, null, null);
+        DBUtil.RowIterable<LifecycleNote> second = db.iterate(LifecycleNote.class, null, null);
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        Future<Integer> query = executor.submit(new Callable<Integer>() {
+            @Override
+            public Integer call() {
+                return db.query(LifecycleNote.class).size();
+            }
+        });
+        //等待超时后使用写连接
+        assertEquals(1, (int) query.get(DBCore.READER_WAIT_MS * 5, TimeUnit.MILLISECONDS));
+        executor.shutdown();
+        first.close();
+        second.close();
+        db.closeDB();
+    }
+
+    /**
+     * 测试实体
+     */
+    public static class LifecycleNote {
+        public int id;
+        public String title;
+    }
+}
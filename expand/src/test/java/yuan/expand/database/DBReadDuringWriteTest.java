@@ -0,0 +1,108 @@
+package yuan.expand.database;
+
+import android.database.sqlite.SQLiteDatabase;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 描述：开启WAL后，长时间的写事务进行中查询不会被阻塞，且只读取已提交的数据
+ *
+ * @author yuanye
+ * @date 2019/8/29 17:40
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 27, manifest = Config.NONE)
+public class DBReadDuringWriteTest {
+
+    private DBUtil db;
+    private DBCore core;
+
+    @Before
+    public void setUp() {
+        db = DBUtil.getDB(RuntimeEnvironment.application, "wal.db", 1, 2);
+        core = DBCore.obtain(RuntimeEnvironment.application, "wal.db", 1, 2);
+        db.createTable(WalNote.class);
+        List<WalNote> committed = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            committed.add(new WalNote("committed"));
+        }
+        db.insertBulk(committed);
+    }
+
+    @After
+    public void tearDown() {
+        core.release();
+        db.closeDB();
+    }
+
+    @Test
+    public void readsProgressDuringLongWriteTransaction() throws Exception {
+        final CountDownLatch inTransaction = new CountDownLatch(1);
+        final CountDownLatch finish = new CountDownLatch(1);
+        Future<Void> write = db.executeWrite(new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                SQLiteDatabase writer = core.writer();
+                writer.beginTransaction();
+                try {
+                    for (int i = 0; i < 100; i++) {
+                        db.insert(new WalNote("pending"));
+                    }
+                    inTransaction.countDown();
+                    //保持写事务，直到读取完成
+                    assertTrue(finish.await(30, TimeUnit.SECONDS));
+                    writer.setTransactionSuccessful();
+                } finally {
+                    writer.endTransaction();
+                }
+                return null;
+            }
+        }, null);
+        assertTrue(inTransaction.await(10, TimeUnit.SECONDS));
+
+        //写事务进行中，查询在其他连接上完成，只看到已提交的数据
+        for (int i = 0; i < 20; i++) {
+            long start = System.currentTimeMillis();
+            List<WalNote> notes = db.query(WalNote.class);
+            assertTrue("查询被写事务阻塞", System.currentTimeMillis() - start < 2000);
+            assertEquals(10, notes.size());
+        }
+        assertFalse(write.isDone());
+
+        finish.countDown();
+        write.get(10, TimeUnit.SECONDS);
+        assertEquals(110, db.query(WalNote.class).size());
+    }
+
+    /**
+     * 测试实体
+     */
+    public static class WalNote {
+        public int id;
+        public String title;
+
+        public WalNote() {
+        }
+
+        WalNote(String title) {
+            this.title = title;
+        }
+    }
+}
@@ -0,0 +1,127 @@
+package yuan.expand.database;
+
+import android.database.Cursor;
+import android.database.MatrixCursor;
+
+import org.junit.Ignore;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 描述：对比原来逐行反射查找字段和EntityMapper缓存字段后的行映射耗时
+ * <p>
+ * 基准测试，耗时较长，需要时去掉@Ignore手动运行，结果在断言信息中
+ *
+ * @author yuanye
+ * @date 2019/9/2 10:05
+ */
+@Ignore("基准测试，手动运行")
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 27, manifest = Config.NONE)
+public class EntityMapperBenchmarkTest {
+
+    private static final int ROWS = 20000;
+    private static final int ROUNDS = 5;
+
+    @Test
+    public void mapperFasterThanReflection() throws Exception {
+        MatrixCursor cursor = newCursor();
+        //预热，同时校验两种方式结果一致
+        List<BenchNote> reflective = reflectiveRead(cursor, BenchNote.class);
+        List<BenchNote> mapped = mapperRead(cursor, BenchNote.class);
+        assertEquals(ROWS, mapped.size());
+        for (int i = 0; i < ROWS; i += 997) {
+            assertEquals(reflective.get(i).title, mapped.get(i).title);
+            assertEquals(reflective.get(i).count, mapped.get(i).count);
+            assertEquals(reflective.get(i).time, mapped.get(i).time);
+            assertEquals(reflective.get(i).score, mapped.get(i).score, 0);
+        }
+
+        long reflectionNanos = Long.MAX_VALUE;
+        long mapperNanos = Long.MAX_VALUE;
+        for (int round = 0; round < ROUNDS; round++) {
+            long start = System.nanoTime();
+            reflectiveRead(cursor, BenchNote.class);
+            reflectionNanos = Math.min(reflectionNanos, System.nanoTime() - start);
+            start = System.nanoTime();
+            mapperRead(cursor, BenchNote.class);
+            mapperNanos = Math.min(mapperNanos, System.nanoTime() - start);
+        }
+        String result = String.format("%d rows: reflection %d ms, mapper %d ms",
+                ROWS, reflectionNanos / 1000000, mapperNanos / 1000000);
+        assertTrue(result, mapperNanos < reflectionNanos);
+    }
+
+    private static MatrixCursor newCursor() {
+        MatrixCursor cursor = new MatrixCursor(new String[]{"id", "title", "count", "time", "score"}, ROWS);
+        for (int i = 0; i < ROWS; i++) {
+            cursor.addRow(new Object[]{i + 1, "title" + i, i, 1567000000000L + i, i / 3.0});
+        }
+        return cursor;
+    }
+
+    private static <T> List<T> mapperRead(Cursor cursor, Class<T> clazz) throws Exception {
+        List<T> list = new ArrayList<>();
+        EntityMapper<T>.RowReader reader = EntityMapper.of(clazz).reader(cursor);
+        cursor.moveToPosition(-1);
+        while (cursor.moveToNext()) {
+            list.add(reader.read(cursor));
+        }
+        return list;
+    }
+
+    /**
+     * 原来的实现：每一行每一列都通过getDeclaredField查找字段，按字符串读取后转换
+     */
+    private static <T> List<T> reflectiveRead(Cursor cursor, Class<T> clazz) throws Exception {
+        List<T> list = new ArrayList<>();
+        cursor.moveToFirst();
+        while (!cursor.isAfterLast()) {
+            T t = clazz.newInstance();
+            for (int i = 0; i < cursor.getColumnCount(); i++) {
+                String content = cursor.getString(i);
+                String columnName = cursor.getColumnName(i);
+                Field field;
+                try {
+                    field = clazz.getDeclaredField(columnName);
+                } catch (NoSuchFieldException e) {
+                    continue;
+                }
+                field.setAccessible(true);
+                if (field.getType() == String.class) {
+                    field.set(t, content);
+                } else if (field.getType() == Integer.class || field.getType() == int.class) {
+                    field.set(t, Integer.parseInt(content));
+                } else if (field.getType() == Double.class || field.getType() == double.class) {
+                    field.set(t, Double.parseDouble(content));
+                } else if (field.getType() == Long.class || field.getType() == long.class) {
+                    field.set(t, Long.parseLong(content));
+                }
+                field.setAccessible(false);
+            }
+            list.add(t);
+            cursor.moveToNext();
+        }
+        return list;
+    }
+
+    /**
+     * 测试实体
+     */
+    public static class BenchNote {
+        public int id;
+        public String title;
+        public int count;
+        public long time;
+        public double score;
+    }
+}
@@ -0,0 +1,69 @@
+package yuan.expand.database;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * 描述：insertList遇到约束冲突时不抛出异常，跳过冲突的数据
+ *
+ * @author yuanye
+ * @date 2019/9/2 11:20
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 27, manifest = Config.NONE)
+public class InsertListTest {
+
+    private DBUtil db;
+
+    @Before
+    public void setUp() {
+        db = DBUtil.getDB(RuntimeEnvironment.application, "insert_list.db", 1);
+        db.createTable(UniqueNote.class);
+        db.delete(EntityMapper.of(UniqueNote.class).tableName);
+    }
+
+    @After
+    public void tearDown() {
+        db.closeDB();
+    }
+
+    @Test
+    public void constraintViolationSkipsOnlyConflictingRows() {
+        db.insert(new UniqueNote("a"));
+        List<UniqueNote> notes = Arrays.asList(new UniqueNote("b"), new UniqueNote("a"), new UniqueNote("c"));
+        db.insertList(notes);
+
+        List<String> codes = new ArrayList<>();
+        for (UniqueNote note : db.query(UniqueNote.class)) {
+            codes.add(note.code);
+        }
+        assertEquals(Arrays.asList("a", "b", "c"), codes);
+    }
+
+    /**
+     * 测试实体
+     */
+    public static class UniqueNote {
+        public int id;
+        @Index(unique = true)
+        public String code;
+
+        public UniqueNote() {
+        }
+
+        UniqueNote(String code) {
+            this.code = code;
+        }
+    }
+}
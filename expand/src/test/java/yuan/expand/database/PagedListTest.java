@@ -0,0 +1,166 @@
+package yuan.expand.database;
+
+import android.support.v7.widget.RecyclerView;
+import android.view.ViewGroup;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowLooper;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+/**
+ * 描述：PagedList在读线程统计总条数，refresh后重新统计
+ *
+ * @author yuanye
+ * @date 2019/8/30 9:45
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 27, manifest = Config.NONE)
+public class PagedListTest {
+
+    private DBUtil db;
+
+    @Before
+    public void setUp() {
+        db = DBUtil.getDB(RuntimeEnvironment.application, "paged.db", 1);
+        db.createTable(PagedNote.class);
+        db.delete(EntityMapper.of(PagedNote.class).tableName);
+        insert(25);
+    }
+
+    @After
+    public void tearDown() {
+        db.closeDB();
+    }
+
+    @Test
+    public void countLoadedOffMainThread() throws Exception {
+        PagedList<PagedNote> list = db.queryPaged(PagedNote.class, null, null, 10);
+        CountingAdapter adapter = new CountingAdapter(list);
+        list.attach(adapter);
+        //统计完成前为空
+        assertEquals(0, list.size());
+
+        awaitChanged(adapter, 1);
+        assertEquals(25, list.size());
+        assertNull(list.get(12));
+        awaitItems(adapter, 1);
+        assertNotNull(list.get(12));
+    }
+
+    @Test
+    public void refreshRecountsAndDropsPages() throws Exception {
+        PagedList<PagedNote> list = db.queryPaged(PagedNote.class, null, null, 10);
+        CountingAdapter adapter = new CountingAdapter(list);
+        list.attach(adapter);
+        awaitChanged(adapter, 1);
+        assertNull(list.get(0));
+        awaitItems(adapter, 1);
+        assertNotNull(list.get(0));
+
+        insert(10);
+        assertEquals(25, list.size());
+        list.refresh();
+        awaitChanged(adapter, 2);
+        assertEquals(35, list.size());
+        //已加载的页被清空，重新加载
+        assertNull(list.get(0));
+        awaitItems(adapter, 2);
+        assertNotNull(list.get(0));
+        //新增的数据可以访问
+        assertNull(list.get(34));
+        awaitItems(adapter, 3);
+        assertNotNull(list.get(34));
+    }
+
+    private void insert(int count) {
+        List<PagedNote> notes = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            notes.add(new PagedNote("note" + i));
+        }
+        db.insertBulk(notes);
+    }
+
+    private static void awaitChanged(CountingAdapter adapter, int count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10 * 1000;
+        while (adapter.changed < count) {
+            if (System.currentTimeMillis() > deadline) throw new AssertionError("统计超时");
+            Thread.sleep(10);
+            ShadowLooper.runUiThreadTasksIncludingDelayedTasks();
+        }
+    }
+
+    private static void awaitItems(CountingAdapter adapter, int count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10 * 1000;
+        while (adapter.itemsChanged < count) {
+            if (System.currentTimeMillis() > deadline) throw new AssertionError("加载超时");
+            Thread.sleep(10);
+            ShadowLooper.runUiThreadTasksIncludingDelayedTasks();
+        }
+    }
+
+    /**
+     * 记录刷新次数
+     */
+    static class CountingAdapter extends RecyclerView.Adapter<RecyclerView.ViewHolder> {
+
+        private final List<?> data;
+        int changed;
+        int itemsChanged;
+
+        CountingAdapter(List<?> data) {
+            this.data = data;
+            registerAdapterDataObserver(new RecyclerView.AdapterDataObserver() {
+                @Override
+                public void onChanged() {
+                    changed++;
+                }
+
+                @Override
+                public void onItemRangeChanged(int positionStart, int itemCount) {
+                    itemsChanged++;
+                }
+            });
+        }
+
+        @Override
+        public RecyclerView.ViewHolder onCreateViewHolder(ViewGroup parent, int viewType) {
+            return null;
+        }
+
+        @Override
+        public void onBindViewHolder(RecyclerView.ViewHolder holder, int position) {
+        }
+
+        @Override
+        public int getItemCount() {
+            return data.size();
+        }
+    }
+
+    /**
+     * 测试实体
+     */
+    public static class PagedNote {
+        public int id;
+        public String title;
+
+        public PagedNote() {
+        }
+
+        PagedNote(String title) {
+            this.title = title;
+        }
+    }
+}
@@ -0,0 +1,138 @@
+package yuan.expand.database;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * 描述：多个版本的升级步骤按顺序执行，缺少中间步骤时不跳过之后的步骤
+ *
+ * @author yuanye
+ * @date 2019/9/2 14:10
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 27, manifest = Config.NONE)
+public class SchemaMigratorTest {
+
+    private SQLiteDatabase db;
+    private final List<String> steps = new ArrayList<>();
+
+    @Before
+    public void setUp() {
+        db = SQLiteDatabase.create(null);
+        db.execSQL("CREATE TABLE note (id INTEGER PRIMARY KEY AUTOINCREMENT, title TEXT)");
+        db.execSQL("INSERT INTO note (title) VALUES ('v1')");
+    }
+
+    @After
+    public void tearDown() {
+        db.close();
+    }
+
+    @Test
+    public void upgradeRunsChainInOrder() {
+        List<Migration> migrations = Arrays.asList(
+                step(3, 4, "UPDATE note SET title = title || '>4'"),
+                step(1, 2, "UPDATE note SET title = title || '>2'"),
+                step(2, 3, "UPDATE note SET title = title || '>3'"));
+        SchemaMigrator.migrate(db, 1, 4, migrations, Collections.<Class<?>>emptyList());
+
+        assertEquals(Arrays.asList("1->2", "2->3", "3->4"), steps);
+        assertEquals("v1>2>3>4", title());
+    }
+
+    @Test
+    public void widestStepPreferred() {
+        List<Migration> migrations = Arrays.asList(
+                step(1, 2, "UPDATE note SET title = title || '>2'"),
+                step(1, 3, "UPDATE note SET title = title || '>3'"),
+                step(2, 3, "UPDATE note SET title = title || '>x'"));
+        SchemaMigrator.migrate(db, 1, 3, migrations, Collections.<Class<?>>emptyList());
+
+        assertEquals(Collections.singletonList("1->3"), steps);
+        assertEquals("v1>3", title());
+    }
+
+    @Test
+    public void entitySyncRunsAfterSteps() {
+        final String table = EntityMapper.of(MigrateNote.class).tableName;
+        db.execSQL("CREATE TABLE '" + table + "' (id INTEGER PRIMARY KEY AUTOINCREMENT, title TEXT)");
+        db.execSQL("INSERT INTO '" + table + "' (title) VALUES ('v1')");
+        List<Migration> migrations = Collections.singletonList(
+                step(1, 2, "UPDATE '" + table + "' SET title = 'v2'"));
+        SchemaMigrator.migrate(db, 1, 3, migrations, Collections.<Class<?>>singletonList(MigrateNote.class));
+
+        //步骤执行后补充新增的字段，数据保留
+        assertTrue(SchemaMigrator.getTableInfo(db, table).containsKey("count"));
+        Cursor cursor = db.rawQuery("SELECT title, count FROM '" + table + "'", null);
+        try {
+            assertTrue(cursor.moveToFirst());
+            assertEquals("v2", cursor.getString(0));
+        } finally {
+            cursor.close();
+        }
+    }
+
+    @Test
+    public void missingStepFailsInsteadOfSkipping() {
+        List<Migration> migrations = Arrays.asList(
+                step(1, 2, "UPDATE note SET title = title || '>2'"),
+                step(3, 4, "UPDATE note SET title = title || '>4'"));
+        db.beginTransaction();
+        try {
+            SchemaMigrator.migrate(db, 1, 4, migrations, Collections.<Class<?>>emptyList());
+            fail("缺少2->3时不能跳过3->4");
+        } catch (IllegalStateException expected) {
+            assertTrue(expected.getMessage().contains("3 -> 4"));
+        } finally {
+            //onUpgrade的事务回滚
+            db.endTransaction();
+        }
+        assertEquals(Collections.singletonList("1->2"), steps);
+        assertEquals("v1", title());
+    }
+
+    private Migration step(int start, int end, final String sql) {
+        return new Migration(start, end) {
+            @Override
+            public void migrate(SQLiteDatabase db) {
+                steps.add(startVersion + "->" + endVersion);
+                db.execSQL(sql);
+            }
+        };
+    }
+
+    private String title() {
+        Cursor cursor = db.rawQuery("SELECT title FROM note", null);
+        try {
+            assertTrue(cursor.moveToFirst());
+            return cursor.getString(0);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * 测试实体，比升级前的表多count字段
+     */
+    public static class MigrateNote {
+        public int id;
+        public String title;
+        public int count;
+    }
+}